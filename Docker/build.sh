@@ -5,7 +5,7 @@ echo "###### start build.sh #####"
 
 cd "$(dirname ${BASH_SOURCE[0]})"/..
 
-mvn clean package
+mvn clean package -Pcds
 export VERSION=$(./bin/project-version.sh)
 echo "###### Building Docker image for RESTHeart Security Version "$VERSION
 docker build -t softinstigate/restheart-security .
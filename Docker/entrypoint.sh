@@ -15,4 +15,8 @@ do
    shift
 done
 
+if [ -f /opt/restheart/restheart-security.jsa ]; then
+   SPROPS="-XX:SharedArchiveFile=/opt/restheart/restheart-security.jsa -Xshare:auto $SPROPS"
+fi
+
 java -Dfile.encoding=UTF-8 -server $SPROPS -jar /opt/restheart/restheart-security.jar $ARGS
\ No newline at end of file
@@ -3,6 +3,11 @@ set -e
 
 export VERSION=$(../bin/project-version.sh 2>/dev/null);
 
+if [ ! -f ../target/restheart-security.classlist ]; then
+    echo "ERROR! target/restheart-security.classlist is missing, package with mvn package -Pcds";
+    exit 1;
+fi
+
 if [[ $VERSION ]]; then
     echo "Building Docker image for RESTHeart Security $VERSION";
     docker build -t softinstigate/restheart-security:VERSION . ;
@@ -0,0 +1,59 @@
+#!/bin/bash
+# Creates the AppCDS archive target/restheart-security.jsa with the classes
+# loaded by a training run of target/restheart-security.jar started with the
+# embedded configuration. bin/start.sh uses the archive when it exists.
+set -e
+
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+JAR="$DIR/../target/restheart-security.jar"
+CLASSLIST="$DIR/../target/restheart-security.classlist"
+ARCHIVE="$DIR/../target/restheart-security.jsa"
+PORT=8080
+
+rm -f "$CLASSLIST" "$CLASSLIST.tmp" "$ARCHIVE"
+
+echo "Training run of RESTHeart Security..."
+java -Dfile.encoding=UTF-8 -server -XX:DumpLoadedClassList="$CLASSLIST.tmp" -jar "$JAR" > /dev/null 2>&1 &
+PID=$!
+STARTED=false
+
+for i in $(seq 1 120); do
+   if curl -s -o /dev/null "http://localhost:$PORT/ping"; then
+      STARTED=true
+      break
+   fi
+
+   if ! kill -0 $PID 2> /dev/null; then
+      echo "RESTHeart Security exited during the training run"
+      exit 1
+   fi
+
+   sleep 0.5
+done
+
+# an archive of the classes loaded before the server answers is useless
+if [ "$STARTED" != true ]; then
+   echo "RESTHeart Security did not answer on port $PORT during the training run"
+   kill $PID 2> /dev/null || true
+   wait $PID || true
+   rm -f "$CLASSLIST.tmp"
+   exit 1
+fi
+
+# exercise services, authentication, authorization and the proxy
+for path in /ping /roles/admin /tokens/admin /metrics /restheart /; do
+   curl -s -o /dev/null "http://localhost:$PORT$path" || true
+   curl -s -o /dev/null -u admin:secret "http://localhost:$PORT$path" || true
+done
+
+kill $PID
+wait $PID || true
+
+# the lines starting with @ (lambda forms) are specific to the JDK that
+# recorded them, the class names can be dumped by any JDK 11+
+grep -v '^@' "$CLASSLIST.tmp" > "$CLASSLIST"
+rm -f "$CLASSLIST.tmp"
+
+echo "Dumping $(wc -l < "$CLASSLIST") classes to the AppCDS archive..."
+java -Xshare:dump -XX:SharedClassListFile="$CLASSLIST" -XX:SharedArchiveFile="$ARCHIVE" -jar "$JAR"
@@ -5,7 +5,8 @@ if [ "$TRAVIS_PULL_REQUEST" == "false" ]; then
     VERSION=$(./bin/project-version.sh 2>/dev/null);
     export VERSION
     if [[ "$VERSION" ]]; then
-        mvn deploy --settings settings.xml -Dmaven.test.skip=true;
+        # -Pcds records the class list the Dockerfile needs
+        mvn deploy --settings settings.xml -Dmaven.test.skip=true -Pcds;
         echo "###### Branch is '$TRAVIS_BRANCH', Tag is '$TRAVIS_TAG', Version is '$VERSION'";
         # Build and push docker images only for releases
         if [[ "$TRAVIS_TAG" && "$VERSION" != *-SNAPSHOT ]]; then
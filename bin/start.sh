@@ -2,6 +2,14 @@
 
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 
-java -Dfile.encoding=UTF-8 -server -jar "$DIR/../target/restheart-security.jar" $@
+# AppCDS archive created by bin/cds.sh, i.e. mvn package -Pcds
+ARCHIVE="$DIR/../target/restheart-security.jsa"
+CDS=()
+
+if [ -f "$ARCHIVE" ]; then
+   CDS=(-XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto)
+fi
+
+java -Dfile.encoding=UTF-8 -server "${CDS[@]}" -jar "$DIR/../target/restheart-security.jar" $@
 echo 'Sleeping few seconds...'
 sleep 2
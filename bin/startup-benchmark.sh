@@ -0,0 +1,64 @@
+#!/bin/bash
+# Reports the time to the first served request of
+# target/restheart-security.jar started with the embedded configuration,
+# without and with the AppCDS archive created by bin/cds.sh.
+#
+# usage: startup-benchmark.sh [runs, default 5]
+
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+JAR="$DIR/../target/restheart-security.jar"
+ARCHIVE="$DIR/../target/restheart-security.jsa"
+PORT=8080
+RUNS=${1:-5}
+
+now() {
+   echo $(( $(date +%s%N) / 1000000 ))
+}
+
+# prints the msecs from the launch of the JVM to the first response
+first_request() {
+   local start
+   start=$(now)
+
+   java -Dfile.encoding=UTF-8 -server "$@" -jar "$JAR" > /dev/null 2>&1 &
+   local pid=$!
+
+   until [ "$(curl -s -o /dev/null -w '%{http_code}' "http://localhost:$PORT/ping")" != "000" ]; do
+      if ! kill -0 $pid 2> /dev/null; then
+         echo "RESTHeart Security exited" >&2
+         return 1
+      fi
+
+      sleep 0.01
+   done
+
+   echo $(( $(now) - start ))
+
+   kill $pid
+   wait $pid 2> /dev/null
+}
+
+benchmark() {
+   local label=$1
+   shift
+
+   local total=0
+   local ms
+
+   for i in $(seq 1 $RUNS); do
+      ms=$(first_request "$@") || exit 1
+      total=$(( total + ms ))
+      echo "$label, run $i: $ms ms"
+   done
+
+   echo "$label, time to first served request: $(( total / RUNS )) ms"
+}
+
+benchmark "default CDS" -Xshare:auto
+
+if [ -f "$ARCHIVE" ]; then
+   benchmark "AppCDS" -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto
+else
+   echo "No AppCDS archive, create it with: mvn package -Pcds"
+fi
@@ -32,6 +32,8 @@ import static io.undertow.Handlers.path;
 import io.undertow.Undertow;
 import io.undertow.Undertow.Builder;
 import io.undertow.UndertowOptions;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.handlers.AllowedMethodsHandler;
 import io.undertow.server.handlers.BlockingHandler;
 import io.undertow.server.handlers.GracefulShutdownHandler;
@@ -57,27 +59,23 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
-import javax.net.ssl.KeyManagerFactory;
+import java.util.stream.Collectors;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
 import static org.fusesource.jansi.Ansi.Color.GREEN;
 import static org.fusesource.jansi.Ansi.Color.RED;
 import static org.fusesource.jansi.Ansi.ansi;
 import org.fusesource.jansi.AnsiConsole;
 import org.restheart.ConfigurationException;
+import org.restheart.handlers.PipelinedHandler;
 import static org.restheart.handlers.PipelinedHandler.pipe;
 import org.restheart.handlers.PipelinedWrappingHandler;
 import org.restheart.handlers.exchange.AbstractExchange;
@@ -89,15 +87,25 @@ import org.restheart.plugins.PluginRecord;
 import org.restheart.plugins.security.AuthMechanism;
 import org.restheart.plugins.security.Authorizer;
 import org.restheart.plugins.security.TokenManager;
+import org.restheart.security.handlers.AuthFailuresHandler;
 import org.restheart.security.handlers.CORSHandler;
+import org.restheart.security.handlers.ConcurrencyLimiter;
 import org.restheart.security.handlers.ConfigurableEncodingHandler;
+import org.restheart.security.handlers.DrainingHandler;
 import org.restheart.security.handlers.ErrorHandler;
+import org.restheart.security.handlers.OptionalSecurityHandler;
+import org.restheart.security.handlers.PriorityRequestScheduler;
 import org.restheart.security.handlers.QueryStringRebuilder;
+import org.restheart.security.handlers.RateLimiter;
 import org.restheart.security.handlers.RequestInterceptorsExecutor;
 import org.restheart.security.handlers.RequestLogger;
 import org.restheart.security.handlers.RequestNotManagedHandler;
 import org.restheart.security.handlers.ResponseSender;
 import org.restheart.security.handlers.SecurityHandler;
+import org.restheart.security.handlers.cache.CoalescingHandler;
+import org.restheart.security.handlers.cache.IdempotencyHandler;
+import org.restheart.security.handlers.cache.ResponseCache;
+import org.restheart.security.handlers.cache.ResponseCacheHandler;
 import org.restheart.security.handlers.injectors.AuthHeadersRemover;
 import org.restheart.security.handlers.injectors.ConduitInjector;
 import org.restheart.security.handlers.injectors.RequestContentInjector;
@@ -106,9 +114,22 @@ import static org.restheart.security.handlers.injectors.RequestContentInjector.P
 import static org.restheart.security.handlers.injectors.RequestContentInjector.Policy.ON_REQUIRES_CONTENT_BEFORE_AUTH;
 import org.restheart.security.handlers.injectors.XForwardedHeadersInjector;
 import org.restheart.security.handlers.injectors.XPoweredByInjector;
+import org.restheart.security.handlers.metrics.MetricsRegistry;
+import org.restheart.security.handlers.proxy.Backends;
+import org.restheart.security.handlers.proxy.BalancingHostSelector;
+import org.restheart.security.handlers.proxy.CircuitBreaker;
+import org.restheart.security.handlers.proxy.DeadlineEnforcer;
+import org.restheart.security.handlers.proxy.DeadlineHandler;
+import org.restheart.security.handlers.proxy.HealthChecker;
+import org.restheart.security.handlers.proxy.HedgingHandler;
+import org.restheart.security.handlers.proxy.RetryBudget;
+import org.restheart.security.handlers.proxy.TrackingProxyClient;
 import org.restheart.security.handlers.metrics.TracingInstrumentationHandler;
 import org.restheart.security.plugins.PluginsRegistry;
+import org.restheart.security.plugins.PluginsScheduler;
 import org.restheart.security.plugins.authorizers.FullAuthorizer;
+import org.restheart.security.tls.ServerSslContext;
+import org.restheart.security.utils.AuthFailuresTracker;
 import org.restheart.security.utils.FileUtils;
 import org.restheart.security.utils.LoggingInitializer;
 import org.restheart.security.utils.OSChecker;
@@ -117,6 +138,7 @@ import org.restheart.security.utils.ResourcesExtractor;
 import static org.restheart.utils.PluginUtils.defaultURI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xnio.Option;
 import org.xnio.OptionMap;
 import org.xnio.Options;
 import org.xnio.SslClientAuthMode;
@@ -497,11 +519,9 @@ public class Bootstrapper {
             logErrorAndExit(ex.getMessage() + EXITING, ex, false, -1);
         }
 
-        // run pre startup initializers
-        PluginsRegistry.getInstance()
-                .getPreStartupInitializers()
-                .stream()
-                .forEach(i -> {
+        // run pre startup initializers, concurrently when independent
+        PluginsScheduler.start(PluginsRegistry.getInstance()
+                .getPreStartupInitializers(), i -> {
                     try {
                         i.getInstance().init();
                     }
@@ -537,11 +557,9 @@ public class Bootstrapper {
             LOGGER.info("Pid file {}", pidFilePath);
         }
 
-        // run initializers
-        PluginsRegistry.getInstance()
-                .getInitializers()
-                .stream()
-                .forEach(i -> {
+        // run initializers, concurrently when independent
+        PluginsScheduler.start(PluginsRegistry.getInstance()
+                .getInitializers(), i -> {
                     try {
                         i.getInstance().init();
                     }
@@ -581,13 +599,34 @@ public class Bootstrapper {
         }
 
         if (HANDLERS != null) {
-            if (!silent) {
-                LOGGER.info("Waiting for pending request "
-                        + "to complete (up to 1 minute)...");
-            }
+            // validated when loading the configuration
+            int drainDelay = configuration == null
+                    ? 0
+                    : configuration.getShutdownDrainDelay();
+
+            int drainTimeout = configuration == null
+                    ? 60_000
+                    : configuration.getShutdownDrainTimeout();
+
             try {
+                // keep serving while load balancers notice the failing ping
+                // and clients reconnect elsewhere, then reject new requests
+                if (drainDelay > 0) {
+                    if (!silent) {
+                        LOGGER.info("Draining for {} ms...", drainDelay);
+                    }
+
+                    DrainingHandler.drain();
+                    Thread.sleep(drainDelay);
+                }
+
+                if (!silent) {
+                    LOGGER.info("Waiting for pending request "
+                            + "to complete (up to {} ms)...", drainTimeout);
+                }
+
                 HANDLERS.shutdown();
-                HANDLERS.awaitShutdown(60 * 1000); // up to 1 minute
+                HANDLERS.awaitShutdown(drainTimeout);
             }
             catch (InterruptedException ie) {
                 LOGGER.error("Error while waiting for pending request "
@@ -674,51 +713,32 @@ public class Bootstrapper {
                     .reset().toString());
         }
 
+        try {
+            AuthFailuresTracker.init(configuration.getFailedAuthTracker());
+        }
+        catch (ConfigurationException ce) {
+            logErrorAndExit(ce.getMessage(), ce, false, -1);
+        }
+
+        MetricsRegistry.getInstance().register("failed-auth-tracker",
+                AuthFailuresTracker.getInstance()::metrics);
+
         SSLContext sslContext = null;
 
         try {
-            sslContext = SSLContext.getInstance("TLS");
-
-            KeyManagerFactory kmf = KeyManagerFactory
-                    .getInstance(KeyManagerFactory.getDefaultAlgorithm());
-            TrustManagerFactory tmf = TrustManagerFactory
-                    .getInstance(TrustManagerFactory.getDefaultAlgorithm());
-
-            KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
-
-            if (getConfiguration().isUseEmbeddedKeystore()) {
-                char[] storepass = "uiamuiam".toCharArray();
-                char[] keypass = "uiamuiam".toCharArray();
-
-                String storename = "sskeystore.jks";
-
-                ks.load(Bootstrapper.class.getClassLoader()
-                        .getResourceAsStream(storename), storepass);
-                kmf.init(ks, keypass);
-            } else if (configuration.getKeystoreFile() != null
-                    && configuration.getKeystorePassword() != null
-                    && configuration.getCertPassword() != null) {
-                try (FileInputStream fis = new FileInputStream(
-                        new File(configuration.getKeystoreFile()))) {
-                    ks.load(fis, configuration.getKeystorePassword().toCharArray());
-                    kmf.init(ks, configuration.getCertPassword().toCharArray());
-                }
-            } else {
-                LOGGER.error(
-                        "The keystore is not configured. "
-                        + "Check the keystore-file, "
-                        + "keystore-password and certpassword options.");
-            }
+            var serverSslContext = ServerSslContext.build(configuration);
 
-            tmf.init(ks);
+            sslContext = serverSslContext.getSslContext();
 
-            sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+            if (configuration.isHttpsListener()) {
+                MetricsRegistry.getInstance().register("tls",
+                        serverSslContext::metrics);
+            }
+        }
+        catch (ConfigurationException ce) {
+            logErrorAndExit(ce.getMessage(), ce, false, -1);
         }
-        catch (KeyManagementException
-                | NoSuchAlgorithmException
-                | KeyStoreException
-                | CertificateException
-                | UnrecoverableKeyException ex) {
+        catch (GeneralSecurityException ex) {
             logErrorAndExit(
                     "Couldn't start RESTHeart Security, error with specified keystore. "
                     + "Check the keystore-file, "
@@ -787,6 +807,13 @@ public class Bootstrapper {
                 .setBufferSize(configuration.getBufferSize())
                 .setHandler(HANDLERS);
 
+        // the kernel queues the connections not yet accepted up to the
+        // backlog, so that bursts of connections are not refused
+        builder.setSocketOption(Options.BACKLOG,
+                configuration.getAcceptBacklog());
+
+        LOGGER.info("Accept backlog: {}", configuration.getAcceptBacklog());
+
         // starting from undertow 1.4.23 URL checks become much stricter
         // (undertow commit 09d40a13089dbff37f8c76d20a41bf0d0e600d9d)
         // allow unescaped chars in URL (otherwise not allowed by default)
@@ -796,12 +823,152 @@ public class Bootstrapper {
         LOGGER.info("Allow unescaped characters in URL: {}",
                 configuration.isAllowUnescapedCharactersInUrl());
 
+        try {
+            http2(builder, configuration.getHttp2());
+        }
+        catch (ConfigurationException ce) {
+            logErrorAndExit(ce.getMessage(), ce, false, -1);
+        }
+
         ConfigurationHelper.setConnectionOptions(builder, configuration);
 
         undertowServer = builder.build();
         undertowServer.start();
     }
 
+    /**
+     * enables HTTP/2 as defined by the http2 configuration property: over TLS
+     * it is negotiated via ALPN on the https listener, in clear text via the
+     * h2c upgrade or prior knowledge on the http listener.
+     *
+     * Note that Undertow enables both with the same server option, so h2c is
+     * also accepted on the http listener when HTTP/2 is enabled.
+     *
+     * @param builder
+     * @param conf the http2 configuration property
+     * @throws ConfigurationException
+     */
+    private static void http2(final Builder builder,
+            final Map<String, Object> conf) throws ConfigurationException {
+        if (conf == null) {
+            return;
+        }
+
+        var enabled = http2Flag(conf, ConfigurationKeys.HTTP2_ENABLED_KEY);
+        var h2c = http2Flag(conf, ConfigurationKeys.HTTP2_H2C_KEY);
+
+        if (!enabled && !h2c) {
+            return;
+        }
+
+        builder.setServerOption(UndertowOptions.ENABLE_HTTP2, true);
+
+        // server push is never used by the proxy
+        builder.setServerOption(UndertowOptions.HTTP2_SETTINGS_ENABLE_PUSH,
+                false);
+
+        http2Setting(builder, conf,
+                ConfigurationKeys.HTTP2_MAX_CONCURRENT_STREAMS_KEY,
+                UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS);
+        http2Setting(builder, conf,
+                ConfigurationKeys.HTTP2_INITIAL_WINDOW_SIZE_KEY,
+                UndertowOptions.HTTP2_SETTINGS_INITIAL_WINDOW_SIZE);
+        http2Setting(builder, conf,
+                ConfigurationKeys.HTTP2_MAX_FRAME_SIZE_KEY,
+                UndertowOptions.HTTP2_SETTINGS_MAX_FRAME_SIZE);
+        http2Setting(builder, conf,
+                ConfigurationKeys.HTTP2_HEADER_TABLE_SIZE_KEY,
+                UndertowOptions.HTTP2_SETTINGS_HEADER_TABLE_SIZE);
+
+        if (enabled && configuration.isHttpsListener()) {
+            LOGGER.info("HTTP/2 enabled on HTTPS listener via ALPN");
+        } else if (enabled) {
+            LOGGER.warn("HTTP/2 enabled but the HTTPS listener is not; "
+                    + "HTTP/2 over TLS requires the HTTPS listener");
+        }
+
+        if (configuration.isHttpListener()) {
+            if (h2c) {
+                LOGGER.info("HTTP/2 enabled on HTTP listener via h2c");
+            } else {
+                LOGGER.warn("h2c not enabled but also accepted on HTTP "
+                        + "listener, since HTTP/2 is enabled");
+            }
+        }
+    }
+
+    private static boolean http2Flag(final Map<String, Object> conf,
+            final String key) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return false;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else {
+            throw new ConfigurationException("Wrong http2 configuration, "
+                    + key + " must be a boolean");
+        }
+    }
+
+    /**
+     *
+     * @param proxyPass the proxy-pass property of a proxies entry
+     * @return true if any proxy-pass URL has the unix scheme
+     */
+    private static boolean isUnixSocket(final Object proxyPass) {
+        if (proxyPass == null) {
+            return false;
+        }
+
+        var urls = proxyPass instanceof List
+                ? (List<?>) proxyPass
+                : List.of(proxyPass);
+
+        return urls.stream()
+                .filter(url -> url instanceof String)
+                .anyMatch(url -> ((String) url).regionMatches(true, 0,
+                        "unix:", 0, 5));
+    }
+
+    /**
+     *
+     * @param conf the http2 property of a proxies entry
+     * @return the max-streams property, 0 if not defined
+     * @throws ConfigurationException
+     */
+    private static int maxStreams(final Map<String, Object> conf)
+            throws ConfigurationException {
+        var value = conf.get(ConfigurationKeys.HTTP2_MAX_STREAMS_KEY);
+
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Integer && (Integer) value > 0) {
+            return (Integer) value;
+        } else {
+            throw new ConfigurationException("Wrong http2 configuration, "
+                    + ConfigurationKeys.HTTP2_MAX_STREAMS_KEY
+                    + " must be a positive integer");
+        }
+    }
+
+    private static void http2Setting(final Builder builder,
+            final Map<String, Object> conf,
+            final String key,
+            final Option<Integer> option) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return;
+        } else if (value instanceof Integer && (Integer) value > 0) {
+            builder.setServerOption(option, (Integer) value);
+            LOGGER.info("HTTP/2 {}: {}", key, value);
+        } else {
+            throw new ConfigurationException("Wrong http2 configuration, "
+                    + key + " must be a positive integer");
+        }
+    }
+
     /**
      * logErrorAndExit
      *
@@ -876,9 +1043,8 @@ public class Bootstrapper {
      */
     private static GracefulShutdownHandler buildGracefulShutdownHandler(
             PathHandler paths) {
-        return new GracefulShutdownHandler(
-                new RequestLimitingHandler(
-                        new RequestLimit(configuration.getRequestsLimit()),
+        return new GracefulShutdownHandler(new DrainingHandler(
+                requestsLimitingHandler(
                         new AllowedMethodsHandler(
                                 new BlockingHandler(
                                         new ErrorHandler(
@@ -889,7 +1055,46 @@ public class Bootstrapper {
                                 HttpString.tryFromString(METHOD.PUT.name()),
                                 HttpString.tryFromString(METHOD.DELETE.name()),
                                 HttpString.tryFromString(METHOD.PATCH.name()),
-                                HttpString.tryFromString(METHOD.OPTIONS.name()))));
+                                HttpString.tryFromString(METHOD.OPTIONS.name())))));
+    }
+
+    /**
+     * builds the handler limiting the requests being processed; if
+     * requests-scheduling is configured, waiting requests are scheduled by
+     * priority class, otherwise in a single FIFO queue
+     *
+     * @param next
+     * @return
+     */
+    private static HttpHandler requestsLimitingHandler(HttpHandler next) {
+        if (configuration.getRequestsScheduling() == null) {
+            return new RequestLimitingHandler(
+                    new RequestLimit(configuration.getRequestsLimit()),
+                    next);
+        }
+
+        try {
+            var classes = PriorityRequestScheduler.classes(
+                    configuration.getRequestsScheduling());
+
+            var scheduler = new PriorityRequestScheduler(classes,
+                    configuration.getRequestsLimit(),
+                    next);
+
+            MetricsRegistry.getInstance().register("requests-scheduling",
+                    scheduler::metrics);
+
+            LOGGER.info("Requests scheduled by priority classes {}",
+                    classes.stream()
+                            .map(PriorityRequestScheduler.PriorityClass::getName)
+                            .collect(Collectors.toList()));
+
+            return scheduler;
+        }
+        catch (ConfigurationException ce) {
+            logErrorAndExit(ce.getMessage(), ce, false, -1);
+            return null;
+        }
     }
 
     /**
@@ -948,14 +1153,41 @@ public class Bootstrapper {
                     ? (boolean) srvConfArgs.get("secured")
                     : false;
 
-            SecurityHandler securityHandler;
+            boolean authenticateIfCredentials = srvConfArgs != null
+                    && srvConfArgs.get(ConfigurationKeys
+                            .SERVICE_AUTHENTICATE_IF_CREDENTIALS_KEY) instanceof Boolean
+                    ? (boolean) srvConfArgs.get(ConfigurationKeys
+                            .SERVICE_AUTHENTICATE_IF_CREDENTIALS_KEY)
+                    : false;
+
+            var srvMechanisms = selectPlugins(mechanisms, srvConfArgs,
+                    ConfigurationKeys.AUTH_MECHANISMS_KEY,
+                    "service " + srv.getName());
+
+            if (srvMechanisms == null) {
+                LOGGER.error("Cannot start service {}", srv.getName());
+                return;
+            }
+
+            // unsecured services don't execute the security chain, unless
+            // they opt in to authenticate requests carrying credentials
+            SecurityHandler securityHandler = null;
 
             if (secured) {
+                var srvAuthorizers = selectPlugins(authorizers, srvConfArgs,
+                        ConfigurationKeys.AUTHORIZERS_KEY,
+                        "service " + srv.getName());
+
+                if (srvAuthorizers == null) {
+                    LOGGER.error("Cannot start service {}", srv.getName());
+                    return;
+                }
+
                 securityHandler = new SecurityHandler(
-                        mechanisms,
-                        authorizers,
+                        srvMechanisms,
+                        srvAuthorizers,
                         tokenManager);
-            } else {
+            } else if (authenticateIfCredentials) {
                 var _fauthorizers = new LinkedHashSet<PluginRecord<Authorizer>>();
 
                 PluginRecord<Authorizer> _fauthorizer = new PluginRecord(
@@ -969,38 +1201,82 @@ public class Bootstrapper {
 
                 _fauthorizers.add(_fauthorizer);
 
-                securityHandler = new SecurityHandler(
-                        mechanisms,
+                securityHandler = new OptionalSecurityHandler(
+                        srvMechanisms,
                         _fauthorizers,
                         tokenManager);
             }
 
-            var _srv = pipe(new TracingInstrumentationHandler(),
-                    new RequestLogger(),
-                    new CORSHandler(),
-                    new XPoweredByInjector(),
-                    new RequestContentInjector(ON_REQUIRES_CONTENT_BEFORE_AUTH),
-                    new RequestInterceptorsExecutor(REQUEST_BEFORE_AUTH),
-                    new QueryStringRebuilder(),
-                    securityHandler,
-                    new RequestContentInjector(ON_REQUIRES_CONTENT_AFTER_AUTH),
-                    new RequestInterceptorsExecutor(REQUEST_AFTER_AUTH),
-                    new QueryStringRebuilder(),
-                    new ConduitInjector(),
-                    PipelinedWrappingHandler
-                            .wrap(new ConfigurableEncodingHandler(
-                                    PipelinedWrappingHandler
-                                            .wrap(srv.getInstance()),
-                                    configuration.isForceGzipEncoding())),
-                    new ResponseSender()
-            );
+            RateLimiter ipRateLimiter;
+            RateLimiter accountRateLimiter;
+
+            try {
+                ipRateLimiter = rateLimiter(srvConfArgs, RateLimiter.Key.IP,
+                        "service " + srv.getName());
+                accountRateLimiter = rateLimiter(srvConfArgs,
+                        RateLimiter.Key.ACCOUNT,
+                        "service " + srv.getName());
+            }
+            catch (ConfigurationException ce) {
+                LOGGER.error("Cannot start service {}: {}",
+                        srv.getName(),
+                        ce.getMessage());
+                return;
+            }
+
+            var handlers = new ArrayList<PipelinedHandler>();
+
+            handlers.add(new TracingInstrumentationHandler());
+            handlers.add(new RequestLogger());
+
+            if (ipRateLimiter != null) {
+                handlers.add(ipRateLimiter);
+            }
+
+            if (securityHandler != null) {
+                handlers.add(new AuthFailuresHandler());
+            }
+
+            handlers.add(new CORSHandler());
+            handlers.add(new XPoweredByInjector());
+            handlers.add(new RequestContentInjector(ON_REQUIRES_CONTENT_BEFORE_AUTH));
+            handlers.add(new RequestInterceptorsExecutor(REQUEST_BEFORE_AUTH));
+            handlers.add(new QueryStringRebuilder());
+
+            if (securityHandler != null) {
+                handlers.add(securityHandler);
+
+                if (accountRateLimiter != null) {
+                    handlers.add(accountRateLimiter);
+                }
+            } else if (accountRateLimiter != null) {
+                LOGGER.warn("Service {} is not secured, "
+                        + "its rate limit by account is ignored",
+                        srv.getName());
+            }
+
+            handlers.add(new RequestContentInjector(ON_REQUIRES_CONTENT_AFTER_AUTH));
+            handlers.add(new RequestInterceptorsExecutor(REQUEST_AFTER_AUTH));
+            handlers.add(new QueryStringRebuilder());
+            handlers.add(new ConduitInjector());
+            handlers.add(PipelinedWrappingHandler
+                    .wrap(new ConfigurableEncodingHandler(
+                            PipelinedWrappingHandler
+                                    .wrap(srv.getInstance()),
+                            configuration.isForceGzipEncoding())));
+            handlers.add(new ResponseSender());
+
+            var _srv = pipe(handlers.toArray(new PipelinedHandler[handlers.size()]));
 
             paths.addPrefixPath(uri, _srv);
 
-            LOGGER.info("URI {} bound to service {}, secured: {}",
+            LOGGER.info("URI {} bound to service {}, secured: {}{}",
                     uri,
                     srv.getName(),
-                    secured);
+                    secured,
+                    !secured && authenticateIfCredentials
+                            ? ", authenticate if credentials: true"
+                            : "");
         });
     }
 
@@ -1063,6 +1339,86 @@ public class Bootstrapper {
                     ConfigurationKeys.PROXY_PROBLEM_SERVER_RETRY, 10,
                     true);
 
+            // Time in milliseconds after which the proxied request is cancelled
+            Integer requestTimeout = Configuration.getOrDefault(m,
+                    ConfigurationKeys.PROXY_REQUEST_TIMEOUT, -1,
+                    true);
+
+            boolean propagateDeadline = Configuration.getOrDefault(m,
+                    ConfigurationKeys.PROXY_PROPAGATE_DEADLINE, true,
+                    true);
+
+            // Max retries of GET, HEAD and OPTIONS requests, -1 for the default
+            Integer retries = Configuration.getOrDefault(m,
+                    ConfigurationKeys.PROXY_RETRIES, -1,
+                    true);
+
+            var proxyMechanisms = selectPlugins(authMechanisms, m,
+                    ConfigurationKeys.AUTH_MECHANISMS_KEY,
+                    "location " + location);
+
+            var proxyAuthorizers = selectPlugins(authorizers, m,
+                    ConfigurationKeys.AUTHORIZERS_KEY,
+                    "location " + location);
+
+            if (proxyMechanisms == null || proxyAuthorizers == null) {
+                LOGGER.error("Location {} not bound", location);
+                return;
+            }
+
+            RateLimiter ipRateLimiter;
+            RateLimiter accountRateLimiter;
+            ConcurrencyLimiter concurrencyLimiter;
+            Backends.OutlierEjection outlierEjection;
+            CircuitBreaker.Config circuitBreaker;
+            Map<String, Object> hedging;
+            RetryBudget retryBudget;
+            ResponseCache responseCache;
+            Map<String, Object> coalescing;
+            Map<String, Object> idempotency;
+            Map<String, Object> healthCheck;
+            Map<String, Object> http2;
+            boolean http2Enabled;
+            int maxStreams;
+
+            try {
+                ipRateLimiter = rateLimiter(m, RateLimiter.Key.IP,
+                        "location " + location);
+                accountRateLimiter = rateLimiter(m, RateLimiter.Key.ACCOUNT,
+                        "location " + location);
+                concurrencyLimiter = concurrencyLimiter(m,
+                        "location " + location);
+                outlierEjection = Backends.OutlierEjection.build(
+                        objectProperty(m, ConfigurationKeys.OUTLIER_EJECTION_KEY));
+                circuitBreaker = CircuitBreaker.Config.build(
+                        objectProperty(m, ConfigurationKeys.CIRCUIT_BREAKER_KEY));
+                healthCheck = objectProperty(m,
+                        ConfigurationKeys.HEALTH_CHECK_KEY);
+                hedging = objectProperty(m, ConfigurationKeys.HEDGING_KEY);
+                responseCache = ResponseCache.build(objectProperty(m,
+                        ConfigurationKeys.RESPONSE_CACHE_KEY));
+                coalescing = objectProperty(m,
+                        ConfigurationKeys.COALESCING_KEY);
+                idempotency = objectProperty(m,
+                        ConfigurationKeys.IDEMPOTENCY_KEY);
+                http2 = objectProperty(m, ConfigurationKeys.HTTP2_KEY);
+                http2Enabled = http2 != null
+                        && http2Flag(http2, ConfigurationKeys.HTTP2_ENABLED_KEY);
+                maxStreams = http2Enabled
+                        ? maxStreams(http2)
+                        : 0;
+                retryBudget = retries >= 0 || hedging != null
+                        ? RetryBudget.build(objectProperty(m,
+                                ConfigurationKeys.RETRY_BUDGET_KEY))
+                        : null;
+            }
+            catch (ConfigurationException ce) {
+                LOGGER.error("Location {} not bound: {}",
+                        location,
+                        ce.getMessage());
+                return;
+            }
+
             final Xnio xnio = Xnio.getInstance();
 
             final OptionMap optionMap = OptionMap.create(
@@ -1080,23 +1436,70 @@ public class Bootstrapper {
                 logErrorAndExit("error configuring ssl", ex, false, -13);
             }
 
+            if (isUnixSocket(_proxyPass)) {
+                LOGGER.error("Location {} not bound: Unix domain socket "
+                        + "backends are not supported, "
+                        + "use a loopback address", location);
+                return;
+            }
+
+            // HTTP/2 via ALPN with https backends, via h2c upgrade with http
+            // backends; connections fall back to HTTP/1.1 if not supported.
+            // Nagle's algorithm would delay the small writes of the requests,
+            // adding latency mostly to the loopback hops to local backends
+            final OptionMap backendOptions = OptionMap.builder()
+                    .set(Options.TCP_NODELAY, true)
+                    .set(UndertowOptions.ENABLE_HTTP2, http2Enabled)
+                    .getMap();
+
+            if (http2Enabled) {
+                LOGGER.info("HTTP/2 to backends enabled for location {}, "
+                        + "max-streams {}",
+                        location,
+                        maxStreams == 0 ? "unlimited" : maxStreams);
+            }
+
             try {
+                // the hosts are tracked by Backends if balanced by policy,
+                // health checked, subject to outlier ejection, with circuit
+                // breakers, hedged or with max-streams
+                final Backends backends = m.get(ConfigurationKeys.PROXY_LOAD_BALANCING) != null
+                        || outlierEjection != null
+                        || healthCheck != null
+                        || circuitBreaker != null
+                        || hedging != null
+                        || maxStreams > 0
+                        ? new Backends(location, outlierEjection,
+                                circuitBreaker, maxStreams)
+                        : null;
+
                 LoadBalancingProxyClient proxyClient
-                        = new LoadBalancingProxyClient()
+                        = (backends == null
+                                ? new LoadBalancingProxyClient()
+                                : new LoadBalancingProxyClient(
+                                        UndertowClient.getInstance(),
+                                        null,
+                                        BalancingHostSelector.build(m, backends)))
                                 .setConnectionsPerThread(connectionsPerThread)
                                 .setSoftMaxConnectionsPerThread(softMaxConnectionsPerThread)
                                 .setMaxQueueSize(maxQueueSize)
                                 .setProblemServerRetry(problemServerRetry)
                                 .setTtl(ttl);
 
+                if (backends != null) {
+                    backends.bind(proxyClient, sslProvider, backendOptions);
+                }
+
                 if (_proxyPass instanceof String) {
-                    proxyClient = proxyClient.addHost(
-                            new URI((String) _proxyPass), sslProvider);
+                    addHost(proxyClient, backends,
+                            new URI((String) _proxyPass), sslProvider,
+                            backendOptions);
                 } else if (_proxyPass instanceof List) {
                     for (Object proxyPassURL : ((Iterable<? extends Object>) _proxyPass)) {
                         if (proxyPassURL instanceof String) {
-                            proxyClient = proxyClient.addHost(
-                                    new URI((String) proxyPassURL), sslProvider);
+                            addHost(proxyClient, backends,
+                                    new URI((String) proxyPassURL), sslProvider,
+                                    backendOptions);
                         } else {
                             LOGGER.warn("Invalid proxy pass URL {}, location {} not bound ",
                                     proxyPassURL, location);
@@ -1107,30 +1510,137 @@ public class Bootstrapper {
                             _proxyPass);
                 }
 
-                ProxyHandler proxyHandler = ProxyHandler.builder()
+                if (backends != null) {
+                    var healthChecker = HealthChecker.build(healthCheck,
+                            backends);
+
+                    if (healthChecker != null) {
+                        healthChecker.start();
+                    }
+
+                    MetricsRegistry.getInstance().register(
+                            "backends " + location,
+                            backends::metrics);
+                }
+
+                var proxyHandlerBuilder = ProxyHandler.builder()
                         .setRewriteHostHeader(rewriteHostHeader)
-                        .setProxyClient(proxyClient)
-                        .build();
-
-                var proxy = pipe(new TracingInstrumentationHandler(),
-                        new RequestLogger(),
-                        new XPoweredByInjector(),
-                        new RequestContentInjector(ALWAYS),
-                        new RequestInterceptorsExecutor(REQUEST_BEFORE_AUTH),
-                        new QueryStringRebuilder(),
-                        new SecurityHandler(
-                                authMechanisms,
-                                authorizers,
-                                tokenManager),
-                        new AuthHeadersRemover(),
-                        new XForwardedHeadersInjector(),
-                        new RequestInterceptorsExecutor(REQUEST_AFTER_AUTH),
-                        new QueryStringRebuilder(),
-                        new ConduitInjector(),
-                        PipelinedWrappingHandler.wrap(
-                                new ConfigurableEncodingHandler( // Must be after ConduitInjector
-                                        proxyHandler,
-                                        configuration.isForceGzipEncoding())));
+                        .setProxyClient(new TrackingProxyClient(proxyClient,
+                                backends, retryBudget))
+                        .setMaxRequestTime(requestTimeout);
+
+                if (retries >= 0) {
+                    proxyHandlerBuilder
+                            .setMaxConnectionRetries(retries)
+                            .setIdempotentRequestPredicate(RetryBudget::isRetryable);
+                }
+
+                ProxyHandler proxyHandler = proxyHandlerBuilder.build();
+
+                HttpHandler backendHandler = proxyHandler;
+
+                var hedgingHandler = HedgingHandler.build(hedging,
+                        proxyHandler, backends, retryBudget,
+                        rewriteHostHeader, requestTimeout, http2Enabled);
+
+                if (hedgingHandler != null) {
+                    MetricsRegistry.getInstance().register(
+                            "hedging " + location,
+                            hedgingHandler::metrics);
+
+                    backendHandler = hedgingHandler;
+                }
+
+                if (retryBudget != null) {
+                    MetricsRegistry.getInstance().register(
+                            "retry-budget " + location,
+                            retryBudget::metrics);
+                }
+
+                if (coalescing != null) {
+                    var coalescingHandler = CoalescingHandler.build(
+                            coalescing, backendHandler);
+
+                    MetricsRegistry.getInstance().register(
+                            "coalescing " + location,
+                            coalescingHandler::metrics);
+
+                    backendHandler = coalescingHandler;
+                }
+
+                if (responseCache != null) {
+                    backendHandler = new ResponseCacheHandler(backendHandler,
+                            responseCache);
+
+                    MetricsRegistry.getInstance().register(
+                            "response-cache " + location,
+                            responseCache::metrics);
+                }
+
+                if (idempotency != null) {
+                    var idempotencyHandler = IdempotencyHandler.build(
+                            idempotency, backendHandler);
+
+                    MetricsRegistry.getInstance().register(
+                            "idempotency " + location,
+                            idempotencyHandler::metrics);
+
+                    backendHandler = idempotencyHandler;
+                }
+
+                var handlers = new ArrayList<PipelinedHandler>();
+
+                handlers.add(new TracingInstrumentationHandler());
+                handlers.add(new RequestLogger());
+
+                if (requestTimeout > 0 || propagateDeadline) {
+                    handlers.add(new DeadlineHandler(requestTimeout,
+                            propagateDeadline));
+                }
+
+                if (ipRateLimiter != null) {
+                    handlers.add(ipRateLimiter);
+                }
+
+                handlers.add(new AuthFailuresHandler());
+
+                if (concurrencyLimiter != null) {
+                    handlers.add(concurrencyLimiter);
+
+                    MetricsRegistry.getInstance().register(
+                            "concurrency-limit " + location,
+                            concurrencyLimiter::metrics);
+                }
+
+                handlers.add(new XPoweredByInjector());
+                handlers.add(new RequestContentInjector(ALWAYS));
+                handlers.add(new RequestInterceptorsExecutor(REQUEST_BEFORE_AUTH));
+                handlers.add(new QueryStringRebuilder());
+                handlers.add(new SecurityHandler(
+                        proxyMechanisms,
+                        proxyAuthorizers,
+                        tokenManager));
+
+                if (accountRateLimiter != null) {
+                    handlers.add(accountRateLimiter);
+                }
+
+                handlers.add(new AuthHeadersRemover());
+                handlers.add(new XForwardedHeadersInjector());
+                handlers.add(new RequestInterceptorsExecutor(REQUEST_AFTER_AUTH));
+                handlers.add(new QueryStringRebuilder());
+
+                if (requestTimeout > 0 || propagateDeadline) {
+                    handlers.add(new DeadlineEnforcer(propagateDeadline));
+                }
+
+                handlers.add(new ConduitInjector());
+                handlers.add(PipelinedWrappingHandler.wrap(
+                        new ConfigurableEncodingHandler( // Must be after ConduitInjector
+                                backendHandler,
+                                configuration.isForceGzipEncoding())));
+
+                var proxy = pipe(handlers.toArray(new PipelinedHandler[handlers.size()]));
 
                 paths.addPrefixPath(location, proxy);
 
@@ -1141,9 +1651,190 @@ public class Bootstrapper {
                         location,
                         _proxyPass);
             }
+            catch (ConfigurationException ce) {
+                LOGGER.error("Location {} not bound: {}",
+                        location,
+                        ce.getMessage());
+            }
         });
     }
 
+    /**
+     * selects the plugins listed in the given property of a proxies entry or
+     * of the configuration of a service; if the property is not defined, all
+     * the plugins are selected.
+     *
+     * @param <T>
+     * @param plugins the enabled plugins
+     * @param conf the proxies entry or the configuration of the service
+     * @param key the property listing the names of the plugins to select
+     * @param where the location or the service, for logging
+     * @return the selected plugins, in the order they are listed; null if the
+     * property is invalid or does not select any enabled plugin
+     */
+    private static <T> Set<PluginRecord<T>> selectPlugins(
+            final Set<PluginRecord<T>> plugins,
+            final Map<String, Object> conf,
+            final String key,
+            final String where) {
+        if (conf == null || conf.get(key) == null) {
+            return plugins;
+        }
+
+        final var _names = conf.get(key);
+        final List<?> names;
+
+        if (_names instanceof String) {
+            names = List.of(_names);
+        } else if (_names instanceof List) {
+            names = (List<?>) _names;
+        } else {
+            LOGGER.error("The property '{}' of {} must be a list of names",
+                    key, where);
+            return null;
+        }
+
+        final Set<PluginRecord<T>> available = plugins == null
+                ? Set.of()
+                : plugins;
+
+        var selected = names.stream()
+                .map(name -> {
+                    var plugin = available.stream()
+                            .filter(p -> p.getName().equals(name))
+                            .findFirst();
+
+                    if (plugin.isEmpty()) {
+                        LOGGER.warn("{} {} of {} is not enabled, ignoring it",
+                                key, name, where);
+                    }
+
+                    return plugin.orElse(null);
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        if (selected.isEmpty()) {
+            LOGGER.error("The property '{}' of {} does not list "
+                    + "any enabled plugin", key, where);
+            return null;
+        }
+
+        return selected;
+    }
+
+    /**
+     * builds the RateLimiter defined by the rate-limit property of a proxies
+     * entry or of the configuration of a service
+     *
+     * @param conf the proxies entry or the configuration of the service
+     * @param key
+     * @param where the location or the service, for logging
+     * @return the RateLimiter or null if not defined
+     * @throws ConfigurationException
+     */
+    private static RateLimiter rateLimiter(final Map<String, Object> conf,
+            final RateLimiter.Key key,
+            final String where) throws ConfigurationException {
+        if (conf == null || conf.get(ConfigurationKeys.RATE_LIMIT_KEY) == null) {
+            return null;
+        }
+
+        var rateLimit = conf.get(ConfigurationKeys.RATE_LIMIT_KEY);
+
+        if (!(rateLimit instanceof Map)) {
+            throw new ConfigurationException("the property '"
+                    + ConfigurationKeys.RATE_LIMIT_KEY
+                    + "' must be an object");
+        }
+
+        var limiter = RateLimiter.build((Map<String, Object>) rateLimit, key);
+
+        if (limiter != null) {
+            LOGGER.info("Rate limit by {} enabled for {}",
+                    key.name().toLowerCase(),
+                    where);
+        }
+
+        return limiter;
+    }
+
+    /**
+     * adds a backend host to the proxy client of a location
+     *
+     * @param proxyClient
+     * @param backends the backends of the location, null if not tracked
+     * @param uri
+     * @param sslProvider
+     * @param options the options of the connections to the host
+     */
+    private static void addHost(final LoadBalancingProxyClient proxyClient,
+            final Backends backends,
+            final URI uri,
+            final XnioSsl sslProvider,
+            final OptionMap options) {
+        if (backends == null) {
+            proxyClient.addHost(uri, null, sslProvider, options);
+        } else {
+            backends.addHost(uri);
+        }
+    }
+
+    /**
+     *
+     * @param conf
+     * @param key
+     * @return the value of the property, null if not defined
+     * @throws ConfigurationException if the property is not an object
+     */
+    private static Map<String, Object> objectProperty(
+            final Map<String, Object> conf,
+            final String key) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return null;
+        } else if (value instanceof Map) {
+            return (Map<String, Object>) value;
+        } else {
+            throw new ConfigurationException("the property '"
+                    + key + "' must be an object");
+        }
+    }
+
+    /**
+     * builds the ConcurrencyLimiter defined by the concurrency-limit property
+     * of a proxies entry
+     *
+     * @param conf the proxies entry
+     * @param where the location, for logging
+     * @return the ConcurrencyLimiter or null if not defined
+     * @throws ConfigurationException
+     */
+    private static ConcurrencyLimiter concurrencyLimiter(
+            final Map<String, Object> conf,
+            final String where) throws ConfigurationException {
+        if (conf == null
+                || conf.get(ConfigurationKeys.CONCURRENCY_LIMIT_KEY) == null) {
+            return null;
+        }
+
+        var concurrencyLimit = conf.get(ConfigurationKeys.CONCURRENCY_LIMIT_KEY);
+
+        if (!(concurrencyLimit instanceof Map)) {
+            throw new ConfigurationException("the property '"
+                    + ConfigurationKeys.CONCURRENCY_LIMIT_KEY
+                    + "' must be an object");
+        }
+
+        var limiter = ConcurrencyLimiter.build(
+                (Map<String, Object>) concurrencyLimit);
+
+        LOGGER.info("Concurrency limit enabled for {}", where);
+
+        return limiter;
+    }
+
     private Bootstrapper() {
     }
 
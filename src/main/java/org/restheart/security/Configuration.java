@@ -36,6 +36,7 @@ import java.util.Map;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 import org.restheart.ConfigurationException;
+import static org.restheart.security.ConfigurationKeys.ACCEPT_BACKLOG_KEY;
 import static org.restheart.security.ConfigurationKeys.ALLOW_UNESCAPED_CHARACTERS_IN_URL;
 import static org.restheart.security.ConfigurationKeys.ANSI_CONSOLE_KEY;
 import static org.restheart.security.ConfigurationKeys.AUTHENTICATORS_KEY;
@@ -54,7 +55,9 @@ import static org.restheart.security.ConfigurationKeys.DEFAULT_INSTANCE_NAME;
 import static org.restheart.security.ConfigurationKeys.DIRECT_BUFFERS_KEY;
 import static org.restheart.security.ConfigurationKeys.ENABLE_LOG_CONSOLE_KEY;
 import static org.restheart.security.ConfigurationKeys.ENABLE_LOG_FILE_KEY;
+import static org.restheart.security.ConfigurationKeys.FAILED_AUTH_TRACKER_KEY;
 import static org.restheart.security.ConfigurationKeys.FORCE_GZIP_ENCODING_KEY;
+import static org.restheart.security.ConfigurationKeys.HTTP2_KEY;
 import static org.restheart.security.ConfigurationKeys.HTTPS_HOST_KEY;
 import static org.restheart.security.ConfigurationKeys.HTTPS_LISTENER;
 import static org.restheart.security.ConfigurationKeys.HTTPS_PORT_KEY;
@@ -70,10 +73,16 @@ import static org.restheart.security.ConfigurationKeys.LOG_LEVEL_KEY;
 import static org.restheart.security.ConfigurationKeys.LOG_REQUESTS_LEVEL_KEY;
 import static org.restheart.security.ConfigurationKeys.PLUGINS_ARGS_KEY;
 import static org.restheart.security.ConfigurationKeys.PLUGINS_DIRECTORY_PATH_KEY;
+import static org.restheart.security.ConfigurationKeys.PLUGINS_STARTUP_PARALLELISM_KEY;
 import static org.restheart.security.ConfigurationKeys.PROXY_KEY;
 import static org.restheart.security.ConfigurationKeys.REQUESTS_LIMIT_KEY;
 import static org.restheart.security.ConfigurationKeys.REQUESTS_LOG_TRACE_HEADERS_KEY;
+import static org.restheart.security.ConfigurationKeys.REQUESTS_SCHEDULING_KEY;
 import static org.restheart.security.ConfigurationKeys.SERVICES_KEY;
+import static org.restheart.security.ConfigurationKeys.SHUTDOWN_DRAIN_DELAY_KEY;
+import static org.restheart.security.ConfigurationKeys.SHUTDOWN_DRAIN_TIMEOUT_KEY;
+import static org.restheart.security.ConfigurationKeys.SHUTDOWN_KEY;
+import static org.restheart.security.ConfigurationKeys.TLS_KEY;
 import static org.restheart.security.ConfigurationKeys.TOKEN_MANAGER;
 import static org.restheart.security.ConfigurationKeys.USE_EMBEDDED_KEYSTORE_KEY;
 import static org.restheart.security.ConfigurationKeys.WORKER_THREADS_KEY;
@@ -111,6 +120,7 @@ public class Configuration {
     private final String httpHost;
     private final String instanceName;
     private final String pluginsDirectory;
+    private final int pluginsStartupParallelism;
     private final boolean useEmbeddedKeystore;
     private final String keystoreFile;
     private final String keystorePassword;
@@ -129,6 +139,7 @@ public class Configuration {
     private final int requestsLimit;
     private final int ioThreads;
     private final int workerThreads;
+    private final int acceptBacklog;
     private final int bufferSize;
     private final boolean directBuffers;
     private final boolean forceGzipEncoding;
@@ -136,6 +147,12 @@ public class Configuration {
     private final Integer logExchangeDump;
     private final boolean ansiConsole;
     private final boolean allowUnescapedCharactersInUrl;
+    private final Map<String, Object> failedAuthTracker;
+    private final List<Map<String, Object>> requestsScheduling;
+    private final Map<String, Object> http2;
+    private final Map<String, Object> tls;
+    private final int shutdownDrainDelay;
+    private final int shutdownDrainTimeout;
 
     /**
      * Creates a new instance of Configuration with defaults values.
@@ -162,6 +179,7 @@ public class Configuration {
         initDefaultProxy();
 
         pluginsDirectory = "plugins";
+        pluginsStartupParallelism = Runtime.getRuntime().availableProcessors();
 
         pluginsArgs = new LinkedHashMap<>();
         authMechanisms = new LinkedHashMap<>();
@@ -180,12 +198,19 @@ public class Configuration {
         requestsLimit = 100;
         ioThreads = 2;
         workerThreads = 32;
+        acceptBacklog = 1000;
         bufferSize = 16384;
         directBuffers = true;
         forceGzipEncoding = false;
         logExchangeDump = 0;
         connectionOptions = Maps.newHashMap();
         allowUnescapedCharactersInUrl = true;
+        failedAuthTracker = null;
+        requestsScheduling = null;
+        http2 = null;
+        tls = null;
+        shutdownDrainDelay = 0;
+        shutdownDrainTimeout = 60_000;
     }
 
     /**
@@ -252,6 +277,9 @@ public class Configuration {
         }
 
         pluginsDirectory = getAsString(conf, PLUGINS_DIRECTORY_PATH_KEY, "plugins");
+        pluginsStartupParallelism = getAsInteger(conf,
+                PLUGINS_STARTUP_PARALLELISM_KEY,
+                Runtime.getRuntime().availableProcessors());
 
         pluginsArgs = getAsMapOfMaps(conf, PLUGINS_ARGS_KEY, new LinkedHashMap<>());
 
@@ -335,12 +363,45 @@ public class Configuration {
         requestsLimit = getAsInteger(conf, REQUESTS_LIMIT_KEY, 100);
         ioThreads = getAsInteger(conf, IO_THREADS_KEY, 2);
         workerThreads = getAsInteger(conf, WORKER_THREADS_KEY, 32);
+        acceptBacklog = getAsInteger(conf, ACCEPT_BACKLOG_KEY, 1000);
         bufferSize = getAsInteger(conf, BUFFER_SIZE_KEY, 16384);
         directBuffers = getAsBoolean(conf, DIRECT_BUFFERS_KEY, true);
         forceGzipEncoding = getAsBoolean(conf, FORCE_GZIP_ENCODING_KEY, false);
         logExchangeDump = getAsInteger(conf, LOG_REQUESTS_LEVEL_KEY, 0);
         connectionOptions = getAsMap(conf, CONNECTION_OPTIONS_KEY);
         allowUnescapedCharactersInUrl = getAsBoolean(conf, ALLOW_UNESCAPED_CHARACTERS_IN_URL, true);
+        failedAuthTracker = getAsMap(conf, FAILED_AUTH_TRACKER_KEY);
+        requestsScheduling = getAsListOfMaps(conf, REQUESTS_SCHEDULING_KEY, null);
+        http2 = getAsMap(conf, HTTP2_KEY);
+        tls = getAsMap(conf, TLS_KEY);
+
+        var shutdown = getAsMap(conf, SHUTDOWN_KEY);
+
+        shutdownDrainDelay = millis(shutdown, SHUTDOWN_DRAIN_DELAY_KEY, 0);
+        shutdownDrainTimeout = millis(shutdown, SHUTDOWN_DRAIN_TIMEOUT_KEY,
+                60_000);
+    }
+
+    /**
+     * @return the value of the key in milliseconds, checked when loading the
+     * configuration, since it is used by the shutdown hook
+     */
+    private static int millis(Map<String, Object> conf, String key,
+            int defaultValue) throws ConfigurationException {
+        var value = conf == null ? null : conf.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        if (!(value instanceof Number)
+                || ((Number) value).longValue() < 0
+                || ((Number) value).longValue() > Integer.MAX_VALUE) {
+            throw new ConfigurationException("Wrong shutdown configuration, "
+                    + key + " must be a non negative number of milliseconds");
+        }
+
+        return ((Number) value).intValue();
     }
 
     @SuppressWarnings("unchecked")
@@ -415,6 +476,7 @@ public class Configuration {
                 + ", httpHost=" + httpHost
                 + ", instanceName=" + instanceName
                 + ", pluginsDirectory=" + pluginsDirectory
+                + ", pluginsStartupParallelism=" + pluginsStartupParallelism
                 + ", useEmbeddedKeystore=" + useEmbeddedKeystore
                 + ", keystoreFile=" + keystoreFile
                 + ", keystorePassword=" + keystorePassword
@@ -433,6 +495,7 @@ public class Configuration {
                 + ", requestsLimit=" + requestsLimit
                 + ", ioThreads=" + ioThreads
                 + ", workerThreads=" + workerThreads
+                + ", acceptBacklog=" + acceptBacklog
                 + ", bufferSize=" + bufferSize
                 + ", directBuffers=" + directBuffers
                 + ", forceGzipEncoding=" + forceGzipEncoding
@@ -440,7 +503,13 @@ public class Configuration {
                 + ", logExchangeDump=" + logExchangeDump
                 + ", ansiConsole=" + ansiConsole
                 + ", allowUnescapedCharactersInUrl="
-                + allowUnescapedCharactersInUrl + '}';
+                + allowUnescapedCharactersInUrl
+                + ", failedAuthTracker=" + failedAuthTracker
+                + ", requestsScheduling=" + requestsScheduling
+                + ", http2=" + http2
+                + ", tls=" + tls
+                + ", shutdownDrainDelay=" + shutdownDrainDelay
+                + ", shutdownDrainTimeout=" + shutdownDrainTimeout + '}';
     }
 
     /**
@@ -518,6 +587,13 @@ public class Configuration {
         return this.pluginsDirectory;
     }
 
+    /**
+     * @return the pluginsStartupParallelism
+     */
+    public int getPluginsStartupParallelism() {
+        return pluginsStartupParallelism;
+    }
+
     /**
      * @return the useEmbeddedKeystore
      */
@@ -600,6 +676,13 @@ public class Configuration {
         return workerThreads;
     }
 
+    /**
+     * @return the acceptBacklog
+     */
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
     /**
      * @return the bufferSize
      */
@@ -689,6 +772,48 @@ public class Configuration {
         return allowUnescapedCharactersInUrl;
     }
 
+    /**
+     * @return the failedAuthTracker
+     */
+    public Map<String, Object> getFailedAuthTracker() {
+        return failedAuthTracker;
+    }
+
+    /**
+     * @return the requestsScheduling
+     */
+    public List<Map<String, Object>> getRequestsScheduling() {
+        return requestsScheduling;
+    }
+
+    /**
+     * @return the http2
+     */
+    public Map<String, Object> getHttp2() {
+        return http2;
+    }
+
+    /**
+     * @return the tls
+     */
+    public Map<String, Object> getTls() {
+        return tls;
+    }
+
+    /**
+     * @return the milliseconds to keep serving after the shutdown starts
+     */
+    public int getShutdownDrainDelay() {
+        return shutdownDrainDelay;
+    }
+
+    /**
+     * @return the milliseconds to wait for the pending requests
+     */
+    public int getShutdownDrainTimeout() {
+        return shutdownDrainTimeout;
+    }
+
     /**
      *
      * @return the base URL of restheart proxy identified by proxy configuration
@@ -64,6 +64,11 @@ public interface ConfigurationKeys {
      * the key for the log-file-path property.
      */
     public static final String PLUGINS_DIRECTORY_PATH_KEY = "plugins-directory";
+
+    /**
+     * the key for the plugins-startup-parallelism property.
+     */
+    public static final String PLUGINS_STARTUP_PARALLELISM_KEY = "plugins-startup-parallelism";
     
     /**
      * the key for the services property.
@@ -92,6 +97,11 @@ public interface ConfigurationKeys {
      */
     public static final String SERVICE_SECURED_KEY = "secured";
 
+    /**
+     * the key for the authenticate-if-credentials property of services.
+     */
+    public static final String SERVICE_AUTHENTICATE_IF_CREDENTIALS_KEY = "authenticate-if-credentials";
+
     /**
      * the key for the local-cache-enabled property.
      */
@@ -127,6 +137,11 @@ public interface ConfigurationKeys {
      */
     public static final String IO_THREADS_KEY = "io-threads";
 
+    /**
+     * the key for the accept-backlog property.
+     */
+    public static final String ACCEPT_BACKLOG_KEY = "accept-backlog";
+
     /**
      * the key for the requests-limit property.
      */
@@ -222,6 +237,446 @@ public interface ConfigurationKeys {
      */
     public static final String PROXY_PROBLEM_SERVER_RETRY = "problem-server-retry";
 
+    /**
+     * the key for the request-timeout property.
+     */
+    public static final String PROXY_REQUEST_TIMEOUT = "request-timeout";
+
+    /**
+     * the key for the propagate-deadline property.
+     */
+    public static final String PROXY_PROPAGATE_DEADLINE = "propagate-deadline";
+
+    /**
+     * the key for the load-balancing property.
+     */
+    public static final String PROXY_LOAD_BALANCING = "load-balancing";
+
+    /**
+     * the key for the hash-key property.
+     */
+    public static final String PROXY_HASH_KEY = "hash-key";
+
+    /**
+     * the key for the hash-load-factor property.
+     */
+    public static final String PROXY_HASH_LOAD_FACTOR = "hash-load-factor";
+
+    /**
+     * the key for the health-check property of proxies.
+     */
+    public static final String HEALTH_CHECK_KEY = "health-check";
+
+    /**
+     * the key for the path property of the health-check.
+     */
+    public static final String HEALTH_CHECK_PATH_KEY = "path";
+
+    /**
+     * the key for the interval property of the health-check.
+     */
+    public static final String HEALTH_CHECK_INTERVAL_KEY = "interval";
+
+    /**
+     * the key for the timeout property of the health-check.
+     */
+    public static final String HEALTH_CHECK_TIMEOUT_KEY = "timeout";
+
+    /**
+     * the key for the unhealthy-threshold property of the health-check.
+     */
+    public static final String HEALTH_CHECK_UNHEALTHY_THRESHOLD_KEY = "unhealthy-threshold";
+
+    /**
+     * the key for the healthy-threshold property of the health-check.
+     */
+    public static final String HEALTH_CHECK_HEALTHY_THRESHOLD_KEY = "healthy-threshold";
+
+    /**
+     * the key for the outlier-ejection property of proxies.
+     */
+    public static final String OUTLIER_EJECTION_KEY = "outlier-ejection";
+
+    /**
+     * the key for the error-rate property of the outlier-ejection.
+     */
+    public static final String OUTLIER_EJECTION_ERROR_RATE_KEY = "error-rate";
+
+    /**
+     * the key for the min-requests property of the outlier-ejection.
+     */
+    public static final String OUTLIER_EJECTION_MIN_REQUESTS_KEY = "min-requests";
+
+    /**
+     * the key for the window property of the outlier-ejection.
+     */
+    public static final String OUTLIER_EJECTION_WINDOW_KEY = "window";
+
+    /**
+     * the key for the ejection-time property of the outlier-ejection.
+     */
+    public static final String OUTLIER_EJECTION_TIME_KEY = "ejection-time";
+
+    /**
+     * the key for the max-ejection-percent property of the outlier-ejection.
+     */
+    public static final String OUTLIER_EJECTION_MAX_PERCENT_KEY = "max-ejection-percent";
+
+    /**
+     * the key for the circuit-breaker property of proxies.
+     */
+    public static final String CIRCUIT_BREAKER_KEY = "circuit-breaker";
+
+    /**
+     * the key for the failure-rate property of the circuit-breaker.
+     */
+    public static final String CIRCUIT_BREAKER_FAILURE_RATE_KEY = "failure-rate";
+
+    /**
+     * the key for the slow-call-threshold property of the circuit-breaker.
+     */
+    public static final String CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD_KEY = "slow-call-threshold";
+
+    /**
+     * the key for the min-requests property of the circuit-breaker.
+     */
+    public static final String CIRCUIT_BREAKER_MIN_REQUESTS_KEY = "min-requests";
+
+    /**
+     * the key for the window property of the circuit-breaker.
+     */
+    public static final String CIRCUIT_BREAKER_WINDOW_KEY = "window";
+
+    /**
+     * the key for the open-time property of the circuit-breaker.
+     */
+    public static final String CIRCUIT_BREAKER_OPEN_TIME_KEY = "open-time";
+
+    /**
+     * the key for the half-open-requests property of the circuit-breaker.
+     */
+    public static final String CIRCUIT_BREAKER_HALF_OPEN_REQUESTS_KEY = "half-open-requests";
+
+    /**
+     * the key for the retries property of proxies.
+     */
+    public static final String PROXY_RETRIES = "retries";
+
+    /**
+     * the key for the retry-budget property of proxies.
+     */
+    public static final String RETRY_BUDGET_KEY = "retry-budget";
+
+    /**
+     * the key for the ratio property of the retry-budget.
+     */
+    public static final String RETRY_BUDGET_RATIO_KEY = "ratio";
+
+    /**
+     * the key for the min-per-second property of the retry-budget.
+     */
+    public static final String RETRY_BUDGET_MIN_PER_SECOND_KEY = "min-per-second";
+
+    /**
+     * the key for the hedging property of proxies.
+     */
+    public static final String HEDGING_KEY = "hedging";
+
+    /**
+     * the key for the percentile property of hedging.
+     */
+    public static final String HEDGING_PERCENTILE_KEY = "percentile";
+
+    /**
+     * the key for the min-delay property of hedging.
+     */
+    public static final String HEDGING_MIN_DELAY_KEY = "min-delay";
+
+    /**
+     * the key for the max-delay property of hedging.
+     */
+    public static final String HEDGING_MAX_DELAY_KEY = "max-delay";
+
+    /**
+     * the key for the max-size property of hedging.
+     */
+    public static final String HEDGING_MAX_SIZE_KEY = "max-size";
+
+    /**
+     * the key for the response-cache property of proxies.
+     */
+    public static final String RESPONSE_CACHE_KEY = "response-cache";
+
+    /**
+     * the key for the partition property of the response-cache.
+     */
+    public static final String RESPONSE_CACHE_PARTITION_KEY = "partition";
+
+    /**
+     * the key for the max-size property of the response-cache.
+     */
+    public static final String RESPONSE_CACHE_MAX_SIZE_KEY = "max-size";
+
+    /**
+     * the key for the max-entry-size property of the response-cache.
+     */
+    public static final String RESPONSE_CACHE_MAX_ENTRY_SIZE_KEY = "max-entry-size";
+
+    /**
+     * the key for the coalescing property of proxies.
+     */
+    public static final String COALESCING_KEY = "coalescing";
+
+    /**
+     * the key for the partition property of coalescing.
+     */
+    public static final String COALESCING_PARTITION_KEY = "partition";
+
+    /**
+     * the key for the max-size property of coalescing.
+     */
+    public static final String COALESCING_MAX_SIZE_KEY = "max-size";
+
+    /**
+     * the key for the idempotency property of proxies.
+     */
+    public static final String IDEMPOTENCY_KEY = "idempotency";
+
+    /**
+     * the key for the ttl property of idempotency.
+     */
+    public static final String IDEMPOTENCY_TTL_KEY = "ttl";
+
+    /**
+     * the key for the max-size property of idempotency.
+     */
+    public static final String IDEMPOTENCY_MAX_SIZE_KEY = "max-size";
+
+    /**
+     * the key for the max-entry-size property of idempotency.
+     */
+    public static final String IDEMPOTENCY_MAX_ENTRY_SIZE_KEY = "max-entry-size";
+
+    /**
+     * the key for the max-streams property of the http2 property of proxies.
+     */
+    public static final String HTTP2_MAX_STREAMS_KEY = "max-streams";
+
+    /**
+     * the key for the rate-limit property of proxies and services.
+     */
+    public static final String RATE_LIMIT_KEY = "rate-limit";
+
+    /**
+     * the key for the rate limit by client IP.
+     */
+    public static final String RATE_LIMIT_IP_KEY = "ip";
+
+    /**
+     * the key for the rate limit by authenticated account.
+     */
+    public static final String RATE_LIMIT_ACCOUNT_KEY = "account";
+
+    /**
+     * the key for the rate property of rate limits.
+     */
+    public static final String RATE_LIMIT_RATE_KEY = "rate";
+
+    /**
+     * the key for the burst property of rate limits.
+     */
+    public static final String RATE_LIMIT_BURST_KEY = "burst";
+
+    /**
+     * the key for the slots property of rate limits.
+     */
+    public static final String RATE_LIMIT_SLOTS_KEY = "slots";
+
+    /**
+     * the key for the requests-scheduling property.
+     */
+    public static final String REQUESTS_SCHEDULING_KEY = "requests-scheduling";
+
+    /**
+     * the key for the name property of the requests-scheduling classes.
+     */
+    public static final String REQUESTS_SCHEDULING_NAME_KEY = "name";
+
+    /**
+     * the key for the predicate property of the requests-scheduling classes.
+     */
+    public static final String REQUESTS_SCHEDULING_PREDICATE_KEY = "predicate";
+
+    /**
+     * the key for the weight property of the requests-scheduling classes.
+     */
+    public static final String REQUESTS_SCHEDULING_WEIGHT_KEY = "weight";
+
+    /**
+     * the key for the queue-size property of the requests-scheduling classes.
+     */
+    public static final String REQUESTS_SCHEDULING_QUEUE_SIZE_KEY = "queue-size";
+
+    /**
+     * the key for the max-wait property of the requests-scheduling classes.
+     */
+    public static final String REQUESTS_SCHEDULING_MAX_WAIT_KEY = "max-wait";
+
+    /**
+     * the key for the concurrency-limit property of proxies.
+     */
+    public static final String CONCURRENCY_LIMIT_KEY = "concurrency-limit";
+
+    /**
+     * the key for the algorithm property of the concurrency-limit.
+     */
+    public static final String CONCURRENCY_LIMIT_ALGORITHM_KEY = "algorithm";
+
+    /**
+     * the key for the initial property of the concurrency-limit.
+     */
+    public static final String CONCURRENCY_LIMIT_INITIAL_KEY = "initial";
+
+    /**
+     * the key for the min property of the concurrency-limit.
+     */
+    public static final String CONCURRENCY_LIMIT_MIN_KEY = "min";
+
+    /**
+     * the key for the max property of the concurrency-limit.
+     */
+    public static final String CONCURRENCY_LIMIT_MAX_KEY = "max";
+
+    /**
+     * the key for the queue-size property of the concurrency-limit.
+     */
+    public static final String CONCURRENCY_LIMIT_QUEUE_SIZE_KEY = "queue-size";
+
+    /**
+     * the key for the latency-threshold property of the concurrency-limit.
+     */
+    public static final String CONCURRENCY_LIMIT_LATENCY_THRESHOLD_KEY = "latency-threshold";
+
+    /**
+     * the key for the backoff-ratio property of the concurrency-limit.
+     */
+    public static final String CONCURRENCY_LIMIT_BACKOFF_RATIO_KEY = "backoff-ratio";
+
+    /**
+     * the key for the failed-auth-tracker property.
+     */
+    public static final String FAILED_AUTH_TRACKER_KEY = "failed-auth-tracker";
+
+    /**
+     * the key for the enabled property of the failed-auth-tracker.
+     */
+    public static final String FAILED_AUTH_TRACKER_ENABLED_KEY = "enabled";
+
+    /**
+     * the key for the max-failures property of the failed-auth-tracker.
+     */
+    public static final String FAILED_AUTH_TRACKER_MAX_FAILURES_KEY = "max-failures";
+
+    /**
+     * the key for the window property of the failed-auth-tracker.
+     */
+    public static final String FAILED_AUTH_TRACKER_WINDOW_KEY = "window";
+
+    /**
+     * the key for the block-time property of the failed-auth-tracker.
+     */
+    public static final String FAILED_AUTH_TRACKER_BLOCK_TIME_KEY = "block-time";
+
+    /**
+     * the key for the max-block-time property of the failed-auth-tracker.
+     */
+    public static final String FAILED_AUTH_TRACKER_MAX_BLOCK_TIME_KEY = "max-block-time";
+
+    /**
+     * the key for the max-entries property of the failed-auth-tracker.
+     */
+    public static final String FAILED_AUTH_TRACKER_MAX_ENTRIES_KEY = "max-entries";
+
+    /**
+     * the key for the http2 property.
+     */
+    public static final String HTTP2_KEY = "http2";
+
+    /**
+     * the key for the enabled property of http2.
+     */
+    public static final String HTTP2_ENABLED_KEY = "enabled";
+
+    /**
+     * the key for the h2c property of http2.
+     */
+    public static final String HTTP2_H2C_KEY = "h2c";
+
+    /**
+     * the key for the max-concurrent-streams property of http2.
+     */
+    public static final String HTTP2_MAX_CONCURRENT_STREAMS_KEY = "max-concurrent-streams";
+
+    /**
+     * the key for the initial-window-size property of http2.
+     */
+    public static final String HTTP2_INITIAL_WINDOW_SIZE_KEY = "initial-window-size";
+
+    /**
+     * the key for the max-frame-size property of http2.
+     */
+    public static final String HTTP2_MAX_FRAME_SIZE_KEY = "max-frame-size";
+
+    /**
+     * the key for the header-table-size property of http2.
+     */
+    public static final String HTTP2_HEADER_TABLE_SIZE_KEY = "header-table-size";
+
+    /**
+     * the key for the tls property.
+     */
+    public static final String TLS_KEY = "tls";
+
+    /**
+     * the key for the session-cache-size property of tls.
+     */
+    public static final String TLS_SESSION_CACHE_SIZE_KEY = "session-cache-size";
+
+    /**
+     * the key for the session-timeout property of tls.
+     */
+    public static final String TLS_SESSION_TIMEOUT_KEY = "session-timeout";
+
+    /**
+     * the key for the session-tickets property of tls.
+     */
+    public static final String TLS_SESSION_TICKETS_KEY = "session-tickets";
+
+    /**
+     * the key for the ticket-key-rotation property of tls.
+     */
+    public static final String TLS_TICKET_KEY_ROTATION_KEY = "ticket-key-rotation";
+
+    /**
+     * the key for the keystore-reload-interval property of tls.
+     */
+    public static final String TLS_KEYSTORE_RELOAD_INTERVAL_KEY = "keystore-reload-interval";
+
+    /**
+     * the key for the shutdown property.
+     */
+    public static final String SHUTDOWN_KEY = "shutdown";
+
+    /**
+     * the key for the drain-delay property of shutdown.
+     */
+    public static final String SHUTDOWN_DRAIN_DELAY_KEY = "drain-delay";
+
+    /**
+     * the key for the drain-timeout property of shutdown.
+     */
+    public static final String SHUTDOWN_DRAIN_TIMEOUT_KEY = "drain-timeout";
+
     /**
      * the key for the pluging-args property.
      */
@@ -0,0 +1,75 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import org.restheart.handlers.PipelinedHandler;
+import org.restheart.security.utils.AuthFailuresTracker;
+
+/**
+ * rejects with 429 Too Many Requests the requests with credentials from client
+ * addresses or for principals blocked by the AuthFailuresTracker.
+ *
+ * It must be placed before the body is read and before the authentication
+ * mechanisms, so that the requests of a blocked client cost just a lookup.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class AuthFailuresHandler extends PipelinedHandler {
+
+    /**
+     * Creates a new instance of AuthFailuresHandler
+     */
+    public AuthFailuresHandler() {
+        super();
+    }
+
+    /**
+     *
+     * @param exchange
+     * @throws Exception
+     */
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        var tracker = AuthFailuresTracker.getInstance();
+
+        if (tracker.isEnabled()) {
+            var header = AuthorizationHeader.of(exchange);
+
+            if (header.isPresent()) {
+                var wait = tracker.blockedFor(
+                        exchange.getSourceAddress().getAddress(),
+                        header.getUserName());
+
+                if (wait > 0) {
+                    // Retry-After is in seconds
+                    exchange.getResponseHeaders().put(Headers.RETRY_AFTER,
+                            (wait + 999) / 1_000);
+                    CORSHandler.injectAccessControlAllowHeaders(exchange);
+                    exchange.setStatusCode(StatusCodes.TOO_MANY_REQUESTS);
+                    exchange.endExchange();
+                    return;
+                }
+            }
+        }
+
+        next(exchange);
+    }
+}
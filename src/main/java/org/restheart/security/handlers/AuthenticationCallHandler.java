@@ -21,6 +21,7 @@ import io.undertow.security.api.SecurityContext;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import org.restheart.handlers.PipelinedHandler;
+import org.restheart.security.utils.AuthFailuresTracker;
 import org.restheart.utils.HttpStatus;
 
 /**
@@ -56,7 +57,14 @@ public class AuthenticationCallHandler extends PipelinedHandler {
 
         // 1 call authenticate that performs authentication on the request. 
         // 2 make sure that, only if authentication is required, than the request is authenticated
-        if (rcontext.authenticate()
+        boolean authenticated = rcontext.authenticate();
+
+        trackAuthFailures(exchange, rcontext);
+
+        // the mechanisms are done with the decoded credentials
+        AuthorizationHeader.clear(exchange);
+
+        if (authenticated
                 && (!rcontext.isAuthenticationRequired()
                 || rcontext.isAuthenticated())) {
             if (!exchange.isComplete()) {
@@ -70,4 +78,35 @@ public class AuthenticationCallHandler extends PipelinedHandler {
             exchange.endExchange();
         }
     }
+
+    /**
+     * records in the AuthFailuresTracker the outcome of the authentication of
+     * requests with credentials
+     */
+    private void trackAuthFailures(HttpServerExchange exchange,
+            SecurityContext rcontext) {
+        var tracker = AuthFailuresTracker.getInstance();
+
+        if (!tracker.isEnabled()) {
+            return;
+        }
+
+        var header = AuthorizationHeader.of(exchange);
+
+        if (!header.isPresent()) {
+            return;
+        }
+
+        if (rcontext.isAuthenticated()) {
+            var account = rcontext.getAuthenticatedAccount();
+
+            if (account != null && account.getPrincipal() != null) {
+                tracker.success(exchange.getSourceAddress().getAddress(),
+                        account.getPrincipal().getName());
+            }
+        } else {
+            tracker.failure(exchange.getSourceAddress().getAddress(),
+                    header.getUserName());
+        }
+    }
 }
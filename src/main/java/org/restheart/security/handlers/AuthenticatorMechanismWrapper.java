@@ -22,7 +22,11 @@ import static io.undertow.security.api.AuthenticationMechanism.AuthenticationMec
 import io.undertow.security.api.AuthenticationMechanism.ChallengeResult;
 import io.undertow.security.api.SecurityContext;
 import io.undertow.server.HttpServerExchange;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.restheart.plugins.security.AuthMechanism;
+import org.restheart.security.plugins.mechanisms.SchemeAwareAuthMechanism;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +56,9 @@ import org.slf4j.LoggerFactory;
  * this is achieved avoiding the wrapper AuthenticationMechanism to return
  * NOT_AUTHENTICATED replacing the return value with NOT_ATTEMPTED
  *
+ * if the wrapped mechanism is a SchemeAwareAuthMechanism, it is only invoked
+ * when the Authorization header uses one of its schemes
+ *
  *
  * @author Andrea Di Cesare <andrea@softinstigate.com>
  */
@@ -60,13 +67,33 @@ public class AuthenticatorMechanismWrapper implements AuthMechanism {
 
     private final AuthMechanism wrapped;
 
+    /**
+     * the lower case schemes handled by wrapped, null if it handles any request
+     */
+    private final Set<String> schemes;
+
     public AuthenticatorMechanismWrapper(AuthMechanism wrapped) {
         this.wrapped = wrapped;
+
+        if (wrapped instanceof SchemeAwareAuthMechanism) {
+            this.schemes = ((SchemeAwareAuthMechanism) wrapped)
+                    .getAuthenticationSchemes()
+                    .stream()
+                    .map(s -> s.toLowerCase(Locale.ROOT))
+                    .collect(Collectors.toSet());
+        } else {
+            this.schemes = null;
+        }
     }
 
     @Override
     public AuthenticationMechanismOutcome authenticate(HttpServerExchange exchange,
             SecurityContext securityContext) {
+        if (schemes != null
+                && !schemes.contains(AuthorizationHeader.of(exchange).getScheme())) {
+            return AuthenticationMechanismOutcome.NOT_ATTEMPTED;
+        }
+
         AuthenticationMechanismOutcome outcome = wrapped.authenticate(exchange,
                 securityContext);
 
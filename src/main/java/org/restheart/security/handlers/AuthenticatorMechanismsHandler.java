@@ -20,7 +20,9 @@ package org.restheart.security.handlers;
 
 import io.undertow.security.api.SecurityContext;
 import io.undertow.server.HttpServerExchange;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 import org.restheart.handlers.PipelinedHandler;
 import org.restheart.plugins.PluginRecord;
 import org.restheart.plugins.security.AuthMechanism;
@@ -30,21 +32,34 @@ import org.restheart.plugins.security.AuthMechanism;
  * io.undertow.security.handlers.AuthenticationMechanismsHandler that adds one
  * or more authenticator mechanisms to the security context
  *
+ * The Authorization header is parsed once and attached to the exchange, see
+ * {@link AuthorizationHeader}; mechanisms implementing SchemeAwareAuthMechanism
+ * are only invoked for requests using one of their schemes.
+ *
  * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
  */
 public class AuthenticatorMechanismsHandler extends PipelinedHandler {
 
-    private final Set<PluginRecord<AuthMechanism>> authenticatorMechanisms;
+    private final List<AuthenticatorMechanismWrapper> wrappedMechanisms;
 
     public AuthenticatorMechanismsHandler(final PipelinedHandler next,
             final Set<PluginRecord<AuthMechanism>> authenticatorMechanisms) {
         super(next);
-        this.authenticatorMechanisms = authenticatorMechanisms;
+        this.wrappedMechanisms = wrap(authenticatorMechanisms);
     }
 
     public AuthenticatorMechanismsHandler(
             final Set<PluginRecord<AuthMechanism>> authenticatorMechanisms) {
-        this.authenticatorMechanisms = authenticatorMechanisms;
+        this.wrappedMechanisms = wrap(authenticatorMechanisms);
+    }
+
+    private static List<AuthenticatorMechanismWrapper> wrap(
+            final Set<PluginRecord<AuthMechanism>> authenticatorMechanisms) {
+        // the wrappers are stateless, so they are created once
+        return authenticatorMechanisms.stream()
+                .map(mechanism -> new AuthenticatorMechanismWrapper(
+                mechanism.getInstance()))
+                .collect(Collectors.toList());
     }
 
     @Override
@@ -53,11 +68,12 @@ public class AuthenticatorMechanismsHandler extends PipelinedHandler {
         final SecurityContext sc = exchange.getSecurityContext();
 
         if (sc != null) {
-            authenticatorMechanisms.forEach((mechanism) -> {
-                sc.addAuthenticationMechanism(
-                        new AuthenticatorMechanismWrapper(
-                                mechanism.getInstance()));
-            });
+            // parse the Authorization header once for all mechanisms
+            AuthorizationHeader.of(exchange);
+
+            for (var mechanism : wrappedMechanisms) {
+                sc.addAuthenticationMechanism(mechanism);
+            }
         }
 
         next(exchange);
@@ -0,0 +1,282 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.FlexBase64;
+import static io.undertow.util.Headers.AUTHORIZATION;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * the Authorization request header, parsed once per request and attached to
+ * the exchange, so that the authentication mechanisms don't need to parse it
+ * again; the credentials of the basic scheme are decoded lazily on first
+ * access.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class AuthorizationHeader {
+
+    private static final AttachmentKey<AuthorizationHeader> ATTACHMENT_KEY
+            = AttachmentKey.create(AuthorizationHeader.class);
+
+    public static final String BASIC = "basic";
+    public static final String DIGEST = "digest";
+    public static final String BEARER = "bearer";
+
+    private static final String[] KNOWN_SCHEMES = {BASIC, DIGEST, BEARER};
+
+    private static final AuthorizationHeader ABSENT
+            = new AuthorizationHeader(null, null);
+
+    private final String scheme;
+    private final String credentials;
+
+    private boolean basicDecoded = false;
+    private String basicUserName = null;
+    private char[] basicPassword = null;
+
+    private AuthorizationHeader(String scheme, String credentials) {
+        this.scheme = scheme;
+        this.credentials = credentials;
+    }
+
+    /**
+     *
+     * @param exchange
+     * @return the Authorization header of the request, parsed on first call
+     */
+    public static AuthorizationHeader of(HttpServerExchange exchange) {
+        var header = exchange.getAttachment(ATTACHMENT_KEY);
+
+        if (header == null) {
+            header = parse(exchange.getRequestHeaders().getFirst(AUTHORIZATION));
+            exchange.putAttachment(ATTACHMENT_KEY, header);
+        }
+
+        return header;
+    }
+
+    /**
+     * overwrites the decoded basic password, to be called when the
+     * authentication is completed
+     *
+     * @param exchange
+     */
+    public static void clear(HttpServerExchange exchange) {
+        var header = exchange.getAttachment(ATTACHMENT_KEY);
+
+        if (header != null && header.basicPassword != null) {
+            Arrays.fill(header.basicPassword, (char) 0x00);
+        }
+    }
+
+    static AuthorizationHeader parse(String value) {
+        if (value == null) {
+            return ABSENT;
+        }
+
+        var trimmed = value.trim();
+
+        if (trimmed.isEmpty()) {
+            return ABSENT;
+        }
+
+        int space = trimmed.indexOf(' ');
+
+        if (space < 0) {
+            return new AuthorizationHeader(scheme(trimmed, trimmed.length()), "");
+        } else {
+            return new AuthorizationHeader(scheme(trimmed, space),
+                    trimmed.substring(space + 1).trim());
+        }
+    }
+
+    /**
+     * @return the scheme in lower case, reusing the constants of the known
+     * schemes
+     */
+    private static String scheme(String value, int end) {
+        for (String known : KNOWN_SCHEMES) {
+            if (end == known.length()
+                    && value.regionMatches(true, 0, known, 0, end)) {
+                return known;
+            }
+        }
+
+        return value.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return true if the request has the Authorization header
+     */
+    public boolean isPresent() {
+        return scheme != null;
+    }
+
+    /**
+     * @return the authentication scheme in lower case or null if the request
+     * does not have the Authorization header
+     */
+    public String getScheme() {
+        return scheme;
+    }
+
+    /**
+     * @param scheme the scheme in lower case
+     * @return true if the header uses the given scheme
+     */
+    public boolean isScheme(String scheme) {
+        return this.scheme != null && this.scheme.equals(scheme);
+    }
+
+    /**
+     * @return the header value following the scheme
+     */
+    public String getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * @return the user name of the basic scheme, or null if the header does
+     * not hold valid basic credentials
+     */
+    public String getBasicUserName() {
+        decodeBasic();
+        return basicUserName;
+    }
+
+    /**
+     * @return the password of the basic scheme, or null if the header does not
+     * hold valid basic credentials
+     */
+    public char[] getBasicPassword() {
+        decodeBasic();
+        return basicPassword;
+    }
+
+    /**
+     * @return the user name of the basic or digest scheme, or null if not
+     * available
+     */
+    public String getUserName() {
+        if (isScheme(BASIC)) {
+            return getBasicUserName();
+        } else if (isScheme(DIGEST)) {
+            return digestUserName(credentials);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return the value of the username parameter of digest credentials
+     */
+    static String digestUserName(String credentials) {
+        int idx = 0;
+
+        while (idx < credentials.length()) {
+            int eq = credentials.indexOf('=', idx);
+
+            if (eq < 0) {
+                return null;
+            }
+
+            var name = credentials.substring(idx, eq).trim();
+            int start = eq + 1;
+            int end;
+            String value;
+
+            if (start < credentials.length()
+                    && credentials.charAt(start) == '"') {
+                end = credentials.indexOf('"', start + 1);
+
+                if (end < 0) {
+                    return null;
+                }
+
+                value = credentials.substring(start + 1, end);
+                end = credentials.indexOf(',', end);
+            } else {
+                end = credentials.indexOf(',', start);
+                value = credentials.substring(start,
+                        end < 0 ? credentials.length() : end).trim();
+            }
+
+            if ("username".equalsIgnoreCase(name)) {
+                return value;
+            }
+
+            if (end < 0) {
+                return null;
+            }
+
+            idx = end + 1;
+        }
+
+        return null;
+    }
+
+    private void decodeBasic() {
+        if (basicDecoded) {
+            return;
+        }
+
+        basicDecoded = true;
+
+        if (!isScheme(BASIC)) {
+            return;
+        }
+
+        CharBuffer plain;
+
+        try {
+            plain = StandardCharsets.UTF_8.decode(FlexBase64.decode(credentials));
+        }
+        catch (IOException | IllegalArgumentException e) {
+            return;
+        }
+
+        int start = plain.position();
+        int end = plain.limit();
+        int colon = -1;
+
+        for (int i = start; i < end; i++) {
+            if (plain.get(i) == ':') {
+                colon = i;
+                break;
+            }
+        }
+
+        if (colon > -1) {
+            char[] chars = plain.array();
+            int offset = plain.arrayOffset();
+
+            basicUserName = new String(chars, offset + start, colon - start);
+            basicPassword = Arrays.copyOfRange(chars, offset + colon + 1,
+                    offset + end);
+
+            Arrays.fill(chars, (char) 0x00);
+        }
+    }
+}
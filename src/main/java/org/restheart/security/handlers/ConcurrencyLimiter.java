@@ -0,0 +1,207 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.RequestLimit;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.restheart.ConfigurationException;
+import org.restheart.handlers.PipelinedHandler;
+import org.restheart.security.ConfigurationKeys;
+import org.restheart.security.utils.AdaptiveLimit;
+
+/**
+ * limits the requests in flight to a proxied location, acting as a bulkhead:
+ * requests over the limit wait in the queue of the location and are rejected
+ * with 503 Service Unavailable when the queue is full, so that a slow backend
+ * cannot hold the requests capacity of the other locations.
+ *
+ * The limit is adjusted by an AdaptiveLimit on the latency observed from the
+ * admission of the request to the completion of the exchange.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class ConcurrencyLimiter extends PipelinedHandler {
+
+    public static final int DEFAULT_INITIAL = 20;
+    public static final int DEFAULT_MIN = 1;
+    public static final int DEFAULT_MAX = 200;
+    public static final int DEFAULT_QUEUE_SIZE = 50;
+    public static final long DEFAULT_LATENCY_THRESHOLD = 1_000;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    private final AdaptiveLimit limit;
+    private final RequestLimit requestLimit;
+
+    private final AtomicInteger inflight = new AtomicInteger(0);
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     *
+     * @param limit
+     * @param queueSize the maximum number of requests waiting
+     */
+    public ConcurrencyLimiter(AdaptiveLimit limit, int queueSize) {
+        super();
+        this.limit = limit;
+        this.requestLimit = new RequestLimit(limit.getLimit(), queueSize);
+        this.requestLimit.setFailureHandler(this::reject);
+    }
+
+    /**
+     * builds the ConcurrencyLimiter from the concurrency-limit configuration
+     * of a proxied location
+     *
+     * @param conf the concurrency-limit configuration
+     * @return the ConcurrencyLimiter or null if conf is null
+     * @throws ConfigurationException
+     */
+    public static ConcurrencyLimiter build(Map<String, Object> conf)
+            throws ConfigurationException {
+        if (conf == null) {
+            return null;
+        }
+
+        var _algorithm = conf.getOrDefault(
+                ConfigurationKeys.CONCURRENCY_LIMIT_ALGORITHM_KEY,
+                AdaptiveLimit.Algorithm.GRADIENT.name());
+
+        AdaptiveLimit.Algorithm algorithm;
+
+        try {
+            algorithm = AdaptiveLimit.Algorithm.valueOf(
+                    _algorithm.toString().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong concurrency limit, "
+                    + ConfigurationKeys.CONCURRENCY_LIMIT_ALGORITHM_KEY
+                    + " must be fixed, aimd or gradient");
+        }
+
+        try {
+            var adaptiveLimit = new AdaptiveLimit(algorithm,
+                    number(conf, ConfigurationKeys.CONCURRENCY_LIMIT_INITIAL_KEY,
+                            DEFAULT_INITIAL).intValue(),
+                    number(conf, ConfigurationKeys.CONCURRENCY_LIMIT_MIN_KEY,
+                            DEFAULT_MIN).intValue(),
+                    number(conf, ConfigurationKeys.CONCURRENCY_LIMIT_MAX_KEY,
+                            DEFAULT_MAX).intValue(),
+                    TimeUnit.MILLISECONDS.toNanos(number(conf,
+                            ConfigurationKeys.CONCURRENCY_LIMIT_LATENCY_THRESHOLD_KEY,
+                            DEFAULT_LATENCY_THRESHOLD).longValue()),
+                    number(conf, ConfigurationKeys.CONCURRENCY_LIMIT_BACKOFF_RATIO_KEY,
+                            DEFAULT_BACKOFF_RATIO).doubleValue());
+
+            var queueSize = number(conf,
+                    ConfigurationKeys.CONCURRENCY_LIMIT_QUEUE_SIZE_KEY,
+                    DEFAULT_QUEUE_SIZE).intValue();
+
+            if (queueSize < 0) {
+                throw new IllegalArgumentException("queue-size must not be "
+                        + "negative");
+            }
+
+            return new ConcurrencyLimiter(adaptiveLimit, queueSize);
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong concurrency limit, "
+                    + iae.getMessage());
+        }
+    }
+
+    private static Number number(Map<String, Object> conf, String key,
+            Number defaultValue) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return (Number) value;
+        } else {
+            throw new ConfigurationException("Wrong concurrency limit, "
+                    + key + " must be a number");
+        }
+    }
+
+    /**
+     *
+     * @param exchange
+     * @throws Exception
+     */
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        requestLimit.handleRequest(exchange, this::admit);
+    }
+
+    private void admit(HttpServerExchange exchange) throws Exception {
+        final long start = System.nanoTime();
+
+        inflight.incrementAndGet();
+
+        exchange.addExchangeCompleteListener((ex, nextListener) -> {
+            try {
+                var status = ex.getStatusCode();
+
+                var newLimit = limit.sample(System.nanoTime() - start,
+                        inflight.getAndDecrement(),
+                        status == StatusCodes.BAD_GATEWAY
+                        || status == StatusCodes.SERVICE_UNAVAILABLE
+                        || status == StatusCodes.GATEWAY_TIME_OUT);
+
+                if (newLimit != requestLimit.getMaximumConcurrentRequests()) {
+                    requestLimit.setMaximumConcurrentRequests(newLimit);
+                }
+            }
+            finally {
+                nextListener.proceed();
+            }
+        });
+
+        next(exchange);
+    }
+
+    private void reject(HttpServerExchange exchange) {
+        rejected.increment();
+
+        exchange.getResponseHeaders().put(Headers.RETRY_AFTER, 1);
+        CORSHandler.injectAccessControlAllowHeaders(exchange);
+        exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+        exchange.endExchange();
+    }
+
+    /**
+     * @return the counters of the limiter
+     */
+    public Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        ret.put("algorithm", limit.getAlgorithm().name().toLowerCase(Locale.ROOT));
+        ret.put("limit", limit.getLimit());
+        ret.put("inflight", inflight.get());
+        ret.put("rejected", rejected.sum());
+
+        return ret;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * closes the HTTP/1.x connections after their current request while the
+ * instance is draining, i.e. when it is being stopped but still serving
+ * requests, so that clients reconnect to other instances; meanwhile the ping
+ * service answers 503 Service Unavailable to let load balancers stop routing
+ * requests to this instance.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class DrainingHandler implements HttpHandler {
+
+    private static volatile boolean draining = false;
+
+    private final HttpHandler next;
+
+    /**
+     *
+     * @param next
+     */
+    public DrainingHandler(HttpHandler next) {
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (draining) {
+            // adds Connection: close and closes the connection after the
+            // response, no effect on HTTP/2
+            exchange.setPersistent(false);
+        }
+
+        next.handleRequest(exchange);
+    }
+
+    /**
+     * starts draining
+     */
+    public static void drain() {
+        draining = true;
+    }
+
+    /**
+     * @return true if the instance is draining
+     */
+    public static boolean isDraining() {
+        return draining;
+    }
+}
@@ -21,6 +21,7 @@ import io.undertow.connector.PooledByteBuffer;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.protocol.http.ServerFixedLengthStreamSinkConduit;
 import io.undertow.util.Headers;
+import io.undertow.util.Protocols;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
@@ -266,6 +267,11 @@ public class ModifiableContentSinkConduit
                 LOGGER.error("could not access BUFFERED_REQUEST_DATA field", ex);
                 throw new RuntimeException("could not access BUFFERED_REQUEST_DATA field", ex);
             }
+        } else if (Protocols.HTTP_2_0.equals(exchange.getProtocol())) {
+            // over HTTP/2 the content length is sent with the headers frame
+            // on the first write, so updating the header is enough
+            LOGGER.trace("updateContentLenght() next is {} on HTTP/2 stream",
+                    next.getClass().getSimpleName());
         } else {
             LOGGER.warn("updateContentLenght() next is {}", next.getClass().getSimpleName());
         }
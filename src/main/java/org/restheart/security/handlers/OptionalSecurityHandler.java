@@ -0,0 +1,68 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers;
+
+import io.undertow.server.HttpServerExchange;
+import java.util.Set;
+import org.restheart.handlers.PipelinedHandler;
+import org.restheart.plugins.PluginRecord;
+import org.restheart.plugins.security.AuthMechanism;
+import org.restheart.plugins.security.Authorizer;
+import org.restheart.plugins.security.TokenManager;
+
+/**
+ * a SecurityHandler that only executes the security chain for requests
+ * carrying credentials, i.e. with the Authorization header; other requests go
+ * straight to the next handler, unauthenticated.
+ *
+ * it is used by services with secured: false and authenticate-if-credentials:
+ * true, so that the services can still identify the caller when possible.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class OptionalSecurityHandler extends SecurityHandler {
+
+    private PipelinedHandler unsecuredNext;
+
+    /**
+     *
+     * @param mechanisms
+     * @param authorizers
+     * @param tokenManager
+     */
+    public OptionalSecurityHandler(final Set<PluginRecord<AuthMechanism>> mechanisms,
+            final Set<PluginRecord<Authorizer>> authorizers,
+            final PluginRecord<TokenManager> tokenManager) {
+        super(mechanisms, authorizers, tokenManager);
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (AuthorizationHeader.of(exchange).isPresent()) {
+            next(exchange);
+        } else if (unsecuredNext != null) {
+            unsecuredNext.handleRequest(exchange);
+        }
+    }
+
+    @Override
+    protected void setNext(PipelinedHandler next) {
+        this.unsecuredNext = next;
+        super.setNext(next);
+    }
+}
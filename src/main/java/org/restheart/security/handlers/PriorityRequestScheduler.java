@@ -0,0 +1,502 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers;
+
+import io.undertow.predicate.Predicate;
+import io.undertow.predicate.PredicateParser;
+import io.undertow.server.Connectors;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+import org.xnio.XnioExecutor;
+
+/**
+ * limits the requests being processed like RequestLimitingHandler, but
+ * requests over the limit wait in the queue of their priority class instead
+ * of a single FIFO queue.
+ *
+ * Classes are matched with undertow predicates, in the configured order; the
+ * class without predicate matches any request and must be the last one. When
+ * a request completes, the next one is taken from the queues with weighted
+ * deficit round robin, so that each class gets a share of the capacity
+ * proportional to its weight. Requests are rejected with 503 Service
+ * Unavailable when the queue of their class is full or after waiting longer
+ * than max-wait; a timer on the IO thread of the request rejects it at
+ * max-wait even if no request completes in the meantime.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class PriorityRequestScheduler implements HttpHandler {
+
+    public static final String DEFAULT_CLASS = "default";
+    public static final int DEFAULT_WEIGHT = 4;
+
+    private final HttpHandler next;
+    private final int maxRequests;
+    private final PriorityClass[] classes;
+
+    private final ExchangeCompletionListener completionListener
+            = (exchange, nextListener) -> {
+                try {
+                    completed();
+                }
+                finally {
+                    nextListener.proceed();
+                }
+            };
+
+    // guarded by this
+    private int requests = 0;
+    private int queued = 0;
+    private int cursor = 0;
+
+    /**
+     *
+     * @param classes the priority classes
+     * @param maxRequests the maximum number of requests being processed
+     * @param next
+     */
+    public PriorityRequestScheduler(List<PriorityClass> classes,
+            int maxRequests,
+            HttpHandler next) {
+        if (classes.isEmpty() || !classes.get(classes.size() - 1).matchesAny()) {
+            throw new IllegalArgumentException("the last priority class "
+                    + "must match any request");
+        }
+
+        this.classes = classes.toArray(new PriorityClass[classes.size()]);
+        this.maxRequests = maxRequests;
+        this.next = next;
+    }
+
+    /**
+     * builds the priority classes from the requests-scheduling configuration;
+     * if no class is defined without predicate, the default class is added
+     * with weight 4 and unbounded queue
+     *
+     * @param conf the requests-scheduling configuration
+     * @return the priority classes
+     * @throws ConfigurationException
+     */
+    public static List<PriorityClass> classes(List<Map<String, Object>> conf)
+            throws ConfigurationException {
+        var ret = new ArrayList<PriorityClass>();
+
+        for (var c : conf) {
+            if (!ret.isEmpty() && ret.get(ret.size() - 1).matchesAny()) {
+                throw new ConfigurationException("Wrong requests scheduling, "
+                        + "the class without predicate must be the last one");
+            }
+
+            var name = c.get(ConfigurationKeys.REQUESTS_SCHEDULING_NAME_KEY);
+            var _predicate = c.get(ConfigurationKeys.REQUESTS_SCHEDULING_PREDICATE_KEY);
+
+            if (!(name instanceof String)) {
+                throw new ConfigurationException("Wrong requests scheduling, "
+                        + "each class must have a name");
+            }
+
+            Predicate predicate = null;
+
+            if (_predicate != null) {
+                try {
+                    predicate = PredicateParser.parse(_predicate.toString(),
+                            PriorityRequestScheduler.class.getClassLoader());
+                }
+                catch (Throwable t) {
+                    throw new ConfigurationException("Wrong requests "
+                            + "scheduling, invalid predicate " + _predicate
+                            + " of class " + name, t);
+                }
+            }
+
+            try {
+                ret.add(new PriorityClass((String) name,
+                        predicate,
+                        number(c, ConfigurationKeys.REQUESTS_SCHEDULING_WEIGHT_KEY,
+                                DEFAULT_WEIGHT).intValue(),
+                        number(c, ConfigurationKeys.REQUESTS_SCHEDULING_QUEUE_SIZE_KEY,
+                                -1).intValue(),
+                        number(c, ConfigurationKeys.REQUESTS_SCHEDULING_MAX_WAIT_KEY,
+                                0).longValue()));
+            }
+            catch (IllegalArgumentException iae) {
+                throw new ConfigurationException("Wrong requests scheduling, "
+                        + iae.getMessage());
+            }
+        }
+
+        if (ret.isEmpty() || !ret.get(ret.size() - 1).matchesAny()) {
+            ret.add(new PriorityClass(DEFAULT_CLASS,
+                    null,
+                    DEFAULT_WEIGHT,
+                    -1,
+                    0));
+        }
+
+        return ret;
+    }
+
+    private static Number number(Map<String, Object> conf, String key,
+            Number defaultValue) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return (Number) value;
+        } else {
+            throw new ConfigurationException("Wrong requests scheduling, "
+                    + key + " must be a number");
+        }
+    }
+
+    /**
+     *
+     * @param exchange
+     * @throws Exception
+     */
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        final var pc = classify(exchange);
+        boolean admitted = false;
+
+        synchronized (this) {
+            if (requests < maxRequests && queued == 0) {
+                requests++;
+                admitted = true;
+            }
+        }
+
+        if (admitted) {
+            pc.admitted.increment();
+            exchange.addExchangeCompleteListener(completionListener);
+            next.handleRequest(exchange);
+            return;
+        }
+
+        exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+            var waiting = new Waiting(pc,
+                    () -> {
+                        exchange.addExchangeCompleteListener(completionListener);
+                        exchange.dispatch(next);
+                    },
+                    () -> exchange.dispatch(PriorityRequestScheduler::reject));
+
+            switch (offer(waiting)) {
+                case ADMITTED:
+                    waiting.admit();
+                    break;
+                case REJECTED:
+                    pc.rejected.increment();
+                    Connectors.executeRootHandler(
+                            PriorityRequestScheduler::reject,
+                            exchange);
+                    break;
+                default:
+                    if (pc.maxWait > 0) {
+                        waiting.timer = exchange.getIoThread().executeAfter(
+                                () -> expire(waiting),
+                                pc.maxWait,
+                                TimeUnit.NANOSECONDS);
+                    }
+            }
+        });
+    }
+
+    /**
+     * admits the request if under the limit and nobody is waiting, otherwise
+     * queues it unless the queue of its class is full
+     *
+     * @param waiting
+     * @return the outcome
+     */
+    Offer offer(Waiting waiting) {
+        var pc = waiting.priorityClass;
+
+        // the request could have completed in the meantime
+        synchronized (this) {
+            if (requests < maxRequests && queued == 0) {
+                requests++;
+                return Offer.ADMITTED;
+            } else if (pc.queueSize >= 0 && pc.queue.size() >= pc.queueSize) {
+                return Offer.REJECTED;
+            } else {
+                pc.queue.add(waiting);
+                queued++;
+                return Offer.QUEUED;
+            }
+        }
+    }
+
+    /**
+     * rejects the request if still waiting, invoked by its max-wait timer
+     *
+     * @param waiting
+     * @return true if the request was waiting
+     */
+    boolean expire(Waiting waiting) {
+        synchronized (this) {
+            if (!waiting.priorityClass.queue.remove(waiting)) {
+                return false;
+            }
+
+            queued--;
+        }
+
+        waiting.reject();
+
+        return true;
+    }
+
+    private PriorityClass classify(HttpServerExchange exchange) {
+        for (var c : classes) {
+            if (c.matchesAny() || c.predicate.resolve(exchange)) {
+                return c;
+            }
+        }
+
+        return classes[classes.length - 1];
+    }
+
+    /**
+     * invoked when an admitted request completes, admits the next waiting
+     * request
+     */
+    void completed() {
+        var expired = new ArrayList<Waiting>();
+        Waiting waiting;
+
+        synchronized (this) {
+            requests--;
+
+            while ((waiting = poll()) != null) {
+                if (waiting.isExpired()) {
+                    expired.add(waiting);
+                } else {
+                    requests++;
+                    break;
+                }
+            }
+        }
+
+        for (var e : expired) {
+            e.cancelTimer();
+            e.reject();
+        }
+
+        if (waiting != null) {
+            waiting.cancelTimer();
+            waiting.admit();
+        }
+    }
+
+    /**
+     * takes the next waiting request with deficit round robin; each visit to
+     * a class with waiting requests adds its weight to its deficit and each
+     * request taken costs one.
+     *
+     * @return the next waiting request or null if none is waiting
+     */
+    private Waiting poll() {
+        while (queued > 0) {
+            var c = classes[cursor];
+
+            if (c.queue.isEmpty()) {
+                c.deficit = 0;
+            } else if (c.deficit >= 1) {
+                c.deficit--;
+                queued--;
+                return c.queue.poll();
+            }
+
+            cursor = (cursor + 1) % classes.length;
+
+            if (!classes[cursor].queue.isEmpty()) {
+                classes[cursor].deficit += classes[cursor].weight;
+            }
+        }
+
+        return null;
+    }
+
+    private static void reject(HttpServerExchange exchange) {
+        exchange.getResponseHeaders().put(Headers.RETRY_AFTER, 1);
+        CORSHandler.injectAccessControlAllowHeaders(exchange);
+        exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+        exchange.endExchange();
+    }
+
+    /**
+     * @return the counters of the priority classes
+     */
+    public Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        synchronized (this) {
+            ret.put("requests", requests);
+            ret.put("queued", queued);
+
+            for (var c : classes) {
+                var m = new LinkedHashMap<String, Object>();
+
+                m.put("weight", c.weight);
+                m.put("queued", c.queue.size());
+                m.put("admitted", c.admitted.sum());
+                m.put("rejected", c.rejected.sum());
+
+                ret.put(c.name, m);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * a priority class
+     */
+    public static class PriorityClass {
+
+        private final String name;
+        private final Predicate predicate;
+        private final int weight;
+        private final int queueSize;
+        private final long maxWait;
+
+        private final ArrayDeque<Waiting> queue = new ArrayDeque<>();
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        // guarded by the scheduler
+        private int deficit = 0;
+
+        /**
+         *
+         * @param name
+         * @param predicate the predicate matching the requests of the class,
+         * null to match any request
+         * @param weight the share of the capacity, at least 1
+         * @param queueSize the maximum number of waiting requests, -1 for
+         * unbounded
+         * @param maxWait the maximum waiting time in milliseconds, 0 for
+         * unbounded
+         */
+        public PriorityClass(String name,
+                Predicate predicate,
+                int weight,
+                int queueSize,
+                long maxWait) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("weight of class " + name
+                        + " must be positive");
+            }
+
+            if (maxWait < 0) {
+                throw new IllegalArgumentException("max-wait of class " + name
+                        + " must not be negative");
+            }
+
+            this.name = name;
+            this.predicate = predicate;
+            this.weight = weight;
+            this.queueSize = queueSize;
+            this.maxWait = maxWait * 1_000_000;
+        }
+
+        /**
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        private boolean matchesAny() {
+            return predicate == null;
+        }
+    }
+
+    /**
+     * the outcome of offer()
+     */
+    enum Offer {
+        ADMITTED, QUEUED, REJECTED
+    }
+
+    /**
+     * a request waiting in the queue of its class
+     */
+    static class Waiting {
+
+        private final PriorityClass priorityClass;
+        private final Runnable onAdmit;
+        private final Runnable onReject;
+        private final long since = System.nanoTime();
+
+        // the max-wait timer, null if not armed
+        private volatile XnioExecutor.Key timer = null;
+
+        /**
+         *
+         * @param priorityClass
+         * @param onAdmit dispatches the request to the next handler
+         * @param onReject dispatches the request to the rejecting handler
+         */
+        Waiting(PriorityClass priorityClass,
+                Runnable onAdmit,
+                Runnable onReject) {
+            this.priorityClass = priorityClass;
+            this.onAdmit = onAdmit;
+            this.onReject = onReject;
+        }
+
+        private boolean isExpired() {
+            return priorityClass.maxWait > 0
+                    && System.nanoTime() - since > priorityClass.maxWait;
+        }
+
+        private void admit() {
+            priorityClass.admitted.increment();
+            onAdmit.run();
+        }
+
+        private void reject() {
+            priorityClass.rejected.increment();
+            onReject.run();
+        }
+
+        private void cancelTimer() {
+            var t = timer;
+
+            if (t != null) {
+                t.remove();
+            }
+        }
+    }
+}
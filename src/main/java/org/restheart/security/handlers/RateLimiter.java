@@ -0,0 +1,191 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import java.util.Map;
+import org.restheart.ConfigurationException;
+import org.restheart.handlers.PipelinedHandler;
+import org.restheart.security.ConfigurationKeys;
+import org.restheart.security.utils.TokenBucketTable;
+
+/**
+ * limits the request rate of each client with token buckets, keyed either by
+ * the client IP (to be used before authentication) or by the authenticated
+ * account (to be used after authentication).
+ *
+ * When only the account limit is configured, the requests without an
+ * authenticated account, e.g. to services with secured: false, are limited by
+ * the client IP with the account limit; otherwise the IP limit, applied
+ * before authentication, limits them.
+ *
+ * Requests exceeding the limit get 429 Too Many Requests with the Retry-After
+ * header.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class RateLimiter extends PipelinedHandler {
+
+    /**
+     * the key of the token buckets
+     */
+    public enum Key {
+        IP, ACCOUNT
+    }
+
+    public static final int DEFAULT_SLOTS = 65_536;
+
+    private final Key key;
+    private final TokenBucketTable buckets;
+    private final boolean ipFallback;
+
+    /**
+     *
+     * @param key
+     * @param buckets
+     */
+    public RateLimiter(Key key, TokenBucketTable buckets) {
+        this(key, buckets, false);
+    }
+
+    /**
+     *
+     * @param key
+     * @param buckets
+     * @param ipFallback true to limit by client IP the requests without an
+     * authenticated account, when the key is ACCOUNT
+     */
+    public RateLimiter(Key key, TokenBucketTable buckets, boolean ipFallback) {
+        super();
+        this.key = key;
+        this.buckets = buckets;
+        this.ipFallback = ipFallback;
+    }
+
+    /**
+     * builds the RateLimiter for the given key from the rate-limit
+     * configuration of a proxied location or of a service
+     *
+     * @param conf the rate-limit configuration
+     * @param key
+     * @return the RateLimiter or null if the configuration does not define a
+     * limit for the key
+     * @throws ConfigurationException
+     */
+    public static RateLimiter build(Map<String, Object> conf, Key key)
+            throws ConfigurationException {
+        if (conf == null) {
+            return null;
+        }
+
+        var _limit = conf.get(key == Key.IP
+                ? ConfigurationKeys.RATE_LIMIT_IP_KEY
+                : ConfigurationKeys.RATE_LIMIT_ACCOUNT_KEY);
+
+        if (_limit == null) {
+            return null;
+        }
+
+        if (!(_limit instanceof Map)) {
+            throw new ConfigurationException("Wrong rate limit, "
+                    + key.name().toLowerCase() + " must be an object");
+        }
+
+        var limit = (Map<String, Object>) _limit;
+
+        var rate = number(limit, ConfigurationKeys.RATE_LIMIT_RATE_KEY, null);
+        var burst = number(limit, ConfigurationKeys.RATE_LIMIT_BURST_KEY, rate);
+        var slots = number(conf, ConfigurationKeys.RATE_LIMIT_SLOTS_KEY,
+                DEFAULT_SLOTS);
+
+        try {
+            return new RateLimiter(key, new TokenBucketTable(slots.intValue(),
+                    rate.doubleValue(),
+                    Math.max(1, burst.longValue())),
+                    // without the ip limit, nothing else limits the
+                    // unauthenticated requests
+                    key == Key.ACCOUNT
+                    && conf.get(ConfigurationKeys.RATE_LIMIT_IP_KEY) == null);
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong rate limit, "
+                    + iae.getMessage());
+        }
+    }
+
+    private static Number number(Map<String, Object> conf, String key,
+            Number defaultValue) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null && defaultValue != null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return (Number) value;
+        } else {
+            throw new ConfigurationException("Wrong rate limit, "
+                    + key + " must be a number");
+        }
+    }
+
+    /**
+     *
+     * @param exchange
+     * @throws Exception
+     */
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        long wait;
+
+        if (key == Key.IP) {
+            wait = byIp(exchange);
+        } else {
+            var sc = exchange.getSecurityContext();
+
+            if (sc != null
+                    && sc.getAuthenticatedAccount() != null
+                    && sc.getAuthenticatedAccount().getPrincipal() != null
+                    && sc.getAuthenticatedAccount().getPrincipal().getName() != null) {
+                wait = buckets.tryAcquire(sc.getAuthenticatedAccount()
+                        .getPrincipal().getName().hashCode());
+            } else if (ipFallback) {
+                wait = byIp(exchange);
+            } else {
+                // unauthenticated requests are limited by the ip limiter
+                wait = 0;
+            }
+        }
+
+        if (wait == 0) {
+            next(exchange);
+        } else {
+            // Retry-After is in seconds
+            exchange.getResponseHeaders().put(Headers.RETRY_AFTER,
+                    (wait + 999) / 1_000);
+            CORSHandler.injectAccessControlAllowHeaders(exchange);
+            exchange.setStatusCode(StatusCodes.TOO_MANY_REQUESTS);
+            exchange.endExchange();
+        }
+    }
+
+    private long byIp(HttpServerExchange exchange) {
+        return buckets.tryAcquire(exchange.getSourceAddress()
+                .getAddress().hashCode());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * the directives of Cache-Control headers
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class CacheControl {
+
+    private static final CacheControl EMPTY = new CacheControl(Map.of());
+
+    private final Map<String, String> directives;
+
+    private CacheControl(Map<String, String> directives) {
+        this.directives = directives;
+    }
+
+    /**
+     *
+     * @param values the values of the Cache-Control headers, can be null
+     * @return the CacheControl
+     */
+    public static CacheControl parse(Iterable<String> values) {
+        if (values == null) {
+            return EMPTY;
+        }
+
+        var directives = new HashMap<String, String>();
+
+        for (var value : values) {
+            parse(value, directives);
+        }
+
+        return directives.isEmpty() ? EMPTY : new CacheControl(directives);
+    }
+
+    private static void parse(String value, Map<String, String> directives) {
+        int start = 0;
+        boolean quoted = false;
+
+        for (int i = 0; i <= value.length(); i++) {
+            if (i < value.length()) {
+                var c = value.charAt(i);
+
+                if (c == '"') {
+                    quoted = !quoted;
+                }
+
+                if (c != ',' || quoted) {
+                    continue;
+                }
+            }
+
+            var directive = value.substring(start, i).trim();
+            start = i + 1;
+
+            if (directive.isEmpty()) {
+                continue;
+            }
+
+            var eq = directive.indexOf('=');
+
+            if (eq < 0) {
+                directives.put(directive.toLowerCase(Locale.ROOT), null);
+            } else {
+                var arg = directive.substring(eq + 1).trim();
+
+                if (arg.length() > 1 && arg.startsWith("\"") && arg.endsWith("\"")) {
+                    arg = arg.substring(1, arg.length() - 1);
+                }
+
+                directives.put(directive.substring(0, eq).trim()
+                        .toLowerCase(Locale.ROOT), arg);
+            }
+        }
+    }
+
+    /**
+     * @param directive
+     * @return true if the directive is present
+     */
+    public boolean has(String directive) {
+        return directives.containsKey(directive);
+    }
+
+    /**
+     * @param directive a directive with delta-seconds argument, e.g. max-age
+     * @return the seconds or -1 if the directive is missing or invalid
+     */
+    public long seconds(String directive) {
+        var arg = directives.get(directive);
+
+        if (arg == null) {
+            return -1;
+        }
+
+        try {
+            var ret = Long.parseLong(arg);
+            return ret < 0 ? -1 : ret;
+        }
+        catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+}
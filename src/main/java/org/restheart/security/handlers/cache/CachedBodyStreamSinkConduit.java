@@ -0,0 +1,130 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.ConduitWritableByteChannel;
+import org.xnio.conduits.Conduits;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * a conduit that sends a cached body in place of the response content, e.g.
+ * of a 304 Not Modified response of the backend turned into the cached
+ * response: the content written is discarded and, when the writes terminate,
+ * the cached body is written by the following flushes.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+class CachedBodyStreamSinkConduit
+        extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+    private final ByteBuffer body;
+
+    private boolean terminated = false;
+    private boolean nextTerminated = false;
+
+    /**
+     *
+     * @param next
+     * @param body the cached body
+     */
+    CachedBodyStreamSinkConduit(StreamSinkConduit next, ByteBuffer body) {
+        super(next);
+        this.body = body;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        var discarded = src.remaining();
+
+        src.position(src.limit());
+
+        return discarded;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offs, int len) throws IOException {
+        long discarded = 0;
+
+        for (int i = 0; i < len; i++) {
+            discarded += write(srcs[offs + i]);
+        }
+
+        return discarded;
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        return src.transferTo(position, count, new ConduitWritableByteChannel(this));
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        return IoUtils.transfer(source, count, throughBuffer, new ConduitWritableByteChannel(this));
+    }
+
+    @Override
+    public int writeFinal(ByteBuffer src) throws IOException {
+        return Conduits.writeFinalBasic(this, src);
+    }
+
+    @Override
+    public long writeFinal(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        return Conduits.writeFinalBasic(this, srcs, offset, length);
+    }
+
+    @Override
+    public void terminateWrites() throws IOException {
+        if (!terminated) {
+            terminated = true;
+            writeBody();
+        }
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        if (terminated && !writeBody()) {
+            return false;
+        }
+
+        return next.flush();
+    }
+
+    /**
+     * @return true if the body is written and the writes of next terminated
+     */
+    private boolean writeBody() throws IOException {
+        while (body.hasRemaining()) {
+            if (next.write(body) == 0) {
+                return false;
+            }
+        }
+
+        if (!nextTerminated) {
+            nextTerminated = true;
+            next.terminateWrites();
+        }
+
+        return true;
+    }
+}
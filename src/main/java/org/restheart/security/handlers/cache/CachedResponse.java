@@ -0,0 +1,138 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import io.undertow.util.HeaderMap;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a cached response; the body is stored in a direct buffer, off the heap.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+class CachedResponse {
+
+    private final int status;
+    private final HeaderMap headers;
+    private final ByteBuffer body;
+    private final String etag;
+    private final Map<String, String> variant;
+
+    // updated on revalidation
+    private volatile long storedAt;
+    private volatile long freshFor;
+
+    /**
+     *
+     * @param status
+     * @param headers the headers to send with the response
+     * @param body
+     * @param etag the ETag or null
+     * @param variant the values of the request headers the response varies
+     * on, by lowercase header name
+     * @param storedAt the time the response was stored in nanoseconds
+     * @param freshFor the freshness lifetime in nanoseconds
+     */
+    CachedResponse(int status,
+            HeaderMap headers,
+            byte[] body,
+            String etag,
+            Map<String, String> variant,
+            long storedAt,
+            long freshFor) {
+        this.status = status;
+        this.headers = headers;
+        this.body = ByteBuffer.allocateDirect(body.length)
+                .put(body)
+                .flip()
+                .asReadOnlyBuffer();
+        this.etag = etag;
+        this.variant = variant;
+        this.storedAt = storedAt;
+        this.freshFor = freshFor;
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    HeaderMap getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return a read only view of the body
+     */
+    ByteBuffer getBody() {
+        return body.duplicate();
+    }
+
+    int getBodySize() {
+        return body.capacity();
+    }
+
+    String getEtag() {
+        return etag;
+    }
+
+    Map<String, String> getVariant() {
+        return variant;
+    }
+
+    boolean isFresh(long now) {
+        return now - storedAt < freshFor;
+    }
+
+    /**
+     * @param now
+     * @return the age in seconds
+     */
+    long age(long now) {
+        return TimeUnit.NANOSECONDS.toSeconds(now - storedAt);
+    }
+
+    /**
+     * makes the response fresh again after a successful revalidation
+     *
+     * @param now
+     * @param freshFor
+     */
+    void revalidated(long now, long freshFor) {
+        this.storedAt = now;
+        this.freshFor = freshFor;
+    }
+
+    /**
+     * @return the approximate size in bytes
+     */
+    int weight() {
+        int ret = body.capacity() + 64;
+
+        for (var values : headers) {
+            ret += values.getHeaderName().length();
+
+            for (var value : values) {
+                ret += value.length();
+            }
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.ConduitWritableByteChannel;
+import org.xnio.conduits.Conduits;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * a conduit that copies the response content while it is written; when the
+ * writes terminate the content is passed to the consumer, unless it exceeds
+ * the maximum size.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+class CachingStreamSinkConduit
+        extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+    private final int maxSize;
+    private final Consumer<byte[]> consumer;
+
+    private byte[] data = new byte[1024];
+    private int size = 0;
+    private boolean overflow = false;
+    private boolean terminated = false;
+
+    /**
+     *
+     * @param next
+     * @param maxSize the maximum size of the content to copy
+     * @param consumer receives the content
+     */
+    CachingStreamSinkConduit(StreamSinkConduit next,
+            int maxSize,
+            Consumer<byte[]> consumer) {
+        super(next);
+        this.maxSize = maxSize;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        var position = src.position();
+        var written = next.write(src);
+
+        copy(src, position, written);
+
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offs, int len) throws IOException {
+        var positions = new int[len];
+
+        for (int i = 0; i < len; i++) {
+            positions[i] = srcs[offs + i].position();
+        }
+
+        var written = next.write(srcs, offs, len);
+
+        for (int i = 0; i < len; i++) {
+            copy(srcs[offs + i], positions[i],
+                    srcs[offs + i].position() - positions[i]);
+        }
+
+        return written;
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        return src.transferTo(position, count, new ConduitWritableByteChannel(this));
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        return IoUtils.transfer(source, count, throughBuffer, new ConduitWritableByteChannel(this));
+    }
+
+    @Override
+    public int writeFinal(ByteBuffer src) throws IOException {
+        return Conduits.writeFinalBasic(this, src);
+    }
+
+    @Override
+    public long writeFinal(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        return Conduits.writeFinalBasic(this, srcs, offset, length);
+    }
+
+    @Override
+    public void terminateWrites() throws IOException {
+        next.terminateWrites();
+
+        if (!terminated && !overflow) {
+            terminated = true;
+            consumer.accept(Arrays.copyOf(data, size));
+        }
+    }
+
+    private void copy(ByteBuffer src, int position, int count) {
+        if (overflow || count <= 0) {
+            return;
+        }
+
+        if (size + count > maxSize) {
+            overflow = true;
+            data = null;
+            return;
+        }
+
+        if (size + count > data.length) {
+            data = Arrays.copyOf(data,
+                    Math.min(maxSize, Math.max(size + count, data.length * 2)));
+        }
+
+        var view = src.duplicate();
+        view.position(position);
+        view.get(data, size, count);
+
+        size += count;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.SameThreadExecutor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * coalesces concurrent identical GET requests (single flight): the first
+ * request is forwarded to the backend and its buffered response is sent also
+ * to the requests with the same path, query, Accept and Accept-Encoding
+ * headers and authorization partition received while it is in flight.
+ * Conditional and range requests are not coalesced.
+ *
+ * If the response of the first request cannot be shared, because it is not
+ * complete, it sets cookies, it varies on other request headers than Accept
+ * and Accept-Encoding or it is larger than max-size, the waiting requests are
+ * forwarded to the backend.
+ *
+ * Only the headers of the backend are shared, as for the ResponseCache: those
+ * set by the gateway for the first request, e.g. its auth token, are not.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class CoalescingHandler implements HttpHandler {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(CoalescingHandler.class);
+
+    /**
+     * the request headers of the key, responses varying on other headers are
+     * not shared
+     */
+    private static final Set<String> KEY_HEADERS
+            = Set.of("accept", "accept-encoding");
+
+    private final HttpHandler next;
+    private final ResponseCache.Partition partition;
+    private final int maxSize;
+
+    private final Map<ResponseCache.Key, Flight> flights
+            = new ConcurrentHashMap<>();
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     *
+     * @param next
+     * @param partition the authorization partition of the requests
+     * @param maxSize the maximum size of a shared response body in bytes
+     */
+    public CoalescingHandler(HttpHandler next,
+            ResponseCache.Partition partition,
+            int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("max-size must be positive");
+        }
+
+        this.next = next;
+        this.partition = partition;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * builds the CoalescingHandler from the coalescing configuration of a
+     * proxied location
+     *
+     * @param conf
+     * @param next
+     * @return the CoalescingHandler or null if conf is null
+     * @throws ConfigurationException
+     */
+    public static CoalescingHandler build(Map<String, Object> conf,
+            HttpHandler next) throws ConfigurationException {
+        if (conf == null) {
+            return null;
+        }
+
+        var _partition = conf.get(ConfigurationKeys.COALESCING_PARTITION_KEY);
+
+        var partition = _partition == null
+                ? ResponseCache.Partition.PRINCIPAL
+                : ResponseCache.Partition.of(_partition);
+
+        var _maxSize = conf.getOrDefault(ConfigurationKeys.COALESCING_MAX_SIZE_KEY,
+                1024 * 1024);
+
+        if (!(_maxSize instanceof Number)) {
+            throw new ConfigurationException("Wrong coalescing, "
+                    + ConfigurationKeys.COALESCING_MAX_SIZE_KEY
+                    + " must be a number");
+        }
+
+        try {
+            return new CoalescingHandler(next, partition,
+                    ((Number) _maxSize).intValue());
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong coalescing, "
+                    + iae.getMessage());
+        }
+    }
+
+    /**
+     * @return the authorization partition of the requests
+     */
+    public ResponseCache.Partition getPartition() {
+        return partition;
+    }
+
+    /**
+     * @param responseHeaders the headers of the response to share
+     * @param gateway the names of the headers set by the gateway before
+     * proxying the request
+     * @return the headers to send to the waiting requests, or null if the
+     * response cannot be shared
+     */
+    static HeaderMap shared(HeaderMap responseHeaders,
+            Set<HttpString> gateway) {
+        if (responseHeaders.contains(Headers.SET_COOKIE)) {
+            return null;
+        }
+
+        var vary = responseHeaders.get(Headers.VARY);
+
+        // Vary: * also
+        if (vary != null && vary.stream()
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .map(name -> name.trim().toLowerCase(Locale.ROOT))
+                .anyMatch(name -> !name.isEmpty()
+                && !KEY_HEADERS.contains(name))) {
+            return null;
+        }
+
+        return ResponseCache.backendHeaders(responseHeaders, gateway);
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (!Methods.GET.equals(exchange.getRequestMethod())
+                || exchange.getRequestContentLength() > 0
+                || exchange.getRequestHeaders().contains(Headers.TRANSFER_ENCODING)
+                || exchange.getRequestHeaders().contains(Headers.UPGRADE)
+                || exchange.getRequestHeaders().contains(Headers.IF_NONE_MATCH)
+                || exchange.getRequestHeaders().contains(Headers.IF_MODIFIED_SINCE)
+                || exchange.getRequestHeaders().contains(Headers.RANGE)) {
+            next.handleRequest(exchange);
+            return;
+        }
+
+        var headers = exchange.getRequestHeaders();
+
+        var key = new ResponseCache.Key(partition.key(exchange),
+                exchange.getRequestURI(),
+                exchange.getQueryString(),
+                ResponseCache.values(headers, "accept")
+                + "\n" + ResponseCache.values(headers, "accept-encoding"));
+
+        var flight = new Flight();
+        var inFlight = flights.putIfAbsent(key, flight);
+
+        if (inFlight != null) {
+            coalesced.increment();
+            exchange.dispatch(SameThreadExecutor.INSTANCE,
+                    () -> inFlight.join(exchange));
+            return;
+        }
+
+        forwarded.increment();
+
+        exchange.addExchangeCompleteListener((ex, nextListener) -> {
+            try {
+                flights.remove(key, flight);
+                // no-op if the response was shared
+                flight.fail();
+            }
+            finally {
+                nextListener.proceed();
+            }
+        });
+
+        var gateway = ResponseCache.gatewayHeaders(exchange);
+
+        exchange.addResponseWrapper((factory, ex) -> {
+            var responseHeaders = ex.getResponseHeaders();
+            final var shared = shared(responseHeaders, gateway);
+
+            if (shared == null) {
+                return factory.create();
+            }
+
+            final var status = ex.getStatusCode();
+
+            final var contentLength = responseHeaders
+                    .getFirst(Headers.CONTENT_LENGTH);
+
+            return new CachingStreamSinkConduit(factory.create(), maxSize,
+                    body -> {
+                        flights.remove(key, flight);
+
+                        // the response was truncated
+                        if (contentLength != null
+                                && !contentLength.equals(String.valueOf(body.length))) {
+                            flight.fail();
+                        } else {
+                            flight.complete(status, shared, body);
+                        }
+                    });
+        });
+
+        next.handleRequest(exchange);
+    }
+
+    /**
+     * @return the metrics of coalescing
+     */
+    public Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        ret.put("in-flight", flights.size());
+        ret.put("forwarded", forwarded.sum());
+        ret.put("coalesced", coalesced.sum());
+        ret.put("fallbacks", fallbacks.sum());
+
+        return ret;
+    }
+
+    /**
+     * a request in flight and the requests waiting for its response
+     */
+    private class Flight {
+
+        // guarded by this
+        private final List<HttpServerExchange> waiting = new ArrayList<>();
+        private boolean done = false;
+        private int status;
+        private HeaderMap headers;
+        private byte[] body;
+
+        /**
+         * waits for the response, the exchange must be dispatched
+         *
+         * @param exchange
+         */
+        void join(HttpServerExchange exchange) {
+            synchronized (this) {
+                if (!done) {
+                    waiting.add(exchange);
+                    return;
+                }
+            }
+
+            resume(exchange);
+        }
+
+        void complete(int status, HeaderMap headers, byte[] body) {
+            List<HttpServerExchange> _waiting;
+
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+
+                this.done = true;
+                this.status = status;
+                this.headers = headers;
+                this.body = body;
+
+                _waiting = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+
+            _waiting.forEach(this::resume);
+        }
+
+        void fail() {
+            List<HttpServerExchange> _waiting;
+
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+
+                this.done = true;
+
+                _waiting = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+
+            _waiting.forEach(this::resume);
+        }
+
+        private void resume(HttpServerExchange exchange) {
+            final int _status;
+            final HeaderMap _headers;
+            final byte[] _body;
+
+            synchronized (this) {
+                _status = status;
+                _headers = headers;
+                _body = body;
+            }
+
+            exchange.getIoThread().execute(() -> {
+                // e.g. the deadline of the request expired
+                if (exchange.isResponseStarted() || exchange.isComplete()) {
+                    return;
+                }
+
+                if (_headers == null) {
+                    LOGGER.debug("Response of {} not shared, forwarding "
+                            + "the request", exchange.getRequestURI());
+
+                    fallbacks.increment();
+                    Connectors.executeRootHandler(next, exchange);
+                    return;
+                }
+
+                exchange.setStatusCode(_status);
+
+                _headers.forEach(values -> exchange.getResponseHeaders()
+                        .putAll(values.getHeaderName(), values));
+
+                exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH,
+                        _body.length);
+
+                exchange.getResponseSender().send(ByteBuffer.wrap(_body));
+            });
+        }
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.Hashing;
+import io.undertow.server.Connectors;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+import org.restheart.security.handlers.CORSHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * replays the response of write requests with the same Idempotency-Key
+ * header: the first POST, PUT, PATCH or DELETE request with a key is
+ * forwarded to the backend and its response, unless 5xx, is stored for the
+ * principal and the key; retries get the stored response, with the
+ * Idempotent-Replayed header, without reaching the backend. Retries received
+ * while the first request is in flight wait for its response.
+ *
+ * A request reusing a key with a different method, URI or content gets 422
+ * Unprocessable Entity. Requests of unauthenticated clients are not handled,
+ * since they cannot be told apart.
+ *
+ * Stored responses expire after ttl and the store is bounded by size; if the
+ * response cannot be stored, e.g. it exceeds max-entry-size or it is
+ * truncated, the waiting requests are handled again. Only the headers of the
+ * backend are replayed, as for the ResponseCache: those set by the gateway
+ * for the first request, e.g. its auth token, are set again for the retry.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class IdempotencyHandler implements HttpHandler {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(IdempotencyHandler.class);
+
+    /**
+     * the Idempotency-Key request header
+     */
+    public static final HttpString IDEMPOTENCY_KEY
+            = HttpString.tryFromString("Idempotency-Key");
+
+    /**
+     * the response header set on replayed responses
+     */
+    public static final HttpString IDEMPOTENT_REPLAYED
+            = HttpString.tryFromString("Idempotent-Replayed");
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private static final Set<HttpString> METHODS = Set.of(
+            Methods.POST,
+            Methods.PUT,
+            Methods.PATCH,
+            Methods.DELETE);
+
+    private final HttpHandler next;
+    private final int maxEntrySize;
+    private final Cache<Key, Record> store;
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    /**
+     *
+     * @param next
+     * @param ttl the time to live of the stored responses in milliseconds
+     * @param maxSize the maximum size of the store in bytes
+     * @param maxEntrySize the maximum size of a stored body in bytes
+     */
+    public IdempotencyHandler(HttpHandler next,
+            long ttl,
+            long maxSize,
+            int maxEntrySize) {
+        if (ttl < 1 || maxSize < 1 || maxEntrySize < 1) {
+            throw new IllegalArgumentException("ttl, max-size and "
+                    + "max-entry-size must be positive");
+        }
+
+        this.next = next;
+        this.maxEntrySize = maxEntrySize;
+        this.store = Caffeine.newBuilder()
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .maximumWeight(maxSize)
+                .weigher((Key k, Record v) -> v.weight())
+                .build();
+    }
+
+    /**
+     * builds the IdempotencyHandler from the idempotency configuration of a
+     * proxied location
+     *
+     * @param conf
+     * @param next
+     * @return the IdempotencyHandler or null if conf is null
+     * @throws ConfigurationException
+     */
+    public static IdempotencyHandler build(Map<String, Object> conf,
+            HttpHandler next) throws ConfigurationException {
+        if (conf == null) {
+            return null;
+        }
+
+        try {
+            return new IdempotencyHandler(next,
+                    number(conf, ConfigurationKeys.IDEMPOTENCY_TTL_KEY,
+                            24 * 60 * 60 * 1000).longValue(),
+                    number(conf, ConfigurationKeys.IDEMPOTENCY_MAX_SIZE_KEY,
+                            16 * 1024 * 1024).longValue(),
+                    number(conf, ConfigurationKeys.IDEMPOTENCY_MAX_ENTRY_SIZE_KEY,
+                            1024 * 1024).intValue());
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong idempotency, "
+                    + iae.getMessage());
+        }
+    }
+
+    private static Number number(Map<String, Object> conf, String key,
+            Number defaultValue) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return (Number) value;
+        } else {
+            throw new ConfigurationException("Wrong idempotency, "
+                    + key + " must be a number");
+        }
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        var idempotencyKey = exchange.getRequestHeaders()
+                .getFirst(IDEMPOTENCY_KEY);
+
+        var sc = exchange.getSecurityContext();
+        var account = sc == null ? null : sc.getAuthenticatedAccount();
+
+        if (idempotencyKey == null
+                || account == null
+                || !METHODS.contains(exchange.getRequestMethod())) {
+            next.handleRequest(exchange);
+            return;
+        }
+
+        if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            reject(exchange, StatusCodes.BAD_REQUEST);
+            return;
+        }
+
+        var key = new Key(account.getPrincipal().getName(), idempotencyKey);
+
+        var record = new Record(fingerprint(exchange));
+        var existing = reserve(key, record);
+
+        if (existing != null) {
+            if (existing.conflicts(record)) {
+                LOGGER.debug("Idempotency-Key {} reused with a different "
+                        + "request {}", idempotencyKey, exchange.getRequestURI());
+                conflicts.increment();
+                reject(exchange, StatusCodes.UNPROCESSABLE_ENTITY);
+                return;
+            }
+
+            exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+                if (existing.join(r -> resume(exchange, r))) {
+                    waited.increment();
+                }
+            });
+            return;
+        }
+
+        forwarded.increment();
+
+        // no-op if the response was stored
+        exchange.addExchangeCompleteListener((ex, nextListener) -> {
+            try {
+                failed(key, record);
+            }
+            finally {
+                nextListener.proceed();
+            }
+        });
+
+        // e.g. the auth token, not to replay them
+        var gateway = ResponseCache.gatewayHeaders(exchange);
+
+        exchange.addResponseWrapper((factory, ex) -> {
+            final var status = ex.getStatusCode();
+
+            if (!isStorable(status)) {
+                return factory.create();
+            }
+
+            final var stored = stored(ex.getResponseHeaders(), gateway);
+
+            final var contentLength = ex.getResponseHeaders()
+                    .getFirst(Headers.CONTENT_LENGTH);
+
+            return new CachingStreamSinkConduit(factory.create(), maxEntrySize,
+                    body -> completed(key, record, status, stored, body,
+                            contentLength));
+        });
+
+        next.handleRequest(exchange);
+    }
+
+    /**
+     * @param status
+     * @return true if the response can be stored and replayed, i.e. it is
+     * not 5xx
+     */
+    static boolean isStorable(int status) {
+        return status < 500;
+    }
+
+    /**
+     * @param headers the response headers
+     * @param gateway the names of the headers set by the gateway before
+     * proxying the request
+     * @return the headers of the backend response to replay
+     */
+    static HeaderMap stored(HeaderMap headers, Set<HttpString> gateway) {
+        return ResponseCache.backendHeaders(headers, gateway);
+    }
+
+    /**
+     * reserves the key for the request of the record
+     *
+     * @param key
+     * @param record
+     * @return the record of the request already in flight or stored for the
+     * key, or null if the key is now reserved for the given record
+     */
+    Record reserve(Key key, Record record) {
+        return store.asMap().putIfAbsent(key, record);
+    }
+
+    /**
+     * stores the response of the request of the record and sends it to the
+     * waiting requests
+     *
+     * @param key
+     * @param record
+     * @param status
+     * @param headers the headers to replay, see stored()
+     * @param body
+     * @param contentLength the Content-Length response header, can be null
+     */
+    void completed(Key key, Record record, int status, HeaderMap headers,
+            byte[] body, String contentLength) {
+        // the response was truncated, failed() frees the key
+        if (contentLength != null
+                && !contentLength.equals(String.valueOf(body.length))) {
+            return;
+        }
+
+        if (record.complete(status, headers, body)) {
+            // weighs the record again, now with the response
+            store.asMap().replace(key, record, record);
+            record.resumeAll();
+        }
+    }
+
+    /**
+     * frees the key, if the response of the request of the record was not
+     * stored, and lets the waiting requests run again
+     *
+     * @param key
+     * @param record
+     */
+    void failed(Key key, Record record) {
+        if (record.fail()) {
+            store.asMap().remove(key, record);
+            record.resumeAll();
+        }
+    }
+
+    /**
+     * replays the stored response or, if the first request failed, handles
+     * the request again
+     */
+    private void resume(HttpServerExchange exchange, Record record) {
+        exchange.getIoThread().execute(() -> {
+            // e.g. the deadline of the request expired
+            if (exchange.isResponseStarted() || exchange.isComplete()) {
+                return;
+            }
+
+            if (!record.isStored()) {
+                // the first request failed, handle the retry again
+                Connectors.executeRootHandler(this, exchange);
+                return;
+            }
+
+            replayed.increment();
+
+            exchange.setStatusCode(record.getStatus());
+
+            record.getHeaders().forEach(values -> exchange
+                    .getResponseHeaders()
+                    .putAll(values.getHeaderName(), values));
+
+            exchange.getResponseHeaders().put(IDEMPOTENT_REPLAYED, "true");
+            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH,
+                    record.getBody().length);
+
+            exchange.getResponseSender().send(ByteBuffer.wrap(record.getBody()));
+        });
+    }
+
+    /**
+     * @return the hash of the method, URI and content of the request
+     */
+    private static String fingerprint(HttpServerExchange exchange) {
+        var hasher = Hashing.sha256().newHasher()
+                .putString(exchange.getRequestMethod().toString(),
+                        StandardCharsets.UTF_8)
+                .putChar(' ')
+                .putString(exchange.getRequestURI(), StandardCharsets.UTF_8)
+                .putChar('?')
+                .putString(exchange.getQueryString(), StandardCharsets.UTF_8);
+
+        // buffered by RequestContentInjector
+        var content = exchange.getAttachment(HttpServerExchange.BUFFERED_REQUEST_DATA);
+
+        if (content != null) {
+            for (var buffer : content) {
+                if (buffer != null) {
+                    hasher.putBytes(buffer.getBuffer().duplicate());
+                }
+            }
+        }
+
+        return hasher.hash().toString();
+    }
+
+    private static void reject(HttpServerExchange exchange, int status) {
+        CORSHandler.injectAccessControlAllowHeaders(exchange);
+        exchange.setStatusCode(status);
+        exchange.endExchange();
+    }
+
+    /**
+     * @return the metrics of the idempotency store
+     */
+    public Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        ret.put("entries", store.estimatedSize());
+        ret.put("forwarded", forwarded.sum());
+        ret.put("replayed", replayed.sum());
+        ret.put("waited", waited.sum());
+        ret.put("conflicts", conflicts.sum());
+
+        return ret;
+    }
+
+    static class Key {
+
+        private final String principal;
+        private final String idempotencyKey;
+
+        Key(String principal, String idempotencyKey) {
+            this.principal = principal;
+            this.idempotencyKey = idempotencyKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            var other = (Key) o;
+
+            return principal.equals(other.principal)
+                    && idempotencyKey.equals(other.idempotencyKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(principal, idempotencyKey);
+        }
+    }
+
+    /**
+     * the request in flight or its stored response
+     */
+    static class Record {
+
+        private final String fingerprint;
+
+        // guarded by this
+        private final List<Consumer<Record>> waiting = new ArrayList<>();
+        private boolean done = false;
+        private int status;
+        private HeaderMap headers;
+        private byte[] body;
+
+        /**
+         *
+         * @param fingerprint the hash of the method, URI and content of the
+         * request
+         */
+        Record(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * @param other
+         * @return true if the request of other is not the same request
+         */
+        boolean conflicts(Record other) {
+            return !fingerprint.equals(other.fingerprint);
+        }
+
+        /**
+         * calls the waiter with this record when the request completes or
+         * fails, immediately if it is already done
+         *
+         * @param waiter
+         * @return true if the request is in flight and the waiter must wait
+         */
+        boolean join(Consumer<Record> waiter) {
+            synchronized (this) {
+                if (!done) {
+                    waiting.add(waiter);
+                    return true;
+                }
+            }
+
+            waiter.accept(this);
+            return false;
+        }
+
+        /**
+         * @return true if the record was in flight
+         */
+        synchronized boolean complete(int status, HeaderMap headers,
+                byte[] body) {
+            if (done) {
+                return false;
+            }
+
+            this.done = true;
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+
+            return true;
+        }
+
+        /**
+         * @return true if the record was in flight
+         */
+        synchronized boolean fail() {
+            if (done) {
+                return false;
+            }
+
+            this.done = true;
+
+            return true;
+        }
+
+        void resumeAll() {
+            List<Consumer<Record>> _waiting;
+
+            synchronized (this) {
+                _waiting = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+
+            _waiting.forEach(waiter -> waiter.accept(this));
+        }
+
+        /**
+         * @return true if the response is stored, false if the request is in
+         * flight or failed
+         */
+        synchronized boolean isStored() {
+            return headers != null;
+        }
+
+        synchronized int getStatus() {
+            return status;
+        }
+
+        synchronized HeaderMap getHeaders() {
+            return headers;
+        }
+
+        synchronized byte[] getBody() {
+            return body;
+        }
+
+        synchronized int weight() {
+            int ret = fingerprint.length() + 64;
+
+            if (body != null) {
+                ret += body.length;
+
+                for (var values : headers) {
+                    ret += values.getHeaderName().length();
+
+                    for (var value : values) {
+                        ret += value.length();
+                    }
+                }
+            }
+
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,760 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.DateUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.restheart.ConfigurationException;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_HEADER;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_LOCATION_HEADER;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_VALID_HEADER;
+import org.restheart.security.ConfigurationKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * the response cache of a proxied location.
+ *
+ * Responses are stored by resource and authorization partition, i.e. the
+ * principal (default) or the roles of the authenticated account, so that a
+ * response is never returned to a client with different permissions. Only complete 200
+ * responses to GET requests are stored, if Cache-Control allows it and they
+ * are fresh (max-age, s-maxage or Expires) or can be revalidated (ETag).
+ * Responses with Set-Cookie or Vary: * are not stored; the request headers
+ * listed by Vary, and always Accept-Encoding, must match.
+ *
+ * Only the headers of the backend are stored: those set by the gateway for
+ * the request, e.g. the auth token of the client and the CORS headers, are
+ * not, since they belong to the client of the request.
+ *
+ * Entries are weighted by size and evicted by W-TinyLFU (Caffeine); bodies
+ * are kept in direct buffers, off the heap.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class ResponseCache {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(ResponseCache.class);
+
+    /**
+     * response headers not stored
+     */
+    static final Set<String> NOT_STORED_HEADERS = Set.of(
+            "connection",
+            "keep-alive",
+            "transfer-encoding",
+            "content-length",
+            "age",
+            "trailer",
+            "upgrade");
+
+    /**
+     * response headers set by the gateway, never stored; also the CORS ones,
+     * i.e. Access-Control-*
+     */
+    static final Set<String> GATEWAY_HEADERS = Set.of(
+            AUTH_TOKEN_HEADER.toString().toLowerCase(Locale.ROOT),
+            AUTH_TOKEN_VALID_HEADER.toString().toLowerCase(Locale.ROOT),
+            AUTH_TOKEN_LOCATION_HEADER.toString().toLowerCase(Locale.ROOT));
+
+    /**
+     * headers returned with 304 Not Modified responses
+     */
+    private static final HttpString[] NOT_MODIFIED_HEADERS = {
+        Headers.ETAG,
+        Headers.CACHE_CONTROL,
+        Headers.EXPIRES,
+        Headers.VARY,
+        Headers.CONTENT_LOCATION,
+        Headers.DATE
+    };
+
+    /**
+     * the authorization partition of the cache
+     */
+    public enum Partition {
+        /**
+         * clients with the same roles share the cached responses; only if
+         * the backend responses do not depend on the user, since proxied
+         * requests carry X-Forwarded-Account-Id
+         */
+        ROLES,
+        /**
+         * each principal has its own cached responses, the default
+         */
+        PRINCIPAL;
+
+        /**
+         *
+         * @param value the partition name
+         * @return the partition
+         * @throws ConfigurationException
+         */
+        public static Partition of(Object value) throws ConfigurationException {
+            try {
+                return Partition.valueOf(value.toString()
+                        .toUpperCase(Locale.ROOT));
+            }
+            catch (IllegalArgumentException iae) {
+                throw new ConfigurationException("Wrong partition "
+                        + value + ", it must be roles or principal");
+            }
+        }
+
+        /**
+         * @param exchange
+         * @return the partition of the authenticated account of the request
+         */
+        String key(HttpServerExchange exchange) {
+            var sc = exchange.getSecurityContext();
+
+            var account = sc == null ? null : sc.getAuthenticatedAccount();
+
+            if (account == null) {
+                return "";
+            } else if (this == PRINCIPAL) {
+                return "principal:" + account.getPrincipal().getName();
+            } else {
+                return "roles:" + new TreeSet<>(account.getRoles());
+            }
+        }
+    }
+
+    private final Partition partition;
+    private final int maxEntrySize;
+    private final Cache<Key, CachedResponse> cache;
+
+    // the keys of the cached responses by path, for invalidate()
+    private final ConcurrentSkipListMap<String, Set<Key>> paths
+            = new ConcurrentSkipListMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+
+    /**
+     *
+     * @param partition
+     * @param maxSize the maximum size of the cache in bytes
+     * @param maxEntrySize the maximum size of a cached body in bytes
+     */
+    public ResponseCache(Partition partition, long maxSize, int maxEntrySize) {
+        if (maxSize < 1 || maxEntrySize < 1) {
+            throw new IllegalArgumentException("max-size and max-entry-size "
+                    + "must be positive");
+        }
+
+        this.partition = partition;
+        this.maxEntrySize = maxEntrySize;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher((Key k, CachedResponse v) -> v.weight())
+                .removalListener((Key k, CachedResponse v, RemovalCause c)
+                        -> unindex(k))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * builds the ResponseCache from the response-cache configuration of a
+     * proxied location
+     *
+     * @param conf
+     * @return the ResponseCache or null if conf is null
+     * @throws ConfigurationException
+     */
+    public static ResponseCache build(Map<String, Object> conf)
+            throws ConfigurationException {
+        if (conf == null) {
+            return null;
+        }
+
+        var _partition = conf.get(ConfigurationKeys.RESPONSE_CACHE_PARTITION_KEY);
+
+        var partition = _partition == null
+                ? Partition.PRINCIPAL
+                : Partition.of(_partition);
+
+        var maxSize = number(conf, ConfigurationKeys.RESPONSE_CACHE_MAX_SIZE_KEY,
+                64 * 1024 * 1024);
+
+        var maxEntrySize = number(conf,
+                ConfigurationKeys.RESPONSE_CACHE_MAX_ENTRY_SIZE_KEY,
+                1024 * 1024);
+
+        try {
+            return new ResponseCache(partition, maxSize.longValue(),
+                    maxEntrySize.intValue());
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong response cache, "
+                    + iae.getMessage());
+        }
+    }
+
+    private static Number number(Map<String, Object> conf, String key,
+            Number defaultValue) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return (Number) value;
+        } else {
+            throw new ConfigurationException("Wrong response cache, "
+                    + key + " must be a number");
+        }
+    }
+
+    /**
+     * @return the authorization partition of the cache
+     */
+    public Partition getPartition() {
+        return partition;
+    }
+
+    /**
+     * @param exchange
+     * @return the cache key of the request
+     */
+    Key key(HttpServerExchange exchange) {
+        return new Key(partition.key(exchange),
+                exchange.getRequestURI(),
+                exchange.getQueryString());
+    }
+
+    /**
+     *
+     * @param key
+     * @param exchange
+     * @return the cached response of the request, fresh or stale, or null
+     */
+    CachedResponse lookup(Key key, HttpServerExchange exchange) {
+        var entry = get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        for (var variant : entry.getVariant().entrySet()) {
+            if (!Objects.equals(variant.getValue(),
+                    values(exchange.getRequestHeaders(), variant.getKey()))) {
+                return null;
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * @param key
+     * @return the cached response of the key, or null
+     */
+    CachedResponse get(Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * stores the response
+     *
+     * @param key
+     * @param response
+     */
+    void put(Key key, CachedResponse response) {
+        cache.put(key, response);
+
+        paths.compute(key.path, (path, keys) -> {
+            var ret = keys == null ? ConcurrentHashMap.<Key>newKeySet() : keys;
+            ret.add(key);
+            return ret;
+        });
+    }
+
+    /**
+     * called when a response is removed from the cache
+     */
+    private void unindex(Key key) {
+        paths.computeIfPresent(key.path, (path, keys) -> {
+            // the response was stored again meanwhile
+            if (!cache.asMap().containsKey(key)) {
+                keys.remove(key);
+            }
+
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * @param exchange
+     * @return the names of the response headers set before proxying the
+     * request, i.e. by the gateway
+     */
+    static Set<HttpString> gatewayHeaders(HttpServerExchange exchange) {
+        return new HashSet<>(exchange.getResponseHeaders().getHeaderNames());
+    }
+
+    /**
+     * @param headers the response headers
+     * @param gateway the names of the headers set by the gateway before
+     * proxying the request, see gatewayHeaders()
+     * @return the headers of the backend response to store
+     */
+    static HeaderMap backendHeaders(HeaderMap headers,
+            Set<HttpString> gateway) {
+        var ret = new HeaderMap();
+
+        headers.forEach(values -> {
+            var name = values.getHeaderName();
+            var lname = name.toString().toLowerCase(Locale.ROOT);
+
+            if (!NOT_STORED_HEADERS.contains(lname)
+                    && !GATEWAY_HEADERS.contains(lname)
+                    && !lname.startsWith("access-control-")
+                    && !gateway.contains(name)) {
+                ret.putAll(name, values);
+            }
+        });
+
+        return ret;
+    }
+
+    /**
+     * sends the cached response, or 304 Not Modified if the request has a
+     * matching If-None-Match header
+     *
+     * @param exchange
+     * @param entry
+     * @param now
+     */
+    void send(HttpServerExchange exchange, CachedResponse entry, long now) {
+        var headers = exchange.getResponseHeaders();
+
+        if (entry.getEtag() != null
+                && matches(exchange.getRequestHeaders().get(Headers.IF_NONE_MATCH),
+                        entry.getEtag())) {
+            notModified.increment();
+
+            for (var name : NOT_MODIFIED_HEADERS) {
+                var values = entry.getHeaders().get(name);
+
+                if (values != null) {
+                    headers.putAll(name, values);
+                }
+            }
+
+            headers.put(Headers.AGE, entry.age(now));
+            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+            exchange.endExchange();
+            return;
+        }
+
+        hits.increment();
+
+        exchange.setStatusCode(entry.getStatus());
+
+        entry.getHeaders().forEach(values
+                -> headers.putAll(values.getHeaderName(), values));
+
+        headers.put(Headers.AGE, entry.age(now));
+        headers.put(Headers.CONTENT_LENGTH, entry.getBodySize());
+
+        if (Methods.HEAD.equals(exchange.getRequestMethod())) {
+            exchange.endExchange();
+        } else {
+            exchange.getResponseSender().send(entry.getBody());
+        }
+    }
+
+    /**
+     * called when the request is forwarded to the backend
+     */
+    void miss() {
+        misses.increment();
+    }
+
+    /**
+     * makes the request conditional on the ETag of the stale cached response,
+     * so that the backend can answer 304 Not Modified if it is still valid.
+     * Requests already conditional are left as they are, since the 304 Not
+     * Modified of the backend is then for the client.
+     *
+     * @param exchange
+     * @param stale the stale cached response
+     * @return true if the request was made conditional
+     */
+    static boolean revalidate(HttpServerExchange exchange,
+            CachedResponse stale) {
+        var headers = exchange.getRequestHeaders();
+
+        if (stale.getEtag() == null
+                || headers.contains(Headers.IF_NONE_MATCH)
+                || headers.contains(Headers.IF_MODIFIED_SINCE)) {
+            return false;
+        }
+
+        headers.put(Headers.IF_NONE_MATCH, stale.getEtag());
+
+        return true;
+    }
+
+    /**
+     * refreshes the stale cached response when the backend answers 304 Not
+     * Modified to a request made conditional by revalidate(), and turns the
+     * response into the cached one; the headers of the backend response take
+     * precedence over the cached ones
+     *
+     * @param exchange
+     * @param stale the stale cached response
+     * @param now
+     */
+    void revalidated(HttpServerExchange exchange, CachedResponse stale,
+            long now) {
+        var headers = exchange.getResponseHeaders();
+
+        stale.getHeaders().forEach(values -> {
+            if (!headers.contains(values.getHeaderName())) {
+                headers.putAll(values.getHeaderName(), values);
+            }
+        });
+
+        stale.revalidated(now, freshFor(CacheControl.parse(
+                headers.get(Headers.CACHE_CONTROL)), headers));
+        revalidated.increment();
+
+        exchange.setStatusCode(stale.getStatus());
+        headers.put(Headers.CONTENT_LENGTH, stale.getBodySize());
+    }
+
+    /**
+     * wraps the response conduit to store the response, if cacheable, or to
+     * revalidate the stale cached response if the backend answers 304 Not
+     * Modified
+     *
+     * @param factory
+     * @param exchange
+     * @param key
+     * @param stale the stale cached response or null
+     * @param gateway the names of the headers set by the gateway before
+     * proxying the request, not stored
+     * @param revalidating true if the request was made conditional on the
+     * ETag of the stale response, see revalidate()
+     * @return the conduit
+     */
+    StreamSinkConduit wrap(ConduitFactory<StreamSinkConduit> factory,
+            HttpServerExchange exchange,
+            Key key,
+            CachedResponse stale,
+            Set<HttpString> gateway,
+            boolean revalidating) {
+        final long now = System.nanoTime();
+        var headers = exchange.getResponseHeaders();
+        var cc = CacheControl.parse(headers.get(Headers.CACHE_CONTROL));
+
+        if (exchange.getStatusCode() == StatusCodes.NOT_MODIFIED) {
+            if (revalidating) {
+                revalidated(exchange, stale, now);
+
+                // the content length is set, before creating the conduit
+                return new CachedBodyStreamSinkConduit(factory.create(),
+                        stale.getBody());
+            }
+
+            if (stale != null && stale.getEtag() != null
+                    && stale.getEtag().equals(headers.getFirst(Headers.ETAG))) {
+                stale.revalidated(now, freshFor(cc, headers));
+                revalidated.increment();
+            }
+
+            return factory.create();
+        }
+
+        if (!isCacheable(exchange, cc)) {
+            return factory.create();
+        }
+
+        final var status = exchange.getStatusCode();
+        final var stored = backendHeaders(headers, gateway);
+
+        final var etag = headers.getFirst(Headers.ETAG);
+        final var freshFor = freshFor(cc, headers);
+        final var contentLength = headers.getFirst(Headers.CONTENT_LENGTH);
+
+        final var variant = new HashMap<String, String>();
+
+        variant.put("accept-encoding", values(exchange.getRequestHeaders(),
+                "accept-encoding"));
+
+        var vary = headers.get(Headers.VARY);
+
+        if (vary != null) {
+            vary.forEach(value -> Arrays.stream(value.split(","))
+                    .map(String::trim)
+                    .filter(name -> !name.isEmpty())
+                    .map(name -> name.toLowerCase(Locale.ROOT))
+                    .forEach(name -> variant.put(name,
+                    values(exchange.getRequestHeaders(), name))));
+        }
+
+        return new CachingStreamSinkConduit(factory.create(), maxEntrySize,
+                body -> {
+                    // the response was truncated
+                    if (contentLength != null
+                            && !contentLength.equals(String.valueOf(body.length))) {
+                        return;
+                    }
+
+                    put(key, new CachedResponse(status, stored, body,
+                            etag, variant, now, freshFor));
+
+                    LOGGER.debug("Response of {} stored in cache",
+                            exchange.getRequestURI());
+                });
+    }
+
+    private boolean isCacheable(HttpServerExchange exchange, CacheControl cc) {
+        var headers = exchange.getResponseHeaders();
+
+        if (exchange.getStatusCode() != StatusCodes.OK
+                || cc.has("no-store")
+                || (cc.has("private") && partition != Partition.PRINCIPAL)
+                || headers.contains(Headers.SET_COOKIE)) {
+            return false;
+        }
+
+        var vary = headers.get(Headers.VARY);
+
+        if (vary != null && vary.stream().anyMatch(v -> v.contains("*"))) {
+            return false;
+        }
+
+        // stale responses are useful only if they can be revalidated
+        return freshFor(cc, headers) > 0 || headers.contains(Headers.ETAG);
+    }
+
+    /**
+     * @return the freshness lifetime in nanoseconds
+     */
+    private static long freshFor(CacheControl cc, HeaderMap headers) {
+        if (cc.has("no-cache")) {
+            return 0;
+        }
+
+        var seconds = cc.seconds("s-maxage");
+
+        if (seconds < 0) {
+            seconds = cc.seconds("max-age");
+        }
+
+        if (seconds < 0) {
+            var _expires = headers.getFirst(Headers.EXPIRES);
+            var _date = headers.getFirst(Headers.DATE);
+
+            var expires = _expires == null ? null : DateUtils.parseDate(_expires);
+            var date = _date == null ? null : DateUtils.parseDate(_date);
+
+            if (expires != null) {
+                var from = date == null ? System.currentTimeMillis() : date.getTime();
+                seconds = Math.max(0, (expires.getTime() - from) / 1000);
+            } else {
+                seconds = 0;
+            }
+        }
+
+        return TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    /**
+     * removes the cached responses of the path, of its parents and of its
+     * children, for all partitions
+     *
+     * @param path
+     */
+    void invalidate(String path) {
+        var related = new ArrayList<String>();
+
+        related.add(path);
+
+        // the parents
+        for (int i = path.indexOf('/'); i >= 0;
+                i = path.indexOf('/', i + 1)) {
+            related.add(path.substring(0, i));
+            related.add(path.substring(0, i + 1));
+        }
+
+        // the children
+        for (var child : paths.tailMap(path, false).keySet()) {
+            if (!child.startsWith(path)) {
+                break;
+            }
+
+            if (isParent(path, child)) {
+                related.add(child);
+            }
+        }
+
+        var removed = false;
+
+        for (var _path : related) {
+            var keys = paths.get(_path);
+
+            if (keys != null) {
+                for (var key : keys) {
+                    removed |= cache.asMap().remove(key) != null;
+                }
+            }
+        }
+
+        if (removed) {
+            invalidated.increment();
+        }
+    }
+
+    private static boolean isParent(String parent, String path) {
+        return path.length() > parent.length()
+                && path.startsWith(parent)
+                && (parent.endsWith("/") || path.charAt(parent.length()) == '/');
+    }
+
+    private static boolean matches(HeaderValues ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        var _etag = weak(etag);
+
+        return ifNoneMatch.stream()
+                .flatMap(v -> Arrays.stream(v.split(",")))
+                .map(String::trim)
+                .anyMatch(v -> "*".equals(v) || weak(v).equals(_etag));
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    static String values(HeaderMap headers, String name) {
+        var values = headers.get(name);
+
+        return values == null || values.isEmpty()
+                ? null
+                : String.join(",", values);
+    }
+
+    /**
+     * @return the metrics of the cache
+     */
+    public Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        ret.put("entries", cache.estimatedSize());
+
+        cache.policy().eviction().ifPresent(eviction
+                -> eviction.weightedSize().ifPresent(size
+                        -> ret.put("bytes", size)));
+
+        ret.put("hits", hits.sum());
+        ret.put("not-modified", notModified.sum());
+        ret.put("misses", misses.sum());
+        ret.put("revalidated", revalidated.sum());
+        ret.put("invalidations", invalidated.sum());
+        ret.put("evictions", cache.stats().evictionCount());
+
+        return ret;
+    }
+
+    /**
+     * the key of a cached response
+     */
+    static class Key {
+
+        private final String partition;
+        private final String path;
+        private final String query;
+        private final String variant;
+
+        Key(String partition, String path, String query) {
+            this(partition, path, query, null);
+        }
+
+        /**
+         *
+         * @param partition
+         * @param path
+         * @param query
+         * @param variant the values of request headers that also identify
+         * the response, or null
+         */
+        Key(String partition, String path, String query, String variant) {
+            this.partition = partition;
+            this.path = path;
+            this.query = query == null ? "" : query;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            var other = (Key) o;
+
+            return partition.equals(other.partition)
+                    && path.equals(other.path)
+                    && query.equals(other.query)
+                    && Objects.equals(variant, other.variant);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(partition, path, query, variant);
+        }
+    }
+}
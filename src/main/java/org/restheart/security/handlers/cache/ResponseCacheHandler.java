@@ -0,0 +1,111 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+
+/**
+ * answers GET and HEAD requests with the fresh responses of the
+ * ResponseCache, or with 304 Not Modified if the client has the cached
+ * version; otherwise the request is handled by the next handler and its
+ * response stored. A GET request with a stale cached response is sent to the
+ * backend conditional on its ETag, so that a 304 Not Modified refreshes it
+ * and the cached response is sent to the client. Successful requests with other methods, but OPTIONS,
+ * invalidate the cached responses of the resource.
+ *
+ * Requests with Cache-Control no-cache or max-age=0 bypass the cache, with
+ * no-store the response is not stored either.
+ *
+ * Must be after the SecurityHandler, since the cache is partitioned by the
+ * authenticated account, and as the last handler before the ProxyHandler, so
+ * that the stored content is the one of the backend.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class ResponseCacheHandler implements HttpHandler {
+
+    private final HttpHandler next;
+    private final ResponseCache cache;
+
+    /**
+     *
+     * @param next
+     * @param cache
+     */
+    public ResponseCacheHandler(HttpHandler next, ResponseCache cache) {
+        this.next = next;
+        this.cache = cache;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        var method = exchange.getRequestMethod();
+
+        if (!Methods.GET.equals(method) && !Methods.HEAD.equals(method)) {
+            if (!Methods.OPTIONS.equals(method)) {
+                exchange.addExchangeCompleteListener((ex, nextListener) -> {
+                    try {
+                        if (ex.getStatusCode() < 400) {
+                            cache.invalidate(ex.getRequestURI());
+                        }
+                    }
+                    finally {
+                        nextListener.proceed();
+                    }
+                });
+            }
+
+            next.handleRequest(exchange);
+            return;
+        }
+
+        var cc = CacheControl.parse(exchange.getRequestHeaders()
+                .get(Headers.CACHE_CONTROL));
+
+        var noStore = cc.has("no-store");
+        var noCache = cc.has("no-cache") || cc.seconds("max-age") == 0;
+
+        var key = cache.key(exchange);
+        var entry = noStore ? null : cache.lookup(key, exchange);
+
+        final long now = System.nanoTime();
+
+        if (entry != null && !noCache && entry.isFresh(now)) {
+            cache.send(exchange, entry, now);
+            return;
+        }
+
+        cache.miss();
+
+        if (!noStore && Methods.GET.equals(method)) {
+            var gateway = ResponseCache.gatewayHeaders(exchange);
+
+            var revalidating = entry != null
+                    && ResponseCache.revalidate(exchange, entry);
+
+            exchange.addResponseWrapper((factory, ex)
+                    -> cache.wrap(factory, ex, key, entry, gateway,
+                            revalidating));
+        }
+
+        next.handleRequest(exchange);
+    }
+}
@@ -20,14 +20,23 @@ package org.restheart.security.handlers.injectors;
 import io.undertow.security.idm.Account;
 import io.undertow.security.idm.PasswordCredential;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
 import org.restheart.handlers.PipelinedHandler;
 import org.restheart.plugins.security.TokenManager;
 
 /**
+ * injects the auth token headers in the response of authenticated requests
+ *
+ * clients that never use the auth token can skip the injection setting the
+ * request header No-Auth-Token or the query parameter noauthtoken
  *
  * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
  */
 public class TokenInjector extends PipelinedHandler {
+    public static final HttpString SKIP_HEADER_KEY = HttpString
+            .tryFromString("No-Auth-Token");
+    public static final String SKIP_QUERY_PARAM_KEY = "noauthtoken";
+
     private final TokenManager tokenManager;
 
     /**
@@ -50,7 +59,8 @@ public class TokenInjector extends PipelinedHandler {
     public void handleRequest(HttpServerExchange exchange) throws Exception {
         if (this.tokenManager != null
                 && exchange.getSecurityContext() != null
-                && exchange.getSecurityContext().isAuthenticated()) {
+                && exchange.getSecurityContext().isAuthenticated()
+                && !isSkipRequested(exchange)) {
             Account authenticatedAccount = exchange
                     .getSecurityContext().getAuthenticatedAccount();
 
@@ -61,4 +71,15 @@ public class TokenInjector extends PipelinedHandler {
 
         next(exchange);
     }
+
+    /**
+     *
+     * @param exchange
+     * @return true if the request asks to skip the auth token injection
+     */
+    public static boolean isSkipRequested(HttpServerExchange exchange) {
+        return exchange.getRequestHeaders().contains(SKIP_HEADER_KEY)
+                || exchange.getQueryParameters()
+                        .containsKey(SKIP_QUERY_PARAM_KEY);
+    }
 }
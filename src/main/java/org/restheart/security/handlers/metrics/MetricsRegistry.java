@@ -0,0 +1,83 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * holds the metrics sources of the security components, e.g. the failed
+ * authentications tracker; the metrics service returns their values
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class MetricsRegistry {
+
+    /**
+     *
+     * @return
+     */
+    public static MetricsRegistry getInstance() {
+        return MetricsRegistryHolder.INSTANCE;
+    }
+
+    private final Map<String, Supplier<Map<String, Object>>> sources
+            = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    /**
+     * registers a metrics source, replacing the one with the same name
+     *
+     * @param name the name of the source
+     * @param metrics supplies the current values of the metrics
+     */
+    public void register(String name, Supplier<Map<String, Object>> metrics) {
+        sources.put(name, metrics);
+    }
+
+    /**
+     *
+     * @param name the name of the source
+     */
+    public void unregister(String name) {
+        sources.remove(name);
+    }
+
+    /**
+     * @return the current values of the metrics, by source name
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        var ret = new TreeMap<String, Map<String, Object>>();
+
+        sources.forEach((name, metrics) -> ret.put(name, metrics.get()));
+
+        return ret;
+    }
+
+    private static class MetricsRegistryHolder {
+
+        private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+        private MetricsRegistryHolder() {
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.OptionMap;
+import org.xnio.ssl.XnioSsl;
+
+/**
+ * the backend hosts of a proxied location, with their statistics.
+ *
+ * Hosts failing the health checks or detected as outliers, because of an
+ * error rate over the threshold, are ejected removing them from the
+ * LoadBalancingProxyClient, and added back when healthy again or when the
+ * ejection time expires. The last available host is never ejected.
+ *
+ * With a circuit breaker, each host has a CircuitBreaker that stops sending
+ * it requests while open; if the circuits of all hosts are open, requests
+ * fail fast without connecting to any host.
+ *
+ * With max-streams, a host with as many requests in flight is not selected,
+ * bounding the streams multiplexed on the HTTP/2 connections to it; if all
+ * hosts are saturated, requests fail fast as well.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class Backends {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Backends.class);
+
+    /**
+     * runs the health checks and the end of the ejections
+     */
+    static final ScheduledExecutorService SCHEDULER
+            = Executors.newSingleThreadScheduledExecutor(r -> {
+                var t = new Thread(r, "backends-monitor");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final String location;
+    private final OutlierEjection outlierEjection;
+    private final CircuitBreaker.Config circuitBreaker;
+    private final int maxStreams;
+    private final Map<URI, HostStats> hosts = new LinkedHashMap<>();
+
+    private LoadBalancingProxyClient proxyClient;
+    private XnioSsl ssl;
+    private OptionMap options = OptionMap.EMPTY;
+
+    /**
+     *
+     * @param location the location, for logging
+     * @param outlierEjection the outlier ejection configuration, null to
+     * disable it
+     */
+    public Backends(String location, OutlierEjection outlierEjection) {
+        this(location, outlierEjection, null);
+    }
+
+    /**
+     *
+     * @param location the location, for logging
+     * @param outlierEjection the outlier ejection configuration, null to
+     * disable it
+     * @param circuitBreaker the circuit breaker configuration, null to
+     * disable it
+     */
+    public Backends(String location,
+            OutlierEjection outlierEjection,
+            CircuitBreaker.Config circuitBreaker) {
+        this(location, outlierEjection, circuitBreaker, 0);
+    }
+
+    /**
+     *
+     * @param location the location, for logging
+     * @param outlierEjection the outlier ejection configuration, null to
+     * disable it
+     * @param circuitBreaker the circuit breaker configuration, null to
+     * disable it
+     * @param maxStreams the maximum requests in flight to each host, 0 for
+     * unlimited
+     */
+    public Backends(String location,
+            OutlierEjection outlierEjection,
+            CircuitBreaker.Config circuitBreaker,
+            int maxStreams) {
+        if (maxStreams < 0) {
+            throw new IllegalArgumentException("max-streams must be positive");
+        }
+
+        this.location = location;
+        this.outlierEjection = outlierEjection;
+        this.circuitBreaker = circuitBreaker;
+        this.maxStreams = maxStreams;
+    }
+
+    /**
+     * binds the proxy client, that must use a host selector of this Backends
+     *
+     * @param proxyClient
+     * @param ssl
+     */
+    public void bind(LoadBalancingProxyClient proxyClient,
+            XnioSsl ssl) {
+        bind(proxyClient, ssl, OptionMap.EMPTY);
+    }
+
+    /**
+     * binds the proxy client, that must use a host selector of this Backends
+     *
+     * @param proxyClient
+     * @param ssl
+     * @param options the options of the connections to the hosts, e.g. to
+     * enable HTTP/2
+     */
+    public synchronized void bind(LoadBalancingProxyClient proxyClient,
+            XnioSsl ssl,
+            OptionMap options) {
+        this.proxyClient = proxyClient;
+        this.ssl = ssl;
+        this.options = options;
+    }
+
+    /**
+     * adds a host to the proxy client
+     *
+     * @param uri
+     */
+    public synchronized void addHost(URI uri) {
+        proxyClient.addHost(uri, null, ssl, options);
+        hosts.put(uri, new HostStats(uri, this, circuitBreaker == null
+                ? null
+                : new CircuitBreaker(uri + " of location " + location,
+                        circuitBreaker, System.nanoTime()),
+                maxStreams));
+    }
+
+    /**
+     *
+     * @param uri
+     * @return the statistics of the host, or null if not a host of the
+     * location
+     */
+    public HostStats stats(URI uri) {
+        return hosts.get(uri);
+    }
+
+    /**
+     *
+     * @param peer the peer address of a connection to a host
+     * @return the statistics of the host, or null if the address is not of a
+     * host of the location
+     */
+    public HostStats stats(SocketAddress peer) {
+        return hosts.values().stream()
+                .filter(h -> h.isPeer(peer))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * books the current attempt of the request on the host it is actually
+     * connected to: the proxy client skips the selected host, moving on to
+     * the next one, when the connection pool of the selected host is full or
+     * has problems.
+     *
+     * The attempt started on the selected host, if any, is cancelled and a
+     * new one is reserved and started on the connected host.
+     *
+     * @param exchange
+     * @param peer the peer address of the connection
+     * @return false if the request must fail, because the connected host does
+     * not permit it or no host was reserved for it
+     */
+    boolean connected(HttpServerExchange exchange, SocketAddress peer) {
+        var current = HostStats.current(exchange);
+        var host = stats(peer);
+
+        if (host == null) {
+            // cannot tell, keeps the reservation of the selected host
+            return current != null;
+        } else if (host == current) {
+            return true;
+        }
+
+        HostStats.cancel(exchange);
+
+        if (!host.available || !host.tryAcquire(System.nanoTime())) {
+            LOGGER.debug("Request to {} of location {} not permitted",
+                    host.getUri(), location);
+            return false;
+        }
+
+        host.begin(exchange);
+
+        return true;
+    }
+
+    /**
+     * @return the statistics of all hosts, including the ejected ones
+     */
+    public Collection<HostStats> getHosts() {
+        return Collections.unmodifiableCollection(hosts.values());
+    }
+
+    /**
+     * @return false if the circuits of all available hosts are open or all
+     * have max-streams requests in flight
+     */
+    public boolean isAnyPermitted() {
+        if (circuitBreaker == null && maxStreams == 0) {
+            return true;
+        }
+
+        final long now = System.nanoTime();
+
+        return hosts.values().stream()
+                .anyMatch(h -> h.available && h.isPermitted(now));
+    }
+
+    /**
+     * @return the available hosts that permit requests
+     */
+    List<HostStats> candidates() {
+        final long now = System.nanoTime();
+
+        return hosts.values().stream()
+                .filter(h -> h.available && h.isPermitted(now))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the location
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * updates the health of a host after a health check
+     *
+     * @param host
+     * @param healthy
+     */
+    synchronized void health(HostStats host, boolean healthy) {
+        if (host.healthy == healthy) {
+            return;
+        }
+
+        host.healthy = healthy;
+
+        if (healthy) {
+            LOGGER.info("Host {} of location {} is healthy",
+                    host.getUri(), location);
+            restore(host);
+        } else {
+            LOGGER.warn("Host {} of location {} is failing the health checks",
+                    host.getUri(), location);
+            eject(host, 100);
+        }
+    }
+
+    /**
+     * called when an attempt completes
+     *
+     * @param host
+     * @param error
+     */
+    void completed(HostStats host, boolean error) {
+        if (outlierEjection != null
+                && host.count(error,
+                        outlierEjection.window,
+                        outlierEjection.minRequests,
+                        outlierEjection.errorRate)
+                && error) {
+            ejectOutlier(host);
+        }
+    }
+
+    private synchronized void ejectOutlier(HostStats host) {
+        if (host.outlier || !eject(host, outlierEjection.maxEjectionPercent)) {
+            return;
+        }
+
+        host.outlier = true;
+        host.ejections++;
+
+        var time = outlierEjection.ejectionTime
+                * Math.min(host.ejections, OutlierEjection.MAX_EJECTION_FACTOR);
+
+        LOGGER.warn("Host {} of location {} ejected for {} ms, "
+                + "error rate over {}",
+                host.getUri(), location, time, outlierEjection.errorRate);
+
+        SCHEDULER.schedule(() -> {
+            synchronized (Backends.this) {
+                host.outlier = false;
+                host.resetWindow(System.nanoTime());
+                restore(host);
+            }
+        }, time, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * removes the host from the proxy client, unless it is the last available
+     * or the ejected hosts would exceed maxEjectionPercent
+     *
+     * @return true if the host is not available anymore
+     */
+    private boolean eject(HostStats host, int maxEjectionPercent) {
+        if (!host.available) {
+            return true;
+        }
+
+        var available = hosts.values().stream()
+                .filter(h -> h.available)
+                .count();
+
+        var ejected = hosts.size() - available;
+
+        if (available <= 1
+                || (ejected + 1) * 100 > maxEjectionPercent * hosts.size()) {
+            LOGGER.warn("Host {} of location {} not ejected, "
+                    + "too many hosts are already ejected",
+                    host.getUri(), location);
+            return false;
+        }
+
+        proxyClient.removeHost(host.getUri());
+        host.available = false;
+
+        return true;
+    }
+
+    private void restore(HostStats host) {
+        if (!host.available && host.healthy && !host.outlier) {
+            proxyClient.addHost(host.getUri(), null, ssl, options);
+            host.available = true;
+
+            LOGGER.info("Host {} of location {} restored",
+                    host.getUri(), location);
+        }
+    }
+
+    /**
+     * @return the statistics of the hosts
+     */
+    public synchronized Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        hosts.values().forEach(h -> ret.put(h.getUri().toString(), h.metrics()));
+
+        return ret;
+    }
+
+    static Number number(Map<String, Object> conf, String key,
+            Number defaultValue, String what) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return (Number) value;
+        } else {
+            throw new ConfigurationException("Wrong " + what + ", "
+                    + key + " must be a number");
+        }
+    }
+
+    /**
+     * the outlier ejection configuration
+     */
+    public static class OutlierEjection {
+
+        static final int MAX_EJECTION_FACTOR = 10;
+
+        private final double errorRate;
+        private final int minRequests;
+        private final long window;
+        private final long ejectionTime;
+        private final int maxEjectionPercent;
+
+        /**
+         *
+         * @param errorRate the error rate in the window that ejects the host
+         * @param minRequests the minimum requests in the window to eject the
+         * host
+         * @param window the duration of the window in milliseconds
+         * @param ejectionTime the duration of the first ejection in
+         * milliseconds, it grows linearly with the ejections of the host
+         * @param maxEjectionPercent the maximum percent of hosts ejected
+         */
+        public OutlierEjection(double errorRate,
+                int minRequests,
+                long window,
+                long ejectionTime,
+                int maxEjectionPercent) {
+            if (errorRate <= 0 || errorRate > 1) {
+                throw new IllegalArgumentException("error-rate must be "
+                        + "between 0 excluded and 1");
+            }
+
+            if (minRequests < 1 || window < 1 || ejectionTime < 1) {
+                throw new IllegalArgumentException("min-requests, window and "
+                        + "ejection-time must be positive");
+            }
+
+            if (maxEjectionPercent < 0 || maxEjectionPercent > 100) {
+                throw new IllegalArgumentException("max-ejection-percent must "
+                        + "be between 0 and 100");
+            }
+
+            this.errorRate = errorRate;
+            this.minRequests = minRequests;
+            this.window = TimeUnit.MILLISECONDS.toNanos(window);
+            this.ejectionTime = ejectionTime;
+            this.maxEjectionPercent = maxEjectionPercent;
+        }
+
+        /**
+         * builds the OutlierEjection from the outlier-ejection configuration
+         * of a proxied location
+         *
+         * @param conf
+         * @return the OutlierEjection or null if conf is null
+         * @throws ConfigurationException
+         */
+        public static OutlierEjection build(Map<String, Object> conf)
+                throws ConfigurationException {
+            if (conf == null) {
+                return null;
+            }
+
+            var what = "outlier ejection";
+
+            try {
+                return new OutlierEjection(
+                        number(conf, ConfigurationKeys.OUTLIER_EJECTION_ERROR_RATE_KEY,
+                                0.5, what).doubleValue(),
+                        number(conf, ConfigurationKeys.OUTLIER_EJECTION_MIN_REQUESTS_KEY,
+                                20, what).intValue(),
+                        number(conf, ConfigurationKeys.OUTLIER_EJECTION_WINDOW_KEY,
+                                10_000, what).longValue(),
+                        number(conf, ConfigurationKeys.OUTLIER_EJECTION_TIME_KEY,
+                                30_000, what).longValue(),
+                        number(conf, ConfigurationKeys.OUTLIER_EJECTION_MAX_PERCENT_KEY,
+                                50, what).intValue());
+            }
+            catch (IllegalArgumentException iae) {
+                throw new ConfigurationException("Wrong outlier ejection, "
+                        + iae.getMessage());
+            }
+        }
+    }
+}
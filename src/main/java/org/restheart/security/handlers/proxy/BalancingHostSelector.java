@@ -0,0 +1,306 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+
+/**
+ * selects the backend host of a proxied request according to the
+ * load-balancing policy of the location and starts the attempt on the
+ * statistics of the selected host.
+ *
+ * LEAST_OUTSTANDING and PEAK_EWMA compare two random hosts (power of two
+ * choices) and select the one with less requests in flight or with the lower
+ * peak EWMA cost, see HostStats.
+ *
+ * CONSISTENT_HASH maps the HashKey of the request on a ConsistentHashRing of
+ * the available hosts, with bounded load: hosts with more requests in flight
+ * than load-factor times the average are skipped. Requests without the key
+ * are balanced as with LEAST_OUTSTANDING.
+ *
+ * Hosts whose CircuitBreaker does not permit requests, or with max-streams
+ * requests in flight, are skipped in favor of the next host. If no host can be
+ * reserved, no attempt starts and the request fails when connected, see
+ * Backends.connected(), that also moves the attempt to the host the proxy
+ * client actually connects to.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class BalancingHostSelector
+        implements LoadBalancingProxyClient.HostSelector {
+
+    /**
+     * the load balancing policy
+     */
+    public enum Policy {
+        ROUND_ROBIN, LEAST_OUTSTANDING, PEAK_EWMA, CONSISTENT_HASH;
+
+        /**
+         *
+         * @param value the policy name, e.g. peak-ewma
+         * @return the policy
+         * @throws ConfigurationException
+         */
+        public static Policy of(Object value) throws ConfigurationException {
+            try {
+                return Policy.valueOf(value.toString()
+                        .replace('-', '_')
+                        .toUpperCase(Locale.ROOT));
+            }
+            catch (IllegalArgumentException iae) {
+                throw new ConfigurationException("Wrong load-balancing "
+                        + value + ", it must be round-robin, "
+                        + "least-outstanding, peak-ewma or consistent-hash");
+            }
+        }
+    }
+
+    public static final double DEFAULT_LOAD_FACTOR = 1.25;
+
+    private final Policy policy;
+    private final Backends backends;
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    private final HashKey hashKey;
+    private final double loadFactor;
+    private volatile Ring ring = null;
+
+    /**
+     *
+     * @param policy
+     * @param backends
+     */
+    public BalancingHostSelector(Policy policy, Backends backends) {
+        this(policy, backends, null, 0);
+    }
+
+    /**
+     *
+     * @param policy
+     * @param backends
+     * @param hashKey the key of the requests, required by CONSISTENT_HASH
+     * @param loadFactor the maximum load of a host relative to the average,
+     * greater than 1, used by CONSISTENT_HASH
+     */
+    public BalancingHostSelector(Policy policy,
+            Backends backends,
+            HashKey hashKey,
+            double loadFactor) {
+        if (policy == Policy.CONSISTENT_HASH
+                && (hashKey == null || loadFactor <= 1)) {
+            throw new IllegalArgumentException("consistent-hash requires "
+                    + "hash-key and a load factor greater than 1");
+        }
+
+        this.policy = policy;
+        this.backends = backends;
+        this.hashKey = hashKey;
+        this.loadFactor = loadFactor;
+    }
+
+    /**
+     * builds the BalancingHostSelector from the load-balancing, hash-key and
+     * hash-load-factor properties of a proxied location
+     *
+     * @param conf the proxies entry
+     * @param backends
+     * @return the BalancingHostSelector, ROUND_ROBIN if load-balancing is not
+     * defined
+     * @throws ConfigurationException
+     */
+    public static BalancingHostSelector build(Map<String, Object> conf,
+            Backends backends) throws ConfigurationException {
+        var _policy = conf.get(ConfigurationKeys.PROXY_LOAD_BALANCING);
+
+        var policy = _policy == null
+                ? Policy.ROUND_ROBIN
+                : Policy.of(_policy);
+
+        if (policy != Policy.CONSISTENT_HASH) {
+            return new BalancingHostSelector(policy, backends);
+        }
+
+        var _hashKey = conf.get(ConfigurationKeys.PROXY_HASH_KEY);
+
+        var hashKey = HashKey.parse(_hashKey == null
+                ? null
+                : _hashKey.toString());
+
+        var loadFactor = Backends.number(conf,
+                ConfigurationKeys.PROXY_HASH_LOAD_FACTOR,
+                DEFAULT_LOAD_FACTOR,
+                "load balancing").doubleValue();
+
+        try {
+            return new BalancingHostSelector(policy, backends, hashKey,
+                    loadFactor);
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong load balancing, "
+                    + iae.getMessage());
+        }
+    }
+
+    @Override
+    public int selectHost(LoadBalancingProxyClient.Host[] availableHosts) {
+        var exchange = TrackingProxyClient.currentExchange();
+
+        int selected = policy == Policy.CONSISTENT_HASH
+                ? selectByHash(availableHosts,
+                        exchange == null ? null : hashKey.of(exchange))
+                : select(availableHosts, policy);
+
+        // reserves only for the requests of TrackingProxyClient, that starts
+        // or cancels the attempts
+        if (exchange == null) {
+            return selected;
+        }
+
+        var reserved = reserve(availableHosts, selected);
+
+        if (reserved < 0) {
+            return selected;
+        }
+
+        var stats = backends.stats(availableHosts[reserved].getUri());
+
+        if (stats != null) {
+            stats.begin(exchange);
+        }
+
+        return reserved;
+    }
+
+    private int select(LoadBalancingProxyClient.Host[] hosts, Policy policy) {
+        if (hosts.length == 1) {
+            return 0;
+        }
+
+        if (policy == Policy.ROUND_ROBIN) {
+            return Math.floorMod(counter.getAndIncrement(), hosts.length);
+        }
+
+        var random = ThreadLocalRandom.current();
+
+        int a = random.nextInt(hosts.length);
+        int b = random.nextInt(hosts.length - 1);
+
+        if (b >= a) {
+            b++;
+        }
+
+        return cost(hosts[a], policy) <= cost(hosts[b], policy) ? a : b;
+    }
+
+    private int selectByHash(LoadBalancingProxyClient.Host[] hosts,
+            String key) {
+        if (key == null || hosts.length == 1) {
+            return select(hosts, Policy.LEAST_OUTSTANDING);
+        }
+
+        // the proxy client replaces the array when hosts are added or removed
+        var current = this.ring;
+
+        if (current == null || current.hosts != hosts) {
+            current = new Ring(hosts);
+            this.ring = current;
+        }
+
+        int total = 0;
+
+        for (var host : hosts) {
+            total += outstanding(host);
+        }
+
+        final double capacity = Math.ceil(loadFactor * (total + 1) / hosts.length);
+
+        final long now = System.nanoTime();
+
+        return current.ring.select(key, i -> outstanding(hosts[i]) < capacity
+                && isPermitted(hosts[i], now));
+    }
+
+    /**
+     * reserves the request to the selected host if its circuit permits it,
+     * otherwise to the next one that does
+     *
+     * @return the reserved host, -1 if none permits the request
+     */
+    private int reserve(LoadBalancingProxyClient.Host[] hosts,
+            int selected) {
+        final long now = System.nanoTime();
+
+        for (int i = 0; i < hosts.length; i++) {
+            var candidate = (selected + i) % hosts.length;
+            var stats = backends.stats(hosts[candidate].getUri());
+
+            if (stats == null || stats.tryAcquire(now)) {
+                return candidate;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean isPermitted(LoadBalancingProxyClient.Host host,
+            long now) {
+        var stats = backends.stats(host.getUri());
+
+        return stats == null || stats.isPermitted(now);
+    }
+
+    private int outstanding(LoadBalancingProxyClient.Host host) {
+        var stats = backends.stats(host.getUri());
+
+        return stats == null ? 0 : stats.getOutstanding();
+    }
+
+    private double cost(LoadBalancingProxyClient.Host host, Policy policy) {
+        var stats = backends.stats(host.getUri());
+
+        if (stats == null) {
+            return Double.MAX_VALUE;
+        }
+
+        return policy == Policy.LEAST_OUTSTANDING
+                ? stats.getOutstanding()
+                : stats.getCost();
+    }
+
+    private static class Ring {
+
+        private final LoadBalancingProxyClient.Host[] hosts;
+        private final ConsistentHashRing ring;
+
+        Ring(LoadBalancingProxyClient.Host[] hosts) {
+            this.hosts = hosts;
+            this.ring = new ConsistentHashRing(Arrays.stream(hosts)
+                    .map(h -> h.getUri().toString())
+                    .collect(Collectors.toList()),
+                    ConsistentHashRing.DEFAULT_REPLICAS);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the circuit breaker of a backend host.
+ *
+ * CLOSED: requests flow, failed requests (errors and requests slower than the
+ * slow call threshold) are counted in a window; when the failure rate
+ * reaches the threshold the circuit opens.
+ *
+ * OPEN: the host gets no requests until the open time expires, then the
+ * circuit is half open.
+ *
+ * HALF_OPEN: a limited number of trial requests are let through; if all
+ * succeed the circuit closes, at the first failure it opens again.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * the state of the circuit
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final Config config;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private long openUntil = 0;
+    private long windowStart;
+    private int windowRequests = 0;
+    private int windowFailures = 0;
+    private int trials = 0;
+    private int trialSuccesses = 0;
+    private long opened = 0;
+
+    /**
+     *
+     * @param name the name of the circuit, for logging
+     * @param config
+     * @param now the current time in nanoseconds
+     */
+    CircuitBreaker(String name, Config config, long now) {
+        this.name = name;
+        this.config = config;
+        this.windowStart = now;
+    }
+
+    /**
+     * checks the circuit without changing it
+     *
+     * @param now the current time in nanoseconds
+     * @return true if the circuit would let a request through
+     */
+    synchronized boolean isPermitted(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now - openUntil >= 0;
+            default:
+                return trials < config.halfOpenRequests;
+        }
+    }
+
+    /**
+     * lets a request through the circuit, if permitted; when half open, the
+     * trial is reserved so that at most half-open-requests trials are sent
+     *
+     * @param now the current time in nanoseconds
+     * @return true if the request can be sent
+     */
+    synchronized boolean tryAcquire(long now) {
+        if (state == State.OPEN && now - openUntil >= 0) {
+            transition(State.HALF_OPEN);
+            trials = 0;
+            trialSuccesses = 0;
+        }
+
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trials < config.halfOpenRequests) {
+                    trials++;
+                    return true;
+                }
+
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * gives back a request let through by tryAcquire() that was not sent or
+     * whose outcome is unknown, e.g. cancelled
+     */
+    synchronized void release() {
+        if (state == State.HALF_OPEN && trials > trialSuccesses) {
+            trials--;
+        }
+    }
+
+    /**
+     * records the outcome of a request
+     *
+     * @param error true if the request failed
+     * @param latency the latency of the request in nanoseconds
+     * @param now the current time in nanoseconds
+     */
+    synchronized void record(boolean error, long latency, long now) {
+        boolean failure = error
+                || (config.slowCallThreshold > 0
+                && latency > config.slowCallThreshold);
+
+        switch (state) {
+            case CLOSED:
+                if (now - windowStart > config.window) {
+                    windowStart = now;
+                    windowRequests = 0;
+                    windowFailures = 0;
+                }
+
+                windowRequests++;
+
+                if (failure) {
+                    windowFailures++;
+                }
+
+                if (windowRequests >= config.minRequests
+                        && windowFailures >= config.failureRate * windowRequests) {
+                    open(now);
+                }
+                break;
+            case HALF_OPEN:
+                if (failure) {
+                    open(now);
+                } else if (++trialSuccesses >= config.halfOpenRequests) {
+                    transition(State.CLOSED);
+                    windowStart = now;
+                    windowRequests = 0;
+                    windowFailures = 0;
+                }
+                break;
+            default:
+            // outcome of a request sent before opening
+        }
+    }
+
+    private void open(long now) {
+        transition(State.OPEN);
+        openUntil = now + config.openTime;
+        opened++;
+    }
+
+    private void transition(State to) {
+        if (to == State.CLOSED) {
+            LOGGER.info("Circuit of {} closed", name);
+        } else if (to == State.OPEN) {
+            LOGGER.warn("Circuit of {} opened for {} ms", name,
+                    TimeUnit.NANOSECONDS.toMillis(config.openTime));
+        } else {
+            LOGGER.info("Circuit of {} half open", name);
+        }
+
+        state = to;
+    }
+
+    /**
+     * @return the state of the circuit
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of times the circuit opened
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    /**
+     * the circuit breaker configuration
+     */
+    public static class Config {
+
+        private final double failureRate;
+        private final long slowCallThreshold;
+        private final int minRequests;
+        private final long window;
+        private final long openTime;
+        private final int halfOpenRequests;
+
+        /**
+         *
+         * @param failureRate the failure rate in the window that opens the
+         * circuit
+         * @param slowCallThreshold the latency in milliseconds above which a
+         * request is a failure, 0 to disable
+         * @param minRequests the minimum requests in the window to open the
+         * circuit
+         * @param window the duration of the window in milliseconds
+         * @param openTime the milliseconds the circuit stays open
+         * @param halfOpenRequests the trial requests when half open
+         */
+        public Config(double failureRate,
+                long slowCallThreshold,
+                int minRequests,
+                long window,
+                long openTime,
+                int halfOpenRequests) {
+            if (failureRate <= 0 || failureRate > 1) {
+                throw new IllegalArgumentException("failure-rate must be "
+                        + "between 0 excluded and 1");
+            }
+
+            if (slowCallThreshold < 0) {
+                throw new IllegalArgumentException("slow-call-threshold must "
+                        + "not be negative");
+            }
+
+            if (minRequests < 1 || window < 1 || openTime < 1
+                    || halfOpenRequests < 1) {
+                throw new IllegalArgumentException("min-requests, window, "
+                        + "open-time and half-open-requests must be positive");
+            }
+
+            this.failureRate = failureRate;
+            this.slowCallThreshold = TimeUnit.MILLISECONDS.toNanos(slowCallThreshold);
+            this.minRequests = minRequests;
+            this.window = TimeUnit.MILLISECONDS.toNanos(window);
+            this.openTime = TimeUnit.MILLISECONDS.toNanos(openTime);
+            this.halfOpenRequests = halfOpenRequests;
+        }
+
+        /**
+         * builds the Config from the circuit-breaker configuration of a
+         * proxied location
+         *
+         * @param conf
+         * @return the Config or null if conf is null
+         * @throws ConfigurationException
+         */
+        public static Config build(Map<String, Object> conf)
+                throws ConfigurationException {
+            if (conf == null) {
+                return null;
+            }
+
+            var what = "circuit breaker";
+
+            try {
+                return new Config(
+                        Backends.number(conf, ConfigurationKeys.CIRCUIT_BREAKER_FAILURE_RATE_KEY,
+                                0.5, what).doubleValue(),
+                        Backends.number(conf, ConfigurationKeys.CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD_KEY,
+                                0, what).longValue(),
+                        Backends.number(conf, ConfigurationKeys.CIRCUIT_BREAKER_MIN_REQUESTS_KEY,
+                                20, what).intValue(),
+                        Backends.number(conf, ConfigurationKeys.CIRCUIT_BREAKER_WINDOW_KEY,
+                                10_000, what).longValue(),
+                        Backends.number(conf, ConfigurationKeys.CIRCUIT_BREAKER_OPEN_TIME_KEY,
+                                10_000, what).longValue(),
+                        Backends.number(conf, ConfigurationKeys.CIRCUIT_BREAKER_HALF_OPEN_REQUESTS_KEY,
+                                3, what).intValue());
+            }
+            catch (IllegalArgumentException iae) {
+                throw new ConfigurationException("Wrong circuit breaker, "
+                        + iae.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * a consistent hash ring: each node is placed on the ring with many virtual
+ * points and a key is mapped to the first node found walking the ring from
+ * the hash of the key. Adding or removing a node only moves the keys of that
+ * node.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_REPLICAS = 100;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final long[] points;
+    private final int[] nodes;
+
+    /**
+     *
+     * @param nodes the names of the nodes
+     * @param replicas the virtual points of each node
+     */
+    public ConsistentHashRing(List<String> nodes, int replicas) {
+        var size = nodes.size() * replicas;
+        var _points = new long[size];
+        var _nodes = new int[size];
+
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int r = 0; r < replicas; r++) {
+                _points[n * replicas + r] = hash(nodes.get(n) + "#" + r);
+                _nodes[n * replicas + r] = n;
+            }
+        }
+
+        var order = IntStream.range(0, size)
+                .boxed()
+                .sorted(Comparator.comparingLong(i -> _points[i]))
+                .mapToInt(i -> i)
+                .toArray();
+
+        this.points = new long[size];
+        this.nodes = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            this.points[i] = _points[order[i]];
+            this.nodes[i] = _nodes[order[i]];
+        }
+    }
+
+    /**
+     * walks the ring from the hash of the key and returns the first node
+     * accepted
+     *
+     * @param key
+     * @param accept tests the index of a node, e.g. to skip overloaded nodes
+     * @return the index of the first accepted node, or of the node owning the
+     * key if none is accepted; -1 if the ring is empty
+     */
+    public int select(String key, IntPredicate accept) {
+        if (points.length == 0) {
+            return -1;
+        }
+
+        int pos = Arrays.binarySearch(points, hash(key));
+
+        if (pos < 0) {
+            pos = -pos - 1;
+        }
+
+        for (int i = 0; i < points.length; i++) {
+            var node = nodes[(pos + i) % points.length];
+
+            if (accept.test(node)) {
+                return node;
+            }
+        }
+
+        return nodes[pos % points.length];
+    }
+
+    private static long hash(String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
+import java.util.concurrent.TimeUnit;
+import org.restheart.handlers.PipelinedHandler;
+import org.restheart.security.handlers.CORSHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
+
+/**
+ * enforces the deadline set by DeadlineHandler, to be placed right before
+ * proxying the request.
+ *
+ * If the deadline is already expired the request gets 504 Gateway Timeout
+ * without contacting the backend. Otherwise the remaining budget is forwarded
+ * to the backend with the X-Request-Timeout header and, when the deadline
+ * expires, the connection to the backend is closed (see TrackingProxyClient),
+ * freeing it and failing the request as the request-timeout does.
+ *
+ * A multiplexed HTTP/2 connection to the backend is shared with other
+ * requests and is not closed: only this exchange ends, with 504 if the
+ * response has not started yet. Likewise, with an HTTP/2 client only the
+ * stream of the request is reset, not the connection with all its streams.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class DeadlineEnforcer extends PipelinedHandler {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(DeadlineEnforcer.class);
+
+    private final boolean propagate;
+
+    /**
+     *
+     * @param propagate true to forward the remaining budget to the backend
+     */
+    public DeadlineEnforcer(boolean propagate) {
+        super();
+        this.propagate = propagate;
+    }
+
+    /**
+     *
+     * @param exchange
+     * @throws Exception
+     */
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        var remaining = DeadlineHandler.remaining(exchange);
+
+        if (remaining < 0) {
+            next(exchange);
+            return;
+        }
+
+        if (remaining == 0) {
+            CORSHandler.injectAccessControlAllowHeaders(exchange);
+            exchange.setStatusCode(StatusCodes.GATEWAY_TIME_OUT);
+            exchange.endExchange();
+            return;
+        }
+
+        if (propagate) {
+            exchange.getRequestHeaders().put(
+                    DeadlineHandler.REQUEST_TIMEOUT_HEADER, remaining);
+        }
+
+        var timer = exchange.getIoThread().executeAfter(() -> expired(exchange),
+                remaining, TimeUnit.MILLISECONDS);
+
+        exchange.addExchangeCompleteListener((ex, nextListener) -> {
+            timer.remove();
+            nextListener.proceed();
+        });
+
+        next(exchange);
+    }
+
+    private void expired(HttpServerExchange exchange) {
+        if (exchange.isComplete()) {
+            return;
+        }
+
+        var connection = exchange.getAttachment(TrackingProxyClient.CONNECTION);
+
+        LOGGER.debug("Deadline expired for request {}, cancelling it",
+                exchange.getRequestURI());
+
+        // no retries after the deadline
+        exchange.putAttachment(TrackingProxyClient.CANCELLED, true);
+
+        if (connection != null
+                && !connection.getConnection().isMultiplexingSupported()) {
+            // the proxy handler fails the request
+            IoUtils.safeClose(connection.getConnection());
+        } else if (exchange.isResponseStarted()) {
+            abort(exchange);
+        } else {
+            CORSHandler.injectAccessControlAllowHeaders(exchange);
+            exchange.setStatusCode(StatusCodes.GATEWAY_TIME_OUT);
+            exchange.endExchange();
+        }
+    }
+
+    /**
+     * aborts the response already started: with HTTP/1.1 by closing the
+     * client connection; with HTTP/2 the connection of the exchange is an
+     * Http2ServerConnection bound to its stream, closing it sends RST_STREAM
+     * for this stream only and the other requests of the client go on
+     */
+    private static void abort(HttpServerExchange exchange) {
+        LOGGER.debug("Aborting the {} response of request {}",
+                exchange.getProtocol(),
+                exchange.getRequestURI());
+
+        IoUtils.safeClose(exchange.getConnection());
+    }
+}
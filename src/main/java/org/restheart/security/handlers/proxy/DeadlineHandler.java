@@ -0,0 +1,118 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HttpString;
+import java.util.concurrent.TimeUnit;
+import org.restheart.handlers.PipelinedHandler;
+
+/**
+ * sets the deadline of a proxied request when it is received: the deadline is
+ * the request-timeout of the location or, if shorter, the budget in
+ * milliseconds requested by the client with the X-Request-Timeout header.
+ *
+ * The deadline is enforced by DeadlineEnforcer right before proxying.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class DeadlineHandler extends PipelinedHandler {
+
+    /**
+     * the request header with the time budget of the request in milliseconds
+     */
+    public static final HttpString REQUEST_TIMEOUT_HEADER
+            = HttpString.tryFromString("X-Request-Timeout");
+
+    private static final AttachmentKey<Long> DEADLINE
+            = AttachmentKey.create(Long.class);
+
+    private final long timeout;
+    private final boolean propagate;
+
+    /**
+     *
+     * @param timeout the request-timeout of the location in milliseconds, 0
+     * or negative for none
+     * @param propagate true to honor the X-Request-Timeout header
+     */
+    public DeadlineHandler(long timeout, boolean propagate) {
+        super();
+        this.timeout = timeout;
+        this.propagate = propagate;
+    }
+
+    /**
+     *
+     * @param exchange
+     * @throws Exception
+     */
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        long budget = timeout > 0 ? timeout : Long.MAX_VALUE;
+
+        if (propagate) {
+            var requested = requestedBudget(exchange);
+
+            if (requested >= 0 && requested < budget) {
+                budget = requested;
+            }
+        }
+
+        if (budget != Long.MAX_VALUE) {
+            exchange.putAttachment(DEADLINE, System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(budget));
+        }
+
+        next(exchange);
+    }
+
+    private static long requestedBudget(HttpServerExchange exchange) {
+        var value = exchange.getRequestHeaders()
+                .getFirst(REQUEST_TIMEOUT_HEADER);
+
+        if (value == null) {
+            return -1;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        }
+        catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     *
+     * @param exchange
+     * @return the milliseconds before the deadline of the request, 0 if
+     * expired, -1 if the request has no deadline
+     */
+    public static long remaining(HttpServerExchange exchange) {
+        var deadline = exchange.getAttachment(DEADLINE);
+
+        if (deadline == null) {
+            return -1;
+        }
+
+        return Math.max(0, TimeUnit.NANOSECONDS
+                .toMillis(deadline - System.nanoTime()));
+    }
+}
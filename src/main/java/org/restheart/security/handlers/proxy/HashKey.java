@@ -0,0 +1,133 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import org.restheart.ConfigurationException;
+
+/**
+ * the key of a request used to route it with consistent hashing:
+ * <ul>
+ * <li>account: the name of the authenticated account</li>
+ * <li>path:N: the N-th segment of the request path, e.g. path:2 is the
+ * collection of /db/coll/doc</li>
+ * <li>header:NAME: the value of the request header NAME</li>
+ * </ul>
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class HashKey {
+
+    private enum Type {
+        ACCOUNT, PATH, HEADER
+    }
+
+    private final Type type;
+    private final int segment;
+    private final HttpString header;
+
+    private HashKey(Type type, int segment, HttpString header) {
+        this.type = type;
+        this.segment = segment;
+        this.header = header;
+    }
+
+    /**
+     *
+     * @param value account, path:N or header:NAME
+     * @return the HashKey
+     * @throws ConfigurationException
+     */
+    public static HashKey parse(String value) throws ConfigurationException {
+        if (value == null) {
+            throw new ConfigurationException("Missing hash-key, "
+                    + "it must be account, path:N or header:NAME");
+        } else if ("account".equals(value)) {
+            return new HashKey(Type.ACCOUNT, 0, null);
+        } else if (value.startsWith("path:")) {
+            try {
+                var segment = Integer.parseInt(value.substring(5));
+
+                if (segment > 0) {
+                    return new HashKey(Type.PATH, segment, null);
+                }
+            }
+            catch (NumberFormatException nfe) {
+                // handled below
+            }
+
+            throw new ConfigurationException("Wrong hash-key " + value
+                    + ", the path segment must be a positive number");
+        } else if (value.startsWith("header:") && value.length() > 7) {
+            return new HashKey(Type.HEADER, 0,
+                    HttpString.tryFromString(value.substring(7)));
+        } else {
+            throw new ConfigurationException("Wrong hash-key " + value
+                    + ", it must be account, path:N or header:NAME");
+        }
+    }
+
+    /**
+     *
+     * @param exchange
+     * @return the key of the request, null if the request does not have it
+     */
+    public String of(HttpServerExchange exchange) {
+        switch (type) {
+            case ACCOUNT:
+                var sc = exchange.getSecurityContext();
+
+                return sc == null
+                        || sc.getAuthenticatedAccount() == null
+                        || sc.getAuthenticatedAccount().getPrincipal() == null
+                        ? null
+                        : sc.getAuthenticatedAccount().getPrincipal().getName();
+            case PATH:
+                return segment(exchange.getRequestPath(), segment);
+            default:
+                return exchange.getRequestHeaders().getFirst(header);
+        }
+    }
+
+    static String segment(String path, int n) {
+        int start = 0;
+        int count = 0;
+
+        while (start < path.length()) {
+            if (path.charAt(start) == '/') {
+                start++;
+                continue;
+            }
+
+            int end = path.indexOf('/', start);
+
+            if (end < 0) {
+                end = path.length();
+            }
+
+            if (++count == n) {
+                return path.substring(start, end);
+            }
+
+            start = end;
+        }
+
+        return null;
+    }
+}
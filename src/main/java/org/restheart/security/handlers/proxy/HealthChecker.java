@@ -0,0 +1,229 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+
+/**
+ * periodically probes the backend hosts of a proxied location: http and https
+ * hosts with a GET request to the health check path, that succeeds if the
+ * response status is lower than 500; other hosts (ajp) with a TCP connection.
+ *
+ * After unhealthy-threshold consecutive failures a host is ejected, after
+ * healthy-threshold consecutive successes it is restored, see Backends.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class HealthChecker {
+
+    /**
+     * connects the TCP probes, that block up to the timeout, not to delay the
+     * other probes run by Backends.SCHEDULER
+     */
+    private static final ExecutorService TCP_PROBES
+            = Executors.newCachedThreadPool(r -> {
+                var t = new Thread(r, "backends-tcp-probe");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final Backends backends;
+    private final String path;
+    private final long interval;
+    private final long timeout;
+    private final int unhealthyThreshold;
+    private final int healthyThreshold;
+
+    private final HttpClient httpClient;
+
+    /**
+     *
+     * @param backends
+     * @param path the path of the health check requests
+     * @param interval the milliseconds between health checks
+     * @param timeout the timeout of the health checks in milliseconds
+     * @param unhealthyThreshold the consecutive failures to eject a host
+     * @param healthyThreshold the consecutive successes to restore a host
+     */
+    public HealthChecker(Backends backends,
+            String path,
+            long interval,
+            long timeout,
+            int unhealthyThreshold,
+            int healthyThreshold) {
+        if (interval < 1 || timeout < 1) {
+            throw new IllegalArgumentException("interval and timeout must be "
+                    + "positive");
+        }
+
+        if (unhealthyThreshold < 1 || healthyThreshold < 1) {
+            throw new IllegalArgumentException("unhealthy-threshold and "
+                    + "healthy-threshold must be positive");
+        }
+
+        this.backends = backends;
+        this.path = path.startsWith("/") ? path : "/".concat(path);
+        this.interval = interval;
+        this.timeout = timeout;
+        this.unhealthyThreshold = unhealthyThreshold;
+        this.healthyThreshold = healthyThreshold;
+
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(timeout))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    /**
+     * builds the HealthChecker from the health-check configuration of a
+     * proxied location
+     *
+     * @param conf
+     * @param backends
+     * @return the HealthChecker or null if conf is null
+     * @throws ConfigurationException
+     */
+    public static HealthChecker build(Map<String, Object> conf,
+            Backends backends) throws ConfigurationException {
+        if (conf == null) {
+            return null;
+        }
+
+        var what = "health check";
+        var path = conf.getOrDefault(ConfigurationKeys.HEALTH_CHECK_PATH_KEY, "/");
+
+        try {
+            return new HealthChecker(backends,
+                    path.toString(),
+                    Backends.number(conf, ConfigurationKeys.HEALTH_CHECK_INTERVAL_KEY,
+                            5_000, what).longValue(),
+                    Backends.number(conf, ConfigurationKeys.HEALTH_CHECK_TIMEOUT_KEY,
+                            2_000, what).longValue(),
+                    Backends.number(conf, ConfigurationKeys.HEALTH_CHECK_UNHEALTHY_THRESHOLD_KEY,
+                            3, what).intValue(),
+                    Backends.number(conf, ConfigurationKeys.HEALTH_CHECK_HEALTHY_THRESHOLD_KEY,
+                            2, what).intValue());
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong health check, "
+                    + iae.getMessage());
+        }
+    }
+
+    /**
+     * starts the periodic health checks
+     */
+    public void start() {
+        backends.getHosts().forEach(host -> {
+            var state = new ProbeState();
+
+            Backends.SCHEDULER.scheduleWithFixedDelay(
+                    () -> probe(host, state),
+                    interval, interval, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void probe(HostStats host, ProbeState state) {
+        var uri = host.getUri();
+
+        if ("http".equalsIgnoreCase(uri.getScheme())
+                || "https".equalsIgnoreCase(uri.getScheme())) {
+            HttpRequest request;
+
+            try {
+                request = HttpRequest.newBuilder(new URI(uri.getScheme(),
+                        null, uri.getHost(), uri.getPort(), path, null, null))
+                        .timeout(Duration.ofMillis(timeout))
+                        .GET()
+                        .build();
+            }
+            catch (URISyntaxException | IllegalArgumentException ex) {
+                result(host, state, false);
+                return;
+            }
+
+            // probes are asynchronous not to delay the other ones
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, t) -> result(host, state,
+                    t == null && response.statusCode() < 500));
+        } else {
+            TCP_PROBES.execute(() -> {
+                try (var socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(uri.getHost(),
+                            port(uri)), (int) timeout);
+                    result(host, state, true);
+                }
+                catch (IOException | IllegalArgumentException ex) {
+                    result(host, state, false);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the port of the uri of a host probed by TCP or, if not
+     * specified, the default port of ajp as for the AJP client of Undertow
+     */
+    static int port(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+
+        return "ajp".equalsIgnoreCase(uri.getScheme()) ? 8009 : 80;
+    }
+
+    private void result(HostStats host, ProbeState state, boolean success) {
+        synchronized (state) {
+            if (success) {
+                state.failures = 0;
+                state.successes++;
+
+                if (state.successes >= healthyThreshold) {
+                    backends.health(host, true);
+                }
+            } else {
+                state.successes = 0;
+                state.failures++;
+
+                if (state.failures >= unhealthyThreshold) {
+                    backends.health(host, false);
+                }
+            }
+        }
+    }
+
+    private static class ProbeState {
+
+        private int failures = 0;
+        private int successes = 0;
+    }
+}
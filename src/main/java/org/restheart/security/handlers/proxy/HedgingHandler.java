@@ -0,0 +1,712 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
+
+/**
+ * hedges the GET, HEAD and OPTIONS requests without body of a proxied
+ * location: the request is proxied by the next handler and, if its response
+ * does not arrive within the configured percentile of the recent latencies,
+ * it is also sent to another host; the first response wins.
+ *
+ * The hedged request is sent with a java.net.http client, since the
+ * ProxyHandler cannot send the same request twice; its response is buffered
+ * up to max-size bytes and it times out with the deadline of the request, or
+ * the request-timeout. Hedges withdraw from the RetryBudget of the location.
+ *
+ * The losing request is cancelled. When the hedged request wins, the
+ * attempt of the proxied request is cancelled and its connection is closed:
+ * the ProxyHandler, failing it, ends the exchange with the hedged response.
+ * Before the connection is got, the hedged response is discarded.
+ *
+ * Requests are not hedged when less than two hosts are available. Hedging is
+ * not supported with HTTP/2 to the backends, since the multiplexed
+ * connection of the proxied request cannot be closed.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class HedgingHandler implements HttpHandler {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(HedgingHandler.class);
+
+    private static final Set<String> NOT_FORWARDED_HEADERS = Set.of(
+            "connection",
+            "keep-alive",
+            "proxy-authenticate",
+            "proxy-authorization",
+            "te",
+            "trailer",
+            "transfer-encoding",
+            "upgrade",
+            "host",
+            "content-length",
+            "expect",
+            "x-forwarded-for",
+            "x-forwarded-proto",
+            "x-forwarded-host",
+            "x-forwarded-port");
+
+    private static final HttpString X_FORWARDED_FOR
+            = HttpString.tryFromString("X-Forwarded-For");
+
+    private static final HttpString X_FORWARDED_PROTO
+            = HttpString.tryFromString("X-Forwarded-Proto");
+
+    private static final HttpString X_FORWARDED_HOST
+            = HttpString.tryFromString("X-Forwarded-Host");
+
+    private static final HttpString X_FORWARDED_PORT
+            = HttpString.tryFromString("X-Forwarded-Port");
+
+    private final HttpHandler next;
+    private final Backends backends;
+    private final RetryBudget budget;
+    private final double percentile;
+    private final long minDelay;
+    private final long maxDelay;
+    private final int maxSize;
+    private final boolean rewriteHostHeader;
+    private final long requestTimeout;
+
+    private final HttpClient httpClient;
+
+    private final LatencyWindow latencies = new LatencyWindow(1024);
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder hedgesCancelled = new LongAdder();
+
+    /**
+     *
+     * @param next the handler proxying the requests
+     * @param backends the backends of the location
+     * @param budget the retry budget of the location
+     * @param percentile the percentile of the latencies after which the
+     * request is hedged
+     * @param minDelay the minimum hedge delay in milliseconds
+     * @param maxDelay the maximum hedge delay in milliseconds, also used
+     * until enough latencies are known
+     * @param maxSize the maximum size in bytes of a hedged response
+     * @param rewriteHostHeader false to send the Host header of the request
+     * to the backend
+     * @param requestTimeout the request-timeout of the location in
+     * milliseconds, used for the hedged requests without deadline; 0 or
+     * negative for none
+     */
+    public HedgingHandler(HttpHandler next,
+            Backends backends,
+            RetryBudget budget,
+            double percentile,
+            long minDelay,
+            long maxDelay,
+            int maxSize,
+            boolean rewriteHostHeader,
+            long requestTimeout) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be between "
+                    + "0 and 100 excluded");
+        }
+
+        if (minDelay < 0 || maxDelay < minDelay) {
+            throw new IllegalArgumentException("min-delay must not be "
+                    + "negative and not greater than max-delay");
+        }
+
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("max-size must be positive");
+        }
+
+        this.next = next;
+        this.backends = backends;
+        this.budget = budget;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.maxSize = maxSize;
+        this.rewriteHostHeader = rewriteHostHeader;
+        this.requestTimeout = requestTimeout;
+
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    /**
+     * builds the HedgingHandler from the hedging configuration of a proxied
+     * location
+     *
+     * @param conf
+     * @param next
+     * @param backends
+     * @param budget
+     * @param rewriteHostHeader the rewrite-host-header of the location
+     * @param requestTimeout the request-timeout of the location
+     * @param http2 true if HTTP/2 to backends is enabled
+     * @return the HedgingHandler or null if conf is null or http2 is true
+     * @throws ConfigurationException
+     */
+    public static HedgingHandler build(Map<String, Object> conf,
+            HttpHandler next,
+            Backends backends,
+            RetryBudget budget,
+            boolean rewriteHostHeader,
+            long requestTimeout,
+            boolean http2) throws ConfigurationException {
+        if (conf == null) {
+            return null;
+        }
+
+        if (http2) {
+            LOGGER.warn("Hedging not enabled, it is not supported with "
+                    + "HTTP/2 to the backends");
+            return null;
+        }
+
+        if (!rewriteHostHeader && !isHostHeaderAllowed()) {
+            throw new ConfigurationException("Wrong hedging, it requires "
+                    + "rewrite-host-header or allowing the Host header with "
+                    + "-Djdk.httpclient.allowRestrictedHeaders=host");
+        }
+
+        var what = "hedging";
+
+        try {
+            return new HedgingHandler(next, backends, budget,
+                    Backends.number(conf, ConfigurationKeys.HEDGING_PERCENTILE_KEY,
+                            95, what).doubleValue(),
+                    Backends.number(conf, ConfigurationKeys.HEDGING_MIN_DELAY_KEY,
+                            5, what).longValue(),
+                    Backends.number(conf, ConfigurationKeys.HEDGING_MAX_DELAY_KEY,
+                            1_000, what).longValue(),
+                    Backends.number(conf, ConfigurationKeys.HEDGING_MAX_SIZE_KEY,
+                            1024 * 1024, what).intValue(),
+                    rewriteHostHeader,
+                    requestTimeout);
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong hedging, "
+                    + iae.getMessage());
+        }
+    }
+
+    private static boolean isHostHeaderAllowed() {
+        try {
+            HttpRequest.newBuilder().header(Headers.HOST_STRING, "localhost");
+            return true;
+        }
+        catch (IllegalArgumentException iae) {
+            return false;
+        }
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (!RetryBudget.isRetryable(exchange)
+                || exchange.getRequestContentLength() > 0
+                || exchange.getRequestHeaders().contains(Headers.TRANSFER_ENCODING)
+                || exchange.getRequestHeaders().contains(Headers.UPGRADE)
+                || candidates(Set.of()).size() < 2) {
+            next.handleRequest(exchange);
+            return;
+        }
+
+        requests.increment();
+
+        var race = new Race(exchange);
+
+        var timer = exchange.getIoThread().executeAfter(race::hedge,
+                delay(), TimeUnit.MILLISECONDS);
+
+        exchange.addExchangeCompleteListener((ex, nextListener) -> {
+            try {
+                timer.remove();
+                race.completed();
+            }
+            finally {
+                nextListener.proceed();
+            }
+        });
+
+        next.handleRequest(exchange);
+    }
+
+    /**
+     * @return the delay in milliseconds after which a request is hedged
+     */
+    long delay() {
+        var latency = latencies.percentile(percentile);
+
+        if (latency < 0) {
+            return maxDelay;
+        }
+
+        return Math.max(minDelay, Math.min(maxDelay,
+                TimeUnit.NANOSECONDS.toMillis(latency)));
+    }
+
+    private List<HostStats> candidates(Set<HostStats> excluded) {
+        return backends.candidates().stream()
+                .filter(h -> !excluded.contains(h))
+                .filter(h -> "http".equals(h.getUri().getScheme())
+                || "https".equals(h.getUri().getScheme()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * compares two random hosts (power of two choices)
+     */
+    private static HostStats pick(List<HostStats> hosts) {
+        if (hosts.isEmpty()) {
+            return null;
+        } else if (hosts.size() == 1) {
+            return hosts.get(0);
+        }
+
+        var random = ThreadLocalRandom.current();
+
+        int a = random.nextInt(hosts.size());
+        int b = random.nextInt(hosts.size() - 1);
+
+        if (b >= a) {
+            b++;
+        }
+
+        return hosts.get(a).getCost() <= hosts.get(b).getCost()
+                ? hosts.get(a)
+                : hosts.get(b);
+    }
+
+    private HttpRequest request(HttpServerExchange exchange, URI host,
+            long timeout) {
+        var path = exchange.getRequestURI();
+        var resolved = exchange.getResolvedPath();
+
+        if (!resolved.isEmpty() && path.startsWith(resolved)) {
+            path = path.substring(resolved.length());
+        }
+
+        var base = host.getRawPath() == null || "/".equals(host.getRawPath())
+                ? ""
+                : host.getRawPath();
+
+        var target = base + path;
+
+        if (target.isEmpty()) {
+            target = "/";
+        }
+
+        var qs = exchange.getQueryString();
+
+        var uri = URI.create(host.getScheme() + "://" + host.getRawAuthority()
+                + target + (qs == null || qs.isEmpty() ? "" : "?" + qs));
+
+        var builder = HttpRequest.newBuilder(uri)
+                .method(exchange.getRequestMethod().toString(),
+                        HttpRequest.BodyPublishers.noBody());
+
+        if (timeout > 0) {
+            builder.timeout(Duration.ofMillis(timeout));
+        }
+
+        var hostHeader = exchange.getRequestHeaders().getFirst(Headers.HOST);
+
+        if (!rewriteHostHeader && hostHeader != null) {
+            // restricted by the http client unless allowed, see build()
+            builder.header(Headers.HOST_STRING, hostHeader);
+        }
+
+        exchange.getRequestHeaders().forEach(values -> {
+            var name = values.getHeaderName().toString();
+
+            if (!NOT_FORWARDED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                values.forEach(value -> {
+                    try {
+                        builder.header(name, value);
+                    }
+                    catch (IllegalArgumentException iae) {
+                        // header restricted by the http client
+                        LOGGER.trace("Header {} not forwarded by hedged "
+                                + "request: {}", name, iae.getMessage());
+                    }
+                });
+            }
+        });
+
+        var xff = exchange.getRequestHeaders().getFirst(X_FORWARDED_FOR);
+        var client = exchange.getSourceAddress().getAddress().getHostAddress();
+
+        builder.header(X_FORWARDED_FOR.toString(), xff == null
+                ? client
+                : xff + ", " + client);
+        builder.header(X_FORWARDED_PROTO.toString(), exchange.getRequestScheme());
+        builder.header(X_FORWARDED_HOST.toString(), exchange.getHostName());
+        builder.header(X_FORWARDED_PORT.toString(),
+                String.valueOf(exchange.getHostPort()));
+
+        return builder.build();
+    }
+
+    /**
+     * makes the hedged response the response of the exchange: the attempt of
+     * the proxied request is cancelled, so that its failure is not recorded,
+     * its retries are prevented and, when it fails, the exchange ends with
+     * the hedged response
+     *
+     * @param exchange
+     * @param response the hedged response
+     */
+    static void deliver(HttpServerExchange exchange,
+            HttpResponse<byte[]> response) {
+        HostStats.cancel(exchange);
+
+        exchange.putAttachment(TrackingProxyClient.CANCELLED, true);
+
+        exchange.addDefaultResponseListener(ex -> {
+            respond(ex, response);
+            return true;
+        });
+    }
+
+    private static void respond(HttpServerExchange exchange,
+            HttpResponse<byte[]> response) {
+        exchange.setStatusCode(response.statusCode());
+
+        var head = Methods.HEAD.equals(exchange.getRequestMethod());
+
+        response.headers().map().forEach((name, values) -> {
+            var lname = name.toLowerCase(Locale.ROOT);
+
+            if (lname.startsWith(":")
+                    || (NOT_FORWARDED_HEADERS.contains(lname)
+                    && !(head && "content-length".equals(lname)))) {
+                return;
+            }
+
+            exchange.getResponseHeaders().putAll(new HttpString(name), values);
+        });
+
+        exchange.getResponseSender().send(ByteBuffer.wrap(response.body()));
+    }
+
+    /**
+     * @return the metrics of hedging
+     */
+    public Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        ret.put("requests", requests.sum());
+        ret.put("hedges", hedges.sum());
+        ret.put("hedge-wins", hedgeWins.sum());
+        ret.put("hedges-cancelled", hedgesCancelled.sum());
+        ret.put("delay-ms", delay());
+
+        return ret;
+    }
+
+    /**
+     * a request proxied by the next handler and its hedged request, if any;
+     * the first response wins
+     */
+    private class Race {
+
+        private final HttpServerExchange exchange;
+        private final long start = System.nanoTime();
+
+        // guarded by this
+        private CompletableFuture<HttpResponse<byte[]>> hedge = null;
+        private boolean done = false;
+
+        Race(HttpServerExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        /**
+         * sends the hedged request to another host, if the proxied request
+         * is still waiting for the response and the budget allows it
+         */
+        void hedge() {
+            if (exchange.isResponseStarted() || exchange.isComplete()) {
+                return;
+            }
+
+            var primary = HostStats.current(exchange);
+
+            var host = pick(candidates(primary == null
+                    ? Set.of()
+                    : Set.of(primary)));
+
+            var timeout = timeout();
+
+            if (host == null
+                    || timeout == 0
+                    || !host.tryAcquire(System.nanoTime())) {
+                return;
+            }
+
+            var attempt = host.attempt();
+
+            if (!budget.tryWithdraw()) {
+                attempt.cancel();
+                return;
+            }
+
+            var request = request(exchange, host.getUri(), timeout);
+            final long sent = System.nanoTime();
+            final CompletableFuture<HttpResponse<byte[]>> future;
+
+            synchronized (this) {
+                if (done) {
+                    attempt.cancel();
+                    return;
+                }
+
+                hedges.increment();
+
+                future = httpClient.sendAsync(request,
+                        info -> new BoundedBodySubscriber(maxSize));
+                hedge = future;
+            }
+
+            future.whenComplete((response, error) -> {
+                if (error instanceof CancellationException) {
+                    attempt.cancel();
+                    return;
+                }
+
+                attempt.finish(error != null
+                        || response.statusCode() >= 500);
+
+                if (error != null) {
+                    LOGGER.debug("Hedged request {} to {} failed: {}",
+                            exchange.getRequestURI(),
+                            host.getUri(),
+                            error.getMessage());
+                } else if (response.statusCode() < 500) {
+                    latencies.add(System.nanoTime() - sent);
+                    exchange.getIoThread().execute(() -> won(response));
+                }
+            });
+        }
+
+        /**
+         * @return the milliseconds before the hedged request times out, 0 if
+         * expired, -1 for no timeout
+         */
+        private long timeout() {
+            var remaining = DeadlineHandler.remaining(exchange);
+
+            if (remaining >= 0) {
+                return remaining;
+            } else if (requestTimeout > 0) {
+                return Math.max(0, requestTimeout - TimeUnit.NANOSECONDS
+                        .toMillis(System.nanoTime() - start));
+            } else {
+                return -1;
+            }
+        }
+
+        /**
+         * called in the IO thread of the exchange when the hedged response
+         * arrives; closes the connection of the proxied request, whose
+         * failure ends the exchange with the hedged response
+         */
+        private void won(HttpResponse<byte[]> response) {
+            var connection = exchange.getAttachment(TrackingProxyClient.CONNECTION);
+
+            synchronized (this) {
+                if (done
+                        || exchange.isResponseStarted()
+                        || exchange.isComplete()
+                        || connection == null
+                        || connection.getConnection().isMultiplexingSupported()) {
+                    return;
+                }
+
+                done = true;
+            }
+
+            hedgeWins.increment();
+
+            deliver(exchange, response);
+
+            IoUtils.safeClose(connection.getConnection());
+        }
+
+        /**
+         * called when the exchange completes; if the proxied request won,
+         * the hedged request, if any, is cancelled
+         */
+        void completed() {
+            CompletableFuture<HttpResponse<byte[]>> loser;
+
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+
+                done = true;
+                loser = hedge;
+            }
+
+            latencies.add(System.nanoTime() - start);
+
+            if (loser != null && loser.cancel(true)) {
+                hedgesCancelled.increment();
+            }
+        }
+    }
+
+    /**
+     * buffers the body of a hedged response, failing if larger than max-size
+     */
+    static class BoundedBodySubscriber
+            implements HttpResponse.BodySubscriber<byte[]> {
+
+        private final int maxSize;
+        private final CompletableFuture<byte[]> body = new CompletableFuture<>();
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private Flow.Subscription subscription;
+
+        BoundedBodySubscriber(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public CompletionStage<byte[]> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            if (body.isDone()) {
+                return;
+            }
+
+            for (var item : items) {
+                if (buffer.size() + item.remaining() > maxSize) {
+                    subscription.cancel();
+                    body.completeExceptionally(new IOException("response "
+                            + "larger than max-size " + maxSize + " bytes"));
+                    return;
+                }
+
+                var bytes = new byte[item.remaining()];
+                item.get(bytes);
+                buffer.write(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            body.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            body.complete(buffer.toByteArray());
+        }
+    }
+
+    /**
+     * the latencies of the most recent requests; percentiles are recomputed
+     * every RECOMPUTE samples
+     */
+    static class LatencyWindow {
+
+        private static final int MIN_SAMPLES = 20;
+        private static final int RECOMPUTE = 64;
+
+        private final long[] samples;
+        private int count = 0;
+        private int next = 0;
+        private int added = 0;
+        private long[] sorted = null;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void add(long latency) {
+            samples[next] = latency;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            added++;
+        }
+
+        /**
+         * @param percentile
+         * @return the percentile of the latencies or -1 if there are too few
+         */
+        synchronized long percentile(double percentile) {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+
+            if (sorted == null || added >= RECOMPUTE) {
+                sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                added = 0;
+            }
+
+            var index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+}
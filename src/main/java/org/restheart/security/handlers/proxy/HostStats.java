@@ -0,0 +1,422 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the statistics of a backend host of a proxied location: the requests in
+ * flight, the peak EWMA of the latency and the outcomes of the requests.
+ *
+ * An attempt starts when the host is selected for a request and ends when the
+ * exchange completes or the connection to the host fails; a 5xx response or a
+ * connection failure is an error. If the proxy client connects to another
+ * host than the selected one, the attempt is moved to it, see
+ * Backends.connected(). The outcomes also drive the CircuitBreaker
+ * of the host, if any.
+ *
+ * With max-streams, the host does not permit requests while it has as many
+ * in flight; the check is not atomic with the selection, so the limit can be
+ * exceeded by the requests selecting the host concurrently.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class HostStats {
+
+    private static final AttachmentKey<Attempt> ATTEMPT
+            = AttachmentKey.create(Attempt.class);
+
+    /**
+     * the time constant of the latency EWMA
+     */
+    private static final double DECAY = TimeUnit.SECONDS.toNanos(10);
+
+    private final URI uri;
+    private final Backends backends;
+    private final CircuitBreaker breaker;
+    private final int maxStreams;
+
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    // guarded by this
+    private double ewma = 0;
+    private long ewmaStamp = System.nanoTime();
+
+    // guarded by this, outlier ejection window
+    private long windowStart = System.nanoTime();
+    private int windowRequests = 0;
+    private int windowErrors = 0;
+
+    // written holding the lock of backends, volatile since read without it
+    // by the host selection on the IO threads
+    volatile boolean available = true;
+    volatile boolean healthy = true;
+    volatile boolean outlier = false;
+    volatile int ejections = 0;
+
+    HostStats(URI uri,
+            Backends backends,
+            CircuitBreaker breaker,
+            int maxStreams) {
+        this.uri = uri;
+        this.backends = backends;
+        this.breaker = breaker;
+        this.maxStreams = maxStreams;
+    }
+
+    /**
+     * @return the uri of the host
+     */
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * @return the circuit breaker of the host, or null
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @param now the current time in nanoseconds
+     * @return true if the host has less than max-streams requests in flight
+     * and the circuit breaker, if any, lets a request through
+     */
+    boolean isPermitted(long now) {
+        return (maxStreams == 0 || outstanding.get() < maxStreams)
+                && (breaker == null || breaker.isPermitted(now));
+    }
+
+    /**
+     * reserves a request to the host: as isPermitted() but, when the circuit
+     * is half open, it takes one of the trial requests
+     *
+     * @param now the current time in nanoseconds
+     * @return true if the request can be sent to the host
+     */
+    boolean tryAcquire(long now) {
+        return (maxStreams == 0 || outstanding.get() < maxStreams)
+                && (breaker == null || breaker.tryAcquire(now));
+    }
+
+    /**
+     * @param peer the peer address of a connection
+     * @return true if the connection is to this host
+     */
+    boolean isPeer(SocketAddress peer) {
+        if (!(peer instanceof InetSocketAddress)) {
+            return false;
+        }
+
+        var address = (InetSocketAddress) peer;
+
+        if (address.getPort() != port()) {
+            return false;
+        }
+
+        var host = uri.getHost();
+
+        // the proxy client connects to the host name of the uri
+        if (host == null || host.equalsIgnoreCase(address.getHostString())) {
+            return host != null;
+        }
+
+        // an IPv6 literal, parsed without name lookups
+        if (host.startsWith("[") && address.getAddress() != null) {
+            try {
+                return InetAddress.getByName(host).equals(address.getAddress());
+            }
+            catch (UnknownHostException uhe) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the port of the uri or the default one of its scheme
+     */
+    private int port() {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+
+        switch (uri.getScheme() == null ? "" : uri.getScheme()) {
+            case "https":
+                return 443;
+            case "ajp":
+                return 8009;
+            default:
+                return 80;
+        }
+    }
+
+    /**
+     * @return the requests in flight
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * the peak EWMA cost: the latency EWMA, that jumps to the latency of a
+     * slower request and decays over time, weighted by the requests in flight
+     *
+     * @return the cost of sending a request to the host
+     */
+    public double getCost() {
+        final long now = System.nanoTime();
+        final double latency;
+
+        synchronized (this) {
+            latency = ewma * Math.exp(-(now - ewmaStamp) / DECAY);
+        }
+
+        // without latency samples, it is the number of requests in flight
+        return Math.max(latency, 1) * (outstanding.get() + 1);
+    }
+
+    /**
+     * starts an attempt to proxy the request to the host; a previous attempt
+     * of the same request, e.g. retried on another host, ends as an error.
+     * The request must have been reserved with tryAcquire()
+     *
+     * @param exchange
+     */
+    void begin(HttpServerExchange exchange) {
+        var previous = exchange.getAttachment(ATTEMPT);
+
+        if (previous != null) {
+            previous.finish(true);
+        }
+
+        exchange.putAttachment(ATTEMPT, attempt());
+
+        if (previous == null) {
+            exchange.addExchangeCompleteListener((ex, nextListener) -> {
+                try {
+                    var attempt = ex.getAttachment(ATTEMPT);
+
+                    if (attempt != null) {
+                        attempt.finish(ex.getStatusCode() >= 500);
+                    }
+                }
+                finally {
+                    nextListener.proceed();
+                }
+            });
+        }
+    }
+
+    /**
+     * starts an attempt to send a request to the host that is not bound to
+     * the exchange, e.g. a hedged request. The request must have been
+     * reserved with tryAcquire()
+     *
+     * @return the attempt, to finish when the request completes
+     */
+    Attempt attempt() {
+        outstanding.incrementAndGet();
+
+        return new Attempt(this);
+    }
+
+    /**
+     * @param exchange
+     * @return the host of the current attempt of the request, or null
+     */
+    static HostStats current(HttpServerExchange exchange) {
+        var attempt = exchange.getAttachment(ATTEMPT);
+
+        return attempt == null ? null : attempt.stats;
+    }
+
+    /**
+     * ends the current attempt of the request, if any, without recording its
+     * outcome and releasing its reservation
+     *
+     * @param exchange
+     */
+    static void cancel(HttpServerExchange exchange) {
+        var attempt = exchange.getAttachment(ATTEMPT);
+
+        if (attempt != null) {
+            attempt.cancel();
+        }
+    }
+
+    /**
+     * ends as an error the current attempt of the request, if any
+     *
+     * @param exchange
+     */
+    static void failed(HttpServerExchange exchange) {
+        var attempt = exchange.getAttachment(ATTEMPT);
+
+        if (attempt != null) {
+            attempt.finish(true);
+        }
+    }
+
+    private void record(long latency, boolean error) {
+        outstanding.decrementAndGet();
+        requests.increment();
+
+        if (error) {
+            errors.increment();
+        }
+
+        final long now = System.nanoTime();
+
+        synchronized (this) {
+            if (latency > ewma) {
+                ewma = latency;
+            } else {
+                var w = Math.exp(-(now - ewmaStamp) / DECAY);
+                ewma = ewma * w + latency * (1 - w);
+            }
+
+            ewmaStamp = now;
+        }
+
+        if (breaker != null) {
+            breaker.record(error, latency, now);
+        }
+
+        backends.completed(this, error);
+    }
+
+    /**
+     * counts an outcome in the outlier ejection window
+     *
+     * @return true if the error rate in the window exceeds the threshold
+     */
+    synchronized boolean count(boolean error,
+            long window,
+            int minRequests,
+            double errorRate) {
+        final long now = System.nanoTime();
+
+        if (now - windowStart > window) {
+            resetWindow(now);
+        }
+
+        windowRequests++;
+
+        if (error) {
+            windowErrors++;
+        }
+
+        return windowRequests >= minRequests
+                && windowErrors >= errorRate * windowRequests;
+    }
+
+    synchronized void resetWindow(long now) {
+        windowStart = now;
+        windowRequests = 0;
+        windowErrors = 0;
+    }
+
+    Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        ret.put("available", available);
+        ret.put("healthy", healthy);
+        ret.put("outstanding", outstanding.get());
+        ret.put("requests", requests.sum());
+        ret.put("errors", errors.sum());
+        ret.put("ejections", ejections);
+
+        if (breaker != null) {
+            ret.put("circuit", breaker.getState().name());
+            ret.put("circuit-opened", breaker.getOpened());
+        }
+
+        synchronized (this) {
+            ret.put("latency-ewma-ms", ewma / 1_000_000);
+        }
+
+        return ret;
+    }
+
+    /**
+     * an attempt to send a request to the host
+     */
+    static class Attempt {
+
+        private final HostStats stats;
+        private final long start = System.nanoTime();
+        private boolean finished = false;
+
+        Attempt(HostStats stats) {
+            this.stats = stats;
+        }
+
+        /**
+         * ends the attempt, only the first call is recorded
+         *
+         * @param error
+         */
+        void finish(boolean error) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+
+                finished = true;
+            }
+
+            stats.record(System.nanoTime() - start, error);
+        }
+
+        /**
+         * ends the attempt without recording its outcome, e.g. when the
+         * request is cancelled
+         */
+        void cancel() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+
+                finished = true;
+            }
+
+            stats.outstanding.decrementAndGet();
+
+            if (stats.breaker != null) {
+                stats.breaker.release();
+            }
+        }
+    }
+}
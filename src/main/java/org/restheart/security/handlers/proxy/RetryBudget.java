@@ -0,0 +1,185 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+
+/**
+ * caps the extra load of retries and hedged requests of a proxied location.
+ *
+ * Each request deposits ratio tokens and the budget also earns min-per-second
+ * tokens per second, so that retries are possible with low traffic; each
+ * retry or hedged request withdraws a token. The balance is capped to the
+ * tokens of 100 requests plus one second, so that a quiet period does not
+ * allow a burst of retries.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class RetryBudget {
+
+    private static final Set<HttpString> RETRYABLE_METHODS = Set.of(
+            Methods.GET,
+            Methods.HEAD,
+            Methods.OPTIONS);
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double ratio;
+    private final double minPerSecond;
+    private final double maxBalance;
+
+    // guarded by this
+    private double balance;
+    private long stamp;
+
+    private final LongAdder withdrawn = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     *
+     * @param ratio the tokens deposited by each request, i.e. the fraction of
+     * requests that can be retried
+     * @param minPerSecond the tokens earned per second
+     */
+    public RetryBudget(double ratio, double minPerSecond) {
+        this(ratio, minPerSecond, System.nanoTime());
+    }
+
+    RetryBudget(double ratio, double minPerSecond, long now) {
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("ratio must be between 0 and 1");
+        }
+
+        if (minPerSecond < 0) {
+            throw new IllegalArgumentException("min-per-second must not be "
+                    + "negative");
+        }
+
+        this.ratio = ratio;
+        this.minPerSecond = minPerSecond;
+        this.maxBalance = Math.max(1, ratio * 100 + minPerSecond);
+        this.balance = Math.min(minPerSecond, maxBalance);
+        this.stamp = now;
+    }
+
+    /**
+     * builds the RetryBudget from the retry-budget configuration of a proxied
+     * location
+     *
+     * @param conf the retry-budget configuration, null for the defaults
+     * @return the RetryBudget
+     * @throws ConfigurationException
+     */
+    public static RetryBudget build(Map<String, Object> conf)
+            throws ConfigurationException {
+        if (conf == null) {
+            conf = Map.of();
+        }
+
+        var what = "retry budget";
+
+        try {
+            return new RetryBudget(
+                    Backends.number(conf, ConfigurationKeys.RETRY_BUDGET_RATIO_KEY,
+                            0.05, what).doubleValue(),
+                    Backends.number(conf, ConfigurationKeys.RETRY_BUDGET_MIN_PER_SECOND_KEY,
+                            10, what).doubleValue());
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong retry budget, "
+                    + iae.getMessage());
+        }
+    }
+
+    /**
+     * @param exchange
+     * @return true if the request can be retried or hedged, i.e. its method
+     * is GET, HEAD or OPTIONS
+     */
+    public static boolean isRetryable(HttpServerExchange exchange) {
+        return RETRYABLE_METHODS.contains(exchange.getRequestMethod());
+    }
+
+    /**
+     * deposits the tokens of a request
+     */
+    public void deposit() {
+        deposit(System.nanoTime());
+    }
+
+    synchronized void deposit(long now) {
+        refill(now);
+        balance = Math.min(maxBalance, balance + ratio);
+    }
+
+    /**
+     * withdraws a token for a retry or a hedged request
+     *
+     * @return true if the budget allows it
+     */
+    public boolean tryWithdraw() {
+        return tryWithdraw(System.nanoTime());
+    }
+
+    synchronized boolean tryWithdraw(long now) {
+        refill(now);
+
+        if (balance >= 1) {
+            balance -= 1;
+            withdrawn.increment();
+            return true;
+        } else {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    private void refill(long now) {
+        if (minPerSecond > 0 && now > stamp) {
+            balance = Math.min(maxBalance,
+                    balance + minPerSecond * (now - stamp) / NANOS_PER_SECOND);
+        }
+
+        stamp = now;
+    }
+
+    /**
+     * @return the metrics of the budget
+     */
+    public Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        synchronized (this) {
+            ret.put("balance", balance);
+        }
+
+        ret.put("withdrawn", withdrawn.sum());
+        ret.put("rejected", rejected.sum());
+
+        return ret;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.proxy.ProxyCallback;
+import io.undertow.server.handlers.proxy.ProxyClient;
+import io.undertow.server.handlers.proxy.ProxyConnection;
+import io.undertow.util.AttachmentKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * decorates the ProxyClient of a proxied location, attaching to the exchange
+ * the connection to the backend, so that other handlers can act on it, e.g.
+ * closing it when the deadline of the request expires.
+ *
+ * While getting the connection, the exchange is available to the host
+ * selector via currentExchange(), since HostSelector does not receive it.
+ *
+ * If the circuits of all the hosts of the Backends are open, or all hosts
+ * have max-streams requests in flight, the request fails fast as if the
+ * backend could not be resolved; so it does if the host it gets connected to
+ * does not permit it, see Backends.connected().
+ *
+ * With a RetryBudget, each request deposits in it and retries, i.e. further
+ * connections got by the ProxyHandler for the same request, are allowed only
+ * for GET, HEAD and OPTIONS requests and if the budget allows them.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class TrackingProxyClient implements ProxyClient {
+
+    /**
+     * the connection to the backend of the proxied request
+     */
+    public static final AttachmentKey<ProxyConnection> CONNECTION
+            = AttachmentKey.create(ProxyConnection.class);
+
+    /**
+     * set when the proxied request is cancelled, e.g. answered by a hedged
+     * request: no further connections are got for it
+     */
+    public static final AttachmentKey<Boolean> CANCELLED
+            = AttachmentKey.create(Boolean.class);
+
+    private static final AttachmentKey<Boolean> ATTEMPTED
+            = AttachmentKey.create(Boolean.class);
+
+    private static final ThreadLocal<HttpServerExchange> CURRENT_EXCHANGE
+            = new ThreadLocal<>();
+
+    private final ProxyClient proxyClient;
+    private final Backends backends;
+    private final RetryBudget budget;
+
+    /**
+     *
+     * @param proxyClient the decorated ProxyClient
+     */
+    public TrackingProxyClient(ProxyClient proxyClient) {
+        this(proxyClient, null, null);
+    }
+
+    /**
+     *
+     * @param proxyClient the decorated ProxyClient
+     * @param backends the backends of the proxy client, or null
+     * @param budget the retry budget, or null not to limit retries
+     */
+    public TrackingProxyClient(ProxyClient proxyClient,
+            Backends backends,
+            RetryBudget budget) {
+        this.proxyClient = proxyClient;
+        this.backends = backends;
+        this.budget = budget;
+    }
+
+    /**
+     * @return the decorated ProxyClient
+     */
+    public ProxyClient getProxyClient() {
+        return proxyClient;
+    }
+
+    /**
+     * @return the exchange whose connection is being got by the current
+     * thread, or null
+     */
+    public static HttpServerExchange currentExchange() {
+        return CURRENT_EXCHANGE.get();
+    }
+
+    @Override
+    public ProxyTarget findTarget(HttpServerExchange exchange) {
+        return proxyClient.findTarget(exchange);
+    }
+
+    @Override
+    public void getConnection(ProxyTarget target,
+            HttpServerExchange exchange,
+            ProxyCallback<ProxyConnection> callback,
+            long timeout,
+            TimeUnit timeUnit) {
+        if (exchange.getAttachment(CANCELLED) != null) {
+            callback.couldNotResolveBackend(exchange);
+            return;
+        }
+
+        if (budget != null) {
+            if (exchange.getAttachment(ATTEMPTED) == null) {
+                exchange.putAttachment(ATTEMPTED, true);
+                budget.deposit();
+            } else if (!RetryBudget.isRetryable(exchange)
+                    || !budget.tryWithdraw()) {
+                callback.couldNotResolveBackend(exchange);
+                return;
+            }
+        }
+
+        if (backends != null && !backends.isAnyPermitted()) {
+            callback.couldNotResolveBackend(exchange);
+            return;
+        }
+
+        CURRENT_EXCHANGE.set(exchange);
+
+        try {
+            getConnection0(target, exchange, callback, timeout, timeUnit);
+        }
+        finally {
+            CURRENT_EXCHANGE.remove();
+        }
+    }
+
+    private void getConnection0(ProxyTarget target,
+            HttpServerExchange exchange,
+            ProxyCallback<ProxyConnection> callback,
+            long timeout,
+            TimeUnit timeUnit) {
+        proxyClient.getConnection(target, exchange,
+                new ProxyCallback<ProxyConnection>() {
+            @Override
+            public void completed(HttpServerExchange exchange,
+                    ProxyConnection connection) {
+                if (backends != null && !backends.connected(exchange,
+                        connection.getConnection().getPeerAddress())) {
+                    callback.couldNotResolveBackend(exchange);
+                    return;
+                }
+
+                exchange.putAttachment(CONNECTION, connection);
+                callback.completed(exchange, connection);
+            }
+
+            @Override
+            public void failed(HttpServerExchange exchange) {
+                HostStats.failed(exchange);
+                callback.failed(exchange);
+            }
+
+            @Override
+            public void couldNotResolveBackend(HttpServerExchange exchange) {
+                HostStats.failed(exchange);
+                callback.couldNotResolveBackend(exchange);
+            }
+
+            @Override
+            public void queuedRequestFailed(HttpServerExchange exchange) {
+                HostStats.failed(exchange);
+                callback.queuedRequestFailed(exchange);
+            }
+        }, timeout, timeUnit);
+    }
+}
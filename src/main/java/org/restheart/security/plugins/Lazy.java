@@ -0,0 +1,55 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.plugins;
+
+import java.util.function.Supplier;
+
+/**
+ * a value computed once, on first access.
+ *
+ * Each value has its own lock, so that a plugin that is being created by the
+ * startup pool can get other plugins from the registry while the thread that
+ * creates it waits for the pool holding only the lock of its own type.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+class Lazy<T> {
+
+    private final Supplier<T> supplier;
+
+    private volatile boolean computed = false;
+
+    private T value;
+
+    Lazy(Supplier<T> supplier) {
+        this.supplier = supplier;
+    }
+
+    T get() {
+        if (!computed) {
+            synchronized (this) {
+                if (!computed) {
+                    value = supplier.get();
+                    computed = true;
+                }
+            }
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.plugins;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.restheart.plugins.Initializer;
+import org.restheart.plugins.Interceptor;
+import org.restheart.plugins.PreStartupInitializer;
+import org.restheart.plugins.Service;
+import org.restheart.plugins.security.AuthMechanism;
+import org.restheart.plugins.security.Authenticator;
+import org.restheart.plugins.security.Authorizer;
+import org.restheart.plugins.security.TokenManager;
+
+/**
+ * what PluginsFactory needs to know about a class annotated with
+ * RegisterPlugin to instantiate it: the parameters of the annotation, the
+ * plugin types it implements, its @OnInit constructor and methods and the
+ * plugins it depends on.
+ *
+ * It is obtained from the classpath scan or from the plugins index.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+class PluginDescriptor {
+
+    /**
+     * the plugin types
+     */
+    static final List<Class<?>> TYPES = List.of(
+            AuthMechanism.class,
+            Authenticator.class,
+            Authorizer.class,
+            TokenManager.class,
+            Initializer.class,
+            PreStartupInitializer.class,
+            Interceptor.class,
+            Service.class);
+
+    private final String className;
+    private final String name;
+    private final String description;
+    private final boolean enabledByDefault;
+    private final int priority;
+    private final Set<String> types;
+    private final Boolean onInitConstructor;
+    private final Map<String, Boolean> onInitMethods;
+    private final List<String> dependsOn;
+
+    /**
+     *
+     * @param className
+     * @param name
+     * @param description
+     * @param enabledByDefault
+     * @param priority
+     * @param types the names of the plugin types implemented by the class
+     * @param onInitConstructor null if the class has no @OnInit constructor,
+     * otherwise true if its scope is ALL
+     * @param onInitMethods the names of the @OnInit methods, mapped to true if
+     * their scope is ALL
+     * @param dependsOn the names of the plugins declared with @DependsOn
+     */
+    PluginDescriptor(String className,
+            String name,
+            String description,
+            boolean enabledByDefault,
+            int priority,
+            Set<String> types,
+            Boolean onInitConstructor,
+            Map<String, Boolean> onInitMethods,
+            List<String> dependsOn) {
+        this.className = className;
+        this.name = name;
+        this.description = description;
+        this.enabledByDefault = enabledByDefault;
+        this.priority = priority;
+        this.types = Collections.unmodifiableSet(types);
+        this.onInitConstructor = onInitConstructor;
+        this.onInitMethods = Collections
+                .unmodifiableMap(new LinkedHashMap<>(onInitMethods));
+        this.dependsOn = List.copyOf(dependsOn);
+    }
+
+    /**
+     * @param type
+     * @return true if the plugin is of type
+     */
+    boolean is(Class<?> type) {
+        return types.contains(type.getName());
+    }
+
+    /**
+     * @return the className
+     */
+    String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the description
+     */
+    String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the enabledByDefault
+     */
+    boolean isEnabledByDefault() {
+        return enabledByDefault;
+    }
+
+    /**
+     * @return the priority
+     */
+    int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the types
+     */
+    Set<String> getTypes() {
+        return types;
+    }
+
+    /**
+     * @return null if there is no @OnInit constructor, otherwise true if its
+     * scope is ALL
+     */
+    Boolean getOnInitConstructor() {
+        return onInitConstructor;
+    }
+
+    /**
+     * @return the @OnInit methods, mapped to true if their scope is ALL
+     */
+    Map<String, Boolean> getOnInitMethods() {
+        return onInitMethods;
+    }
+
+    /**
+     * @return the names of the plugins declared with @DependsOn
+     */
+    List<String> getDependsOn() {
+        return dependsOn;
+    }
+}
@@ -17,9 +17,9 @@
  */
 package org.restheart.security.plugins;
 
+import io.github.classgraph.AnnotationInfo;
 import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ClassInfo;
-import io.github.classgraph.ClassInfoList;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -31,10 +31,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import org.restheart.ConfigurationException;
 import org.restheart.plugins.ConfigurationScope;
 import org.restheart.plugins.Initializer;
@@ -65,6 +71,11 @@ public class PluginsFactory {
     private static final String REGISTER_PLUGIN_CLASS_NAME = RegisterPlugin.class
             .getName();
 
+    private static final String ON_INIT_CLASS_NAME = OnInit.class.getName();
+
+    private static final String DEPENDS_ON_CLASS_NAME = DependsOn.class
+            .getName();
+
     private static final Map<String, Map<String, Object>> ARGS_CONFS
             = consumePluginsConfiguration();
 
@@ -152,125 +163,97 @@ public class PluginsFactory {
     @SuppressWarnings("unchecked")
     private static <T extends Plugin> Set<PluginRecord<T>> createPlugins(
             Class type, Map<String, Map<String, Object>> confs) {
-        Set<PluginRecord<T>> ret = new LinkedHashSet<>();
-
         var _type = type.getSimpleName();
 
-        try (var scanResult = new ClassGraph()
-                .addClassLoader(getPluginsClassloader())
-                .enableAnnotationInfo()
-                .enableMethodInfo()
-                .scan()) {
-            var registeredPlugins = scanResult
-                    .getClassesWithAnnotation(REGISTER_PLUGIN_CLASS_NAME);
+        var plugins = descriptors().stream()
+                .filter(d -> d.is(type))
+                .filter(d -> !type.equals(Authenticator.class)
+                || !d.is(TokenManager.class))
+                // sort by priority
+                .sorted(Comparator.comparingInt(PluginDescriptor::getPriority)
+                        .thenComparing(PluginDescriptor::getClassName))
+                .collect(Collectors.toList());
 
-            ClassInfoList listOfType;
+        var records = new ConcurrentHashMap<PluginDescriptor, PluginRecord<T>>();
 
-            if (type.isInterface()) {
-                if (type.equals(Authenticator.class)) {
-                    var tms = scanResult.getClassesImplementing(TokenManager.class.getName());
+        // instantiates the plugins concurrently
+        PluginsScheduler.schedule(plugins, p -> p, plugin -> {
+            Object i;
 
-                    listOfType = scanResult
-                            .getClassesImplementing(type.getName())
-                            .exclude(tms);
+            try {
+                String name = plugin.getName();
+                String description = plugin.getDescription();
+                Boolean enabledByDefault = plugin.isEnabledByDefault();
+
+                var enabled = PluginRecord.isEnabled(enabledByDefault,
+                        confs != null ? confs.get(name) : null);
+
+                if (enabled) {
+                    i = instantiatePlugin(plugin, _type, name, confs);
+
+                    var pr = new PluginRecord(
+                            name,
+                            description,
+                            enabledByDefault,
+                            plugin.getClassName(),
+                            (T) i,
+                            confs != null
+                                    ? confs.get(name)
+                                    : null);
+
+                    if (pr.isEnabled()) {
+                        records.put(plugin, pr);
+                        LOGGER.info("Registered {} {}: {}",
+                                _type,
+                                name,
+                                description);
+                    }
                 } else {
-                    listOfType = scanResult.getClassesImplementing(type.getName());
+                    LOGGER.debug("{} {} is disabled", _type, name);
                 }
-            } else {
-                listOfType = scanResult.getSubclasses(type.getName());
             }
+            catch (ConfigurationException
+                    | ClassNotFoundException
+                    | InstantiationException
+                    | IllegalAccessException
+                    | InvocationTargetException t) {
+                LOGGER.error("Error registering {} {}: {}",
+                        _type,
+                        plugin.getName() != null
+                        ? plugin.getName()
+                        : simpleName(plugin),
+                        getRootException(t).getMessage());
+            }
+        }, PluginsScheduler.parallelism());
 
-            var plugins = registeredPlugins.intersect(listOfType);
-
-            // sort by priority
-            plugins.sort((ClassInfo ci1, ClassInfo ci2) -> {
-                return Integer.compare(annotationParam(ci1, "priority"),
-                        annotationParam(ci2, "priority"));
-            });
-
-            plugins.stream().forEachOrdered(plugin -> {
-                Object i;
-
-                try {
-                    String name = annotationParam(plugin,
-                            "name");
-                    String description = annotationParam(plugin,
-                            "description");
-                    Boolean enabledByDefault = annotationParam(plugin,
-                            "enabledByDefault");
-
-                    var enabled = PluginRecord.isEnabled(enabledByDefault,
-                                    confs != null ? confs.get(name) : null);
+        Set<PluginRecord<T>> ret = new LinkedHashSet<>();
 
-                    if (enabled) {
-                        i = instantiatePlugin(plugin, _type, name, confs);
-
-                        var pr = new PluginRecord(
-                                name,
-                                description,
-                                enabledByDefault,
-                                plugin.getName(),
-                                (T) i,
-                                confs != null
-                                        ? confs.get(name)
-                                        : null);
-
-                        if (pr.isEnabled()) {
-                            ret.add(pr);
-                            LOGGER.info("Registered {} {}: {}",
-                                    _type,
-                                    name,
-                                    description);
-                        }
-                    } else {
-                        LOGGER.debug("{} {} is disabled", _type, name);
-                    }
-                }
-                catch (ConfigurationException
-                        | InstantiationException
-                        | IllegalAccessException
-                        | InvocationTargetException t) {
-                    LOGGER.error("Error registering {} {}: {}",
-                            _type,
-                            annotationParam(plugin, "name") != null
-                            ? (String) annotationParam(plugin, "name")
-                            : plugin.getSimpleName(),
-                            getRootException(t).getMessage());
-                }
-            });
-        }
+        // keeps the priority order
+        plugins.stream()
+                .filter(plugin -> records.containsKey(plugin))
+                .forEachOrdered(plugin -> ret.add(records.get(plugin)));
 
         return ret;
     }
 
     private static Plugin instantiatePlugin(
-            ClassInfo pluginClassInfo,
+            PluginDescriptor plugin,
             String pluginType,
             String pluginName,
             Map confs)
             throws ConfigurationException,
+            ClassNotFoundException,
             InstantiationException,
             IllegalAccessException,
             InvocationTargetException {
-        var cil = pluginClassInfo.getDeclaredConstructorInfo();
+        var pluginClass = loadClass(plugin);
 
         final Plugin ret;
 
         // check if a Constructor with @OnInit exists
-        var contructorWihtOnInit = cil.stream()
-                .filter(ci -> ci.hasAnnotation(OnInit.class.getName()))
-                .findFirst();
-
-        if (contructorWihtOnInit.isPresent()) {
-            var ai = contructorWihtOnInit.get()
-                    .getAnnotationInfo(OnInit.class.getName());
-
+        if (plugin.getOnInitConstructor() != null) {
             // check
-            var allConfScope = ai.getParameterValues().stream()
-                    .anyMatch(p -> "scope".equals(p.getName())
-                    && (ConfigurationScope.class.getName()
-                            + "." + ConfigurationScope.ALL.name()).equals(
-                            p.getValue().toString()));
+            var allConfScope = plugin.getOnInitConstructor();
 
             var scopedConf = (Map) (allConfScope
                     ? confs
@@ -287,13 +270,13 @@ public class PluginsFactory {
 
             // try to instanitate the constructor 
             try {
-                ret = (Plugin) pluginClassInfo.loadClass(false)
+                ret = (Plugin) pluginClass
                         .getDeclaredConstructor(Map.class)
                         .newInstance(scopedConf);
 
                 invokeOnInitMethods(pluginName,
                         pluginType,
-                        pluginClassInfo,
+                        plugin,
                         ret,
                         confs);
             }
@@ -303,18 +286,18 @@ public class PluginsFactory {
                         + " " + pluginName
                         + " has an invalid constructor with @OnInit. "
                         + "Constructor signature must be "
-                        + pluginClassInfo.getSimpleName()
+                        + simpleName(plugin)
                         + "(Map<String, Object> configuration)");
             }
         } else {
             try {
-                ret = (Plugin) pluginClassInfo.loadClass(false)
+                ret = (Plugin) pluginClass
                         .getDeclaredConstructor()
                         .newInstance();
 
                 invokeOnInitMethods(pluginName,
                         pluginType,
-                        pluginClassInfo,
+                        plugin,
                         ret,
                         confs);
             }
@@ -323,7 +306,7 @@ public class PluginsFactory {
                         pluginType
                         + " " + pluginName
                         + " does not have default constructor "
-                        + pluginClassInfo.getSimpleName()
+                        + simpleName(plugin)
                         + "()");
             }
         }
@@ -333,59 +316,178 @@ public class PluginsFactory {
 
     private static void invokeOnInitMethods(String pluginName,
             String pluginType,
-            ClassInfo pluginClassInfo,
+            PluginDescriptor plugin,
             Object pluingInstance,
             Map confs) throws ConfigurationException,
+            ClassNotFoundException,
             InstantiationException,
             IllegalAccessException,
             InvocationTargetException {
 
-        // finds @OnInit methods
+        // invokes the @OnInit methods
+        for (var mi : plugin.getOnInitMethods().entrySet()) {
+            // check
+            var allConfScope = mi.getValue();
+
+            var scopedConf = (Map) (allConfScope
+                    ? confs
+                    : confs != null
+                            ? confs.get(pluginName)
+                            : null);
+
+            if (scopedConf == null) {
+                LOGGER.warn("{} {} defines method {} with @OnInit "
+                        + "but no configuration found for it",
+                        pluginType,
+                        pluginName,
+                        mi.getKey());
+            }
+
+            // try to inovke @OnInit method
+            try {
+                loadClass(plugin)
+                        .getDeclaredMethod(mi.getKey(), Map.class)
+                        .invoke(pluingInstance, scopedConf);
+            }
+            catch (NoSuchMethodException nme) {
+                throw new ConfigurationException(
+                        pluginType
+                        + " " + pluginName
+                        + " has an invalid method with @OnInit. "
+                        + "Method signature must be "
+                        + mi.getKey()
+                        + "(Map<String, Object> configuration)");
+            }
+        }
+    }
+
+    private static Class<?> loadClass(PluginDescriptor plugin)
+            throws ClassNotFoundException {
+        return Class.forName(plugin.getClassName(),
+                false,
+                getPluginsClassloader());
+    }
+
+    private static String simpleName(PluginDescriptor plugin) {
+        var className = plugin.getClassName();
+
+        return className.substring(Math.max(className.lastIndexOf('.'),
+                className.lastIndexOf('$')) + 1);
+    }
+
+    private static List<PluginDescriptor> DESCRIPTORS = null;
+
+    /**
+     * the descriptors of the plugins are read from the plugins index when
+     * every jar has it, otherwise from a single scan of the classpath, shared
+     * by all the plugin types
+     *
+     * @return the descriptors of the plugins
+     */
+    private static synchronized List<PluginDescriptor> descriptors() {
+        if (DESCRIPTORS == null) {
+            var indexed = PluginsIndex.read(getPluginsClassloader(),
+                    getPluginsJars());
+
+            DESCRIPTORS = indexed != null ? indexed : scan();
+        }
+
+        return DESCRIPTORS;
+    }
+
+    /**
+     *
+     * @param className
+     * @return the descriptor of the plugin or null if not found
+     */
+    static PluginDescriptor descriptorOf(String className) {
+        return descriptors().stream()
+                .filter(d -> d.getClassName().equals(className))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static List<PluginDescriptor> scan() {
+        var start = System.currentTimeMillis();
+
+        try (var scanResult = new ClassGraph()
+                .addClassLoader(getPluginsClassloader())
+                .enableAnnotationInfo()
+                .enableMethodInfo()
+                .scan()) {
+            var ret = scanResult
+                    .getClassesWithAnnotation(REGISTER_PLUGIN_CLASS_NAME)
+                    .stream()
+                    .filter(ci -> !ci.isInterface() && !ci.isAnnotation())
+                    .map(ci -> descriptor(ci))
+                    .collect(Collectors.toList());
+
+            LOGGER.debug("Classpath scanned for plugins in {} msecs",
+                    System.currentTimeMillis() - start);
+
+            return ret;
+        }
+    }
+
+    private static PluginDescriptor descriptor(ClassInfo ci) {
+        var types = new LinkedHashSet<String>();
+
+        for (var type : PluginDescriptor.TYPES) {
+            if (type.isInterface()
+                    ? ci.implementsInterface(type.getName())
+                    : ci.extendsSuperclass(type.getName())) {
+                types.add(type.getName());
+            }
+        }
+
         // check if a Constructor with @OnInit exists
-        var mil = pluginClassInfo.getDeclaredMethodInfo();
-
-        for (var mi : mil) {
-            if (mi.hasAnnotation(OnInit.class.getName())) {
-                var ai = mi.getAnnotationInfo(OnInit.class.getName());
-
-                // check
-                var allConfScope = ai.getParameterValues().stream()
-                        .anyMatch(p -> "scope".equals(p.getName())
-                        && (ConfigurationScope.class.getName()
-                                + "." + ConfigurationScope.ALL.name()).equals(
-                                p.getValue().toString()));
-
-                var scopedConf = (Map) (allConfScope
-                        ? confs
-                        : confs != null
-                                ? confs.get(pluginName)
-                                : null);
-
-                if (scopedConf == null) {
-                    LOGGER.warn("{} {} defines method {} with @OnInit "
-                            + "but no configuration found for it",
-                            pluginType,
-                            pluginName,
-                            mi.getName());
-                }
+        var onInitConstructor = ci.getDeclaredConstructorInfo().stream()
+                .filter(c -> c.hasAnnotation(ON_INIT_CLASS_NAME))
+                .findFirst()
+                .map(c -> allConfScope(c.getAnnotationInfo(ON_INIT_CLASS_NAME)))
+                .orElse(null);
 
-                // try to inovke @OnInit method
-                try {
-                    pluginClassInfo.loadClass(false)
-                            .getDeclaredMethod(mi.getName(), Map.class)
-                            .invoke(pluingInstance, scopedConf);
-                }
-                catch (NoSuchMethodException nme) {
-                    throw new ConfigurationException(
-                            pluginType
-                            + " " + pluginName
-                            + " has an invalid method with @OnInit. "
-                            + "Method signature must be "
-                            + mi.getName()
-                            + "(Map<String, Object> configuration)");
-                }
+        // finds @OnInit methods
+        var onInitMethods = new LinkedHashMap<String, Boolean>();
+
+        ci.getDeclaredMethodInfo().stream()
+                .filter(m -> m.hasAnnotation(ON_INIT_CLASS_NAME))
+                .forEachOrdered(m -> onInitMethods.put(m.getName(),
+                allConfScope(m.getAnnotationInfo(ON_INIT_CLASS_NAME))));
+
+        var dependsOn = new ArrayList<String>();
+
+        if (ci.hasAnnotation(DEPENDS_ON_CLASS_NAME)) {
+            var value = ci.getAnnotationInfo(DEPENDS_ON_CLASS_NAME)
+                    .getParameterValues()
+                    .getValue("value");
+
+            if (value instanceof Object[]) {
+                Arrays.stream((Object[]) value)
+                        .forEachOrdered(d -> dependsOn.add(d.toString()));
             }
         }
+
+        Integer priority = annotationParam(ci, "priority");
+        Boolean enabledByDefault = annotationParam(ci, "enabledByDefault");
+
+        return new PluginDescriptor(ci.getName(),
+                annotationParam(ci, "name"),
+                annotationParam(ci, "description"),
+                enabledByDefault,
+                priority,
+                types,
+                onInitConstructor,
+                onInitMethods,
+                dependsOn);
+    }
+
+    private static boolean allConfScope(AnnotationInfo ai) {
+        return ai.getParameterValues().stream()
+                .anyMatch(p -> "scope".equals(p.getName())
+                && (ConfigurationScope.class.getName()
+                        + "." + ConfigurationScope.ALL.name()).equals(
+                        p.getValue().toString()));
     }
 
     private static Throwable getRootException(Throwable t) {
@@ -453,12 +555,26 @@ public class PluginsFactory {
 
     private static URL[] PLUGINS_JARS_CACHE = null;
 
-    private static URLClassLoader getPluginsClassloader() {
+    private static synchronized URL[] getPluginsJars() {
         if (PLUGINS_JARS_CACHE == null) {
             PLUGINS_JARS_CACHE = findPluginsJars(getPluginsDirectory());
         }
 
-        return new URLClassLoader(PLUGINS_JARS_CACHE);
+        return PLUGINS_JARS_CACHE;
+    }
+
+    private static URLClassLoader PLUGINS_CLASSLOADER = null;
+
+    /**
+     * a single classloader for the plugins jars, so that their classes are
+     * loaded once
+     */
+    private static synchronized URLClassLoader getPluginsClassloader() {
+        if (PLUGINS_CLASSLOADER == null) {
+            PLUGINS_CLASSLOADER = new URLClassLoader(getPluginsJars());
+        }
+
+        return PLUGINS_CLASSLOADER;
     }
 
     private static Map<String, Map<String, Object>> consumePluginsConfiguration() {
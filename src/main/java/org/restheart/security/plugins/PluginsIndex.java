@@ -0,0 +1,274 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.plugins;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the plugins index, generated at build time by PluginsIndexProcessor: the
+ * resource META-INF/restheart/plugins of a jar lists the descriptors of its
+ * plugins, one JSON object per line.
+ *
+ * If every entry of the classpath and every jar of the plugins directory has
+ * the index, the plugins are read from it and the classpath is not scanned.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+class PluginsIndex {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(PluginsIndex.class);
+
+    /**
+     * the resource of the index
+     */
+    static final String RESOURCE = "META-INF/restheart/plugins";
+
+    private PluginsIndex() {
+    }
+
+    /**
+     * reads the descriptors of the plugins from the indexes
+     *
+     * @param loader the plugins classloader
+     * @param pluginsJars the jars of the plugins directory
+     * @return the descriptors or null if a classpath entry or a plugins jar
+     * has no index
+     */
+    static List<PluginDescriptor> read(ClassLoader loader, URL[] pluginsJars) {
+        var entries = new ArrayList<Path>();
+
+        for (var entry : System.getProperty("java.class.path", "")
+                .split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                entries.add(Paths.get(entry));
+            }
+        }
+
+        try {
+            for (var jar : pluginsJars) {
+                entries.add(Paths.get(jar.toURI()));
+            }
+        }
+        catch (URISyntaxException ex) {
+            return null;
+        }
+
+        for (var entry : entries) {
+            if (!isIndexed(entry)) {
+                LOGGER.debug("{} has no plugins index, "
+                        + "scanning the classpath", entry);
+                return null;
+            }
+        }
+
+        var ret = new LinkedHashMap<String, PluginDescriptor>();
+
+        try {
+            var resources = loader.getResources(RESOURCE);
+
+            while (resources.hasMoreElements()) {
+                var resource = resources.nextElement();
+
+                try (var reader = new BufferedReader(new InputStreamReader(
+                        resource.openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isBlank()) {
+                            var descriptor = parse(line);
+                            ret.putIfAbsent(descriptor.getClassName(),
+                                    descriptor);
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Error reading the plugins index, "
+                    + "scanning the classpath: {}", ex.getMessage());
+            return null;
+        }
+
+        LOGGER.debug("{} plugins read from the plugins index", ret.size());
+
+        return new ArrayList<>(ret.values());
+    }
+
+    private static boolean isIndexed(Path entry) {
+        if (Files.isDirectory(entry)) {
+            return Files.exists(entry.resolve(RESOURCE));
+        } else if (Files.isRegularFile(entry)) {
+            try (var jar = new JarFile(entry.toFile())) {
+                return jar.getEntry(RESOURCE) != null;
+            }
+            catch (IOException ex) {
+                return false;
+            }
+        } else {
+            // a missing entry contributes no classes
+            return true;
+        }
+    }
+
+    /**
+     *
+     * @param d
+     * @return the line of the index of the plugin
+     */
+    static String format(PluginDescriptor d) {
+        var sb = new StringBuilder("{");
+
+        sb.append("\"class\":").append(quote(d.getClassName()));
+        sb.append(",\"name\":").append(quote(d.getName()));
+        sb.append(",\"description\":").append(quote(d.getDescription()));
+        sb.append(",\"enabledByDefault\":").append(d.isEnabledByDefault());
+        sb.append(",\"priority\":").append(d.getPriority());
+
+        sb.append(",\"types\":[");
+
+        var first = true;
+
+        for (var type : d.getTypes()) {
+            sb.append(first ? "" : ",").append(quote(type));
+            first = false;
+        }
+
+        sb.append("],\"onInitConstructor\":").append(d.getOnInitConstructor());
+
+        sb.append(",\"onInitMethods\":{");
+
+        first = true;
+
+        for (var method : d.getOnInitMethods().entrySet()) {
+            sb.append(first ? "" : ",")
+                    .append(quote(method.getKey()))
+                    .append(':')
+                    .append(method.getValue());
+            first = false;
+        }
+
+        sb.append("},\"dependsOn\":[");
+
+        first = true;
+
+        for (var dependency : d.getDependsOn()) {
+            sb.append(first ? "" : ",").append(quote(dependency));
+            first = false;
+        }
+
+        return sb.append("]}").toString();
+    }
+
+    /**
+     *
+     * @param line a line of the index
+     * @return the plugin descriptor
+     */
+    static PluginDescriptor parse(String line) {
+        var json = JsonParser.parseString(line).getAsJsonObject();
+
+        var types = new LinkedHashSet<String>();
+
+        json.getAsJsonArray("types")
+                .forEach(t -> types.add(t.getAsString()));
+
+        var onInitMethods = new LinkedHashMap<String, Boolean>();
+
+        json.getAsJsonObject("onInitMethods").entrySet()
+                .forEach(m -> onInitMethods.put(m.getKey(),
+                m.getValue().getAsBoolean()));
+
+        var onInitConstructor = json.get("onInitConstructor");
+
+        var dependsOn = new ArrayList<String>();
+
+        if (json.has("dependsOn")) {
+            json.getAsJsonArray("dependsOn")
+                    .forEach(d -> dependsOn.add(d.getAsString()));
+        }
+
+        return new PluginDescriptor(
+                json.get("class").getAsString(),
+                string(json, "name"),
+                string(json, "description"),
+                json.get("enabledByDefault").getAsBoolean(),
+                json.get("priority").getAsInt(),
+                types,
+                onInitConstructor == null || onInitConstructor.isJsonNull()
+                ? null
+                : onInitConstructor.getAsBoolean(),
+                onInitMethods,
+                dependsOn);
+    }
+
+    private static String string(JsonObject json, String key) {
+        JsonElement value = json.get(key);
+
+        return value == null || value.isJsonNull()
+                ? null
+                : value.getAsString();
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+
+        var sb = new StringBuilder("\"");
+
+        for (var c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+}
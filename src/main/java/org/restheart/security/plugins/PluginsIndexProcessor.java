@@ -0,0 +1,202 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.plugins;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+
+/**
+ * annotation processor that generates the plugins index
+ * META-INF/restheart/plugins from the classes annotated with RegisterPlugin.
+ *
+ * To index the plugins of a jar deployed in the plugins directory, add it to
+ * the annotationProcessors of the maven-compiler-plugin, as done in the
+ * pom.xml of restheart-security.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+@SupportedAnnotationTypes(PluginsIndexProcessor.REGISTER_PLUGIN)
+public class PluginsIndexProcessor extends AbstractProcessor {
+
+    static final String REGISTER_PLUGIN = "org.restheart.plugins.RegisterPlugin";
+    private static final String ON_INIT = "org.restheart.plugins.OnInit";
+    private static final String DEPENDS_ON = DependsOn.class.getName();
+
+    private final Map<String, PluginDescriptor> descriptors = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        var registerPlugin = processingEnv.getElementUtils()
+                .getTypeElement(REGISTER_PLUGIN);
+
+        if (registerPlugin != null) {
+            for (var element : roundEnv
+                    .getElementsAnnotatedWith(registerPlugin)) {
+                if (element.getKind() == ElementKind.CLASS) {
+                    var descriptor = descriptor((TypeElement) element);
+                    descriptors.put(descriptor.getClassName(), descriptor);
+                }
+            }
+        }
+
+        if (roundEnv.processingOver() && !descriptors.isEmpty()) {
+            write();
+        }
+
+        return false;
+    }
+
+    private PluginDescriptor descriptor(TypeElement plugin) {
+        var elements = processingEnv.getElementUtils();
+        var typeUtils = processingEnv.getTypeUtils();
+
+        var params = params(mirror(plugin, REGISTER_PLUGIN));
+
+        var types = new LinkedHashSet<String>();
+
+        for (var type : PluginDescriptor.TYPES) {
+            var typeElement = elements.getTypeElement(type.getName());
+
+            if (typeElement != null && typeUtils.isAssignable(
+                    typeUtils.erasure(plugin.asType()),
+                    typeUtils.erasure(typeElement.asType()))) {
+                types.add(type.getName());
+            }
+        }
+
+        Boolean onInitConstructor = null;
+        var onInitMethods = new LinkedHashMap<String, Boolean>();
+
+        for (var member : plugin.getEnclosedElements()) {
+            var onInit = mirror(member, ON_INIT);
+
+            if (onInit == null) {
+                continue;
+            }
+
+            if (member.getKind() == ElementKind.CONSTRUCTOR) {
+                onInitConstructor = allConfScope(onInit);
+            } else if (member.getKind() == ElementKind.METHOD) {
+                onInitMethods.put(member.getSimpleName().toString(),
+                        allConfScope(onInit));
+            }
+        }
+
+        var dependsOn = new ArrayList<String>();
+        var dependsOnMirror = mirror(plugin, DEPENDS_ON);
+
+        if (dependsOnMirror != null) {
+            var value = params(dependsOnMirror).get("value");
+
+            if (value instanceof List) {
+                ((List<?>) value).forEach(d -> dependsOn.add(
+                        ((AnnotationValue) d).getValue().toString()));
+            }
+        }
+
+        return new PluginDescriptor(
+                elements.getBinaryName(plugin).toString(),
+                (String) params.get("name"),
+                (String) params.get("description"),
+                (Boolean) params.get("enabledByDefault"),
+                (Integer) params.get("priority"),
+                types,
+                onInitConstructor,
+                onInitMethods,
+                dependsOn);
+    }
+
+    private boolean allConfScope(AnnotationMirror onInit) {
+        var scope = params(onInit).get("scope");
+
+        return scope instanceof VariableElement
+                && "ALL".equals(((VariableElement) scope)
+                        .getSimpleName().toString());
+    }
+
+    private AnnotationMirror mirror(Element element, String annotation) {
+        for (var mirror : element.getAnnotationMirrors()) {
+            var type = (TypeElement) mirror.getAnnotationType().asElement();
+
+            if (type.getQualifiedName().contentEquals(annotation)) {
+                return mirror;
+            }
+        }
+
+        return null;
+    }
+
+    private Map<String, Object> params(AnnotationMirror mirror) {
+        var ret = new LinkedHashMap<String, Object>();
+
+        Map<? extends Element, ? extends AnnotationValue> values
+                = processingEnv.getElementUtils()
+                        .getElementValuesWithDefaults(mirror);
+
+        values.forEach((k, v) -> ret.put(k.getSimpleName().toString(),
+                v.getValue()));
+
+        return ret;
+    }
+
+    private void write() {
+        try {
+            var resource = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT, "", PluginsIndex.RESOURCE);
+
+            try (Writer writer = new OutputStreamWriter(
+                    resource.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (var descriptor : descriptors.values()) {
+                    writer.write(PluginsIndex.format(descriptor));
+                    writer.write('\n');
+                }
+            }
+        }
+        catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Error writing the plugins index: " + ex.getMessage());
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package org.restheart.security.plugins;
 
 import io.undertow.predicate.Predicate;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import org.restheart.ConfigurationException;
@@ -36,24 +37,45 @@ import org.restheart.plugins.security.TokenManager;
  * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
  */
 public class PluginsRegistry {
-    private Set<PluginRecord<AuthMechanism>> authMechanisms;
+    // each type has its own lock, see Lazy
+    private final Lazy<Set<PluginRecord<AuthMechanism>>> authMechanisms
+            = new Lazy<>(() -> {
+                // mechanisms get authenticators and the token manager from
+                // the registry, create them first on this thread
+                getAuthenticators();
+                getTokenManager();
 
-    private Set<PluginRecord<Authenticator>> authenticators;
+                return new LinkedHashSet<>(PluginsFactory.authMechanisms());
+            });
 
-    private Set<PluginRecord<Authorizer>> authorizers;
+    private final Lazy<Set<PluginRecord<Authenticator>>> authenticators
+            = new Lazy<>(() -> new LinkedHashSet<>(
+                    PluginsFactory.authenticators()));
 
-    private PluginRecord<TokenManager> tokenManager;
+    private final Lazy<Set<PluginRecord<Authorizer>>> authorizers
+            = new Lazy<>(() -> PluginsFactory.authorizers());
 
-    private Set<PluginRecord<Service>> services;
+    private final Lazy<PluginRecord<TokenManager>> tokenManager
+            = new Lazy<>(() -> PluginsFactory.tokenManager());
 
-    private Set<PluginRecord<Initializer>> initializers;
+    private final Lazy<Set<PluginRecord<Service>>> services
+            = new Lazy<>(() -> new LinkedHashSet<>(PluginsFactory.services()));
 
-    private Set<PluginRecord<PreStartupInitializer>> preStartupInitializers;
+    private final Lazy<Set<PluginRecord<Initializer>>> initializers
+            = new Lazy<>(() -> new LinkedHashSet<>(
+                    PluginsFactory.initializers()));
 
-    private Set<PluginRecord<Interceptor>> interceptors;
+    private final Lazy<Set<PluginRecord<PreStartupInitializer>>> preStartupInitializers
+            = new Lazy<>(() -> new LinkedHashSet<>(
+                    PluginsFactory.preStartupInitializers()));
 
+    private final Lazy<Set<PluginRecord<Interceptor>>> interceptors
+            = new Lazy<>(() -> new LinkedHashSet<>(
+                    PluginsFactory.interceptors()));
+
+    // initializers can add predicates concurrently
     private final Set<Predicate> globalSecurityPredicates
-            = new LinkedHashSet<>();
+            = Collections.synchronizedSet(new LinkedHashSet<>());
 
     private static PluginsRegistry HOLDER;
 
@@ -72,24 +94,14 @@ public class PluginsRegistry {
      * @return the authMechanisms
      */
     public Set<PluginRecord<AuthMechanism>> getAuthMechanisms() {
-        if (this.authMechanisms == null) {
-            this.authMechanisms = new LinkedHashSet<>();
-            this.authMechanisms.addAll(PluginsFactory.authMechanisms());
-        }
-
-        return this.authMechanisms;
+        return this.authMechanisms.get();
     }
 
     /**
      * @return the authenticators
      */
     public Set<PluginRecord<Authenticator>> getAuthenticators() {
-        if (this.authenticators == null) {
-            this.authenticators = new LinkedHashSet<>();
-            this.authenticators.addAll(PluginsFactory.authenticators());
-        }
-
-        return this.authenticators;
+        return this.authenticators.get();
     }
 
     /**
@@ -120,69 +132,39 @@ public class PluginsRegistry {
      * @return the authenticators
      */
     public PluginRecord<TokenManager> getTokenManager() {
-        if (this.tokenManager == null) {
-            this.tokenManager = PluginsFactory.tokenManager();
-        }
-
-        return this.tokenManager;
+        return this.tokenManager.get();
     }
 
     /**
      * @return the authenticators
      */
     public Set<PluginRecord<Authorizer>> getAuthorizers() {
-        if (this.authorizers == null) {
-            this.authorizers = PluginsFactory.authorizers();
-        }
-
-        return this.authorizers;
+        return this.authorizers.get();
     }
 
     /**
      * @return the initializers
      */
     public Set<PluginRecord<Initializer>> getInitializers() {
-        if (this.initializers == null) {
-            this.initializers = new LinkedHashSet<>();
-            this.initializers.addAll(PluginsFactory.initializers());
-        }
-
-        return this.initializers;
+        return this.initializers.get();
     }
 
     /**
      * @return the preStartupInitializers
      */
     public Set<PluginRecord<PreStartupInitializer>> getPreStartupInitializers() {
-        if (this.preStartupInitializers == null) {
-            this.preStartupInitializers = new LinkedHashSet<>();
-            this.preStartupInitializers.addAll(
-                    PluginsFactory.preStartupInitializers());
-        }
-
-        return this.preStartupInitializers;
+        return this.preStartupInitializers.get();
     }
 
     public Set<PluginRecord<Interceptor>> getInterceptors() {
-        if (this.interceptors == null) {
-            this.interceptors = new LinkedHashSet<>();
-            this.interceptors.addAll(PluginsFactory
-                    .interceptors());
-        }
-
-        return this.interceptors;
+        return this.interceptors.get();
     }
 
     /**
      * @return the services
      */
     public Set<PluginRecord<Service>> getServices() {
-        if (this.services == null) {
-            this.services = new LinkedHashSet<>();
-            this.services.addAll(PluginsFactory.services());
-        }
-
-        return this.services;
+        return this.services.get();
     }
 
     /**
@@ -0,0 +1,267 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.restheart.plugins.Plugin;
+import org.restheart.plugins.PluginRecord;
+import org.restheart.security.Bootstrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * starts the plugins concurrently on a startup fork-join pool, i.e.
+ * instantiates them or executes the initializers.
+ *
+ * A plugin starts after all the plugins with the previous priority and after
+ * the plugins it declares with @DependsOn; the others start concurrently, so
+ * that the startup lasts as the longest chain of dependencies.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class PluginsScheduler {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(PluginsScheduler.class);
+
+    private PluginsScheduler() {
+    }
+
+    /**
+     * starts the plugins, e.g. executes the initializers, on
+     * plugins-startup-parallelism threads and waits for them
+     *
+     * @param <T>
+     * @param plugins the plugins, sorted by priority
+     * @param action the action that starts a plugin
+     */
+    public static <T extends Plugin> void start(Set<PluginRecord<T>> plugins,
+            Consumer<PluginRecord<T>> action) {
+        schedule(new ArrayList<>(plugins),
+                p -> PluginsFactory.descriptorOf(p.getInstance()
+                        .getClass().getName()),
+                action,
+                parallelism());
+    }
+
+    /**
+     * @return the number of threads of the startup pool
+     */
+    static int parallelism() {
+        return Bootstrapper.getConfiguration() == null
+                ? 1
+                : Bootstrapper.getConfiguration().getPluginsStartupParallelism();
+    }
+
+    /**
+     * executes the action for each item on a pool of parallelism threads,
+     * ordering them by priority and dependencies, and waits for them
+     *
+     * @param <T>
+     * @param items the items, sorted by priority
+     * @param descriptor the function that returns the descriptor of an item
+     * @param action the action
+     * @param parallelism the number of threads; if less than 2 the items are
+     * processed one after another by the calling thread
+     */
+    static <T> void schedule(List<T> items,
+            Function<T, PluginDescriptor> descriptor,
+            Consumer<T> action,
+            int parallelism) {
+        if (parallelism < 2 || items.size() < 2) {
+            new Schedule<>(items, descriptor, action, Runnable::run).join();
+            return;
+        }
+
+        var start = System.currentTimeMillis();
+
+        var ccl = Thread.currentThread().getContextClassLoader();
+
+        ForkJoinWorkerThreadFactory factory = pool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                    .newThread(pool);
+
+            thread.setName("plugins-startup-" + thread.getPoolIndex());
+            thread.setContextClassLoader(ccl);
+
+            return thread;
+        };
+
+        var pool = new ForkJoinPool(parallelism, factory, null, false);
+
+        try {
+            new Schedule<>(items, descriptor, action, pool).join();
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        LOGGER.debug("{} plugins started in {} msecs",
+                items.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private static <T> void run(T item,
+            Function<T, PluginDescriptor> descriptor,
+            Consumer<T> action) {
+        try {
+            action.accept(item);
+        }
+        catch (Throwable t) {
+            LOGGER.error("Error starting plugin {}",
+                    name(item, descriptor), t);
+        }
+    }
+
+    private static <T> String name(T item,
+            Function<T, PluginDescriptor> descriptor) {
+        var d = descriptor.apply(item);
+
+        return d == null ? item.toString() : d.getName();
+    }
+
+    private static class Schedule<T> {
+
+        private final Function<T, PluginDescriptor> descriptor;
+        private final Consumer<T> action;
+        private final Executor executor;
+
+        private final Map<Integer, List<T>> levels = new HashMap<>();
+        private final TreeSet<Integer> priorities = new TreeSet<>();
+        private final Map<String, T> byName = new HashMap<>();
+
+        private final Map<T, CompletableFuture<Void>> futures
+                = new IdentityHashMap<>();
+        private final Set<T> visiting
+                = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Schedule(List<T> items,
+                Function<T, PluginDescriptor> descriptor,
+                Consumer<T> action,
+                Executor executor) {
+            this.descriptor = descriptor;
+            this.action = action;
+            this.executor = executor;
+
+            for (var item : items) {
+                var d = descriptor.apply(item);
+                var priority = d == null ? Integer.MAX_VALUE : d.getPriority();
+
+                priorities.add(priority);
+                levels.computeIfAbsent(priority, k -> new ArrayList<>())
+                        .add(item);
+
+                if (d != null) {
+                    byName.putIfAbsent(d.getName(), item);
+                }
+            }
+
+            items.forEach(item -> future(item));
+        }
+
+        void join() {
+            CompletableFuture.allOf(futures.values()
+                    .toArray(new CompletableFuture[futures.size()]))
+                    .join();
+        }
+
+        /**
+         * @return the plugins with the previous priority and the ones
+         * declared with @DependsOn
+         */
+        private List<T> dependencies(T item) {
+            var ret = new ArrayList<T>();
+            var d = descriptor.apply(item);
+
+            if (d == null) {
+                return ret;
+            }
+
+            var previous = priorities.lower(d.getPriority());
+
+            if (previous != null) {
+                ret.addAll(levels.get(previous));
+            }
+
+            for (var name : d.getDependsOn()) {
+                var dependency = byName.get(name);
+
+                if (dependency == null) {
+                    LOGGER.debug("Plugin {} depends on {} that is not "
+                            + "started with it", d.getName(), name);
+                } else if (dependency != item && !ret.contains(dependency)) {
+                    ret.add(dependency);
+                }
+            }
+
+            return ret;
+        }
+
+        private CompletableFuture<Void> future(T item) {
+            var ret = futures.get(item);
+
+            if (ret != null) {
+                return ret;
+            }
+
+            if (!visiting.add(item)) {
+                // circular dependency
+                return null;
+            }
+
+            var dependencies = new ArrayList<CompletableFuture<Void>>();
+
+            for (var dependency : dependencies(item)) {
+                var f = future(dependency);
+
+                if (f == null) {
+                    LOGGER.warn("Circular dependency between plugins {} "
+                            + "and {}, ignoring it",
+                            name(item, descriptor),
+                            name(dependency, descriptor));
+                } else {
+                    dependencies.add(f);
+                }
+            }
+
+            visiting.remove(item);
+
+            ret = CompletableFuture.allOf(dependencies
+                    .toArray(new CompletableFuture[dependencies.size()]))
+                    .handle((r, t) -> null)
+                    .thenRunAsync(() -> run(item, descriptor, action), executor);
+
+            futures.put(item, ret);
+
+            return ret;
+        }
+    }
+}
@@ -17,15 +17,20 @@
  */
 package org.restheart.security.plugins.mechanisms;
 
+import static io.undertow.UndertowMessages.MESSAGES;
 import io.undertow.security.api.SecurityContext;
+import io.undertow.security.idm.Account;
+import io.undertow.security.idm.IdentityManager;
+import io.undertow.security.idm.PasswordCredential;
 import io.undertow.server.HttpServerExchange;
 import static io.undertow.util.StatusCodes.UNAUTHORIZED;
 import java.util.Map;
+import java.util.Set;
 import org.restheart.ConfigurationException;
 import static org.restheart.plugins.ConfigurablePlugin.argValue;
 import org.restheart.plugins.OnInit;
 import org.restheart.plugins.RegisterPlugin;
-import org.restheart.plugins.security.AuthMechanism;
+import org.restheart.security.handlers.AuthorizationHeader;
 import org.restheart.security.plugins.PluginsRegistry;
 
 /**
@@ -37,11 +42,15 @@ import org.restheart.security.plugins.PluginsRegistry;
         description = "handles the basic authentication scheme",
         enabledByDefault = false)
 public class BasicAuthMechanism extends io.undertow.security.impl.BasicAuthenticationMechanism
-        implements AuthMechanism {
+        implements SchemeAwareAuthMechanism {
 
     public static final String SILENT_HEADER_KEY = "No-Auth-Challenge";
     public static final String SILENT_QUERY_PARAM_KEY = "noauthchallenge";
 
+    private static final Set<String> SCHEMES = Set.of(AuthorizationHeader.BASIC);
+
+    private final IdentityManager identityManager;
+
     @OnInit
     public BasicAuthMechanism(final Map<String, Object> args)
             throws ConfigurationException {
@@ -50,15 +59,20 @@ public class BasicAuthMechanism extends io.undertow.security.impl.BasicAuthentic
 
     public BasicAuthMechanism(final String mechanismName, final Map<String, Object> args)
             throws ConfigurationException {
-        super(argValue(args, "realm"),
+        this(argValue(args, "realm"),
                 mechanismName,
-                false,
                 // the authenticator specified in auth mechanism configuration
                 PluginsRegistry.getInstance()
                         .getAuthenticator(argValue(args, "authenticator"))
                         .getInstance());
     }
 
+    private BasicAuthMechanism(final String realm, final String mechanismName,
+            final IdentityManager identityManager) {
+        super(realm, mechanismName, false, identityManager);
+        this.identityManager = identityManager;
+    }
+
     @Override
     public ChallengeResult sendChallenge(final HttpServerExchange exchange, final SecurityContext securityContext) {
         if (exchange.getRequestHeaders().contains(SILENT_HEADER_KEY)
@@ -69,10 +83,47 @@ public class BasicAuthMechanism extends io.undertow.security.impl.BasicAuthentic
         }
     }
 
+    /**
+     * same as BasicAuthenticationMechanism.authenticate() but uses the
+     * credentials decoded once by AuthorizationHeader
+     *
+     * @param exchange
+     * @param securityContext
+     * @return
+     */
     @Override
     public AuthenticationMechanismOutcome authenticate(final HttpServerExchange exchange,
             final SecurityContext securityContext) {
-        return super.authenticate(exchange, securityContext);
+        var header = AuthorizationHeader.of(exchange);
+
+        if (!header.isScheme(AuthorizationHeader.BASIC)) {
+            return AuthenticationMechanismOutcome.NOT_ATTEMPTED;
+        }
+
+        var userName = header.getBasicUserName();
+
+        if (userName == null) {
+            // By this point we had a header we should have been able to verify
+            // but for some reason it was not correctly structured.
+            return AuthenticationMechanismOutcome.NOT_AUTHENTICATED;
+        }
+
+        Account account = identityManager.verify(userName,
+                new PasswordCredential(header.getBasicPassword()));
+
+        if (account != null) {
+            securityContext.authenticationComplete(account, getMechanismName(), false);
+            return AuthenticationMechanismOutcome.AUTHENTICATED;
+        } else {
+            securityContext.authenticationFailed(
+                    MESSAGES.authenticationFailed(userName), getMechanismName());
+            return AuthenticationMechanismOutcome.NOT_AUTHENTICATED;
+        }
+    }
+
+    @Override
+    public Set<String> getAuthenticationSchemes() {
+        return SCHEMES;
     }
 
     @Override
@@ -35,7 +35,6 @@ import io.undertow.util.AttachmentKey;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
 import static io.undertow.util.Headers.AUTHENTICATION_INFO;
-import static io.undertow.util.Headers.AUTHORIZATION;
 import static io.undertow.util.Headers.DIGEST;
 import static io.undertow.util.Headers.NEXT_NONCE;
 import static io.undertow.util.Headers.WWW_AUTHENTICATE;
@@ -54,7 +53,7 @@ import org.restheart.ConfigurationException;
 import static org.restheart.plugins.ConfigurablePlugin.argValue;
 import org.restheart.plugins.OnInit;
 import org.restheart.plugins.RegisterPlugin;
-import org.restheart.plugins.security.AuthMechanism;
+import org.restheart.security.handlers.AuthorizationHeader;
 import org.restheart.security.handlers.QueryStringRebuilder;
 import org.restheart.security.plugins.PluginsRegistry;
 import org.slf4j.Logger;
@@ -71,7 +70,7 @@ import org.slf4j.LoggerFactory;
         name = "digestAuthMechanism",
         description = "handles the digest authentication scheme",
         enabledByDefault = false)
-public class DigestAuthMechanism implements AuthMechanism {
+public class DigestAuthMechanism implements SchemeAwareAuthMechanism {
 
     private static final Logger LOGGER = LoggerFactory
             .getLogger(DigestAuthMechanism.class);
@@ -79,6 +78,8 @@ public class DigestAuthMechanism implements AuthMechanism {
     public static final String SILENT_HEADER_KEY = "No-Auth-Challenge";
     public static final String SILENT_QUERY_PARAM_KEY = "noauthchallenge";
 
+    private static final Set<String> SCHEMES = Set.of(AuthorizationHeader.DIGEST);
+
     @OnInit
     public DigestAuthMechanism(Map<String, Object> args)
             throws ConfigurationException {
@@ -109,7 +110,6 @@ public class DigestAuthMechanism implements AuthMechanism {
     }
 
     private static final String DIGEST_PREFIX = DIGEST + " ";
-    private static final int PREFIX_LENGTH = DIGEST_PREFIX.length();
     private static final String OPAQUE_VALUE = "00000000000000000000000000000000";
     private static final byte COLON = ':';
 
@@ -196,32 +196,30 @@ public class DigestAuthMechanism implements AuthMechanism {
     @Override
     public AuthenticationMechanismOutcome authenticate(final HttpServerExchange exchange,
             final SecurityContext securityContext) {
-        List<String> authHeaders = exchange.getRequestHeaders().get(AUTHORIZATION);
-        if (authHeaders != null) {
-            for (String current : authHeaders) {
-                if (current.startsWith(DIGEST_PREFIX)) {
-                    String digestChallenge = current.substring(PREFIX_LENGTH);
-
-                    try {
-                        DigestContext context = new DigestContext();
-                        Map<DigestAuthorizationToken, String> parsedHeader = parseHeader(digestChallenge);
-                        context.setMethod(exchange.getRequestMethod().toString());
-                        context.setParsedHeader(parsedHeader);
-                        // Some form of Digest authentication is going to occur so get the DigestContext set on the exchange.
-                        exchange.putAttachment(DigestContext.ATTACHMENT_KEY, context);
-
-                        LOGGER.trace("Found digest header {} in {}", current, exchange);
-
-                        return handleDigestHeader(exchange, securityContext);
-                    } catch (Exception e) {
-                        LOGGER.debug("Error", e);
-                    }
-                }
+        // the header is parsed once, see AuthorizationHeader
+        var header = AuthorizationHeader.of(exchange);
+
+        if (header.isScheme(AuthorizationHeader.DIGEST)) {
+            String digestChallenge = header.getCredentials();
+
+            try {
+                DigestContext context = new DigestContext();
+                Map<DigestAuthorizationToken, String> parsedHeader = parseHeader(digestChallenge);
+                context.setMethod(exchange.getRequestMethod().toString());
+                context.setParsedHeader(parsedHeader);
+                // Some form of Digest authentication is going to occur so get the DigestContext set on the exchange.
+                exchange.putAttachment(DigestContext.ATTACHMENT_KEY, context);
+
+                LOGGER.trace("Found digest header {} in {}", digestChallenge, exchange);
 
-                // By this point we had a header we should have been able to verify but for some reason
-                // it was not correctly structured.
-                return AuthenticationMechanismOutcome.NOT_ATTEMPTED;
+                return handleDigestHeader(exchange, securityContext);
+            } catch (Exception e) {
+                LOGGER.debug("Error", e);
             }
+
+            // By this point we had a header we should have been able to verify but for some reason
+            // it was not correctly structured.
+            return AuthenticationMechanismOutcome.NOT_ATTEMPTED;
         }
 
         // No suitable header has been found in this request,
@@ -681,6 +679,11 @@ public class DigestAuthMechanism implements AuthMechanism {
         }
     }
 
+    @Override
+    public Set<String> getAuthenticationSchemes() {
+        return SCHEMES;
+    }
+
     /**
      * @return the mechanismName
      */
@@ -0,0 +1,38 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.plugins.mechanisms;
+
+import java.util.Set;
+import org.restheart.plugins.security.AuthMechanism;
+
+/**
+ * an AuthMechanism that only handles requests with the Authorization header
+ * using one of its schemes; AuthenticatorMechanismsHandler does not invoke it
+ * for requests with a different scheme or without the Authorization header.
+ *
+ * Mechanisms that don't implement this interface are invoked for all requests.
+ *
+ * @see org.restheart.security.handlers.AuthorizationHeader
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public interface SchemeAwareAuthMechanism extends AuthMechanism {
+    /**
+     * @return the handled authentication schemes, e.g. basic, digest or bearer
+     */
+    Set<String> getAuthenticationSchemes();
+}
@@ -23,20 +23,14 @@ import io.undertow.security.idm.IdentityManager;
 import io.undertow.security.idm.PasswordCredential;
 import io.undertow.security.impl.BasicAuthenticationMechanism;
 import io.undertow.server.HttpServerExchange;
-import io.undertow.util.FlexBase64;
-import static io.undertow.util.Headers.AUTHORIZATION;
-import static io.undertow.util.Headers.BASIC;
 import static io.undertow.util.StatusCodes.UNAUTHORIZED;
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.restheart.ConfigurationException;
 import static org.restheart.plugins.ConfigurablePlugin.argValue;
 import org.restheart.plugins.OnInit;
 import org.restheart.plugins.RegisterPlugin;
-import org.restheart.plugins.security.AuthMechanism;
+import org.restheart.security.handlers.AuthorizationHeader;
 import org.restheart.security.plugins.PluginsRegistry;
 
 /**
@@ -57,24 +51,14 @@ import org.restheart.security.plugins.PluginsRegistry;
         enabledByDefault = false)
 public class TokenBasicAuthMechanism
         extends BasicAuthenticationMechanism
-        implements AuthMechanism {
+        implements SchemeAwareAuthMechanism {
 
-    private static final Charset UTF_8 = Charset.forName("UTF-8");
-
-    private static final String BASIC_PREFIX = BASIC + " ";
-    private static final int PREFIX_LENGTH = BASIC_PREFIX.length();
-    private static final String COLON = ":";
+    private static final Set<String> SCHEMES = Set.of(AuthorizationHeader.BASIC);
 
     private final String mechanismName;
 
     private IdentityManager identityManager = null;
 
-    private static void clear(final char[] array) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = 0x00;
-        }
-    }
-
     /**
      *
      * @param args
@@ -113,44 +97,20 @@ public class TokenBasicAuthMechanism
     @Override
     public AuthenticationMechanismOutcome authenticate(final HttpServerExchange exchange,
             final SecurityContext securityContext) {
+        // the header is parsed and decoded once, see AuthorizationHeader
+        var header = AuthorizationHeader.of(exchange);
+
+        if (identityManager != null && header.getBasicUserName() != null) {
+            PasswordCredential credential = new PasswordCredential(
+                    header.getBasicPassword());
 
-        List<String> authHeaders = exchange.getRequestHeaders().get(AUTHORIZATION);
-        if (authHeaders != null) {
-            for (String current : authHeaders) {
-                if (current.startsWith(BASIC_PREFIX)) {
-                    String base64Challenge = current.substring(PREFIX_LENGTH);
-                    String plainChallenge = null;
-                    try {
-                        ByteBuffer decode = FlexBase64.decode(base64Challenge);
-                        plainChallenge = new String(decode.array(), decode.arrayOffset(), decode.limit(), UTF_8);
-                    }
-                    catch (IOException e) {
-                    }
-                    int colonPos;
-                    if (plainChallenge != null && (colonPos = plainChallenge.indexOf(COLON)) > -1) {
-                        String userName = plainChallenge.substring(0, colonPos);
-                        char[] password = plainChallenge.substring(colonPos + 1).toCharArray();
-
-                        PasswordCredential credential = new PasswordCredential(password);
-                        try {
-                            final AuthenticationMechanismOutcome result;
-                            // this is where the token cache comes into play
-                            Account account = identityManager.verify(userName, credential);
-                            if (account != null) {
-                                securityContext.authenticationComplete(account, getMechanismName(), false);
-                                result = AuthenticationMechanismOutcome.AUTHENTICATED;
-                            } else {
-                                result = AuthenticationMechanismOutcome.NOT_ATTEMPTED;
-                            }
-                            return result;
-                        }
-                        finally {
-                            clear(password);
-                        }
-                    }
-
-                    return AuthenticationMechanismOutcome.NOT_ATTEMPTED;
-                }
+            // this is where the token cache comes into play
+            Account account = identityManager.verify(header.getBasicUserName(),
+                    credential);
+
+            if (account != null) {
+                securityContext.authenticationComplete(account, getMechanismName(), false);
+                return AuthenticationMechanismOutcome.AUTHENTICATED;
             }
         }
 
@@ -159,15 +119,18 @@ public class TokenBasicAuthMechanism
 
     @Override
     public ChallengeResult sendChallenge(final HttpServerExchange exchange, final SecurityContext securityContext) {
-        String authHeader = exchange.getRequestHeaders().getFirst(AUTHORIZATION);
-
-        if (authHeader == null) {
+        if (!AuthorizationHeader.of(exchange).isPresent()) {
             return new ChallengeResult(false); // --> FORBIDDEN
         } else {
             return new ChallengeResult(true, UNAUTHORIZED);
         }
     }
 
+    @Override
+    public Set<String> getAuthenticationSchemes() {
+        return SCHEMES;
+    }
+
     /**
      * @return the mechanismName
      */
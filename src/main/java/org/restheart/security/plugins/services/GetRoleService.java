@@ -72,7 +72,7 @@ public class GetRoleService implements Service {
         if (request.isOptions()) {
             exchange.getResponseHeaders().put(HttpString.tryFromString("Access-Control-Allow-Methods"), "GET");
             exchange.getResponseHeaders().put(HttpString.tryFromString("Access-Control-Allow-Headers"),
-                    "Accept, Accept-Encoding, Authorization, Content-Length, Content-Type, Host, Origin, X-Requested-With, User-Agent, No-Auth-Challenge, "
+                    "Accept, Accept-Encoding, Authorization, Content-Length, Content-Type, Host, Origin, X-Requested-With, User-Agent, No-Auth-Challenge, No-Auth-Token, "
                     + AUTH_TOKEN_HEADER
                     + ", " + AUTH_TOKEN_VALID_HEADER
                     + ", " + AUTH_TOKEN_LOCATION_HEADER);
@@ -0,0 +1,64 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.plugins.services;
+
+import com.google.gson.Gson;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.restheart.handlers.exchange.JsonRequest;
+import org.restheart.plugins.RegisterPlugin;
+import org.restheart.plugins.Service;
+import org.restheart.security.handlers.metrics.MetricsRegistry;
+import org.restheart.utils.HttpStatus;
+
+/**
+ * returns the metrics of the security components, see MetricsRegistry
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+@RegisterPlugin(
+        name = "metrics",
+        description = "returns the metrics of the security components",
+        enabledByDefault = false,
+        defaultURI = "/metrics")
+public class MetricsService implements Service {
+
+    private static final Gson GSON = new Gson();
+
+    /**
+     *
+     * @param exchange
+     * @throws Exception
+     */
+    @Override
+    public void handle(HttpServerExchange exchange) throws Exception {
+        var request = JsonRequest.wrap(exchange);
+
+        if (request.isGet()) {
+            exchange.setStatusCode(HttpStatus.SC_OK);
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE,
+                    "application/json");
+            exchange.getResponseSender().send(GSON
+                    .toJson(MetricsRegistry.getInstance().snapshot()));
+            exchange.endExchange();
+        } else {
+            exchange.setStatusCode(HttpStatus.SC_METHOD_NOT_ALLOWED);
+            exchange.endExchange();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import static org.restheart.plugins.ConfigurablePlugin.argValue;
 import org.restheart.plugins.OnInit;
 import org.restheart.plugins.RegisterPlugin;
 import org.restheart.plugins.Service;
+import org.restheart.security.handlers.DrainingHandler;
 import org.restheart.utils.HttpStatus;
 
 /**
@@ -59,7 +60,11 @@ public class PingService implements Service {
     public void handle(HttpServerExchange exchange) throws Exception {
         var request = JsonRequest.wrap(exchange);
 
-        if (request.isGet()) {
+        if (request.isGet() && DrainingHandler.isDraining()) {
+            // let load balancers stop routing requests to this instance
+            exchange.setStatusCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            exchange.endExchange();
+        } else if (request.isGet()) {
             exchange.setStatusCode(HttpStatus.SC_OK);
             exchange.getResponseSender().send(msg);
             exchange.endExchange();
@@ -83,7 +83,7 @@ public class RndTokenService implements Service {
                     .put(HttpString.tryFromString("Access-Control-Allow-Headers"),
                             "Accept, Accept-Encoding, Authorization, Content-Length, "
                             + "Content-Type, Host, Origin, X-Requested-With, "
-                            + "User-Agent, No-Auth-Challenge");
+                            + "User-Agent, No-Auth-Challenge, No-Auth-Token");
 
             exchange.setStatusCode(HttpStatus.SC_OK);
             exchange.endExchange();
@@ -111,6 +111,11 @@ public class RndTokenService implements Service {
         }
 
         if (Methods.GET.equals(exchange.getRequestMethod())) {
+            if (!exchange.getResponseHeaders().contains(AUTH_TOKEN_HEADER)) {
+                // the request asked to skip the token injection
+                injectAuthTokens(exchange);
+            }
+
             JsonObject resp = new JsonObject();
 
             resp.add("auth_token", new JsonPrimitive(exchange.getResponseHeaders()
@@ -154,6 +159,23 @@ public class RndTokenService implements Service {
         tokenManager.getInstance().invalidate(account);
     }
 
+    private void injectAuthTokens(HttpServerExchange exchange) {
+        var tokenManager = PluginsRegistry
+                .getInstance()
+                .getTokenManager();
+
+        if (tokenManager == null) {
+            throw new IllegalStateException("Error, cannot get token, "
+                    + "token manager not active");
+        }
+
+        var token = tokenManager.getInstance().get(exchange
+                .getSecurityContext()
+                .getAuthenticatedAccount());
+
+        tokenManager.getInstance().injectTokenHeaders(exchange, token);
+    }
+
     private void removeAuthTokens(HttpServerExchange exchange) {
         exchange.getResponseHeaders().remove(AUTH_TOKEN_HEADER);
         exchange.getResponseHeaders().remove(AUTH_TOKEN_VALID_HEADER);
@@ -17,6 +17,7 @@
  */
 package org.restheart.security.plugins.tokens;
 
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
 import io.undertow.security.idm.Account;
 import io.undertow.security.idm.Credential;
@@ -29,10 +30,10 @@ import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
 import org.restheart.ConfigurationException;
 import org.restheart.cache.Cache;
 import org.restheart.cache.CacheFactory;
-import org.restheart.handlers.exchange.JsonRequest;
 import org.restheart.plugins.ConfigurablePlugin;
 import org.restheart.plugins.OnInit;
 import org.restheart.plugins.RegisterPlugin;
@@ -60,8 +61,21 @@ public class RndTokenManager implements TokenManager {
 
     private static Cache<String, PwdCredentialAccount> CACHE;
 
+    /**
+     * the values of the auth token headers, computed once per token. Keys are
+     * weak: an entry goes away when its token is evicted from CACHE
+     */
+    private static final ConcurrentMap<PasswordCredential, TokenHeaders> HEADERS
+            = new MapMaker().weakKeys().makeMap();
+
     private final int ttl;
     private final String srvURI;
+    private final String locationPrefix;
+
+    /**
+     * the value of the valid until header, refreshed once per second
+     */
+    private volatile ValidUntil validUntil = new ValidUntil(-1, null);
 
     @OnInit
     public RndTokenManager(Map<String, Object> confArgs)
@@ -75,6 +89,9 @@ public class RndTokenManager implements TokenManager {
 
         this.srvURI = ConfigurablePlugin.argValue(confArgs, "srv-uri");
 
+        this.locationPrefix = URLUtils.removeTrailingSlashes(srvURI)
+                .concat("/");
+
         CACHE = CacheFactory.createLocalCache(Long.MAX_VALUE,
                 Cache.EXPIRE_POLICY.AFTER_READ,
                 ttl * 60 * 1_000);
@@ -184,26 +201,77 @@ public class RndTokenManager implements TokenManager {
     @Override
     public void injectTokenHeaders(HttpServerExchange exchange,
             PasswordCredential token) {
-        exchange.getResponseHeaders().add(AUTH_TOKEN_HEADER,
-                new String(token.getPassword()));
+        var headers = HEADERS.get(token);
 
-        exchange.getResponseHeaders().add(AUTH_TOKEN_VALID_HEADER,
-                Instant.now().plus(ttl, ChronoUnit.MINUTES).toString());
+        if (headers == null) {
+            headers = new TokenHeaders(new String(token.getPassword()),
+                    location(exchange));
+
+            HEADERS.put(token, headers);
+        }
 
-        var request = JsonRequest.wrap(exchange);
+        exchange.getResponseHeaders().add(AUTH_TOKEN_HEADER, headers.token);
 
-        if (request.getAuthenticatedAccount() != null
-                && request.getAuthenticatedAccount().getPrincipal() != null
-                && request.getAuthenticatedAccount().getPrincipal().getName() != null) {
-            String cid = request
-                    .getAuthenticatedAccount()
-                    .getPrincipal()
-                    .getName();
+        exchange.getResponseHeaders().add(AUTH_TOKEN_VALID_HEADER,
+                validUntil());
 
+        if (headers.location != null) {
             exchange.getResponseHeaders().add(AUTH_TOKEN_LOCATION_HEADER,
-                    URLUtils.removeTrailingSlashes(srvURI)
-                            .concat("/")
-                            .concat(cid));
+                    headers.location);
+        }
+    }
+
+    private String location(HttpServerExchange exchange) {
+        var account = exchange.getSecurityContext() == null
+                ? null
+                : exchange.getSecurityContext().getAuthenticatedAccount();
+
+        if (account != null
+                && account.getPrincipal() != null
+                && account.getPrincipal().getName() != null) {
+            return locationPrefix.concat(account.getPrincipal().getName());
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * tokens expire ttl minutes after the last use, so the header value only
+     * depends on the current time; it is formatted at most once per second
+     *
+     * @return the value of the auth token valid until header
+     */
+    private String validUntil() {
+        var now = System.currentTimeMillis() / 1_000;
+        var current = this.validUntil;
+
+        if (current.epochSecond == now) {
+            return current.value;
+        } else {
+            var value = Instant.ofEpochSecond(now)
+                    .plus(ttl, ChronoUnit.MINUTES).toString();
+            this.validUntil = new ValidUntil(now, value);
+            return value;
+        }
+    }
+
+    private static class TokenHeaders {
+        final String token;
+        final String location;
+
+        TokenHeaders(String token, String location) {
+            this.token = token;
+            this.location = location;
+        }
+    }
+
+    private static class ValidUntil {
+        final long epochSecond;
+        final String value;
+
+        ValidUntil(long epochSecond, String value) {
+            this.epochSecond = epochSecond;
+            this.value = value;
         }
     }
 
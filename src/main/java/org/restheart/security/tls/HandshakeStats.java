@@ -0,0 +1,108 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.tls;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the counts and durations of the TLS handshakes of the https listener,
+ * split between full handshakes and session resumptions
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class HandshakeStats {
+
+    private final Kind full = new Kind();
+    private final Kind resumed = new Kind();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * records a completed handshake
+     *
+     * @param resumption true if the session was resumed
+     * @param duration the duration of the handshake in nanoseconds
+     */
+    void completed(boolean resumption, long duration) {
+        (resumption ? resumed : full).record(duration);
+    }
+
+    /**
+     * records a failed handshake
+     */
+    void failed() {
+        failed.increment();
+    }
+
+    /**
+     * @return the count of full handshakes
+     */
+    public long getFull() {
+        return full.count.sum();
+    }
+
+    /**
+     * @return the count of resumed sessions
+     */
+    public long getResumed() {
+        return resumed.count.sum();
+    }
+
+    /**
+     * @return the count of failed handshakes
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        ret.put("full", full.metrics());
+        ret.put("resumed", resumed.metrics());
+        ret.put("failed", failed.sum());
+
+        return ret;
+    }
+
+    private static class Kind {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder time = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long duration) {
+            count.increment();
+            time.add(duration);
+            max.accumulate(duration);
+        }
+
+        Map<String, Object> metrics() {
+            var ret = new LinkedHashMap<String, Object>();
+            var n = count.sum();
+
+            ret.put("count", n);
+            ret.put("mean-ms", n == 0 ? 0 : time.sum() / n / 1_000_000d);
+            ret.put("max-ms", max.get() / 1_000_000d);
+
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.tls;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.BiFunction;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+
+/**
+ * decorates an SSLEngine to record the outcome and the duration of its
+ * initial handshake, from the first wrap or unwrap to the FINISHED status.
+ *
+ * The session is resumed if it was created before the handshake started.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+class MeteredSslEngine extends SSLEngine {
+
+    private final SSLEngine delegate;
+    private final HandshakeStats stats;
+
+    // the engine is used by the IO thread of its connection
+    private long start = 0;
+    private long startMillis = 0;
+    private boolean recorded = false;
+
+    private BiFunction<SSLEngine, List<String>, String> selector = null;
+
+    MeteredSslEngine(SSLEngine delegate, HandshakeStats stats) {
+        super(delegate.getPeerHost(), delegate.getPeerPort());
+        this.delegate = delegate;
+        this.stats = stats;
+    }
+
+    @Override
+    public SSLEngineResult wrap(ByteBuffer[] srcs,
+            int offset,
+            int length,
+            ByteBuffer dst) throws SSLException {
+        started();
+
+        try {
+            return track(delegate.wrap(srcs, offset, length, dst));
+        }
+        catch (SSLException ex) {
+            failed();
+            throw ex;
+        }
+    }
+
+    @Override
+    public SSLEngineResult unwrap(ByteBuffer src,
+            ByteBuffer[] dsts,
+            int offset,
+            int length) throws SSLException {
+        started();
+
+        try {
+            return track(delegate.unwrap(src, dsts, offset, length));
+        }
+        catch (SSLException ex) {
+            failed();
+            throw ex;
+        }
+    }
+
+    private void started() {
+        if (start == 0) {
+            start = System.nanoTime();
+            startMillis = System.currentTimeMillis();
+        }
+    }
+
+    private SSLEngineResult track(SSLEngineResult result) {
+        if (!recorded && result.getHandshakeStatus()
+                == SSLEngineResult.HandshakeStatus.FINISHED) {
+            recorded = true;
+
+            var session = delegate.getSession();
+
+            stats.completed(session != null
+                    && session.getCreationTime() < startMillis,
+                    System.nanoTime() - start);
+        }
+
+        return result;
+    }
+
+    private void failed() {
+        if (!recorded) {
+            recorded = true;
+            stats.failed();
+        }
+    }
+
+    @Override
+    public Runnable getDelegatedTask() {
+        return delegate.getDelegatedTask();
+    }
+
+    @Override
+    public void closeInbound() throws SSLException {
+        delegate.closeInbound();
+    }
+
+    @Override
+    public boolean isInboundDone() {
+        return delegate.isInboundDone();
+    }
+
+    @Override
+    public void closeOutbound() {
+        delegate.closeOutbound();
+    }
+
+    @Override
+    public boolean isOutboundDone() {
+        return delegate.isOutboundDone();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public String[] getEnabledCipherSuites() {
+        return delegate.getEnabledCipherSuites();
+    }
+
+    @Override
+    public void setEnabledCipherSuites(String[] suites) {
+        delegate.setEnabledCipherSuites(suites);
+    }
+
+    @Override
+    public String[] getSupportedProtocols() {
+        return delegate.getSupportedProtocols();
+    }
+
+    @Override
+    public String[] getEnabledProtocols() {
+        return delegate.getEnabledProtocols();
+    }
+
+    @Override
+    public void setEnabledProtocols(String[] protocols) {
+        delegate.setEnabledProtocols(protocols);
+    }
+
+    @Override
+    public SSLSession getSession() {
+        return delegate.getSession();
+    }
+
+    @Override
+    public SSLSession getHandshakeSession() {
+        return delegate.getHandshakeSession();
+    }
+
+    @Override
+    public void beginHandshake() throws SSLException {
+        delegate.beginHandshake();
+    }
+
+    @Override
+    public SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+        return delegate.getHandshakeStatus();
+    }
+
+    @Override
+    public void setUseClientMode(boolean mode) {
+        delegate.setUseClientMode(mode);
+    }
+
+    @Override
+    public boolean getUseClientMode() {
+        return delegate.getUseClientMode();
+    }
+
+    @Override
+    public void setNeedClientAuth(boolean need) {
+        delegate.setNeedClientAuth(need);
+    }
+
+    @Override
+    public boolean getNeedClientAuth() {
+        return delegate.getNeedClientAuth();
+    }
+
+    @Override
+    public void setWantClientAuth(boolean want) {
+        delegate.setWantClientAuth(want);
+    }
+
+    @Override
+    public boolean getWantClientAuth() {
+        return delegate.getWantClientAuth();
+    }
+
+    @Override
+    public void setEnableSessionCreation(boolean flag) {
+        delegate.setEnableSessionCreation(flag);
+    }
+
+    @Override
+    public boolean getEnableSessionCreation() {
+        return delegate.getEnableSessionCreation();
+    }
+
+    @Override
+    public SSLParameters getSSLParameters() {
+        return delegate.getSSLParameters();
+    }
+
+    @Override
+    public void setSSLParameters(SSLParameters params) {
+        delegate.setSSLParameters(params);
+    }
+
+    @Override
+    public String getApplicationProtocol() {
+        return delegate.getApplicationProtocol();
+    }
+
+    @Override
+    public String getHandshakeApplicationProtocol() {
+        return delegate.getHandshakeApplicationProtocol();
+    }
+
+    @Override
+    public void setHandshakeApplicationProtocolSelector(
+            BiFunction<SSLEngine, List<String>, String> selector) {
+        this.selector = selector;
+
+        // the selector receives this engine, e.g. used by the ALPN of HTTP/2
+        delegate.setHandshakeApplicationProtocolSelector(selector == null
+                ? null
+                : (engine, protocols) -> selector.apply(this, protocols));
+    }
+
+    @Override
+    public BiFunction<SSLEngine, List<String>, String> getHandshakeApplicationProtocolSelector() {
+        return selector;
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.tls;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
+import org.restheart.ConfigurationException;
+import org.restheart.security.Configuration;
+import org.restheart.security.ConfigurationKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the SSLContext of the https listener, built from the embedded keystore or
+ * from keystore-file, and tuned by the tls configuration property.
+ *
+ * The server session cache, whose size and timeout are configurable, allows
+ * clients to resume sessions skipping the full handshake; with session
+ * tickets (Java 13 or later) the sessions are resumed from the encrypted
+ * tickets kept by the clients, whose keys the JDK rotates every
+ * ticket-key-rotation.
+ *
+ * The keystore-file is checked every keystore-reload-interval and, when
+ * modified, reloaded without restarting the listener: the next handshakes use
+ * the new certificate. If the reload fails the current certificate is kept
+ * and the reload is retried at the next check.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class ServerSslContext {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(ServerSslContext.class);
+
+    private static final String EMBEDDED_KEYSTORE = "sskeystore.jks";
+    private static final String EMBEDDED_PASSWORD = "uiamuiam";
+
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20480;
+    public static final long DEFAULT_SESSION_TIMEOUT = 86_400_000;
+    public static final long DEFAULT_KEYSTORE_RELOAD_INTERVAL = 10_000;
+
+    private static final ScheduledExecutorService SCHEDULER
+            = Executors.newSingleThreadScheduledExecutor(r -> {
+                var t = new Thread(r, "keystore-watcher");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final SSLContext sslContext;
+    private final HandshakeStats handshakes;
+    private final ReloadableKeyManager keyManager;
+    private final Path keystoreFile;
+    private final String keystorePassword;
+    private final String certPassword;
+
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder reloadFailures = new LongAdder();
+
+    // accessed by the SCHEDULER thread only
+    private FileTime lastModified;
+
+    private ServerSslContext(SSLContext sslContext,
+            HandshakeStats handshakes,
+            ReloadableKeyManager keyManager,
+            Path keystoreFile,
+            String keystorePassword,
+            String certPassword,
+            FileTime lastModified) {
+        this.sslContext = sslContext;
+        this.handshakes = handshakes;
+        this.keyManager = keyManager;
+        this.keystoreFile = keystoreFile;
+        this.keystorePassword = keystorePassword;
+        this.certPassword = certPassword;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * builds the SSLContext of the https listener and, if it is enabled and
+     * keystore-file is used, starts watching it
+     *
+     * @param configuration
+     * @return the ServerSslContext
+     * @throws ConfigurationException if the tls property is wrong
+     * @throws GeneralSecurityException
+     * @throws IOException if the keystore cannot be read
+     */
+    public static ServerSslContext build(Configuration configuration)
+            throws ConfigurationException,
+            GeneralSecurityException,
+            IOException {
+        var conf = configuration.getTls() == null
+                ? Collections.<String, Object>emptyMap()
+                : configuration.getTls();
+
+        var sessionCacheSize = number(conf,
+                ConfigurationKeys.TLS_SESSION_CACHE_SIZE_KEY,
+                DEFAULT_SESSION_CACHE_SIZE).intValue();
+        var sessionTimeout = number(conf,
+                ConfigurationKeys.TLS_SESSION_TIMEOUT_KEY,
+                DEFAULT_SESSION_TIMEOUT).longValue();
+        var reloadInterval = number(conf,
+                ConfigurationKeys.TLS_KEYSTORE_RELOAD_INTERVAL_KEY,
+                DEFAULT_KEYSTORE_RELOAD_INTERVAL).longValue();
+
+        if (sessionCacheSize < 0 || sessionTimeout < 0 || reloadInterval < 0) {
+            throw new ConfigurationException("Wrong tls configuration, "
+                    + "session-cache-size, session-timeout and "
+                    + "keystore-reload-interval must not be negative");
+        }
+
+        // must be set before the JDK reads them, at the first TLS handshake
+        sessionTickets(conf);
+
+        var ks = KeyStore.getInstance(KeyStore.getDefaultType());
+
+        ReloadableKeyManager keyManager = null;
+        Path keystoreFile = null;
+        FileTime lastModified = null;
+
+        if (configuration.isUseEmbeddedKeystore()) {
+            ks.load(ServerSslContext.class.getClassLoader()
+                    .getResourceAsStream(EMBEDDED_KEYSTORE),
+                    EMBEDDED_PASSWORD.toCharArray());
+
+            keyManager = new ReloadableKeyManager(
+                    keyManager(ks, EMBEDDED_PASSWORD));
+        } else if (configuration.getKeystoreFile() != null
+                && configuration.getKeystorePassword() != null
+                && configuration.getCertPassword() != null) {
+            keystoreFile = Path.of(configuration.getKeystoreFile());
+
+            load(ks, keystoreFile, configuration.getKeystorePassword());
+
+            lastModified = Files.getLastModifiedTime(keystoreFile);
+
+            keyManager = new ReloadableKeyManager(
+                    keyManager(ks, configuration.getCertPassword()));
+        } else {
+            LOGGER.error(
+                    "The keystore is not configured. "
+                    + "Check the keystore-file, "
+                    + "keystore-password and certpassword options.");
+        }
+
+        var tmf = TrustManagerFactory
+                .getInstance(TrustManagerFactory.getDefaultAlgorithm());
+
+        tmf.init(ks);
+
+        var delegate = SSLContext.getInstance("TLS");
+
+        delegate.init(keyManager == null
+                ? null
+                : new KeyManager[]{keyManager},
+                tmf.getTrustManagers(),
+                null);
+
+        var sessions = delegate.getServerSessionContext();
+
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout((int) TimeUnit.MILLISECONDS
+                .toSeconds(sessionTimeout));
+
+        var handshakes = new HandshakeStats();
+
+        var ret = new ServerSslContext(
+                new MeteredSslContext(delegate, handshakes),
+                handshakes,
+                keyManager,
+                keystoreFile,
+                configuration.getKeystorePassword(),
+                configuration.getCertPassword(),
+                lastModified);
+
+        if (keystoreFile != null
+                && reloadInterval > 0
+                && configuration.isHttpsListener()) {
+            SCHEDULER.scheduleWithFixedDelay(ret::reloadIfModified,
+                    reloadInterval,
+                    reloadInterval,
+                    TimeUnit.MILLISECONDS);
+
+            LOGGER.info("Keystore {} checked for changes every {} ms",
+                    keystoreFile, reloadInterval);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return the SSLContext
+     */
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * @return the handshakes statistics
+     */
+    public HandshakeStats getHandshakes() {
+        return handshakes;
+    }
+
+    /**
+     * @return the key manager, replaced when the keystore-file is reloaded
+     */
+    ReloadableKeyManager getKeyManager() {
+        return keyManager;
+    }
+
+    /**
+     * reloads the keystore-file if its last modified time changed
+     */
+    void reloadIfModified() {
+        try {
+            var modified = Files.getLastModifiedTime(keystoreFile);
+
+            if (modified.equals(lastModified)) {
+                return;
+            }
+
+            var ks = KeyStore.getInstance(KeyStore.getDefaultType());
+
+            load(ks, keystoreFile, keystorePassword);
+
+            keyManager.reload(keyManager(ks, certPassword));
+
+            // only now, a failed reload, e.g. of a file still being written,
+            // is retried at the next check
+            lastModified = modified;
+
+            reloads.increment();
+
+            LOGGER.info("Keystore {} reloaded", keystoreFile);
+        }
+        catch (Throwable t) {
+            reloadFailures.increment();
+
+            LOGGER.error("Error reloading keystore {}, "
+                    + "the current certificate is kept",
+                    keystoreFile, t);
+        }
+    }
+
+    /**
+     * @return the metrics of the sessions, of the handshakes and of the
+     * reloads of the keystore
+     */
+    public Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+        var sessions = sslContext.getServerSessionContext();
+
+        ret.put("session-cache-size", sessions.getSessionCacheSize());
+        ret.put("session-timeout-ms", TimeUnit.SECONDS
+                .toMillis(sessions.getSessionTimeout()));
+        ret.put("sessions", Collections.list(sessions.getIds()).size());
+        ret.put("handshakes", handshakes.metrics());
+
+        if (keystoreFile != null) {
+            ret.put("keystore-reloads", reloads.sum());
+            ret.put("keystore-reload-failures", reloadFailures.sum());
+        }
+
+        return ret;
+    }
+
+    private static void sessionTickets(Map<String, Object> conf)
+            throws ConfigurationException {
+        var tickets = conf.get(ConfigurationKeys.TLS_SESSION_TICKETS_KEY);
+
+        if (tickets == null) {
+            return;
+        } else if (!(tickets instanceof Boolean)) {
+            throw new ConfigurationException("Wrong tls configuration, "
+                    + ConfigurationKeys.TLS_SESSION_TICKETS_KEY
+                    + " must be a boolean");
+        }
+
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension",
+                tickets.toString());
+
+        var rotation = number(conf,
+                ConfigurationKeys.TLS_TICKET_KEY_ROTATION_KEY, null);
+
+        if (rotation != null) {
+            if (rotation.longValue() < 1000) {
+                throw new ConfigurationException("Wrong tls configuration, "
+                        + ConfigurationKeys.TLS_TICKET_KEY_ROTATION_KEY
+                        + " must be at least 1000 ms");
+            }
+
+            System.setProperty("jdk.tls.server.statelessKeyTimeout",
+                    Long.toString(TimeUnit.MILLISECONDS
+                            .toSeconds(rotation.longValue())));
+        }
+
+        if ((Boolean) tickets && Runtime.version().feature() < 13) {
+            LOGGER.warn("TLS session tickets require Java 13 or later, "
+                    + "sessions are resumed from the server session cache");
+        }
+    }
+
+    private static void load(KeyStore ks, Path file, String password)
+            throws GeneralSecurityException, IOException {
+        try (var fis = new FileInputStream(file.toFile())) {
+            ks.load(fis, password.toCharArray());
+        }
+    }
+
+    private static X509ExtendedKeyManager keyManager(KeyStore ks,
+            String password) throws GeneralSecurityException {
+        var kmf = KeyManagerFactory
+                .getInstance(KeyManagerFactory.getDefaultAlgorithm());
+
+        kmf.init(ks, password.toCharArray());
+
+        for (var km : kmf.getKeyManagers()) {
+            if (km instanceof X509ExtendedKeyManager) {
+                return (X509ExtendedKeyManager) km;
+            }
+        }
+
+        throw new KeyStoreException("No X509 key manager for the keystore");
+    }
+
+    private static Number number(Map<String, Object> conf,
+            String key,
+            Number defaultValue) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return (Number) value;
+        } else {
+            throw new ConfigurationException("Wrong tls configuration, "
+                    + key + " must be a number");
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.utils;
+
+/**
+ * a concurrency limit adjusted on the observed latency of the requests.
+ *
+ * The FIXED algorithm never changes the limit. AIMD increases the limit by one
+ * every limit requests and multiplies it by the backoff ratio when a request
+ * exceeds the latency threshold or is dropped. GRADIENT compares the short
+ * term average latency with the long term one: the limit shrinks as the
+ * latency grows and grows by a queue allowance of sqrt(limit) while the
+ * latency stays stable.
+ *
+ * The limit is increased only when at least half of it is in use, so that it
+ * does not grow unbounded while the load is low.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class AdaptiveLimit {
+
+    /**
+     * the algorithm adjusting the limit
+     */
+    public enum Algorithm {
+        FIXED, AIMD, GRADIENT
+    }
+
+    private static final double SHORT_WINDOW = 10;
+    private static final double LONG_WINDOW = 600;
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+
+    private final Algorithm algorithm;
+    private final int min;
+    private final int max;
+    private final long latencyThreshold;
+    private final double backoffRatio;
+
+    private double limit;
+    private double shortRtt = 0;
+    private double longRtt = 0;
+
+    /**
+     *
+     * @param algorithm
+     * @param initial the initial limit
+     * @param min the minimum limit
+     * @param max the maximum limit
+     * @param latencyThreshold the latency in nanoseconds above which AIMD
+     * backs off
+     * @param backoffRatio the factor applied by AIMD to the limit when backing
+     * off, between 0.5 and 1 excluded
+     */
+    public AdaptiveLimit(Algorithm algorithm,
+            int initial,
+            int min,
+            int max,
+            long latencyThreshold,
+            double backoffRatio) {
+        if (min < 1 || max < min || initial < min || initial > max) {
+            throw new IllegalArgumentException("the limits must be "
+                    + "1 <= min <= initial <= max");
+        }
+
+        if (backoffRatio < 0.5 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoff-ratio must be "
+                    + "between 0.5 and 1 excluded");
+        }
+
+        if (latencyThreshold < 1) {
+            throw new IllegalArgumentException("latency-threshold must be "
+                    + "positive");
+        }
+
+        this.algorithm = algorithm;
+        this.limit = initial;
+        this.min = min;
+        this.max = max;
+        this.latencyThreshold = latencyThreshold;
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * @return the algorithm
+     */
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the current limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * updates the limit with the outcome of a request
+     *
+     * @param rtt the latency of the request in nanoseconds
+     * @param inflight the requests in flight when the request completed,
+     * including it
+     * @param dropped true if the request failed because of overload, e.g. the
+     * backend returned 503
+     * @return the new limit
+     */
+    public synchronized int sample(long rtt, int inflight, boolean dropped) {
+        switch (algorithm) {
+            case AIMD:
+                aimd(rtt, inflight, dropped);
+                break;
+            case GRADIENT:
+                gradient(rtt, inflight, dropped);
+                break;
+            default:
+        }
+
+        return (int) limit;
+    }
+
+    private void aimd(long rtt, int inflight, boolean dropped) {
+        if (dropped || rtt > latencyThreshold) {
+            limit = Math.max(min, limit * backoffRatio);
+        } else if (inflight * 2 >= limit) {
+            limit = Math.min(max, limit + 1 / limit);
+        }
+    }
+
+    private void gradient(long rtt, int inflight, boolean dropped) {
+        if (shortRtt == 0) {
+            shortRtt = rtt;
+            longRtt = rtt;
+        } else {
+            shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+            longRtt += (rtt - longRtt) / LONG_WINDOW;
+        }
+
+        // when the latency drops after a spike, the long term average
+        // decays faster to the new baseline
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+
+        double gradient = dropped
+                ? 0.5
+                : Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+
+        double newLimit = limit * gradient + Math.sqrt(limit);
+
+        if (newLimit > limit && inflight * 2 < limit) {
+            return;
+        }
+
+        newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+
+        limit = Math.max(min, Math.min(max, newLimit));
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.restheart.ConfigurationException;
+import org.restheart.security.ConfigurationKeys;
+
+/**
+ * tracks the failed authentications per client address and per principal
+ * from a client address with sliding window counters.
+ *
+ * When the failures in the window reach the threshold, the address or the
+ * principal from that address is blocked; the block time doubles at every new
+ * block up to the maximum block time. A successful authentication resets the
+ * principal from the address.
+ *
+ * The principal is not blocked by itself: otherwise anybody could lock a
+ * known user out by sending wrong passwords. The trade-off is that guessing
+ * the password of a user from many addresses is only limited per address.
+ *
+ * Checking a block is a cache lookup, so the requests of a blocked client can
+ * be rejected before parsing the body or verifying the credentials.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class AuthFailuresTracker {
+
+    public static final int DEFAULT_MAX_FAILURES = 10;
+    public static final long DEFAULT_WINDOW = 60_000;
+    public static final long DEFAULT_BLOCK_TIME = 1_000;
+    public static final long DEFAULT_MAX_BLOCK_TIME = 300_000;
+    public static final long DEFAULT_MAX_ENTRIES = 100_000;
+
+    private static final AuthFailuresTracker DISABLED
+            = new AuthFailuresTracker();
+
+    private static AuthFailuresTracker instance = DISABLED;
+
+    private final boolean enabled;
+    private final int maxFailures;
+    private final long window;
+    private final long blockTime;
+    private final long maxBlockTime;
+
+    private final Cache<InetAddress, Counter> addresses;
+    // keys are principal and address, see key()
+    private final Cache<String, Counter> principals;
+
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private AuthFailuresTracker() {
+        this.enabled = false;
+        this.maxFailures = DEFAULT_MAX_FAILURES;
+        this.window = DEFAULT_WINDOW;
+        this.blockTime = DEFAULT_BLOCK_TIME;
+        this.maxBlockTime = DEFAULT_MAX_BLOCK_TIME;
+        this.addresses = null;
+        this.principals = null;
+    }
+
+    /**
+     *
+     * @param maxFailures the failures in the window that trigger a block
+     * @param window the duration of the window in milliseconds
+     * @param blockTime the duration of the first block in milliseconds
+     * @param maxBlockTime the maximum duration of a block in milliseconds
+     * @param maxEntries the maximum number of tracked addresses and of tracked
+     * principals
+     */
+    public AuthFailuresTracker(int maxFailures,
+            long window,
+            long blockTime,
+            long maxBlockTime,
+            long maxEntries) {
+        if (maxFailures < 1) {
+            throw new IllegalArgumentException("max-failures must be positive");
+        }
+
+        if (window < 1 || blockTime < 1 || maxBlockTime < blockTime) {
+            throw new IllegalArgumentException("window and block-time must be "
+                    + "positive and max-block-time must not be less than "
+                    + "block-time");
+        }
+
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("max-entries must be positive");
+        }
+
+        this.enabled = true;
+        this.maxFailures = maxFailures;
+        this.window = window;
+        this.blockTime = blockTime;
+        this.maxBlockTime = maxBlockTime;
+
+        // an entry is evicted when both its window and its block are over
+        var ttl = 2 * Math.max(window, maxBlockTime);
+
+        this.addresses = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterAccess(ttl, TimeUnit.MILLISECONDS)
+                .build();
+
+        this.principals = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterAccess(ttl, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * initializes the tracker from the failed-auth-tracker configuration
+     *
+     * @param conf the failed-auth-tracker configuration, null to disable the
+     * tracker
+     * @throws ConfigurationException
+     */
+    public static void init(Map<String, Object> conf)
+            throws ConfigurationException {
+        if (conf == null
+                || !Boolean.TRUE.equals(conf.getOrDefault(
+                        ConfigurationKeys.FAILED_AUTH_TRACKER_ENABLED_KEY,
+                        true))) {
+            instance = DISABLED;
+            return;
+        }
+
+        try {
+            instance = new AuthFailuresTracker(
+                    number(conf, ConfigurationKeys.FAILED_AUTH_TRACKER_MAX_FAILURES_KEY,
+                            DEFAULT_MAX_FAILURES).intValue(),
+                    number(conf, ConfigurationKeys.FAILED_AUTH_TRACKER_WINDOW_KEY,
+                            DEFAULT_WINDOW).longValue(),
+                    number(conf, ConfigurationKeys.FAILED_AUTH_TRACKER_BLOCK_TIME_KEY,
+                            DEFAULT_BLOCK_TIME).longValue(),
+                    number(conf, ConfigurationKeys.FAILED_AUTH_TRACKER_MAX_BLOCK_TIME_KEY,
+                            DEFAULT_MAX_BLOCK_TIME).longValue(),
+                    number(conf, ConfigurationKeys.FAILED_AUTH_TRACKER_MAX_ENTRIES_KEY,
+                            DEFAULT_MAX_ENTRIES).longValue());
+        }
+        catch (IllegalArgumentException iae) {
+            throw new ConfigurationException("Wrong failed-auth-tracker, "
+                    + iae.getMessage());
+        }
+    }
+
+    private static Number number(Map<String, Object> conf, String key,
+            Number defaultValue) throws ConfigurationException {
+        var value = conf.get(key);
+
+        if (value == null) {
+            return defaultValue;
+        } else if (value instanceof Number) {
+            return (Number) value;
+        } else {
+            throw new ConfigurationException("Wrong failed-auth-tracker, "
+                    + key + " must be a number");
+        }
+    }
+
+    /**
+     *
+     * @return the tracker, disabled unless initialized
+     */
+    public static AuthFailuresTracker getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return true if the tracker is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * checks if the address or the principal from the address is blocked; a
+     * request found blocked is counted as rejected
+     *
+     * @param address the client address
+     * @param principal the principal, can be null
+     * @return 0 if neither is blocked, otherwise the milliseconds until both
+     * blocks are over
+     */
+    public long blockedFor(InetAddress address, String principal) {
+        return blockedFor(address, principal, System.currentTimeMillis());
+    }
+
+    long blockedFor(InetAddress address, String principal, long now) {
+        if (!enabled) {
+            return 0;
+        }
+
+        long ret = 0;
+
+        var ac = address == null ? null : addresses.getIfPresent(address);
+
+        if (ac != null) {
+            ret = ac.blockedFor(now);
+        }
+
+        var pc = principal == null
+                ? null
+                : principals.getIfPresent(key(principal, address));
+
+        if (pc != null) {
+            ret = Math.max(ret, pc.blockedFor(now));
+        }
+
+        if (ret > 0) {
+            rejected.increment();
+        }
+
+        return ret;
+    }
+
+    /**
+     * records a failed authentication
+     *
+     * @param address the client address
+     * @param principal the principal, can be null
+     */
+    public void failure(InetAddress address, String principal) {
+        failure(address, principal, System.currentTimeMillis());
+    }
+
+    void failure(InetAddress address, String principal, long now) {
+        if (!enabled) {
+            return;
+        }
+
+        failures.increment();
+
+        if (address != null) {
+            count(addresses.asMap().computeIfAbsent(address,
+                    k -> new Counter()), now);
+        }
+
+        if (principal != null) {
+            count(principals.asMap().computeIfAbsent(key(principal, address),
+                    k -> new Counter()), now);
+        }
+    }
+
+    private void count(Counter counter, long now) {
+        if (counter.failure(now, maxFailures, window, blockTime, maxBlockTime)) {
+            blocks.increment();
+        }
+    }
+
+    /**
+     * records a successful authentication, resetting the failures of the
+     * principal from the address
+     *
+     * @param address the client address
+     * @param principal
+     */
+    public void success(InetAddress address, String principal) {
+        if (enabled && principal != null) {
+            principals.invalidate(key(principal, address));
+        }
+    }
+
+    private static String key(String principal, InetAddress address) {
+        return address == null
+                ? principal
+                : principal + "@" + address.getHostAddress();
+    }
+
+    /**
+     * @return the counters of the tracker
+     */
+    public Map<String, Object> metrics() {
+        var ret = new LinkedHashMap<String, Object>();
+
+        ret.put("enabled", enabled);
+        ret.put("failures", failures.sum());
+        ret.put("blocks", blocks.sum());
+        ret.put("rejected", rejected.sum());
+
+        if (enabled) {
+            ret.put("tracked-addresses", addresses.size());
+            ret.put("tracked-principals", principals.size());
+        }
+
+        return ret;
+    }
+
+    /**
+     * a sliding window counter: the failures in the window are estimated
+     * weighting the count of the previous fixed window by its overlap with the
+     * sliding one
+     */
+    private static class Counter {
+
+        private long windowStart = 0;
+        private long previous = 0;
+        private long current = 0;
+        private long blockedUntil = 0;
+        private int blocks = 0;
+
+        synchronized long blockedFor(long now) {
+            return blockedUntil > now ? blockedUntil - now : 0;
+        }
+
+        /**
+         * @return true if the failure triggered a block
+         */
+        synchronized boolean failure(long now,
+                int maxFailures,
+                long window,
+                long blockTime,
+                long maxBlockTime) {
+            if (blockedUntil > now) {
+                return false;
+            }
+
+            long elapsed = now - windowStart;
+
+            if (elapsed >= 2 * window) {
+                previous = 0;
+                current = 0;
+                windowStart = now;
+                elapsed = 0;
+            } else if (elapsed >= window) {
+                previous = current;
+                current = 0;
+                windowStart += window;
+                elapsed -= window;
+            }
+
+            current++;
+
+            var estimate = current + previous * (window - elapsed) / window;
+
+            if (estimate < maxFailures) {
+                return false;
+            }
+
+            // exponential backoff
+            var time = blockTime;
+
+            for (int i = 0; i < blocks && time < maxBlockTime; i++) {
+                time = time << 1;
+            }
+
+            time = Math.min(time, maxBlockTime);
+
+            blockedUntil = now + time;
+            blocks++;
+            previous = 0;
+            current = 0;
+            windowStart = blockedUntil;
+
+            return true;
+        }
+    }
+}
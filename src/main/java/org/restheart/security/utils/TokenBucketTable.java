@@ -0,0 +1,175 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a fixed size table of token buckets, updated lock-free with compare and set.
+ *
+ * Each bucket is a single long packing the time of the last refill
+ * (milliseconds, 44 bits) and the available tokens (20 bits). Keys are hashed
+ * to the slots, so the memory is bounded regardless of the number of keys;
+ * keys colliding in the same slot share the bucket, thus limits are enforced
+ * conservatively. Use enough slots to make collisions rare.
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class TokenBucketTable {
+
+    private static final int TOKENS_BITS = 20;
+    private static final long TOKENS_MASK = (1L << TOKENS_BITS) - 1;
+
+    /**
+     * the maximum burst, limited by the bits available to count the tokens
+     */
+    public static final long MAX_BURST = TOKENS_MASK;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    /**
+     * tokens added per 1000 seconds
+     */
+    private final long ratePerKs;
+    private final long burst;
+    private final long fullRefillMillis;
+
+    private final long origin = System.currentTimeMillis();
+
+    /**
+     *
+     * @param slots the number of buckets, rounded up to a power of two
+     * @param rate the tokens added per second, at least 0.001
+     * @param burst the capacity of each bucket
+     */
+    public TokenBucketTable(int slots, double rate, long burst) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("slots must be positive");
+        }
+
+        if (rate < 0.001) {
+            throw new IllegalArgumentException("rate must be at least 0.001");
+        }
+
+        if (burst < 1 || burst > MAX_BURST) {
+            throw new IllegalArgumentException("burst must be between 1 and "
+                    + MAX_BURST);
+        }
+
+        int size = Integer.highestOneBit(slots);
+
+        if (size < slots) {
+            size = size << 1;
+        }
+
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.ratePerKs = Math.round(rate * 1_000);
+        this.burst = burst;
+        this.fullRefillMillis = burst * 1_000_000 / ratePerKs + 1;
+    }
+
+    /**
+     * takes a token from the bucket of the key
+     *
+     * @param key
+     * @return 0 if the token was taken, otherwise the milliseconds to wait for
+     * the next token
+     */
+    public long tryAcquire(long key) {
+        // +1 so that the time is never 0, that marks an empty slot
+        return tryAcquire(key, System.currentTimeMillis() - origin + 1);
+    }
+
+    /**
+     *
+     * @param key
+     * @param now milliseconds, must be positive and not decreasing
+     * @return 0 if the token was taken, otherwise the milliseconds to wait for
+     * the next token
+     */
+    long tryAcquire(long key, long now) {
+        final int idx = index(key);
+
+        while (true) {
+            final long current = slots.get(idx);
+
+            long last;
+            long tokens;
+
+            if (current == 0) {
+                // empty slot, the bucket is full
+                last = now;
+                tokens = burst;
+            } else {
+                last = current >>> TOKENS_BITS;
+                tokens = current & TOKENS_MASK;
+
+                final long elapsed = now - last;
+
+                if (elapsed >= fullRefillMillis) {
+                    last = now;
+                    tokens = burst;
+                } else if (elapsed > 0) {
+                    final long refill = elapsed * ratePerKs / 1_000_000;
+
+                    if (refill > 0) {
+                        if (tokens + refill >= burst) {
+                            last = now;
+                            tokens = burst;
+                        } else {
+                            tokens += refill;
+                            // keep the remainder for the next refill
+                            last += refill * 1_000_000 / ratePerKs;
+                        }
+                    }
+                }
+            }
+
+            if (tokens == 0) {
+                final long wait = 1_000_000 / ratePerKs - (now - last);
+                return wait > 0 ? wait : 1;
+            }
+
+            final long updated = (last << TOKENS_BITS) | (tokens - 1);
+
+            if (slots.compareAndSet(idx, current, updated)) {
+                return 0;
+            }
+        }
+    }
+
+    private int index(long key) {
+        // spread the bits of the key (murmur3 finalizer)
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+
+        return (int) key & mask;
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int size() {
+        return mask + 1;
+    }
+}
@@ -17,15 +17,24 @@
  */
 package io.undertow.server;
 
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
 import io.undertow.security.api.SecurityContext;
 import io.undertow.util.AbstractAttachable;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.HttpString;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -44,14 +53,137 @@ public class HttpServerExchange extends AbstractAttachable {
     private String relativePath;
     private HttpString requestMethod;
     private Map<String, Deque<String>> queryParameters;
+    private final HeaderMap requestHeaders = new HeaderMap();
+    private final HeaderMap responseHeaders = new HeaderMap();
+    private final ByteArrayOutputStream responseContent = new ByteArrayOutputStream();
+    private final List<DefaultResponseListener> defaultResponseListeners = new ArrayList<>();
+    private final List<ExchangeCompletionListener> completionListeners = new ArrayList<>();
+    private boolean responseStarted = false;
+    private boolean complete = false;
 
     public HttpServerExchange() {
     }
 
+    /**
+     * As the original, if the response was not started the default response
+     * listeners are invoked, the last added first, until one handles it; then
+     * the exchange completes.
+     *
+     * @return
+     */
     public HttpServerExchange endExchange() {
+        if (complete) {
+            return this;
+        }
+
+        for (int i = defaultResponseListeners.size() - 1;
+                i >= 0 && !responseStarted; i--) {
+            if (defaultResponseListeners.get(i).handleDefaultResponse(this)) {
+                break;
+            }
+        }
+
+        complete = true;
+
+        for (var listener : completionListeners) {
+            listener.exchangeEvent(this, () -> {
+            });
+        }
+
         return this;
     }
 
+    public boolean isResponseStarted() {
+        return responseStarted;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public HttpServerExchange addDefaultResponseListener(
+            final DefaultResponseListener listener) {
+        defaultResponseListeners.add(listener);
+        return this;
+    }
+
+    public HeaderMap getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    /**
+     * @return a sender that collects the response content
+     */
+    public Sender getResponseSender() {
+        return new Sender() {
+            @Override
+            public void send(ByteBuffer buffer, IoCallback callback) {
+                send(buffer);
+            }
+
+            @Override
+            public void send(ByteBuffer[] buffer, IoCallback callback) {
+                send(buffer);
+            }
+
+            @Override
+            public void send(ByteBuffer buffer) {
+                responseStarted = true;
+
+                var bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                responseContent.write(bytes, 0, bytes.length);
+            }
+
+            @Override
+            public void send(ByteBuffer[] buffer) {
+                for (var b : buffer) {
+                    send(b);
+                }
+            }
+
+            @Override
+            public void send(String data, IoCallback callback) {
+                send(data);
+            }
+
+            @Override
+            public void send(String data, Charset charset, IoCallback callback) {
+                send(data, charset);
+            }
+
+            @Override
+            public void send(String data) {
+                send(data, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void send(String data, Charset charset) {
+                send(ByteBuffer.wrap(data.getBytes(charset)));
+            }
+
+            @Override
+            public void transferFrom(FileChannel channel, IoCallback callback) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close(IoCallback callback) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * @return the content sent with the response sender
+     */
+    public byte[] getResponseContent() {
+        return responseContent.toByteArray();
+    }
+
     /**
      * Returns a mutable map of query parameters.
      *
@@ -76,7 +208,10 @@ public class HttpServerExchange extends AbstractAttachable {
         return this;
     }
 
-    void addExchangeCompleteListener(ExchangeCompletionListener listener) {
+    public HttpServerExchange addExchangeCompleteListener(
+            final ExchangeCompletionListener listener) {
+        completionListeners.add(listener);
+        return this;
     }
 
     /**
@@ -148,7 +283,7 @@ public class HttpServerExchange extends AbstractAttachable {
     }
 
     public HeaderMap getRequestHeaders() {
-        return null;
+        return requestHeaders;
     }
 
     public SecurityContext getSecurityContext() {
@@ -0,0 +1,109 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class AuthorizationHeaderTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuthorizationHeaderTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static String basic(String plain) {
+        return "Basic " + Base64.getEncoder()
+                .encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testAbsent() {
+        var header = AuthorizationHeader.parse(null);
+        assertFalse(header.isPresent());
+        assertNull(header.getScheme());
+        assertNull(header.getBasicUserName());
+    }
+
+    @Test
+    public void testSchemeIsCaseInsensitive() {
+        var header = AuthorizationHeader.parse("bEaReR abc.def");
+        assertTrue(header.isScheme(AuthorizationHeader.BEARER));
+        assertEquals("abc.def", header.getCredentials());
+    }
+
+    @Test
+    public void testCustomScheme() {
+        var header = AuthorizationHeader.parse("X-Custom  token");
+        assertEquals("x-custom", header.getScheme());
+        assertEquals("token", header.getCredentials());
+    }
+
+    @Test
+    public void testBasic() {
+        var header = AuthorizationHeader.parse(basic("admin:pwd:with:colons"));
+        assertTrue(header.isScheme(AuthorizationHeader.BASIC));
+        assertEquals("admin", header.getBasicUserName());
+        assertArrayEquals("pwd:with:colons".toCharArray(), header.getBasicPassword());
+    }
+
+    @Test
+    public void testBasicWithoutColon() {
+        var header = AuthorizationHeader.parse(basic("admin"));
+        assertTrue(header.isScheme(AuthorizationHeader.BASIC));
+        assertNull(header.getBasicUserName());
+        assertNull(header.getBasicPassword());
+    }
+
+    @Test
+    public void testDigestIsNotDecodedAsBasic() {
+        var header = AuthorizationHeader.parse("Digest username=\"admin\"");
+        assertTrue(header.isScheme(AuthorizationHeader.DIGEST));
+        assertEquals("username=\"admin\"", header.getCredentials());
+        assertNull(header.getBasicUserName());
+    }
+
+    @Test
+    public void testUserName() {
+        assertEquals("admin", AuthorizationHeader.parse(basic("admin:secret"))
+                .getUserName());
+        assertEquals("ad,min", AuthorizationHeader.parse("Digest realm=\"r\", "
+                + "username=\"ad,min\", nonce=\"n\"").getUserName());
+        assertEquals("admin", AuthorizationHeader.parse("Digest "
+                + "username=admin, nonce=\"n\"").getUserName());
+        assertNull(AuthorizationHeader.parse("Digest nonce=\"n\"").getUserName());
+        assertNull(AuthorizationHeader.parse("Bearer abc").getUserName());
+    }
+}
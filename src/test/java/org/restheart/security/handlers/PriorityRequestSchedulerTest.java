@@ -0,0 +1,152 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.restheart.security.handlers.PriorityRequestScheduler.Offer;
+import org.restheart.security.handlers.PriorityRequestScheduler.PriorityClass;
+import org.restheart.security.handlers.PriorityRequestScheduler.Waiting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class PriorityRequestSchedulerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PriorityRequestSchedulerTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private final List<String> admitted = new ArrayList<>();
+    private final List<String> rejected = new ArrayList<>();
+
+    private Waiting waiting(PriorityClass pc, String id) {
+        return new Waiting(pc, () -> admitted.add(id), () -> rejected.add(id));
+    }
+
+    @Test
+    public void testQueueOverLimit() {
+        var pc = new PriorityClass("default", null, 1, 1, 0);
+        var scheduler = new PriorityRequestScheduler(List.of(pc), 1, null);
+
+        assertEquals(Offer.ADMITTED, scheduler.offer(waiting(pc, "a")));
+        assertEquals(Offer.QUEUED, scheduler.offer(waiting(pc, "b")));
+
+        // the queue is full
+        assertEquals(Offer.REJECTED, scheduler.offer(waiting(pc, "c")));
+
+        scheduler.completed();
+
+        assertEquals(List.of("b"), admitted);
+        assertEquals(1, scheduler.metrics().get("requests"));
+        assertEquals(0, scheduler.metrics().get("queued"));
+    }
+
+    @Test
+    public void testMaxWaitWithoutCompletions() {
+        var pc = new PriorityClass("default", null, 1, -1, 100);
+        var scheduler = new PriorityRequestScheduler(List.of(pc), 1, null);
+
+        scheduler.offer(waiting(pc, "a"));
+
+        var b = waiting(pc, "b");
+        assertEquals(Offer.QUEUED, scheduler.offer(b));
+
+        // the max-wait timer fires while a is still in flight
+        assertTrue(scheduler.expire(b));
+        assertEquals(List.of("b"), rejected);
+        assertEquals(0, scheduler.metrics().get("queued"));
+
+        // b is not admitted when a completes
+        scheduler.completed();
+        assertTrue(admitted.isEmpty());
+        assertEquals(0, scheduler.metrics().get("requests"));
+    }
+
+    @Test
+    public void testTimerAfterAdmission() {
+        var pc = new PriorityClass("default", null, 1, -1, 100);
+        var scheduler = new PriorityRequestScheduler(List.of(pc), 1, null);
+
+        scheduler.offer(waiting(pc, "a"));
+
+        var b = waiting(pc, "b");
+        scheduler.offer(b);
+        scheduler.completed();
+
+        // b has been admitted, its timer must not reject it
+        assertFalse(scheduler.expire(b));
+        assertEquals(List.of("b"), admitted);
+        assertTrue(rejected.isEmpty());
+    }
+
+    @Test
+    public void testExpiredOnCompletion() throws InterruptedException {
+        var pc = new PriorityClass("default", null, 1, -1, 1);
+        var scheduler = new PriorityRequestScheduler(List.of(pc), 1, null);
+
+        scheduler.offer(waiting(pc, "a"));
+        scheduler.offer(waiting(pc, "b"));
+
+        Thread.sleep(5);
+
+        scheduler.completed();
+
+        assertEquals(List.of("b"), rejected);
+        assertTrue(admitted.isEmpty());
+    }
+
+    @Test
+    public void testWeightedRoundRobin() {
+        var high = new PriorityClass("high", e -> true, 3, -1, 0);
+        var low = new PriorityClass("default", null, 1, -1, 0);
+        var scheduler = new PriorityRequestScheduler(List.of(high, low), 1, null);
+
+        scheduler.offer(waiting(low, "busy"));
+
+        for (int i = 0; i < 4; i++) {
+            scheduler.offer(waiting(high, "h"));
+            scheduler.offer(waiting(low, "l"));
+        }
+
+        for (int i = 0; i < 8; i++) {
+            scheduler.completed();
+        }
+
+        assertEquals(8, admitted.size());
+
+        // high gets three times the share of low
+        assertEquals(3, admitted.subList(0, 4).stream()
+                .filter("h"::equals).count());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class CacheControlTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheControlTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    @Test
+    public void testParse() {
+        var cc = CacheControl.parse(List.of("public, Max-Age=60",
+                "must-revalidate"));
+
+        assertTrue(cc.has("public"));
+        assertTrue(cc.has("must-revalidate"));
+        assertFalse(cc.has("no-store"));
+        assertEquals(60, cc.seconds("max-age"));
+        assertEquals(-1, cc.seconds("s-maxage"));
+    }
+
+    @Test
+    public void testQuotedArguments() {
+        var cc = CacheControl.parse(List.of(
+                "private=\"Set-Cookie, Authorization\", s-maxage=\"30\""));
+
+        assertTrue(cc.has("private"));
+        assertEquals(30, cc.seconds("s-maxage"));
+    }
+
+    @Test
+    public void testInvalidSeconds() {
+        var cc = CacheControl.parse(List.of("max-age=abc, s-maxage=-5"));
+
+        assertEquals(-1, cc.seconds("max-age"));
+        assertEquals(-1, cc.seconds("s-maxage"));
+    }
+
+    @Test
+    public void testNull() {
+        var cc = CacheControl.parse(null);
+
+        assertFalse(cc.has("no-cache"));
+        assertEquals(-1, cc.seconds("max-age"));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_HEADER;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_VALID_HEADER;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class CoalescingHandlerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingHandlerTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    @Test
+    public void testDefaultPartition() throws Exception {
+        assertEquals(ResponseCache.Partition.PRINCIPAL,
+                CoalescingHandler.build(Map.of(), null).getPartition());
+
+        assertEquals(ResponseCache.Partition.ROLES,
+                CoalescingHandler.build(Map.of("partition", "roles"), null)
+                        .getPartition());
+    }
+
+    @Test
+    public void testGatewayHeadersNotShared() {
+        var headers = new HeaderMap();
+        var requestId = HttpString.tryFromString("X-Request-Id");
+
+        headers.put(Headers.CONTENT_TYPE, "application/json");
+        headers.put(Headers.CONTENT_LENGTH, 10);
+        headers.put(AUTH_TOKEN_HEADER, "secret");
+        headers.put(AUTH_TOKEN_VALID_HEADER, "2020-01-01T00:00:00Z");
+        headers.put(HttpString.tryFromString("Access-Control-Expose-Headers"),
+                "Auth-Token");
+        headers.put(requestId, "1");
+
+        // X-Request-Id set by the gateway for the first request
+        var shared = CoalescingHandler.shared(headers, Set.of(requestId));
+
+        assertEquals(1, shared.size());
+        assertEquals("application/json", shared.getFirst(Headers.CONTENT_TYPE));
+    }
+
+    @Test
+    public void testCookiesNotShared() {
+        var headers = new HeaderMap();
+
+        headers.put(Headers.CONTENT_TYPE, "application/json");
+        headers.put(Headers.SET_COOKIE, "session=1");
+
+        assertNull(CoalescingHandler.shared(headers, Set.of()));
+    }
+
+    @Test
+    public void testVaryingResponsesNotShared() {
+        var headers = new HeaderMap();
+
+        headers.put(Headers.CONTENT_TYPE, "application/json");
+        headers.put(Headers.VARY, "Accept, Accept-Encoding");
+
+        // Accept and Accept-Encoding are in the key
+        assertNotNull(CoalescingHandler.shared(headers, Set.of()));
+
+        headers.add(Headers.VARY, "Accept-Language");
+
+        assertNull(CoalescingHandler.shared(headers, Set.of()));
+
+        headers.put(Headers.VARY, "*");
+
+        assertNull(CoalescingHandler.shared(headers, Set.of()));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_HEADER;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_LOCATION_HEADER;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_VALID_HEADER;
+import org.restheart.security.handlers.cache.IdempotencyHandler.Key;
+import org.restheart.security.handlers.cache.IdempotencyHandler.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class IdempotencyHandlerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdempotencyHandlerTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static final Key KEY = new Key("user", "key-1");
+
+    private static IdempotencyHandler handler() {
+        return new IdempotencyHandler(null, 60_000, 1024 * 1024, 1024);
+    }
+
+    private static HeaderMap headers() {
+        var ret = new HeaderMap();
+
+        ret.put(Headers.CONTENT_TYPE, "application/json");
+        ret.put(Headers.LOCATION, "/db/coll/1");
+
+        return ret;
+    }
+
+    @Test
+    public void testGatewayHeadersNotReplayed() {
+        var headers = headers();
+        var poweredBy = HttpString.tryFromString("X-Powered-By");
+
+        headers.put(Headers.CONTENT_LENGTH, 2);
+        headers.put(Headers.CONNECTION, "keep-alive");
+        headers.put(AUTH_TOKEN_HEADER, "secret");
+        headers.put(AUTH_TOKEN_VALID_HEADER, "2020-01-01T00:00:00Z");
+        headers.put(AUTH_TOKEN_LOCATION_HEADER, "/tokens/user");
+        headers.put(poweredBy, "restheart.org");
+
+        // X-Powered-By set by the gateway before proxying
+        var stored = IdempotencyHandler.stored(headers, Set.of(poweredBy));
+
+        assertEquals(2, stored.size());
+        assertEquals("application/json", stored.getFirst(Headers.CONTENT_TYPE));
+        assertEquals("/db/coll/1", stored.getFirst(Headers.LOCATION));
+    }
+
+    @Test
+    public void testConflict() {
+        var handler = handler();
+
+        var first = new Record("POST /coll a");
+
+        assertNull(handler.reserve(KEY, first));
+
+        // same key, different request
+        var other = new Record("POST /coll b");
+        var existing = handler.reserve(KEY, other);
+
+        assertSame(first, existing);
+        assertTrue(existing.conflicts(other));
+
+        // same key and request, a retry
+        var retry = new Record("POST /coll a");
+
+        assertSame(first, handler.reserve(KEY, retry));
+        assertFalse(first.conflicts(retry));
+
+        // other principal
+        assertNull(handler.reserve(new Key("other", "key-1"), other));
+    }
+
+    @Test
+    public void testRetryJoinsRequestInFlight() {
+        var handler = handler();
+
+        var first = new Record("POST /coll a");
+        handler.reserve(KEY, first);
+
+        var replayed = new ArrayList<Record>();
+
+        // the retry waits
+        assertTrue(handler.reserve(KEY, new Record("POST /coll a"))
+                .join(replayed::add));
+        assertTrue(replayed.isEmpty());
+
+        handler.completed(KEY, first, 201, headers(), new byte[]{'o', 'k'},
+                "2");
+
+        assertEquals(List.of(first), replayed);
+        assertTrue(first.isStored());
+        assertEquals(201, first.getStatus());
+        assertArrayEquals(new byte[]{'o', 'k'}, first.getBody());
+        assertEquals("/db/coll/1", first.getHeaders().getFirst(Headers.LOCATION));
+
+        // completing the exchange does not free the key
+        handler.failed(KEY, first);
+
+        var later = new Record("POST /coll a");
+        assertSame(first, handler.reserve(KEY, later));
+
+        // a later retry is replayed at once
+        assertFalse(first.join(replayed::add));
+        assertEquals(2, replayed.size());
+    }
+
+    @Test
+    public void testRetryRunsAgainAfterServerError() {
+        var handler = handler();
+
+        assertFalse(IdempotencyHandler.isStorable(503));
+        assertTrue(IdempotencyHandler.isStorable(409));
+
+        var first = new Record("POST /coll a");
+        handler.reserve(KEY, first);
+
+        var resumed = new ArrayList<Record>();
+        handler.reserve(KEY, new Record("POST /coll a")).join(resumed::add);
+
+        // the 5xx response is not captured, the exchange completes
+        handler.failed(KEY, first);
+
+        assertEquals(1, resumed.size());
+        assertFalse(resumed.get(0).isStored());
+
+        // the retry runs again and gets the key
+        assertNull(handler.reserve(KEY, new Record("POST /coll a")));
+    }
+
+    @Test
+    public void testRetryRunsAgainAfterTruncatedResponse() {
+        var handler = handler();
+
+        var first = new Record("POST /coll a");
+        handler.reserve(KEY, first);
+
+        var resumed = new ArrayList<Record>();
+        handler.reserve(KEY, new Record("POST /coll a")).join(resumed::add);
+
+        // 2 of 10 bytes
+        handler.completed(KEY, first, 200, headers(), new byte[]{'o', 'k'},
+                "10");
+
+        assertTrue(resumed.isEmpty());
+        assertFalse(first.isStored());
+
+        handler.failed(KEY, first);
+
+        assertEquals(1, resumed.size());
+        assertFalse(resumed.get(0).isStored());
+        assertNull(handler.reserve(KEY, new Record("POST /coll a")));
+    }
+}
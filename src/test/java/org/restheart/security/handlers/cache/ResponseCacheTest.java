@@ -0,0 +1,258 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.cache;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_HEADER;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_LOCATION_HEADER;
+import static org.restheart.plugins.security.TokenManager.AUTH_TOKEN_VALID_HEADER;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class ResponseCacheTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCacheTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static final HttpString X_POWERED_BY
+            = HttpString.tryFromString("X-Powered-By");
+
+    @Test
+    public void testDefaultPartition() throws Exception {
+        assertEquals(ResponseCache.Partition.PRINCIPAL,
+                ResponseCache.build(Map.of()).getPartition());
+
+        assertEquals(ResponseCache.Partition.ROLES,
+                ResponseCache.build(Map.of("partition", "roles"))
+                        .getPartition());
+    }
+
+    @Test
+    public void testOnlyBackendHeadersStored() {
+        var headers = new HeaderMap();
+
+        headers.put(Headers.CONTENT_TYPE, "application/json");
+        headers.put(Headers.ETAG, "\"1\"");
+        headers.put(Headers.CONTENT_LENGTH, 10);
+        headers.put(AUTH_TOKEN_HEADER, "secret");
+        headers.put(AUTH_TOKEN_VALID_HEADER, "2020-01-01T00:00:00Z");
+        headers.put(AUTH_TOKEN_LOCATION_HEADER, "/tokens/user");
+        headers.put(HttpString.tryFromString("Access-Control-Allow-Origin"), "*");
+        headers.put(X_POWERED_BY, "restheart.org");
+
+        // X-Powered-By set by the gateway before proxying
+        var stored = ResponseCache.backendHeaders(headers, Set.of(X_POWERED_BY));
+
+        assertEquals(2, stored.size());
+        assertEquals("application/json", stored.getFirst(Headers.CONTENT_TYPE));
+        assertEquals("\"1\"", stored.getFirst(Headers.ETAG));
+    }
+
+    @Test
+    public void testInvalidate() {
+        var cache = new ResponseCache(ResponseCache.Partition.PRINCIPAL,
+                1024 * 1024, 1024);
+
+        var parent = key("a", "/coll");
+        var doc = key("a", "/coll/doc");
+        var docOfB = key("b", "/coll/doc");
+        var child = key("a", "/coll/doc/sub");
+        var sibling = key("a", "/coll/docs");
+        var other = key("a", "/other");
+
+        for (var key : new ResponseCache.Key[]{parent, doc, docOfB, child,
+            sibling, other}) {
+            cache.put(key, response());
+        }
+
+        cache.invalidate("/coll/doc");
+
+        assertNull(cache.get(parent));
+        assertNull(cache.get(doc));
+        assertNull(cache.get(docOfB));
+        assertNull(cache.get(child));
+        assertNotNull(cache.get(sibling));
+        assertNotNull(cache.get(other));
+
+        // stored again after the invalidation
+        cache.put(doc, response());
+        cache.invalidate("/coll/doc");
+
+        assertNull(cache.get(doc));
+        assertEquals(2L, cache.metrics().get("invalidations"));
+    }
+
+    @Test
+    public void testStaleResponseRevalidated() {
+        var cache = new ResponseCache(ResponseCache.Partition.PRINCIPAL,
+                1024 * 1024, 1024);
+
+        var headers = new HeaderMap();
+
+        headers.put(Headers.CONTENT_TYPE, "application/json");
+        headers.put(Headers.ETAG, "\"1\"");
+        headers.put(Headers.CACHE_CONTROL, "max-age=0");
+
+        var stale = new CachedResponse(200, headers, new byte[10], "\"1\"",
+                Map.of(), System.nanoTime(), 0);
+
+        // the request is made conditional on the cached ETag
+        var exchange = new HttpServerExchange();
+
+        assertTrue(ResponseCache.revalidate(exchange, stale));
+        assertEquals("\"1\"", exchange.getRequestHeaders()
+                .getFirst(Headers.IF_NONE_MATCH));
+
+        // the backend answers 304 Not Modified
+        exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+        exchange.getResponseHeaders().put(Headers.ETAG, "\"1\"");
+        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "max-age=60");
+
+        final long now = System.nanoTime();
+
+        cache.revalidated(exchange, stale, now);
+
+        // the client gets the cached response, refreshed
+        assertEquals(200, exchange.getStatusCode());
+        assertEquals("application/json", exchange.getResponseHeaders()
+                .getFirst(Headers.CONTENT_TYPE));
+        assertEquals("max-age=60", exchange.getResponseHeaders()
+                .getFirst(Headers.CACHE_CONTROL));
+        assertEquals("10", exchange.getResponseHeaders()
+                .getFirst(Headers.CONTENT_LENGTH));
+        assertTrue(stale.isFresh(now));
+        assertEquals(1L, cache.metrics().get("revalidated"));
+    }
+
+    @Test
+    public void testConditionalRequestNotRevalidated() {
+        var stale = new CachedResponse(200, new HeaderMap(), new byte[10],
+                "\"1\"", Map.of(), System.nanoTime(), 0);
+
+        // the 304 Not Modified of the backend is for the client
+        var exchange = new HttpServerExchange();
+        exchange.getRequestHeaders().put(Headers.IF_NONE_MATCH, "\"0\"");
+
+        assertFalse(ResponseCache.revalidate(exchange, stale));
+        assertEquals("\"0\"", exchange.getRequestHeaders()
+                .getFirst(Headers.IF_NONE_MATCH));
+
+        // without ETag
+        assertFalse(ResponseCache.revalidate(new HttpServerExchange(),
+                response()));
+    }
+
+    @Test
+    public void testCachedBodySent() throws IOException {
+        var next = new TestConduit();
+        var conduit = new CachedBodyStreamSinkConduit(next,
+                ByteBuffer.wrap("cached body".getBytes(StandardCharsets.UTF_8)));
+
+        // the content of the 304 response, if any, is discarded
+        assertEquals(3, conduit.write(ByteBuffer.wrap(new byte[3])));
+        assertEquals(0, next.content.size());
+
+        conduit.terminateWrites();
+
+        // the body is written by the flushes, next not writable every other
+        while (!conduit.flush()) {
+            assertFalse(next.terminated);
+        }
+
+        assertEquals("cached body", next.content.toString(StandardCharsets.UTF_8));
+        assertTrue(next.terminated);
+    }
+
+    private static ResponseCache.Key key(String principal, String path) {
+        return new ResponseCache.Key("principal:" + principal, path, null);
+    }
+
+    private static CachedResponse response() {
+        return new CachedResponse(200, new HeaderMap(), new byte[10], null,
+                Map.of(), System.nanoTime(), Long.MAX_VALUE);
+    }
+
+    /**
+     * writes up to 4 bytes, only every other write
+     */
+    private static class TestConduit
+            extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private boolean writable = false;
+        private boolean terminated = false;
+
+        TestConduit() {
+            super(null);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            writable = !writable;
+
+            if (!writable) {
+                return 0;
+            }
+
+            var bytes = new byte[Math.min(4, src.remaining())];
+            src.get(bytes);
+            content.write(bytes, 0, bytes.length);
+
+            return bytes.length;
+        }
+
+        @Override
+        public void terminateWrites() {
+            terminated = true;
+        }
+
+        @Override
+        public boolean flush() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.restheart.security.handlers.proxy.CircuitBreaker.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class CircuitBreakerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakerTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // failure-rate 0.5, slow calls over 100 ms, 10 min requests,
+    // window 10 s, open for 1 s, 2 trial requests
+    private static CircuitBreaker breaker() {
+        return new CircuitBreaker("test",
+                new CircuitBreaker.Config(0.5, 100, 10, 10_000, 1_000, 2), 0);
+    }
+
+    @Test
+    public void testOpensOnFailureRate() {
+        var cb = breaker();
+
+        for (int i = 0; i < 9; i++) {
+            cb.record(true, MS, i * MS);
+        }
+
+        // less than min-requests
+        assertEquals(State.CLOSED, cb.getState());
+
+        cb.record(true, MS, 10 * MS);
+
+        assertEquals(State.OPEN, cb.getState());
+        assertFalse(cb.isPermitted(11 * MS));
+        assertEquals(1, cb.getOpened());
+    }
+
+    @Test
+    public void testStaysClosedUnderFailureRate() {
+        var cb = breaker();
+
+        for (int i = 0; i < 100; i++) {
+            cb.record(i % 3 == 0, MS, i * MS);
+        }
+
+        assertEquals(State.CLOSED, cb.getState());
+        assertTrue(cb.isPermitted(100 * MS));
+    }
+
+    @Test
+    public void testSlowCallsAreFailures() {
+        var cb = breaker();
+
+        for (int i = 0; i < 10; i++) {
+            cb.record(false, 200 * MS, i * MS);
+        }
+
+        assertEquals(State.OPEN, cb.getState());
+    }
+
+    @Test
+    public void testHalfOpenCloses() {
+        var cb = open();
+
+        long now = 2_000 * MS;
+
+        // checking does not change the state
+        assertTrue(cb.isPermitted(now));
+        assertEquals(State.OPEN, cb.getState());
+
+        assertTrue(cb.tryAcquire(now));
+        assertEquals(State.HALF_OPEN, cb.getState());
+        assertTrue(cb.tryAcquire(now));
+
+        // only 2 trial requests
+        assertFalse(cb.isPermitted(now));
+        assertFalse(cb.tryAcquire(now));
+
+        cb.record(false, MS, now);
+        assertEquals(State.HALF_OPEN, cb.getState());
+
+        cb.record(false, MS, now);
+        assertEquals(State.CLOSED, cb.getState());
+        assertTrue(cb.isPermitted(now));
+    }
+
+    @Test
+    public void testHalfOpenReopens() {
+        var cb = open();
+
+        long now = 2_000 * MS;
+
+        assertTrue(cb.tryAcquire(now));
+        cb.record(true, MS, now);
+
+        assertEquals(State.OPEN, cb.getState());
+        assertFalse(cb.isPermitted(now + 500 * MS));
+        assertFalse(cb.tryAcquire(now + 500 * MS));
+        assertTrue(cb.isPermitted(now + 1_000 * MS));
+        assertEquals(2, cb.getOpened());
+    }
+
+    @Test
+    public void testConcurrentTrials() throws InterruptedException {
+        var cb = open();
+
+        final long now = 2_000 * MS;
+        var acquired = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var threads = new Thread[16];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+
+                if (cb.isPermitted(now) && cb.tryAcquire(now)) {
+                    acquired.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(2, acquired.get());
+        assertEquals(State.HALF_OPEN, cb.getState());
+    }
+
+    private static CircuitBreaker open() {
+        var cb = breaker();
+
+        for (int i = 0; i < 10; i++) {
+            cb.record(true, MS, i * MS);
+        }
+
+        assertEquals(State.OPEN, cb.getState());
+
+        return cb;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class ConsistentHashRingTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsistentHashRingTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static final List<String> NODES = List.of(
+            "http://node1:8080",
+            "http://node2:8080",
+            "http://node3:8080");
+
+    @Test
+    public void testSameKeySameNode() {
+        var ring = new ConsistentHashRing(NODES, 100);
+        var other = new ConsistentHashRing(NODES, 100);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ring.select("key" + i, n -> true),
+                    other.select("key" + i, n -> true));
+        }
+    }
+
+    @Test
+    public void testBalance() {
+        var ring = new ConsistentHashRing(NODES, 100);
+        var counts = new int[NODES.size()];
+
+        for (int i = 0; i < 30_000; i++) {
+            counts[ring.select("key" + i, n -> true)]++;
+        }
+
+        for (var count : counts) {
+            assertTrue("unbalanced " + count, count > 7_000 && count < 13_000);
+        }
+    }
+
+    @Test
+    public void testRemovingNodeMovesOnlyItsKeys() {
+        var ring = new ConsistentHashRing(NODES, 100);
+        var reduced = new ConsistentHashRing(NODES.subList(0, 2), 100);
+
+        for (int i = 0; i < 1_000; i++) {
+            var node = ring.select("key" + i, n -> true);
+
+            if (node < 2) {
+                assertEquals(node, reduced.select("key" + i, n -> true));
+            }
+        }
+    }
+
+    @Test
+    public void testSkipsRefusedNodes() {
+        var ring = new ConsistentHashRing(NODES, 100);
+
+        for (int i = 0; i < 100; i++) {
+            var owner = ring.select("key" + i, n -> true);
+            var other = ring.select("key" + i, n -> n != owner);
+
+            assertNotEquals(owner, other);
+            assertEquals(owner, ring.select("key" + i, n -> false));
+        }
+
+        assertEquals(-1, new ConsistentHashRing(List.of(), 100)
+                .select("key", n -> true));
+    }
+
+    @Test
+    public void testPathSegment() {
+        assertEquals("db", HashKey.segment("/db/coll/doc", 1));
+        assertEquals("coll", HashKey.segment("/db//coll/", 2));
+        assertNull(HashKey.segment("/db", 2));
+        assertNull(HashKey.segment("/", 1));
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import javax.net.ssl.SSLSession;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class HedgingHandlerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HedgingHandlerTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    @Test
+    public void testBodyWithinMaxSize() throws Exception {
+        var subscriber = new HedgingHandler.BoundedBodySubscriber(10);
+        var subscription = new TestSubscription();
+
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(List.of(buffer("hello"), buffer(" you")));
+        subscriber.onComplete();
+
+        assertEquals("hello you", new String(subscriber.getBody()
+                .toCompletableFuture().get(), StandardCharsets.UTF_8));
+        assertFalse(subscription.cancelled);
+    }
+
+    @Test
+    public void testBodyOverMaxSize() throws Exception {
+        var subscriber = new HedgingHandler.BoundedBodySubscriber(10);
+        var subscription = new TestSubscription();
+
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(List.of(buffer("hello")));
+        subscriber.onNext(List.of(buffer(" world")));
+
+        assertTrue(subscription.cancelled);
+
+        try {
+            subscriber.getBody().toCompletableFuture().get();
+            fail("the body is larger than max-size");
+        }
+        catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testLatencyPercentile() {
+        var window = new HedgingHandler.LatencyWindow(100);
+
+        for (int i = 1; i <= 19; i++) {
+            window.add(i);
+        }
+
+        // too few samples
+        assertEquals(-1, window.percentile(95));
+
+        window.add(20);
+
+        assertEquals(19, window.percentile(95));
+        assertEquals(10, window.percentile(50));
+    }
+
+    @Test
+    public void testHedgeWinDelivered() {
+        var primary = new HostStats(URI.create("http://backend-1:8080"),
+                new Backends("/test", null), null, 0);
+
+        var exchange = new HttpServerExchange();
+        exchange.setRequestMethod(Methods.GET);
+
+        assertTrue(primary.tryAcquire(System.nanoTime()));
+        primary.begin(exchange);
+
+        HedgingHandler.deliver(exchange, new TestResponse(200, Map.of(
+                "Content-Type", List.of("text/plain"),
+                "X-Backend", List.of("backend-2"),
+                "Transfer-Encoding", List.of("chunked")),
+                "hedged"));
+
+        // no retries of the proxied request
+        assertNotNull(exchange.getAttachment(TrackingProxyClient.CANCELLED));
+
+        // the ProxyHandler fails the proxied request, its connection closed
+        HostStats.failed(exchange);
+        exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+        exchange.endExchange();
+
+        assertEquals(200, exchange.getStatusCode());
+        assertEquals("text/plain", exchange.getResponseHeaders()
+                .getFirst(Headers.CONTENT_TYPE));
+        assertEquals("backend-2", exchange.getResponseHeaders()
+                .getFirst("X-Backend"));
+        assertFalse(exchange.getResponseHeaders()
+                .contains(Headers.TRANSFER_ENCODING));
+        assertEquals("hedged", new String(exchange.getResponseContent(),
+                StandardCharsets.UTF_8));
+
+        // the attempt of the proxied request is not recorded
+        var metrics = primary.metrics();
+
+        assertEquals(0, metrics.get("outstanding"));
+        assertEquals(0L, metrics.get("requests"));
+        assertEquals(0L, metrics.get("errors"));
+    }
+
+    private static ByteBuffer buffer(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class TestResponse implements HttpResponse<byte[]> {
+
+        private final int status;
+        private final HttpHeaders headers;
+        private final byte[] body;
+
+        TestResponse(int status, Map<String, List<String>> headers,
+                String body) {
+            this.status = status;
+            this.headers = HttpHeaders.of(headers, (name, value) -> true);
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int statusCode() {
+            return status;
+        }
+
+        @Override
+        public HttpRequest request() {
+            return HttpRequest.newBuilder(uri()).build();
+        }
+
+        @Override
+        public Optional<HttpResponse<byte[]>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return headers;
+        }
+
+        @Override
+        public byte[] body() {
+            return body;
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return URI.create("http://backend-2:8080/");
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+
+    private static class TestSubscription implements Flow.Subscription {
+
+        private boolean cancelled = false;
+
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
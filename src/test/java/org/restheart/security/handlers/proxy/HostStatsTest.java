@@ -0,0 +1,87 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class HostStatsTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HostStatsTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static HostStats host(String uri) {
+        return new HostStats(URI.create(uri), null, null, 0);
+    }
+
+    /**
+     * the peer address of a connection to host:port, as opened by the proxy
+     * client, without name lookups
+     */
+    private static InetSocketAddress peer(String host, byte[] ip, int port)
+            throws Exception {
+        return new InetSocketAddress(InetAddress.getByAddress(host, ip), port);
+    }
+
+    @Test
+    public void testIsPeer() throws Exception {
+        var ip = new byte[]{10, 0, 0, 1};
+
+        assertTrue(host("http://backend-1:8080")
+                .isPeer(peer("backend-1", ip, 8080)));
+        assertTrue(host("http://Backend-1:8080")
+                .isPeer(peer("backend-1", ip, 8080)));
+
+        // another host or port
+        assertFalse(host("http://backend-2:8080")
+                .isPeer(peer("backend-1", ip, 8080)));
+        assertFalse(host("http://backend-1:8081")
+                .isPeer(peer("backend-1", ip, 8080)));
+
+        // default ports
+        assertTrue(host("http://backend-1").isPeer(peer("backend-1", ip, 80)));
+        assertTrue(host("https://backend-1").isPeer(peer("backend-1", ip, 443)));
+        assertTrue(host("ajp://backend-1").isPeer(peer("backend-1", ip, 8009)));
+
+        // literal addresses
+        assertTrue(host("http://10.0.0.1:8080")
+                .isPeer(new InetSocketAddress(InetAddress.getByAddress(ip), 8080)));
+        assertTrue(host("http://[::1]:8080")
+                .isPeer(new InetSocketAddress(InetAddress.getByName("::1"), 8080)));
+    }
+}
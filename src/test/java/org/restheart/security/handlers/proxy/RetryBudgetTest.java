@@ -0,0 +1,96 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.handlers.proxy;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class RetryBudgetTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryBudgetTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testRatio() {
+        var budget = new RetryBudget(0.25, 0, 0);
+
+        assertFalse(budget.tryWithdraw(0));
+
+        for (int i = 0; i < 4; i++) {
+            budget.deposit(0);
+        }
+
+        assertTrue(budget.tryWithdraw(0));
+        assertFalse(budget.tryWithdraw(0));
+    }
+
+    @Test
+    public void testMinPerSecond() {
+        var budget = new RetryBudget(0, 2, 0);
+
+        assertTrue(budget.tryWithdraw(0));
+        assertTrue(budget.tryWithdraw(0));
+        assertFalse(budget.tryWithdraw(0));
+
+        assertTrue(budget.tryWithdraw(SECOND / 2));
+        assertFalse(budget.tryWithdraw(SECOND / 2));
+    }
+
+    @Test
+    public void testBalanceIsCapped() {
+        var budget = new RetryBudget(0.5, 0, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            budget.deposit(0);
+        }
+
+        int withdrawn = 0;
+
+        while (budget.tryWithdraw(0)) {
+            withdrawn++;
+        }
+
+        // the tokens of 100 requests
+        assertEquals(50, withdrawn);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongRatio() {
+        new RetryBudget(1.5, 0);
+    }
+}
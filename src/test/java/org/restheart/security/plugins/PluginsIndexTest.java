@@ -0,0 +1,102 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.plugins;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.restheart.plugins.Service;
+import org.restheart.plugins.security.Authenticator;
+import org.restheart.plugins.security.TokenManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class PluginsIndexTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PluginsIndexTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    @Test
+    public void testFormatAndParse() {
+        var descriptor = new PluginDescriptor("org.example.Plugin$Inner",
+                "tokenManager",
+                "a \"quoted\" \\ description\n",
+                false,
+                -5,
+                Set.of(Authenticator.class.getName(),
+                        TokenManager.class.getName()),
+                true,
+                Map.of("init", false),
+                List.of("rndTokenManager"));
+
+        var line = PluginsIndex.format(descriptor);
+
+        assertFalse(line.contains("\n"));
+
+        var parsed = PluginsIndex.parse(line);
+
+        assertEquals(descriptor.getClassName(), parsed.getClassName());
+        assertEquals(descriptor.getName(), parsed.getName());
+        assertEquals(descriptor.getDescription(), parsed.getDescription());
+        assertFalse(parsed.isEnabledByDefault());
+        assertEquals(-5, parsed.getPriority());
+        assertTrue(parsed.is(Authenticator.class));
+        assertTrue(parsed.is(TokenManager.class));
+        assertFalse(parsed.is(Service.class));
+        assertEquals(Boolean.TRUE, parsed.getOnInitConstructor());
+        assertEquals(Map.of("init", false), parsed.getOnInitMethods());
+        assertEquals(List.of("rndTokenManager"), parsed.getDependsOn());
+    }
+
+    @Test
+    public void testNoOnInit() {
+        var descriptor = new PluginDescriptor("org.example.Service",
+                "service",
+                null,
+                true,
+                10,
+                Set.of(Service.class.getName()),
+                null,
+                Map.of(),
+                List.of());
+
+        var parsed = PluginsIndex.parse(PluginsIndex.format(descriptor));
+
+        assertNull(parsed.getDescription());
+        assertNull(parsed.getOnInitConstructor());
+        assertTrue(parsed.getOnInitMethods().isEmpty());
+        assertTrue(parsed.getDependsOn().isEmpty());
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class PluginsSchedulerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PluginsSchedulerTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static PluginDescriptor plugin(String name, int priority,
+            String... dependsOn) {
+        return new PluginDescriptor("org.example." + name,
+                name,
+                null,
+                true,
+                priority,
+                Set.of(),
+                null,
+                Map.of(),
+                List.of(dependsOn));
+    }
+
+    @Test
+    public void testIndependentPluginsStartConcurrently() {
+        var latch = new CountDownLatch(2);
+        var concurrent = Collections.synchronizedList(new ArrayList<Boolean>());
+
+        PluginsScheduler.schedule(List.of(plugin("a", 10), plugin("b", 10)),
+                p -> p,
+                p -> {
+                    latch.countDown();
+
+                    try {
+                        concurrent.add(latch.await(5, TimeUnit.SECONDS));
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, 2);
+
+        assertEquals(List.of(true, true), concurrent);
+    }
+
+    @Test
+    public void testDependenciesAndPriority() {
+        var started = Collections.synchronizedList(new ArrayList<String>());
+
+        var plugins = List.of(
+                plugin("a", 10, "c"),
+                plugin("b", 10),
+                plugin("c", 10),
+                plugin("d", 20));
+
+        PluginsScheduler.schedule(plugins, p -> p, p -> {
+            try {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+
+            started.add(p.getName());
+        }, 4);
+
+        assertEquals(4, started.size());
+        assertTrue(started.indexOf("c") < started.indexOf("a"));
+        assertEquals("d", started.get(3));
+    }
+
+    @Test
+    public void testCircularDependency() {
+        var started = Collections.synchronizedList(new ArrayList<String>());
+
+        PluginsScheduler.schedule(
+                List.of(plugin("a", 10, "b"), plugin("b", 10, "a")),
+                p -> p,
+                p -> started.add(p.getName()),
+                2);
+
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void testSequential() {
+        var started = new ArrayList<String>();
+
+        PluginsScheduler.schedule(
+                List.of(plugin("a", 10, "b"), plugin("b", 10)),
+                p -> p,
+                p -> started.add(p.getName()),
+                1);
+
+        // b first, since a depends on it
+        assertEquals(List.of("b", "a"), started);
+    }
+
+    /**
+     * two plugins created on the startup pool get other plugins from a lazy
+     * value, while the caller thread holds the lazy value being created, as
+     * PluginsRegistry.getAuthMechanisms() does with the authenticators
+     */
+    @Test
+    public void testPluginsCallingBackIntoRegistry() throws Exception {
+        var authenticators = new Lazy<List<String>>(() -> {
+            var ret = Collections.synchronizedList(new ArrayList<String>());
+
+            PluginsScheduler.schedule(
+                    List.of(plugin("x", 10), plugin("y", 10)),
+                    p -> p,
+                    p -> ret.add(p.getName()),
+                    2);
+
+            return ret;
+        });
+
+        var mechanisms = new Lazy<List<String>>(() -> {
+            var ret = Collections.synchronizedList(new ArrayList<String>());
+
+            PluginsScheduler.schedule(
+                    List.of(plugin("a", 10), plugin("b", 10)),
+                    p -> p,
+                    p -> ret.add(p.getName() + authenticators.get().size()),
+                    2);
+
+            return ret;
+        });
+
+        // a daemon thread, not to hang the tests on a deadlock
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            var thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            var created = executor.submit(() -> mechanisms.get())
+                    .get(10, TimeUnit.SECONDS);
+
+            assertEquals(Set.of("a2", "b2"), Set.copyOf(created));
+        }
+        catch (TimeoutException te) {
+            fail("deadlock creating plugins that call back into the registry");
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
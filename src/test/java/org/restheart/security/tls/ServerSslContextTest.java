@@ -0,0 +1,181 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.tls;
+
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.restheart.security.Configuration;
+import org.restheart.security.ConfigurationKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class ServerSslContextTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServerSslContextTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    // the password of the embedded keystore and of its key
+    private static final String PASSWORD = "uiamuiam";
+
+    private Path keystoreFile;
+
+    private long modified = 1_000_000_000_000l;
+
+    @Before
+    public void createKeystoreFile() throws Exception {
+        keystoreFile = Files.createTempFile("keystore", ".jks");
+    }
+
+    @After
+    public void deleteKeystoreFile() throws Exception {
+        Files.deleteIfExists(keystoreFile);
+    }
+
+    /**
+     * writes the key of the embedded keystore with the given alias and sets a
+     * new last modified time
+     */
+    private void writeKeystore(String alias) throws Exception {
+        var embedded = KeyStore.getInstance(KeyStore.getDefaultType());
+
+        embedded.load(ServerSslContext.class.getClassLoader()
+                .getResourceAsStream("sskeystore.jks"),
+                PASSWORD.toCharArray());
+
+        var ks = KeyStore.getInstance(KeyStore.getDefaultType());
+        ks.load(null, null);
+
+        var protection = new KeyStore.PasswordProtection(PASSWORD.toCharArray());
+
+        for (var a : Collections.list(embedded.aliases())) {
+            if (embedded.isKeyEntry(a)) {
+                ks.setEntry(alias, embedded.getEntry(a, protection), protection);
+                break;
+            }
+        }
+
+        try (var fos = new FileOutputStream(keystoreFile.toFile())) {
+            ks.store(fos, PASSWORD.toCharArray());
+        }
+
+        touch();
+    }
+
+    private void writeGarbage() throws Exception {
+        Files.write(keystoreFile, "not a keystore".getBytes());
+        touch();
+    }
+
+    private void touch() throws Exception {
+        modified += 10_000;
+        Files.setLastModifiedTime(keystoreFile, FileTime.fromMillis(modified));
+    }
+
+    private ServerSslContext context() throws Exception {
+        return ServerSslContext.build(new Configuration(Map.of(
+                ConfigurationKeys.HTTPS_LISTENER, false,
+                ConfigurationKeys.USE_EMBEDDED_KEYSTORE_KEY, false,
+                ConfigurationKeys.KEYSTORE_FILE_KEY, keystoreFile.toString(),
+                ConfigurationKeys.KEYSTORE_PASSWORD_KEY, PASSWORD,
+                ConfigurationKeys.CERT_PASSWORD_KEY, PASSWORD), true));
+    }
+
+    private static List<String> aliases(ServerSslContext ctx) {
+        return List.of(ctx.getKeyManager().getServerAliases("RSA", null));
+    }
+
+    private static long metric(ServerSslContext ctx, String name) {
+        return ((Number) ctx.metrics().get(name)).longValue();
+    }
+
+    @Test
+    public void testReloadAfterModification() throws Exception {
+        writeKeystore("first");
+
+        var ctx = context();
+
+        assertEquals(List.of("first"), aliases(ctx));
+
+        // not modified
+        ctx.reloadIfModified();
+        assertEquals(0, metric(ctx, "keystore-reloads"));
+
+        writeKeystore("second");
+        ctx.reloadIfModified();
+
+        assertEquals(List.of("second"), aliases(ctx));
+        assertEquals(1, metric(ctx, "keystore-reloads"));
+        assertEquals(0, metric(ctx, "keystore-reload-failures"));
+    }
+
+    @Test
+    public void testFailedReloadIsRetried() throws Exception {
+        writeKeystore("first");
+
+        var ctx = context();
+
+        // e.g. a keystore still being written
+        writeGarbage();
+        ctx.reloadIfModified();
+
+        assertEquals(List.of("first"), aliases(ctx));
+        assertEquals(1, metric(ctx, "keystore-reload-failures"));
+
+        // the same modified time is checked again
+        ctx.reloadIfModified();
+
+        assertEquals(List.of("first"), aliases(ctx));
+        assertEquals(2, metric(ctx, "keystore-reload-failures"));
+
+        // the file is complete, with the same modified time
+        var failed = Files.getLastModifiedTime(keystoreFile);
+        writeKeystore("second");
+        Files.setLastModifiedTime(keystoreFile, failed);
+
+        ctx.reloadIfModified();
+
+        assertEquals(List.of("second"), aliases(ctx));
+        assertEquals(1, metric(ctx, "keystore-reloads"));
+        assertEquals(2, metric(ctx, "keystore-reload-failures"));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.utils;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.restheart.security.utils.AdaptiveLimit.Algorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class AdaptiveLimitTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveLimitTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void testFixed() {
+        var limit = new AdaptiveLimit(Algorithm.FIXED, 10, 1, 100, 100 * MS, 0.9);
+
+        assertEquals(10, limit.sample(10_000 * MS, 10, true));
+        assertEquals(10, limit.sample(MS, 10, false));
+    }
+
+    @Test
+    public void testAimd() {
+        var limit = new AdaptiveLimit(Algorithm.AIMD, 10, 5, 100, 100 * MS, 0.5);
+
+        // about one more every limit requests
+        for (int i = 0; i < 20; i++) {
+            limit.sample(MS, 10, false);
+        }
+
+        assertEquals(11, limit.getLimit());
+
+        // does not grow when under used
+        for (int i = 0; i < 100; i++) {
+            limit.sample(MS, 1, false);
+        }
+
+        assertEquals(11, limit.getLimit());
+
+        // backs off on slow or dropped requests, down to min
+        assertEquals(5, limit.sample(200 * MS, 11, false));
+        assertEquals(5, limit.sample(MS, 5, true));
+    }
+
+    @Test
+    public void testGradient() {
+        var limit = new AdaptiveLimit(Algorithm.GRADIENT, 20, 1, 100, 100 * MS, 0.9);
+
+        // stable latency, grows
+        for (int i = 0; i < 100; i++) {
+            limit.sample(10 * MS, limit.getLimit(), false);
+        }
+
+        var grown = limit.getLimit();
+
+        assertTrue(grown > 20);
+
+        // latency increasing, shrinks
+        for (int i = 0; i < 20; i++) {
+            limit.sample(100 * MS, limit.getLimit(), false);
+        }
+
+        assertTrue(limit.getLimit() < grown);
+        assertTrue(limit.getLimit() >= 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongLimits() {
+        new AdaptiveLimit(Algorithm.AIMD, 1, 10, 100, MS, 0.9);
+    }
+}
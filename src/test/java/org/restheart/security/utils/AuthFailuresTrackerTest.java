@@ -0,0 +1,128 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.utils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class AuthFailuresTrackerTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuthFailuresTrackerTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) last});
+    }
+
+    @Test
+    public void testBlockAfterMaxFailures() throws UnknownHostException {
+        var tracker = new AuthFailuresTracker(3, 60_000, 1_000, 10_000, 100);
+        var ip = address(1);
+
+        tracker.failure(ip, "admin", 1_000);
+        tracker.failure(ip, "admin", 1_001);
+        assertEquals(0, tracker.blockedFor(ip, "admin", 1_002));
+
+        tracker.failure(ip, "admin", 1_002);
+        assertEquals(1_000, tracker.blockedFor(ip, null, 1_002));
+        assertEquals(0, tracker.blockedFor(address(2), "other", 1_002));
+        assertEquals(0, tracker.blockedFor(ip, "admin", 2_002));
+    }
+
+    @Test
+    public void testPrincipalBlockedOnlyFromAddress() throws UnknownHostException {
+        // the addresses are not blocked
+        var tracker = new AuthFailuresTracker(3, 60_000, 1_000, 10_000, 100);
+
+        tracker.failure(address(1), "admin", 1_000);
+        tracker.failure(address(2), "admin", 1_000);
+        tracker.failure(address(1), "admin", 1_001);
+        tracker.failure(address(3), "admin", 1_001);
+        tracker.failure(address(1), "admin", 1_002);
+
+        assertEquals(1_000, tracker.blockedFor(address(1), "admin", 1_002));
+
+        // the attacker cannot lock admin out from other addresses
+        assertEquals(0, tracker.blockedFor(address(2), "admin", 1_002));
+        assertEquals(0, tracker.blockedFor(address(4), "admin", 1_002));
+    }
+
+    @Test
+    public void testExponentialBackoff() throws UnknownHostException {
+        var tracker = new AuthFailuresTracker(1, 60_000, 1_000, 3_000, 100);
+        var ip = address(1);
+
+        tracker.failure(ip, null, 1_000);
+        assertEquals(1_000, tracker.blockedFor(ip, null, 1_000));
+
+        tracker.failure(ip, null, 2_000);
+        assertEquals(2_000, tracker.blockedFor(ip, null, 2_000));
+
+        tracker.failure(ip, null, 4_000);
+        assertEquals(3_000, tracker.blockedFor(ip, null, 4_000));
+    }
+
+    @Test
+    public void testSlidingWindow() throws UnknownHostException {
+        var tracker = new AuthFailuresTracker(4, 1_000, 1_000, 1_000, 100);
+        var ip = address(1);
+
+        tracker.failure(ip, null, 1_000);
+        tracker.failure(ip, null, 1_500);
+        tracker.failure(ip, null, 1_900);
+
+        // the previous window counts half
+        tracker.failure(ip, null, 2_500);
+        assertEquals(0, tracker.blockedFor(ip, null, 2_500));
+
+        // the previous window is over
+        tracker.failure(ip, null, 3_000);
+        tracker.failure(ip, null, 3_100);
+        assertEquals(0, tracker.blockedFor(ip, null, 3_100));
+    }
+
+    @Test
+    public void testSuccessResetsPrincipal() throws UnknownHostException {
+        var tracker = new AuthFailuresTracker(2, 60_000, 1_000, 1_000, 100);
+
+        // no address, to count only the principal
+        tracker.failure(null, "admin", 1_000);
+        tracker.success(null, "admin");
+        tracker.failure(null, "admin", 1_001);
+        assertEquals(0, tracker.blockedFor(null, "admin", 1_001));
+    }
+}
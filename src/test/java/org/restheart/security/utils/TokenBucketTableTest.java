@@ -0,0 +1,100 @@
+/*
+ * RESTHeart Security
+ * 
+ * Copyright (C) SoftInstigate Srl
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.restheart.security.utils;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author Andrea Di Cesare {@literal <andrea@softinstigate.com>}
+ */
+public class TokenBucketTableTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TokenBucketTableTest.class);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        @Override
+        protected void starting(Description description) {
+            LOG.info("executing test {}", description.toString());
+        }
+    };
+
+    @Test
+    public void testSizeIsPowerOfTwo() {
+        assertEquals(1024, new TokenBucketTable(1000, 1, 1).size());
+        assertEquals(1024, new TokenBucketTable(1024, 1, 1).size());
+    }
+
+    @Test
+    public void testBurstThenLimit() {
+        var table = new TokenBucketTable(1024, 10, 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, table.tryAcquire(1, 1));
+        }
+
+        // next token in 100 ms
+        assertEquals(100, table.tryAcquire(1, 1));
+        assertEquals(50, table.tryAcquire(1, 51));
+    }
+
+    @Test
+    public void testRefill() {
+        var table = new TokenBucketTable(1024, 10, 5);
+
+        for (int i = 0; i < 5; i++) {
+            table.tryAcquire(1, 1);
+        }
+
+        assertEquals(0, table.tryAcquire(1, 101));
+        assertTrue(table.tryAcquire(1, 101) > 0);
+
+        // after a long pause the bucket is full again, not more
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, table.tryAcquire(1, 100_000));
+        }
+
+        assertTrue(table.tryAcquire(1, 100_000) > 0);
+    }
+
+    @Test
+    public void testFractionalRate() {
+        var table = new TokenBucketTable(1024, 0.5, 1);
+
+        assertEquals(0, table.tryAcquire(1, 1));
+        assertEquals(2_000, table.tryAcquire(1, 1));
+        assertEquals(0, table.tryAcquire(1, 2_001));
+    }
+
+    @Test
+    public void testKeysAreIndependent() {
+        var table = new TokenBucketTable(1 << 16, 1, 1);
+
+        assertEquals(0, table.tryAcquire(1, 1));
+        assertTrue(table.tryAcquire(1, 1) > 0);
+        assertEquals(0, table.tryAcquire(2, 1));
+    }
+}